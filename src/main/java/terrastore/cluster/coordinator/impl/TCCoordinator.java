@@ -17,9 +17,13 @@ package terrastore.cluster.coordinator.impl;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -32,6 +36,7 @@ import org.terracotta.cluster.ClusterNode;
 import org.terracotta.cluster.ClusterTopology;
 import org.terracotta.collections.ClusteredMap;
 import terrastore.cluster.ClusterUtils;
+import terrastore.common.PartitionStats;
 import terrastore.communication.Node;
 import terrastore.cluster.coordinator.Coordinator;
 import terrastore.communication.NodeConfiguration;
@@ -40,6 +45,7 @@ import terrastore.cluster.ensemble.EnsembleConfiguration;
 import terrastore.communication.Cluster;
 import terrastore.communication.LocalNodeFactory;
 import terrastore.communication.RemoteNodeFactory;
+import terrastore.communication.process.PartitionHandoffGate;
 import terrastore.router.MissingRouteException;
 import terrastore.store.FlushCondition;
 import terrastore.store.FlushStrategy;
@@ -47,9 +53,17 @@ import terrastore.communication.local.LocalProcessor;
 import terrastore.communication.remote.RemoteProcessor;
 import terrastore.cluster.ensemble.EnsembleManager;
 import terrastore.internal.tc.TCMaster;
+import terrastore.partition.ClusterPartitioner;
+import terrastore.partition.impl.ClusterHashingPartitioner;
+import terrastore.partition.impl.PartitionMoveListener;
 import terrastore.router.Router;
+import terrastore.store.Bucket;
+import terrastore.store.Key;
+import terrastore.store.KeyOwnership;
 import terrastore.store.LockManager;
 import terrastore.store.Store;
+import terrastore.store.impl.PartitionWarmer;
+import terrastore.store.impl.RoutingBasedKeyOwnership;
 import terrastore.util.concurrent.GlobalExecutor;
 import terrastore.util.io.JavaSerializer;
 import terrastore.util.io.Serializer;
@@ -63,6 +77,7 @@ public class TCCoordinator implements Coordinator, ClusterListener {
 
     private static final Logger LOG = LoggerFactory.getLogger(TCCoordinator.class);
     private static final Serializer SERIALIZER = new JavaSerializer();
+    private static final long DEFAULT_PARTITION_MOVES_SYNC_INTERVAL = 10000;
     //
     private Lock coordinatorLock = TCMaster.getInstance().getReadWriteLock(TCCoordinator.class.getName() + ".coordinatorLock").writeLock();
     private Condition connectCondition = coordinatorLock.newCondition();
@@ -76,6 +91,8 @@ public class TCCoordinator implements Coordinator, ClusterListener {
     private volatile ConcurrentMap<String, Node> clusterNodes;
     private volatile LocalProcessor localProcessor;
     private volatile RemoteProcessor remoteProcessor;
+    private volatile PartitionHandoffGate handoffGate;
+    private volatile ExecutorService handoffExecutor;
     //
     private volatile boolean compressCommunication;
     private volatile long nodeTimeout;
@@ -90,6 +107,8 @@ public class TCCoordinator implements Coordinator, ClusterListener {
     private volatile RemoteNodeFactory remoteNodeFactory;
     private volatile FlushStrategy flushStrategy;
     private volatile FlushCondition flushCondition;
+    private volatile PartitionWarmer partitionWarmer;
+    private volatile long partitionMovesSyncInterval = DEFAULT_PARTITION_MOVES_SYNC_INTERVAL;
 
     public TCCoordinator() {
     }
@@ -156,6 +175,17 @@ public class TCCoordinator implements Coordinator, ClusterListener {
         this.flushCondition = flushCondition;
     }
 
+    public void setPartitionWarmer(PartitionWarmer partitionWarmer) {
+        this.partitionWarmer = partitionWarmer;
+    }
+
+    /**
+     * Set the interval, in milliseconds, this node checks the shared partition move table for moves it may have missed.
+     */
+    public void setPartitionMovesSyncInterval(long partitionMovesSyncInterval) {
+        this.partitionMovesSyncInterval = partitionMovesSyncInterval;
+    }
+
     public void start(NodeConfiguration serverConfiguration, EnsembleConfiguration ensembleConfiguration) {
         try {
             // Configure local data:
@@ -183,23 +213,39 @@ public class TCCoordinator implements Coordinator, ClusterListener {
                 LOG.info("Joining this node as {}:{}", thisCluster.getName(), thisConfiguration.getName());
                 setupThisNode();
                 connectRemoteNodes();
+                warmUpThisNode();
                 LOG.info("This node is now ready to work as {}:{}", thisCluster.getName(), thisConfiguration.getName());
             } catch (Exception ex) {
                 LOG.error(ex.getMessage(), ex);
             }
         } else {
-            try {
-                LOG.info("Joining remote node as {}:{}", thisCluster.getName(), joinedNodeName);
-                pauseProcessing();
-                signalConnection(getNodeConnectionTable(joinedNodeName), thisConfiguration);
-                waitForConnection(getNodeConnectionTable(thisConfiguration.getName()), joinedNodeName);
-                connectRemoteNode(getNodeConnectionTable(thisConfiguration.getName()), joinedNodeName);
-                flushThisNodeKeys();
-                LOG.info("Remote node is now ready to work as {}:{}", thisCluster.getName(), joinedNodeName);
-            } catch (Exception ex) {
-                LOG.error(ex.getMessage(), ex);
-            } finally {
-                resumeProcessing();
+            if (handoffGate != null) {
+                try {
+                    LOG.info("Joining remote node as {}:{}", thisCluster.getName(), joinedNodeName);
+                    Node[] owners = getPartitionOwners();
+                    signalConnection(getNodeConnectionTable(joinedNodeName), thisConfiguration);
+                    waitForConnection(getNodeConnectionTable(thisConfiguration.getName()), joinedNodeName);
+                    connectRemoteNode(getNodeConnectionTable(thisConfiguration.getName()), joinedNodeName);
+                    handoffPartitions(owners);
+                    LOG.info("Remote node is now ready to work as {}:{}", thisCluster.getName(), joinedNodeName);
+                } catch (Exception ex) {
+                    LOG.error(ex.getMessage(), ex);
+                }
+            } else {
+                try {
+                    LOG.info("Joining remote node as {}:{}", thisCluster.getName(), joinedNodeName);
+                    pauseProcessing();
+                    signalConnection(getNodeConnectionTable(joinedNodeName), thisConfiguration);
+                    waitForConnection(getNodeConnectionTable(thisConfiguration.getName()), joinedNodeName);
+                    connectRemoteNode(getNodeConnectionTable(thisConfiguration.getName()), joinedNodeName);
+                    flushThisNodeKeys();
+                    store.rebuildIndexes();
+                    LOG.info("Remote node is now ready to work as {}:{}", thisCluster.getName(), joinedNodeName);
+                } catch (Exception ex) {
+                    LOG.error(ex.getMessage(), ex);
+                } finally {
+                    resumeProcessing();
+                }
             }
         }
     }
@@ -207,14 +253,25 @@ public class TCCoordinator implements Coordinator, ClusterListener {
     public void nodeLeft(final ClusterEvent event) {
         String leftNodeName = ClusterUtils.getServerId(event.getNode());
         if (!isThisNode(leftNodeName) && clusterNodes.containsKey(leftNodeName)) {
-            try {
-                pauseProcessing();
-                disconnectRemoteNode(getNodeConnectionTable(thisConfiguration.getName()), leftNodeName);
-                flushThisNodeKeys();
-            } catch (Exception ex) {
-                LOG.error(ex.getMessage(), ex);
-            } finally {
-                resumeProcessing();
+            if (handoffGate != null) {
+                try {
+                    Node[] owners = getPartitionOwners();
+                    disconnectRemoteNode(getNodeConnectionTable(thisConfiguration.getName()), leftNodeName);
+                    handoffPartitions(owners);
+                } catch (Exception ex) {
+                    LOG.error(ex.getMessage(), ex);
+                }
+            } else {
+                try {
+                    pauseProcessing();
+                    disconnectRemoteNode(getNodeConnectionTable(thisConfiguration.getName()), leftNodeName);
+                    flushThisNodeKeys();
+                    store.rebuildIndexes();
+                } catch (Exception ex) {
+                    LOG.error(ex.getMessage(), ex);
+                } finally {
+                    resumeProcessing();
+                }
             }
         }
     }
@@ -266,6 +323,12 @@ public class TCCoordinator implements Coordinator, ClusterListener {
     }
 
     private void setupThisNode() {
+        // Partition moves, shared among all nodes of this cluster and applied since the first node is added:
+        ClusterPartitioner partitioner = router.getClusterPartitioner();
+        if (partitioner instanceof ClusterHashingPartitioner) {
+            ConcurrentMap<Integer, String> moveTable = TCMaster.getInstance().getAutolockedMap(TCCoordinator.class.getName() + ".partitionMoves");
+            ((ClusterHashingPartitioner) partitioner).setMoveTable(thisCluster, moveTable);
+        }
         // Local Processor:
         localProcessor = new LocalProcessor(router, store);
         localProcessor.start();
@@ -278,6 +341,18 @@ public class TCCoordinator implements Coordinator, ClusterListener {
         // Remote processor:
         remoteProcessor = new RemoteProcessor(thisConfiguration.getNodeBindHost(), thisConfiguration.getNodePort(), remoteProcessorThreads, compressCommunication, router);
         remoteProcessor.start();
+        // Partition handoff, only supported by hashing partitioner:
+        if (partitioner instanceof ClusterHashingPartitioner) {
+            final ClusterHashingPartitioner hashingPartitioner = (ClusterHashingPartitioner) partitioner;
+            handoffGate = new PartitionHandoffGate(hashingPartitioner);
+            handoffExecutor = Executors.newSingleThreadExecutor();
+            localProcessor.setHandoffGate(handoffGate);
+            remoteProcessor.setHandoffGate(handoffGate);
+            hashingPartitioner.setMoveListener(new MovedPartitionsHandoff());
+            GlobalExecutor.schedule(new PartitionMovesSync(hashingPartitioner), handoffExecutor, partitionMovesSyncInterval, TimeUnit.MILLISECONDS);
+        } else {
+            handoffGate = null;
+        }
     }
 
     private void connectRemoteNodes() throws InterruptedException {
@@ -351,6 +426,80 @@ public class TCCoordinator implements Coordinator, ClusterListener {
         LOG.warn("Finished flushing keys on this node {}", thisConfiguration.getName());
     }
 
+    private Node[] getPartitionOwners() {
+        ClusterHashingPartitioner partitioner = (ClusterHashingPartitioner) router.getClusterPartitioner();
+        Node[] owners = new Node[partitioner.getMaxPartitions()];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = partitioner.getNodeAtPartition(thisCluster, i);
+        }
+        return owners;
+    }
+
+    private void handoffPartitions(Node[] previousOwners) {
+        ClusterHashingPartitioner partitioner = (ClusterHashingPartitioner) router.getClusterPartitioner();
+        Node thisNode = router.routeToLocalNode();
+        Set<Integer> moved = new HashSet<Integer>();
+        Set<Integer> lost = new HashSet<Integer>();
+        Map<Integer, String> acquired = new HashMap<Integer, String>();
+        for (int i = 0; i < previousOwners.length; i++) {
+            Node currentOwner = partitioner.getNodeAtPartition(thisCluster, i);
+            if (previousOwners[i] != currentOwner) {
+                moved.add(i);
+                if (previousOwners[i] == thisNode) {
+                    lost.add(i);
+                } else if (currentOwner == thisNode) {
+                    acquired.put(i, previousOwners[i] != null ? previousOwners[i].getName() : null);
+                }
+            }
+        }
+        handoffPartitions(moved, lost, acquired);
+    }
+
+    private void handoffPartitions(Set<Integer> moved, Set<Integer> lost, Map<Integer, String> acquired) {
+        ClusterHashingPartitioner partitioner = (ClusterHashingPartitioner) router.getClusterPartitioner();
+        if (moved.size() > 0) {
+            LOG.info("Handing off {} partitions on this node {}, {} no more owned", new Object[]{moved.size(), thisConfiguration.getName(), lost.size()});
+            handoffGate.hold(moved);
+            try {
+                if (lost.size() > 0) {
+                    // Clustered buckets can't evict single keys from the local cache, so the whole local cache is flushed,
+                    // but only when this node actually lost partitions, and only holding commands on moved ones:
+                    flushThisNodeKeys();
+                    store.releaseKeys(new PartitionOwnership(partitioner, lost));
+                }
+            } finally {
+                handoffGate.release();
+            }
+            LOG.info("Finished handing off partitions on this node {}", thisConfiguration.getName());
+            if (partitionWarmer != null) {
+                partitionWarmer.warmUp(acquired);
+            }
+            if (acquired.size() > 0) {
+                // Documents of acquired partitions may have been written through other nodes, so index them:
+                store.acquireKeys(new PartitionOwnership(partitioner, acquired.keySet()));
+            }
+        }
+    }
+
+    private void warmUpThisNode() {
+        // Owned documents are only known once this node is routed to, and may have been written through other nodes:
+        store.acquireKeys(new RoutingBasedKeyOwnership(router));
+        if (handoffGate != null && partitionWarmer != null) {
+            // Previous owners of partitions owned by this node are unknown at join time:
+            ClusterHashingPartitioner partitioner = (ClusterHashingPartitioner) router.getClusterPartitioner();
+            Node thisNode = router.routeToLocalNode();
+            Map<Integer, String> acquired = new HashMap<Integer, String>();
+            for (int i = 0; i < partitioner.getMaxPartitions(); i++) {
+                if (partitioner.getNodeAtPartition(thisCluster, i) == thisNode) {
+                    acquired.put(i, null);
+                }
+            }
+            if (clusterNodes.size() > 1) {
+                partitionWarmer.warmUp(acquired);
+            }
+        }
+    }
+
     private void disconnectRemoteNode(ClusteredMap<String, byte[]> connectionTable, String nodeName) {
         Node remoteNode = clusterNodes.remove(nodeName);
         remoteNode.disconnect();
@@ -365,7 +514,13 @@ public class TCCoordinator implements Coordinator, ClusterListener {
         }
         localProcessor.stop();
         remoteProcessor.stop();
+        if (handoffExecutor != null) {
+            handoffExecutor.shutdownNow();
+        }
         ensembleManager.shutdown();
+        if (partitionWarmer != null) {
+            partitionWarmer.shutdown();
+        }
         GlobalExecutor.shutdown();
     }
 
@@ -460,4 +615,85 @@ public class TCCoordinator implements Coordinator, ClusterListener {
         return dead;
     }
 
+    /**
+     * Hand off partitions explicitly moved (i.e. by rebalancing), asynchronously and one move notification at a time,
+     * so that the handoff never waits for the very command which caused the move.
+     */
+    /**
+     * Periodically sync partition moves, on the same executor used for handing off partitions, and only triggered by the
+     * scheduled executor: the next sync is scheduled once the current one is done, so syncs never overlap.
+     */
+    private class PartitionMovesSync implements Runnable {
+
+        private final ClusterHashingPartitioner partitioner;
+
+        public PartitionMovesSync(ClusterHashingPartitioner partitioner) {
+            this.partitioner = partitioner;
+        }
+
+        @Override
+        public void run() {
+            try {
+                partitioner.syncMoves(thisCluster);
+            } catch (Exception ex) {
+                LOG.warn(ex.getMessage(), ex);
+            } finally {
+                if (!handoffExecutor.isShutdown()) {
+                    GlobalExecutor.schedule(this, handoffExecutor, partitionMovesSyncInterval, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    private class MovedPartitionsHandoff implements PartitionMoveListener {
+
+        @Override
+        public void partitionsMoved(Cluster cluster, final List<PartitionStats.Move> moves) {
+            if (cluster.isLocal()) {
+                handoffExecutor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        String thisNodeName = thisConfiguration.getName();
+                        Set<Integer> moved = new HashSet<Integer>();
+                        Set<Integer> lost = new HashSet<Integer>();
+                        Map<Integer, String> acquired = new HashMap<Integer, String>();
+                        for (PartitionStats.Move move : moves) {
+                            moved.add(move.getPartition());
+                            if (thisNodeName.equals(move.getFrom())) {
+                                lost.add(move.getPartition());
+                            } else if (thisNodeName.equals(move.getTo())) {
+                                acquired.put(move.getPartition(), move.getFrom());
+                            }
+                        }
+                        try {
+                            handoffPartitions(moved, lost, acquired);
+                        } catch (Exception ex) {
+                            LOG.error(ex.getMessage(), ex);
+                        }
+                    }
+
+                });
+            }
+        }
+    }
+
+    /**
+     * Ownership of keys belonging to the given partitions.
+     */
+    private static class PartitionOwnership implements KeyOwnership {
+
+        private final ClusterHashingPartitioner partitioner;
+        private final Set<Integer> partitions;
+
+        public PartitionOwnership(ClusterHashingPartitioner partitioner, Set<Integer> partitions) {
+            this.partitioner = partitioner;
+            this.partitions = new HashSet<Integer>(partitions);
+        }
+
+        @Override
+        public boolean isOwned(Bucket bucket, Key key) {
+            return partitions.contains(partitioner.getPartitionFor(bucket.getName(), key));
+        }
+    }
 }
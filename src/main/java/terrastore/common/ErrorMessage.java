@@ -32,6 +32,8 @@ public class ErrorMessage implements MessagePackable, MessageUnpackable {
     public static final int FORBIDDEN_ERROR_CODE = 403;
     public static final int NOT_FOUND_ERROR_CODE = 404;
     public static final int CONFLICT_ERROR_CODE = 409;
+    public static final int PRECONDITION_FAILED_ERROR_CODE = 412;
+    public static final int TOO_MANY_REQUESTS_ERROR_CODE = 429;
     public static final int INTERNAL_SERVER_ERROR_CODE = 500;
     public static final int UNAVAILABLE_ERROR_CODE = 503;
     //
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.common;
+
+import java.io.Serializable;
+import java.util.List;
+import org.codehaus.jackson.annotate.JsonPropertyOrder;
+
+/**
+ * Size of the secondary indexes maintained by each node, per bucket and indexed field path.
+ *
+ * @author Sergio Bossa
+ */
+@JsonPropertyOrder({"indexes"})
+public class IndexStats implements Serializable {
+
+    private List<Index> indexes;
+
+    public IndexStats(List<Index> indexes) {
+        this.indexes = indexes;
+    }
+
+    public List<Index> getIndexes() {
+        return indexes;
+    }
+
+    @JsonPropertyOrder({"cluster", "node", "bucket", "field", "documents", "built"})
+    public static class Index implements Serializable {
+
+        private String cluster;
+        private String node;
+        private String bucket;
+        private String field;
+        private long documents;
+        private boolean built;
+
+        public Index(String cluster, String node, String bucket, String field, long documents, boolean built) {
+            this.cluster = cluster;
+            this.node = node;
+            this.bucket = bucket;
+            this.field = field;
+            this.documents = documents;
+            this.built = built;
+        }
+
+        public String getCluster() {
+            return cluster;
+        }
+
+        public String getNode() {
+            return node;
+        }
+
+        public String getBucket() {
+            return bucket;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        /**
+         * @return The number of documents indexed by the node.
+         */
+        public long getDocuments() {
+            return documents;
+        }
+
+        /**
+         * @return True if the index is built and used for queries, false if still being built.
+         */
+        public boolean isBuilt() {
+            return built;
+        }
+    }
+}
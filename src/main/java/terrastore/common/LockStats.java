@@ -0,0 +1,107 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.common;
+
+import java.io.Serializable;
+import java.util.List;
+import org.codehaus.jackson.annotate.JsonPropertyOrder;
+
+/**
+ * Per-stripe lock contention of a single node, together with the outcome of optimistic (lock-free) reads.
+ *
+ * @author Sergio Bossa
+ */
+@JsonPropertyOrder({"node", "stripes"})
+public class LockStats implements Serializable {
+
+    private String node;
+    private List<Stripe> stripes;
+
+    public LockStats(String node, List<Stripe> stripes) {
+        this.node = node;
+        this.stripes = stripes;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * @return Stripes with at least one recorded lock acquisition or optimistic read, ordered by stripe index.
+     */
+    public List<Stripe> getStripes() {
+        return stripes;
+    }
+
+    @JsonPropertyOrder({"stripe", "reads", "writes", "contended", "optimisticReads", "optimisticFailures"})
+    public static class Stripe implements Serializable {
+
+        private int stripe;
+        private long reads;
+        private long writes;
+        private long contended;
+        private long optimisticReads;
+        private long optimisticFailures;
+
+        public Stripe(int stripe, long reads, long writes, long contended, long optimisticReads, long optimisticFailures) {
+            this.stripe = stripe;
+            this.reads = reads;
+            this.writes = writes;
+            this.contended = contended;
+            this.optimisticReads = optimisticReads;
+            this.optimisticFailures = optimisticFailures;
+        }
+
+        public int getStripe() {
+            return stripe;
+        }
+
+        /**
+         * @return The number of read lock acquisitions.
+         */
+        public long getReads() {
+            return reads;
+        }
+
+        /**
+         * @return The number of write lock acquisitions.
+         */
+        public long getWrites() {
+            return writes;
+        }
+
+        /**
+         * @return The number of read or write lock acquisitions which had to wait for the lock to be released.
+         */
+        public long getContended() {
+            return contended;
+        }
+
+        /**
+         * @return The number of optimistic reads validated without taking any lock.
+         */
+        public long getOptimisticReads() {
+            return optimisticReads;
+        }
+
+        /**
+         * @return The number of optimistic reads invalidated by concurrent writes, hence falling back to locking.
+         */
+        public long getOptimisticFailures() {
+            return optimisticFailures;
+        }
+    }
+}
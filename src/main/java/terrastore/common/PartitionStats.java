@@ -0,0 +1,144 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.common;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import org.codehaus.jackson.annotate.JsonPropertyOrder;
+
+/**
+ * Per-partition load of the local cluster, aggregated over all its nodes, together with the load of each node
+ * and the most recent partition reassignments.
+ *
+ * @author Sergio Bossa
+ */
+@JsonPropertyOrder({"cluster", "nodes", "partitions", "moves"})
+public class PartitionStats implements Serializable {
+
+    private String cluster;
+    private Map<String, Long> nodes;
+    private List<Partition> partitions;
+    private List<Move> moves;
+
+    public PartitionStats(String cluster, Map<String, Long> nodes, List<Partition> partitions, List<Move> moves) {
+        this.cluster = cluster;
+        this.nodes = nodes;
+        this.partitions = partitions;
+        this.moves = moves;
+    }
+
+    public String getCluster() {
+        return cluster;
+    }
+
+    /**
+     * @return The load of each node, computed as the sum of the load of its partitions.
+     */
+    public Map<String, Long> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return Partitions with a recorded load, ordered by decreasing load.
+     */
+    public List<Partition> getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * @return The most recent partition reassignments, from the oldest to the newest.
+     */
+    public List<Move> getMoves() {
+        return moves;
+    }
+
+    @JsonPropertyOrder({"partition", "node", "reads", "writes", "bytes", "load"})
+    public static class Partition implements Serializable {
+
+        private int partition;
+        private String node;
+        private long reads;
+        private long writes;
+        private long bytes;
+        private long load;
+
+        public Partition(int partition, String node, long reads, long writes, long bytes, long load) {
+            this.partition = partition;
+            this.node = node;
+            this.reads = reads;
+            this.writes = writes;
+            this.bytes = bytes;
+            this.load = load;
+        }
+
+        public int getPartition() {
+            return partition;
+        }
+
+        public String getNode() {
+            return node;
+        }
+
+        public long getReads() {
+            return reads;
+        }
+
+        public long getWrites() {
+            return writes;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getLoad() {
+            return load;
+        }
+    }
+
+    @JsonPropertyOrder({"partition", "from", "to", "timestamp"})
+    public static class Move implements Serializable {
+
+        private int partition;
+        private String from;
+        private String to;
+        private long timestamp;
+
+        public Move(int partition, String from, String to, long timestamp) {
+            this.partition = partition;
+            this.from = from;
+            this.to = to;
+            this.timestamp = timestamp;
+        }
+
+        public int getPartition() {
+            return partition;
+        }
+
+        public String getFrom() {
+            return from;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.common;
+
+import java.io.Serializable;
+import java.util.Map;
+import org.codehaus.jackson.annotate.JsonPropertyOrder;
+
+/**
+ * Snapshot of the configured per-bucket rate limits, together with the number of operations rejected so far:
+ * rejections of buckets without specific limits are counted by the default limits.
+ *
+ * @author Sergio Bossa
+ */
+@JsonPropertyOrder({"defaults", "buckets"})
+public class RateLimits implements Serializable {
+
+    private Limits defaults;
+    private Map<String, Limits> buckets;
+
+    public RateLimits(Limits defaults, Map<String, Limits> buckets) {
+        this.defaults = defaults;
+        this.buckets = buckets;
+    }
+
+    public Limits getDefaults() {
+        return defaults;
+    }
+
+    public Map<String, Limits> getBuckets() {
+        return buckets;
+    }
+
+    @JsonPropertyOrder({"operationsPerSecond", "bytesPerSecond", "rejectedOperations"})
+    public static class Limits implements Serializable {
+
+        private long operationsPerSecond;
+        private long bytesPerSecond;
+        private long rejectedOperations;
+
+        public Limits(long operationsPerSecond, long bytesPerSecond, long rejectedOperations) {
+            this.operationsPerSecond = operationsPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+            this.rejectedOperations = rejectedOperations;
+        }
+
+        public long getOperationsPerSecond() {
+            return operationsPerSecond;
+        }
+
+        public long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public long getRejectedOperations() {
+            return rejectedOperations;
+        }
+
+    }
+}
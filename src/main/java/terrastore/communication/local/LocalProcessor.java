@@ -39,9 +39,9 @@ public class LocalProcessor extends AbstractProcessor {
     }
 
     public <R> R process(Command<R> command) throws ProcessingException {
-        // If paused, it means a membership change is happening, so the command should be re-routed because partitioning may change.
+        // If paused, or handing off the command partitions, it means a membership change is happening, so the command should be re-routed because partitioning may change.
         // TODO: this check-then-act is not atomic, shouldn't be a problem (just causing some additional routing) but a better solution would be great ...
-        if (isPaused()) {
+        if (isPaused() || isHandingOff(command)) {
             return process(command, new RouterHandler<R>(router));
         } else {
             return process(command, new StoreHandler<R>(store));
@@ -35,11 +35,19 @@ public abstract class AbstractProcessor implements Processor {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractProcessor.class);
     //
     private final Executor executor;
+    private volatile PartitionHandoffGate handoffGate;
 
     public AbstractProcessor(Executor threadPool) {
         this.executor = threadPool;
     }
 
+    /**
+     * Set the {@link PartitionHandoffGate} to pass commands through, holding commands on partitions being handed off.
+     */
+    public void setHandoffGate(PartitionHandoffGate handoffGate) {
+        this.handoffGate = handoffGate;
+    }
+
     @Override
     public final void start() {
         doStart();
@@ -69,7 +77,7 @@ public abstract class AbstractProcessor implements Processor {
     @Override
     public final <R> R process(final Command<R> command, final CommandHandler<R> commandHandler) throws ProcessingException {
         try {
-            Future<R> future = executor.<R>execute(new SyncCallable<R>(command, commandHandler));
+            Future<R> future = submit(command, new SyncCallable<R>(command, commandHandler));
             return future.get();
         } catch (ExecutionException ex) {
             if (ex.getCause() instanceof StoreOperationException) {
@@ -86,7 +94,15 @@ public abstract class AbstractProcessor implements Processor {
 
     @Override
     public <R> void process(Command<R> command, CommandHandler<R> commandHandler, CompletionHandler<R, ProcessingException> completionHandler) {
-        executor.<R>execute(new AsyncCallable<R>(command, commandHandler, completionHandler));
+        submit(command, new AsyncCallable<R>(command, commandHandler, completionHandler));
+    }
+
+    /**
+     * Determine if the given command operates on partitions being currently handed off.
+     */
+    protected boolean isHandingOff(Command command) {
+        PartitionHandoffGate gate = handoffGate;
+        return gate != null && gate.isHeld(command);
     }
 
     protected void doStart() {
@@ -95,6 +111,15 @@ public abstract class AbstractProcessor implements Processor {
     protected void doStop() {
     }
 
+    private <R> Future<R> submit(Command<R> command, Callable<R> callable) {
+        PartitionHandoffGate gate = handoffGate;
+        if (gate != null) {
+            return gate.submit(command, callable, executor);
+        } else {
+            return executor.<R>execute(callable);
+        }
+    }
+
     private static class SyncCallable<R> implements Callable<R> {
 
         private final Command<R> command;
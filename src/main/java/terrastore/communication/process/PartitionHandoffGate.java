@@ -0,0 +1,241 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.communication.process;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import terrastore.communication.protocol.Command;
+import terrastore.communication.protocol.KeyCommand;
+import terrastore.partition.impl.ClusterHashingPartitioner;
+import terrastore.store.Key;
+
+/**
+ * Gate holding back commands operating on partitions whose ownership is being handed off, while letting all other
+ * commands through.
+ * <br><br>
+ * Only {@link terrastore.communication.protocol.KeyCommand}s can be held, and only them are tracked while in-flight,
+ * by counting them on the partitions of their keys: when holding a set of partitions, the gate waits for in-flight
+ * commands on those partitions to complete, so that callers can safely operate on the held partitions (i.e. flushing them)
+ * until {@link #release()} is called, and then resubmits all held commands.<br>
+ * Commands not operating on keys (i.e. range, predicate or map-reduce queries) are never held nor waited for.
+ *
+ * @author Sergio Bossa
+ */
+public class PartitionHandoffGate {
+
+    private final ClusterHashingPartitioner partitioner;
+    private final AtomicIntegerArray inFlight;
+    private final List<HeldCommand> heldCommands;
+    private final Lock handoffLock;
+    private final Object drained;
+    private volatile BitSet heldPartitions;
+
+    public PartitionHandoffGate(ClusterHashingPartitioner partitioner) {
+        this.partitioner = partitioner;
+        this.inFlight = new AtomicIntegerArray(partitioner.getMaxPartitions());
+        this.heldCommands = new LinkedList<HeldCommand>();
+        this.handoffLock = new ReentrantLock();
+        this.drained = new Object();
+        this.heldPartitions = null;
+    }
+
+    /**
+     * Start holding commands on the given partitions, and wait for in-flight commands on them to complete.<br>
+     * Must be followed by a call to {@link #release()} from the same thread.
+     *
+     * @param partitions The partitions to hold.
+     */
+    public void hold(Set<Integer> partitions) {
+        handoffLock.lock();
+        BitSet held = new BitSet(partitioner.getMaxPartitions());
+        for (Integer partition : partitions) {
+            held.set(partition);
+        }
+        synchronized (heldCommands) {
+            heldPartitions = held;
+        }
+        boolean interrupted = false;
+        synchronized (drained) {
+            while (isInFlight(held)) {
+                try {
+                    drained.wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop holding commands, and resubmit all held ones.
+     */
+    public void release() {
+        try {
+            List<HeldCommand> toResubmit;
+            synchronized (heldCommands) {
+                heldPartitions = null;
+                toResubmit = new LinkedList<HeldCommand>(heldCommands);
+                heldCommands.clear();
+            }
+            for (HeldCommand held : toResubmit) {
+                submit(held.command, Executors.callable(held.task), held.executor);
+            }
+        } finally {
+            handoffLock.unlock();
+        }
+    }
+
+    /**
+     * Determine if the given command operates on held partitions.
+     *
+     * @param command The command.
+     * @return True if the command would be held, false otherwise.
+     */
+    public boolean isHeld(Command command) {
+        BitSet held = heldPartitions;
+        if (held != null && command instanceof KeyCommand) {
+            KeyCommand keyCommand = (KeyCommand) command;
+            String bucket = keyCommand.getBucketName();
+            for (Key key : keyCommand.getKeys()) {
+                if (held.get(partitioner.getPartitionFor(bucket, key))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Submit the given command for execution on the given executor, or hold it if operating on held partitions.
+     *
+     * @param command The command.
+     * @param callable The callable actually executing the command.
+     * @param executor The executor to submit the callable to.
+     * @return The future result of the callable.
+     */
+    public <R> Future<R> submit(Command<R> command, final Callable<R> callable, Executor executor) {
+        if (command instanceof KeyCommand) {
+            // Count the command as in-flight before checking held partitions, so that a concurrent hold either sees it,
+            // or is seen by it:
+            final int[] partitions = enter((KeyCommand) command);
+            if (isHeld(partitions)) {
+                exit(partitions);
+                synchronized (heldCommands) {
+                    if (isHeld(command)) {
+                        FutureTask<R> task = new FutureTask<R>(callable);
+                        heldCommands.add(new HeldCommand(command, task, executor));
+                        return task;
+                    }
+                }
+                return submit(command, callable, executor);
+            } else {
+                try {
+                    return executor.execute(new Callable<R>() {
+
+                        @Override
+                        public R call() throws Exception {
+                            try {
+                                return callable.call();
+                            } finally {
+                                exit(partitions);
+                            }
+                        }
+                    });
+                } catch (RuntimeException ex) {
+                    exit(partitions);
+                    throw ex;
+                }
+            }
+        } else {
+            return executor.execute(callable);
+        }
+    }
+
+    private int[] enter(KeyCommand command) {
+        String bucket = command.getBucketName();
+        Collection<Key> keys = command.getKeys();
+        int[] partitions = new int[keys.size()];
+        int i = 0;
+        for (Key key : keys) {
+            int partition = partitioner.getPartitionFor(bucket, key);
+            inFlight.incrementAndGet(partition);
+            partitions[i++] = partition;
+        }
+        return partitions;
+    }
+
+    private void exit(int[] partitions) {
+        boolean signal = false;
+        for (int partition : partitions) {
+            if (inFlight.decrementAndGet(partition) == 0) {
+                BitSet held = heldPartitions;
+                signal = signal || (held != null && held.get(partition));
+            }
+        }
+        if (signal) {
+            synchronized (drained) {
+                drained.notifyAll();
+            }
+        }
+    }
+
+    private boolean isHeld(int[] partitions) {
+        BitSet held = heldPartitions;
+        if (held != null) {
+            for (int partition : partitions) {
+                if (held.get(partition)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isInFlight(BitSet partitions) {
+        for (int partition = partitions.nextSetBit(0); partition >= 0; partition = partitions.nextSetBit(partition + 1)) {
+            if (inFlight.get(partition) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class HeldCommand {
+
+        private final Command command;
+        private final FutureTask task;
+        private final Executor executor;
+
+        public HeldCommand(Command command, FutureTask task, Executor executor) {
+            this.command = command;
+            this.task = task;
+            this.executor = executor;
+        }
+    }
+}
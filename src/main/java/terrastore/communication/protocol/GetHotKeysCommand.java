@@ -0,0 +1,100 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.communication.protocol;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.msgpack.MessageTypeException;
+import org.msgpack.Packer;
+import org.msgpack.Unpacker;
+import terrastore.communication.CommunicationException;
+import terrastore.communication.ProcessingException;
+import terrastore.partition.ClusterPartitioner;
+import terrastore.partition.impl.ClusterHashingPartitioner;
+import terrastore.partition.impl.PartitionLoadCounters;
+import terrastore.router.MissingRouteException;
+import terrastore.router.Router;
+import terrastore.store.Store;
+import terrastore.store.StoreOperationException;
+import terrastore.util.io.MsgPackUtils;
+
+/**
+ * Get the keys most recently accessed on the receiving node for the given partitions, as arrays of alternating
+ * bucket names and keys, mapped to the partition number (as a string).
+ *
+ * @author Sergio Bossa
+ */
+public class GetHotKeysCommand extends AbstractCommand<Map<String, Object>> {
+
+    private Set<Integer> partitions;
+
+    public GetHotKeysCommand(Set<Integer> partitions) {
+        this.partitions = partitions;
+    }
+
+    public GetHotKeysCommand() {
+    }
+
+    @Override
+    public Response<Map<String, Object>> executeOn(Router router) throws CommunicationException, MissingRouteException, ProcessingException {
+        Map<String, Object> hotKeys = new HashMap<String, Object>();
+        ClusterPartitioner partitioner = router.getClusterPartitioner();
+        if (partitioner instanceof ClusterHashingPartitioner) {
+            PartitionLoadCounters counters = ((ClusterHashingPartitioner) partitioner).getLoadCounters();
+            for (Integer partition : partitions) {
+                if (partition >= 0 && partition < counters.getPartitions()) {
+                    List<PartitionLoadCounters.HotKey> partitionHotKeys = counters.getHotKeys(partition);
+                    if (partitionHotKeys.size() > 0) {
+                        String[] bucketsAndKeys = new String[partitionHotKeys.size() * 2];
+                        int i = 0;
+                        for (PartitionLoadCounters.HotKey hotKey : partitionHotKeys) {
+                            bucketsAndKeys[i++] = hotKey.getBucket();
+                            bucketsAndKeys[i++] = hotKey.getKey().toString();
+                        }
+                        hotKeys.put(partition.toString(), bucketsAndKeys);
+                    }
+                }
+            }
+        }
+        return new GenericMapResponse(id, hotKeys);
+    }
+
+    @Override
+    public Response<Map<String, Object>> executeOn(Store store) throws StoreOperationException {
+        throw new UnsupportedOperationException("GetHotKeysCommand cannot be executed on a Store!");
+    }
+
+    @Override
+    protected void doSerialize(Packer packer) throws IOException {
+        MsgPackUtils.packInt(packer, partitions.size());
+        for (Integer partition : partitions) {
+            MsgPackUtils.packInt(packer, partition);
+        }
+    }
+
+    @Override
+    protected void doDeserialize(Unpacker unpacker) throws IOException, MessageTypeException {
+        int size = MsgPackUtils.unpackInt(unpacker);
+        partitions = new HashSet<Integer>(size);
+        for (int i = 0; i < size; i++) {
+            partitions.add(MsgPackUtils.unpackInt(unpacker));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.communication.protocol;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.msgpack.MessageTypeException;
+import org.msgpack.Packer;
+import org.msgpack.Unpacker;
+import terrastore.communication.CommunicationException;
+import terrastore.communication.Node;
+import terrastore.communication.ProcessingException;
+import terrastore.router.MissingRouteException;
+import terrastore.router.Router;
+import terrastore.store.Bucket;
+import terrastore.store.Store;
+import terrastore.store.StoreOperationException;
+
+/**
+ * Get the sizes of the secondary indexes maintained by the receiving node, as a map of bucket names to maps
+ * holding the number of documents per indexed field path, together with the {@link #BUILT} flag.
+ *
+ * @author Sergio Bossa
+ */
+public class GetIndexSizesCommand extends AbstractCommand<Map<String, Object>> {
+
+    public static final String BUILT = "_built";
+
+    @Override
+    public Response<Map<String, Object>> executeOn(Router router) throws CommunicationException, MissingRouteException, ProcessingException {
+        Node node = router.routeToLocalNode();
+        return new GenericMapResponse(id, node.<Map<String, Object>>send(new GetIndexSizesCommand()));
+    }
+
+    @Override
+    public Response<Map<String, Object>> executeOn(Store store) throws StoreOperationException {
+        Map<String, Object> sizes = new HashMap<String, Object>();
+        for (String name : store.buckets()) {
+            Bucket bucket = store.get(name);
+            if (bucket != null && !bucket.getIndexSizes().isEmpty()) {
+                Map<String, Object> bucketSizes = new HashMap<String, Object>(bucket.getIndexSizes());
+                bucketSizes.put(BUILT, bucket.isIndexBuilt());
+                sizes.put(name, bucketSizes);
+            }
+        }
+        return new GenericMapResponse(id, sizes);
+    }
+
+    @Override
+    protected void doSerialize(Packer packer) throws IOException {
+    }
+
+    @Override
+    protected void doDeserialize(Unpacker unpacker) throws IOException, MessageTypeException {
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.communication.protocol;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.msgpack.MessageTypeException;
+import org.msgpack.Packer;
+import org.msgpack.Unpacker;
+import terrastore.communication.CommunicationException;
+import terrastore.communication.ProcessingException;
+import terrastore.partition.ClusterPartitioner;
+import terrastore.partition.impl.ClusterHashingPartitioner;
+import terrastore.partition.impl.PartitionLoadCounters;
+import terrastore.router.MissingRouteException;
+import terrastore.router.Router;
+import terrastore.store.Store;
+import terrastore.store.StoreOperationException;
+
+/**
+ * Get the per-partition load counters of the receiving node, as arrays of reads, writes and bytes
+ * indexed by partition.
+ *
+ * @author Sergio Bossa
+ */
+public class GetPartitionLoadsCommand extends AbstractCommand<Map<String, Object>> {
+
+    public static final String READS = "reads";
+    public static final String WRITES = "writes";
+    public static final String BYTES = "bytes";
+
+    @Override
+    public Response<Map<String, Object>> executeOn(Router router) throws CommunicationException, MissingRouteException, ProcessingException {
+        Map<String, Object> loads = new HashMap<String, Object>();
+        ClusterPartitioner partitioner = router.getClusterPartitioner();
+        if (partitioner instanceof ClusterHashingPartitioner) {
+            PartitionLoadCounters counters = ((ClusterHashingPartitioner) partitioner).getLoadCounters();
+            int partitions = counters.getPartitions();
+            long[] reads = new long[partitions];
+            long[] writes = new long[partitions];
+            long[] bytes = new long[partitions];
+            for (int i = 0; i < partitions; i++) {
+                reads[i] = counters.getReads(i);
+                writes[i] = counters.getWrites(i);
+                bytes[i] = counters.getBytes(i);
+            }
+            loads.put(READS, reads);
+            loads.put(WRITES, writes);
+            loads.put(BYTES, bytes);
+        }
+        return new GenericMapResponse(id, loads);
+    }
+
+    @Override
+    public Response<Map<String, Object>> executeOn(Store store) throws StoreOperationException {
+        throw new UnsupportedOperationException("GetPartitionLoadsCommand cannot be executed on a Store!");
+    }
+
+    @Override
+    protected void doSerialize(Packer packer) throws IOException {
+    }
+
+    @Override
+    protected void doDeserialize(Unpacker unpacker) throws IOException, MessageTypeException {
+    }
+}
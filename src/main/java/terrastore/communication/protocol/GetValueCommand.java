@@ -16,6 +16,8 @@
 package terrastore.communication.protocol;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import org.msgpack.MessageTypeException;
 import org.msgpack.Packer;
 import org.msgpack.Unpacker;
@@ -36,7 +38,7 @@ import terrastore.util.io.MsgPackUtils;
 /**
  * @author Sergio Bossa
  */
-public class GetValueCommand extends AbstractCommand<Value> {
+public class GetValueCommand extends AbstractCommand<Value> implements KeyCommand {
 
     private String bucketName;
     private Key key;
@@ -86,6 +88,16 @@ public class GetValueCommand extends AbstractCommand<Value> {
         }
     }
 
+    @Override
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    @Override
+    public Collection<Key> getKeys() {
+        return Collections.singleton(key);
+    }
+
     @Override
     protected void doSerialize(Packer packer) throws IOException {
         MsgPackUtils.packString(packer, bucketName);
@@ -16,6 +16,7 @@
 package terrastore.communication.protocol;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -39,7 +40,7 @@ import terrastore.util.io.MsgPackUtils;
 /**
  * @author Sergio Bossa
  */
-public class GetValuesCommand extends AbstractCommand<Map<Key, Value>> {
+public class GetValuesCommand extends AbstractCommand<Map<Key, Value>> implements KeyCommand {
 
     private String bucketName;
     private Set<Key> keys;
@@ -98,6 +99,16 @@ public class GetValuesCommand extends AbstractCommand<Map<Key, Value>> {
         }
     }
 
+    @Override
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    @Override
+    public Collection<Key> getKeys() {
+        return keys;
+    }
+
     @Override
     protected void doSerialize(Packer packer) throws IOException {
         MsgPackUtils.packString(packer, bucketName);
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.communication.protocol;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.msgpack.MessageTypeException;
+import org.msgpack.Packer;
+import org.msgpack.Unpacker;
+import terrastore.communication.CommunicationException;
+import terrastore.communication.Node;
+import terrastore.communication.ProcessingException;
+import terrastore.router.MissingRouteException;
+import terrastore.router.Router;
+import terrastore.store.Bucket;
+import terrastore.store.Key;
+import terrastore.store.Store;
+import terrastore.store.StoreOperationException;
+import terrastore.util.io.MsgPackUtils;
+
+/**
+ * @author Sergio Bossa
+ */
+public class IncrementCountersCommand extends AbstractCommand implements KeyCommand {
+
+    private String bucketName;
+    private Key key;
+    private Map<String, Long> increments;
+
+    public IncrementCountersCommand(String bucketName, Key key, Map<String, Long> increments) {
+        this.bucketName = bucketName;
+        this.key = key;
+        this.increments = increments;
+    }
+
+    public IncrementCountersCommand() {
+    }
+
+    @Override
+    public NullResponse executeOn(Router router) throws CommunicationException, MissingRouteException, ProcessingException {
+        Node node = router.routeToNodeFor(bucketName, key);
+        node.send(this);
+        return new NullResponse(id);
+    }
+
+    public NullResponse executeOn(Store store) throws StoreOperationException {
+        Bucket bucket = store.getOrCreate(bucketName);
+        if (bucket != null) {
+            bucket.incrementCounters(key, increments);
+        }
+        return new NullResponse(id);
+    }
+
+    @Override
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    @Override
+    public Collection<Key> getKeys() {
+        return Collections.singleton(key);
+    }
+
+    @Override
+    protected void doSerialize(Packer packer) throws IOException {
+        MsgPackUtils.packString(packer, bucketName);
+        MsgPackUtils.packKey(packer, key);
+        MsgPackUtils.packInt(packer, increments.size());
+        for (Map.Entry<String, Long> increment : increments.entrySet()) {
+            MsgPackUtils.packString(packer, increment.getKey());
+            MsgPackUtils.packLong(packer, increment.getValue());
+        }
+    }
+
+    @Override
+    protected void doDeserialize(Unpacker unpacker) throws IOException, MessageTypeException {
+        bucketName = MsgPackUtils.unpackString(unpacker);
+        key = MsgPackUtils.unpackKey(unpacker);
+        int size = MsgPackUtils.unpackInt(unpacker);
+        increments = new LinkedHashMap<String, Long>(size);
+        for (int i = 0; i < size; i++) {
+            increments.put(MsgPackUtils.unpackString(unpacker), MsgPackUtils.unpackLong(unpacker));
+        }
+    }
+}
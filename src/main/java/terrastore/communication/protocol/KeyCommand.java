@@ -0,0 +1,41 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.communication.protocol;
+
+import java.util.Collection;
+import terrastore.store.Key;
+
+/**
+ * {@link Command} operating on a known set of keys of a single bucket.
+ *
+ * @author Sergio Bossa
+ */
+public interface KeyCommand {
+
+    /**
+     * Get the name of the bucket this command operates on.
+     *
+     * @return The bucket name.
+     */
+    public String getBucketName();
+
+    /**
+     * Get the keys this command operates on.
+     *
+     * @return The keys.
+     */
+    public Collection<Key> getKeys();
+}
@@ -16,6 +16,7 @@
 package terrastore.communication.protocol;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -36,7 +37,7 @@ import terrastore.util.io.MsgPackUtils;
 /**
  * @author Sergio Bossa
  */
-public class MapCommand extends AbstractCommand<Map<String, Object>> {
+public class MapCommand extends AbstractCommand<Map<String, Object>> implements KeyCommand {
 
     private String bucketName;
     private Set<Key> keys;
@@ -74,6 +75,16 @@ public class MapCommand extends AbstractCommand<Map<String, Object>> {
         return new GenericMapResponse(id, store.map(bucketName, keys, mapper));
     }
 
+    @Override
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    @Override
+    public Collection<Key> getKeys() {
+        return keys;
+    }
+
     @Override
     protected void doSerialize(Packer packer) throws IOException {
         MsgPackUtils.packString(packer, bucketName);
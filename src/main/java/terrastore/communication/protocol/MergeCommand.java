@@ -16,6 +16,8 @@
 package terrastore.communication.protocol;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import org.msgpack.MessageTypeException;
 import org.msgpack.Packer;
 import org.msgpack.Unpacker;
@@ -34,7 +36,7 @@ import terrastore.util.io.MsgPackUtils;
 /**
  * @author Sergio Bossa
  */
-public class MergeCommand extends AbstractCommand<Value> {
+public class MergeCommand extends AbstractCommand<Value> implements KeyCommand {
 
     private String bucketName;
     private Key key;
@@ -64,6 +66,16 @@ public class MergeCommand extends AbstractCommand<Value> {
         }
     }
 
+    @Override
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    @Override
+    public Collection<Key> getKeys() {
+        return Collections.singleton(key);
+    }
+
     @Override
     protected void doSerialize(Packer packer) throws IOException {
         MsgPackUtils.packString(packer, bucketName);
@@ -16,6 +16,8 @@
 package terrastore.communication.protocol;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import org.msgpack.MessageTypeException;
 import org.msgpack.Packer;
 import org.msgpack.Unpacker;
@@ -30,19 +32,21 @@ import terrastore.store.Key;
 import terrastore.store.Store;
 import terrastore.store.StoreOperationException;
 import terrastore.store.Value;
+import terrastore.store.features.Expectation;
 import terrastore.store.features.Predicate;
 import terrastore.util.io.MsgPackUtils;
 
 /**
  * @author Sergio Bossa
  */
-public class PutValueCommand extends AbstractCommand {
+public class PutValueCommand extends AbstractCommand implements KeyCommand {
 
     private String bucketName;
     private Key key;
     private Value value;
     private boolean conditional;
     private Predicate predicate;
+    private Expectation expectation;
 
     public PutValueCommand(String bucketName, Key key, Value value) {
         this.bucketName = bucketName;
@@ -60,6 +64,15 @@ public class PutValueCommand extends AbstractCommand {
         this.predicate = predicate;
     }
 
+    public PutValueCommand(String bucketName, Key key, Value value, Expectation expectation) {
+        this.bucketName = bucketName;
+        this.key = key;
+        this.value = value;
+        this.conditional = false;
+        this.predicate = null;
+        this.expectation = expectation;
+    }
+
     public PutValueCommand() {
     }
 
@@ -73,7 +86,13 @@ public class PutValueCommand extends AbstractCommand {
     public NullResponse executeOn(Store store) throws StoreOperationException {
         Bucket bucket = store.getOrCreate(bucketName);
         if (bucket != null) {
-            if (conditional) {
+            if (expectation != null) {
+                boolean put = bucket.compareAndPut(key, value, expectation);
+                if (!put) {
+                    throw new StoreOperationException(new ErrorMessage(ErrorMessage.PRECONDITION_FAILED_ERROR_CODE,
+                            "Unmatched " + expectation + " for key: " + key));
+                }
+            } else if (conditional) {
                 boolean put = bucket.conditionalPut(key, value, predicate);
                 if (!put) {
                     throw new StoreOperationException(new ErrorMessage(ErrorMessage.CONFLICT_ERROR_CODE,
@@ -86,6 +105,16 @@ public class PutValueCommand extends AbstractCommand {
         return new NullResponse(id);
     }
 
+    @Override
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    @Override
+    public Collection<Key> getKeys() {
+        return Collections.singleton(key);
+    }
+
     @Override
     protected void doSerialize(Packer packer) throws IOException {
         MsgPackUtils.packString(packer, bucketName);
@@ -93,6 +122,7 @@ public class PutValueCommand extends AbstractCommand {
         MsgPackUtils.packValue(packer, value);
         MsgPackUtils.packBoolean(packer, conditional);
         MsgPackUtils.packPredicate(packer, predicate);
+        MsgPackUtils.packExpectation(packer, expectation);
     }
 
     @Override
@@ -102,5 +132,6 @@ public class PutValueCommand extends AbstractCommand {
         value = MsgPackUtils.unpackValue(unpacker);
         conditional = MsgPackUtils.unpackBoolean(unpacker);
         predicate = MsgPackUtils.unpackPredicate(unpacker);
+        expectation = MsgPackUtils.unpackExpectation(unpacker);
     }
 }
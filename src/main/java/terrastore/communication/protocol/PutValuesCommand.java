@@ -16,6 +16,7 @@
 package terrastore.communication.protocol;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -41,7 +42,7 @@ import terrastore.util.io.MsgPackUtils;
 /**
  * @author Sergio Bossa
  */
-public class PutValuesCommand extends AbstractCommand<Set<Key>> {
+public class PutValuesCommand extends AbstractCommand<Set<Key>> implements KeyCommand {
 
     private String bucketName;
     private Map<Key, Value> values;
@@ -77,6 +78,16 @@ public class PutValuesCommand extends AbstractCommand<Set<Key>> {
         return new KeysResponse(id, insertedKeys);
     }
 
+    @Override
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    @Override
+    public Collection<Key> getKeys() {
+        return values.keySet();
+    }
+
     @Override
     protected void doSerialize(Packer packer) throws IOException {
         MsgPackUtils.packString(packer, bucketName);
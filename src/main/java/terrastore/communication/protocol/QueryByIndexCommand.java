@@ -0,0 +1,84 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.communication.protocol;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import org.msgpack.MessageTypeException;
+import org.msgpack.Packer;
+import org.msgpack.Unpacker;
+import terrastore.communication.CommunicationException;
+import terrastore.communication.Node;
+import terrastore.communication.ProcessingException;
+import terrastore.router.MissingRouteException;
+import terrastore.router.Router;
+import terrastore.store.Bucket;
+import terrastore.store.Key;
+import terrastore.store.Store;
+import terrastore.store.StoreOperationException;
+import terrastore.store.Value;
+import terrastore.store.features.Predicate;
+import terrastore.util.io.MsgPackUtils;
+
+/**
+ * Get the values satisfying the given predicate among those indexed by the receiving node,
+ * or null if the predicate cannot be answered by its indexes.
+ *
+ * @author Sergio Bossa
+ */
+public class QueryByIndexCommand extends AbstractCommand<Map<Key, Value>> {
+
+    private String bucketName;
+    private Predicate predicate;
+
+    public QueryByIndexCommand(String bucketName, Predicate predicate) {
+        this.bucketName = bucketName;
+        this.predicate = predicate;
+    }
+
+    public QueryByIndexCommand() {
+    }
+
+    @Override
+    public Response<Map<Key, Value>> executeOn(Router router) throws CommunicationException, MissingRouteException, ProcessingException {
+        Node node = router.routeToLocalNode();
+        Command command = new QueryByIndexCommand(bucketName, predicate);
+        return new ValuesResponse(id, node.<Map<Key, Value>>send(command));
+    }
+
+    public Response<Map<Key, Value>> executeOn(Store store) throws StoreOperationException {
+        Bucket bucket = store.get(bucketName);
+        if (bucket != null) {
+            return new ValuesResponse(id, bucket.queryByIndex(predicate));
+        } else {
+            return new ValuesResponse(id, Collections.<Key, Value>emptyMap());
+        }
+    }
+
+    @Override
+    protected void doSerialize(Packer packer) throws IOException {
+        MsgPackUtils.packString(packer, bucketName);
+        MsgPackUtils.packPredicate(packer, predicate);
+    }
+
+    @Override
+    protected void doDeserialize(Unpacker unpacker) throws IOException, MessageTypeException {
+        bucketName = MsgPackUtils.unpackString(unpacker);
+        predicate = MsgPackUtils.unpackPredicate(unpacker);
+    }
+
+}
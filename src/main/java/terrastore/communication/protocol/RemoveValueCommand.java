@@ -16,9 +16,12 @@
 package terrastore.communication.protocol;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import org.msgpack.MessageTypeException;
 import org.msgpack.Packer;
 import org.msgpack.Unpacker;
+import terrastore.common.ErrorMessage;
 import terrastore.communication.CommunicationException;
 import terrastore.communication.Node;
 import terrastore.communication.ProcessingException;
@@ -28,21 +31,29 @@ import terrastore.store.Bucket;
 import terrastore.store.Key;
 import terrastore.store.Store;
 import terrastore.store.StoreOperationException;
+import terrastore.store.features.Expectation;
 import terrastore.util.io.MsgPackUtils;
 
 /**
  * @author Sergio Bossa
  */
-public class RemoveValueCommand extends AbstractCommand {
+public class RemoveValueCommand extends AbstractCommand implements KeyCommand {
 
     private String bucketName;
     private Key key;
+    private Expectation expectation;
 
     public RemoveValueCommand(String bucketName, Key key) {
         this.bucketName = bucketName;
         this.key = key;
     }
 
+    public RemoveValueCommand(String bucketName, Key key, Expectation expectation) {
+        this.bucketName = bucketName;
+        this.key = key;
+        this.expectation = expectation;
+    }
+
     public RemoveValueCommand() {
     }
 
@@ -55,21 +66,39 @@ public class RemoveValueCommand extends AbstractCommand {
 
     public NullResponse executeOn(Store store) throws StoreOperationException {
         Bucket bucket = store.get(bucketName);
-        if (bucket != null) {
+        if (expectation != null) {
+            boolean removed = bucket != null && bucket.compareAndRemove(key, expectation);
+            if (!removed) {
+                throw new StoreOperationException(new ErrorMessage(ErrorMessage.PRECONDITION_FAILED_ERROR_CODE,
+                        "Unmatched " + expectation + " for key: " + key));
+            }
+        } else if (bucket != null) {
             bucket.remove(key);
         }
         return new NullResponse(id);
     }
     
+    @Override
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    @Override
+    public Collection<Key> getKeys() {
+        return Collections.singleton(key);
+    }
+
     @Override
     protected void doSerialize(Packer packer) throws IOException {
         MsgPackUtils.packString(packer, bucketName);
         MsgPackUtils.packKey(packer, key);
+        MsgPackUtils.packExpectation(packer, expectation);
     }
 
     @Override
     protected void doDeserialize(Unpacker unpacker) throws IOException, MessageTypeException {
         bucketName = MsgPackUtils.unpackString(unpacker);
         key = MsgPackUtils.unpackKey(unpacker);
+        expectation = MsgPackUtils.unpackExpectation(unpacker);
     }
 }
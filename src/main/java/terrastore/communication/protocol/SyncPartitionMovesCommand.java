@@ -0,0 +1,65 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.communication.protocol;
+
+import java.io.IOException;
+import org.msgpack.MessageTypeException;
+import org.msgpack.Packer;
+import org.msgpack.Unpacker;
+import terrastore.communication.Cluster;
+import terrastore.communication.CommunicationException;
+import terrastore.communication.ProcessingException;
+import terrastore.partition.ClusterPartitioner;
+import terrastore.partition.impl.ClusterHashingPartitioner;
+import terrastore.router.MissingRouteException;
+import terrastore.router.Router;
+import terrastore.store.Store;
+import terrastore.store.StoreOperationException;
+
+/**
+ * Apply on the receiving node the partition moves of the local cluster recorded in its (shared) move table
+ * and not yet applied.
+ *
+ * @author Sergio Bossa
+ */
+public class SyncPartitionMovesCommand extends AbstractCommand {
+
+    @Override
+    public NullResponse executeOn(Router router) throws CommunicationException, MissingRouteException, ProcessingException {
+        ClusterPartitioner partitioner = router.getClusterPartitioner();
+        if (partitioner instanceof ClusterHashingPartitioner) {
+            for (Cluster cluster : router.getClusters()) {
+                if (cluster.isLocal()) {
+                    ((ClusterHashingPartitioner) partitioner).syncMoves(cluster);
+                }
+            }
+        }
+        return new NullResponse(id);
+    }
+
+    @Override
+    public NullResponse executeOn(Store store) throws StoreOperationException {
+        throw new UnsupportedOperationException("SyncPartitionMovesCommand cannot be executed on a Store!");
+    }
+
+    @Override
+    protected void doSerialize(Packer packer) throws IOException {
+    }
+
+    @Override
+    protected void doDeserialize(Unpacker unpacker) throws IOException, MessageTypeException {
+    }
+}
@@ -16,6 +16,8 @@
 package terrastore.communication.protocol;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import org.msgpack.MessageTypeException;
 import org.msgpack.Packer;
 import org.msgpack.Unpacker;
@@ -35,7 +37,7 @@ import terrastore.util.io.MsgPackUtils;
 /**
  * @author Sergio Bossa
  */
-public class UpdateCommand extends AbstractCommand<Value> {
+public class UpdateCommand extends AbstractCommand<Value> implements KeyCommand {
 
     private String bucketName;
     private Key key;
@@ -65,6 +67,16 @@ public class UpdateCommand extends AbstractCommand<Value> {
         }
     }
 
+    @Override
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    @Override
+    public Collection<Key> getKeys() {
+        return Collections.singleton(key);
+    }
+
     @Override
     protected void doSerialize(Packer packer) throws IOException {
         MsgPackUtils.packString(packer, bucketName);
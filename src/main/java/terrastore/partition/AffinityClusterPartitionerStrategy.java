@@ -0,0 +1,52 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.partition;
+
+/**
+ * Extend this class to provide a custom partitioning strategy placing keys by affinity group,
+ * as defined by the given {@link KeyAffinity} configuration.<br>
+ * Keys whose bucket has no affinity separator, or not containing the separator, are placed by the key itself.
+ *
+ * @author Sergio Bossa
+ */
+public abstract class AffinityClusterPartitionerStrategy implements CustomClusterPartitionerStrategy {
+
+    private final KeyAffinity keyAffinity;
+
+    protected AffinityClusterPartitionerStrategy(KeyAffinity keyAffinity) {
+        this.keyAffinity = keyAffinity;
+    }
+
+    public KeyAffinity getKeyAffinity() {
+        return keyAffinity;
+    }
+
+    @Override
+    public final Node getNodeFor(String cluster, String bucket, String key) {
+        return getNodeForGroup(cluster, bucket, keyAffinity.getAffinityGroup(bucket, key));
+    }
+
+    /**
+     * Get the {@link Node} object where to place all keys of the given affinity group (under the given bucket).<br>
+     * Be aware: the returned node must belong to the given cluster.
+     *
+     * @param cluster The name of the cluster holding the node.
+     * @param bucket The bucket holding the keys to place.
+     * @param group The affinity group of the keys to place.
+     * @return The {@link Node} object where to place keys of the given group.
+     */
+    public abstract Node getNodeForGroup(String cluster, String bucket, String group);
+}
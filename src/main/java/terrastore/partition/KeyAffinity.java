@@ -0,0 +1,122 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.partition;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import terrastore.store.Key;
+
+/**
+ * Key affinity configuration, declaring per-bucket separators: when a key contains the separator configured for its bucket,
+ * only the key segment before the first separator occurrence, the affinity group, determines the key partition.<br>
+ * This way, all keys of the same group (i.e. "user1:profile" and "user1:settings" with a ":" separator) are placed on the
+ * same node, and multi-key operations on a single group are executed by a single node.
+ * <br><br>
+ * Separators can be configured for all buckets by using the {@link #ALL_BUCKETS} wildcard, and must be the same on all nodes.
+ *
+ * @author Sergio Bossa
+ */
+public class KeyAffinity {
+
+    public static final String ALL_BUCKETS = "*";
+    public static final KeyAffinity NONE = new KeyAffinity(Collections.<String, String>emptyMap());
+    //
+    private final Map<String, String> separators;
+    private final String defaultSeparator;
+
+    /**
+     * Create a key affinity configuration from the given separators.
+     *
+     * @param separators Separators keyed by bucket name, or by {@link #ALL_BUCKETS} for buckets with no specific separator.
+     */
+    public KeyAffinity(Map<String, String> separators) {
+        for (Map.Entry<String, String> separator : separators.entrySet()) {
+            if (separator.getValue() == null || separator.getValue().length() == 0) {
+                throw new IllegalArgumentException("Empty affinity separator for bucket: " + separator.getKey());
+            }
+        }
+        this.separators = new HashMap<String, String>(separators);
+        this.defaultSeparator = this.separators.remove(ALL_BUCKETS);
+    }
+
+    /**
+     * Parse a key affinity configuration in the form: <i>bucket=separator(,bucket=separator)*</i>, where the bucket
+     * can be {@link #ALL_BUCKETS}.
+     *
+     * @param configuration The configuration string: if null or empty, key affinity is disabled.
+     * @return The parsed key affinity configuration.
+     */
+    public static KeyAffinity parse(String configuration) {
+        if (configuration == null || configuration.trim().length() == 0) {
+            return NONE;
+        }
+        Map<String, String> separators = new HashMap<String, String>();
+        for (String entry : configuration.split(",")) {
+            int equals = entry.indexOf('=');
+            if (equals <= 0 || equals == entry.length() - 1) {
+                throw new IllegalArgumentException("Wrong key affinity entry: " + entry);
+            }
+            separators.put(entry.substring(0, equals).trim(), entry.substring(equals + 1));
+        }
+        return new KeyAffinity(separators);
+    }
+
+    /**
+     * Get the separator configured for the given bucket.
+     *
+     * @param bucket The bucket name.
+     * @return The separator, or null if key affinity is not enabled for the bucket.
+     */
+    public String getSeparatorFor(String bucket) {
+        String separator = separators.get(bucket);
+        return separator != null ? separator : defaultSeparator;
+    }
+
+    /**
+     * Get the affinity group of the given key.
+     *
+     * @param bucket The bucket holding the key.
+     * @param key The key.
+     * @return The affinity group, or the key itself if the bucket has no affinity separator or the key doesn't contain it.
+     */
+    public String getAffinityGroup(String bucket, String key) {
+        String separator = getSeparatorFor(bucket);
+        if (separator != null) {
+            int index = key.indexOf(separator);
+            if (index >= 0) {
+                return key.substring(0, index);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Get the key to use for placing the given key, that is, the key made of its affinity group.
+     *
+     * @param bucket The bucket holding the key.
+     * @param key The key.
+     * @return The key to use for placement, which is the given key itself if it has no affinity group.
+     */
+    public Key getRoutingKey(String bucket, Key key) {
+        if (separators.isEmpty() && defaultSeparator == null) {
+            return key;
+        }
+        String value = key.toString();
+        String group = getAffinityGroup(bucket, value);
+        return group.length() == value.length() ? key : new Key(group);
+    }
+}
@@ -15,44 +15,97 @@
  */
 package terrastore.partition.impl;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import terrastore.common.PartitionStats;
 import terrastore.communication.Cluster;
 import terrastore.communication.Node;
 import terrastore.router.impl.HashFunction;
+import terrastore.router.impl.KeyHashFunction;
+import terrastore.router.impl.KeyHashFunctionAdapter;
 import terrastore.partition.ClusterPartitioner;
+import terrastore.partition.KeyAffinity;
 import terrastore.store.Key;
+import terrastore.util.io.HashUtils;
 
 /**
  * {@link terrastore.partition.ClusterPartitioner} implementation based on consistent hashing and ordering.
+ * <br><br>
+ * By default, partitions are split in contiguous ranges assigned to nodes in name order, so that any membership change
+ * may move almost all partitions.<br>
+ * When configured with a number of virtual nodes, each node is instead placed at several points on a hash circle
+ * (multiplied by its optional weight), and every partition is owned by the first point following it on the circle:
+ * this way, a membership change only moves about 1/N of partitions.<br>
+ * In both cases, the fraction of partitions whose ownership changed during the last rebuild is logged and
+ * available through {@link #getLastRebuildMovedFraction(terrastore.communication.Cluster)}.
+ * <br><br>
+ * Membership changes are serialized and publish immutable partition tables, so that node lookups never lock
+ * and are just an array access.
+ * <br><br>
+ * Partitions can also be explicitly moved to other nodes (i.e. for balancing the load tracked by
+ * {@link PartitionLoadCounters}): moves are kept in a per-cluster move table, which is read at every rebuild and
+ * can be shared among all nodes of the cluster (see {@link #setMoveTable(terrastore.communication.Cluster, java.util.concurrent.ConcurrentMap)}),
+ * so that all nodes, including the ones joining later, converge on the same partition owners.
+ * Moves are retained across rebuilds until their target node leaves, and the most recent ones applied by this node
+ * are recorded for inspection.
+ * <br><br>
+ * Finally, an optional {@link terrastore.partition.KeyAffinity} configuration makes all keys of the same affinity group
+ * share the same partition.
  *
  * @author Sergio Bossa
  */
 public class ClusterHashingPartitioner implements ClusterPartitioner {
 
     private static final Logger LOG = LoggerFactory.getLogger(ClusterHashingPartitioner.class);
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int MAX_RECORDED_MOVES = 100;
     //
     private final int maxPartitions;
-    private final HashFunction hashFunction;
-    private final Map<Cluster, Partitioner> partitioners;
-    private final ReadWriteLock stateLock;
+    private final KeyHashFunction hashFunction;
+    private final int virtualNodes;
+    private final Map<String, Integer> nodeWeights;
+    private final PartitionLoadCounters loadCounters;
+    private final LinkedList<PartitionStats.Move> moves;
+    private final Map<Cluster, ConcurrentMap<Integer, String>> moveTables;
+    private final Lock stateLock;
+    private volatile Map<Cluster, Partitioner> partitioners;
+    private volatile KeyAffinity keyAffinity;
+    private volatile PartitionMoveListener moveListener;
 
     public ClusterHashingPartitioner(int maxPartitions, HashFunction hashFunction) {
+        this(maxPartitions, hashFunction, 0);
+    }
+
+    public ClusterHashingPartitioner(int maxPartitions, HashFunction hashFunction, int virtualNodes) {
+        if (virtualNodes < 0) {
+            throw new IllegalArgumentException("Virtual nodes must be a non negative number: " + virtualNodes);
+        }
         this.maxPartitions = maxPartitions;
-        this.hashFunction = hashFunction;
-        this.partitioners = new HashMap<Cluster, Partitioner>();
-        this.stateLock = new ReentrantReadWriteLock();
+        this.hashFunction = KeyHashFunctionAdapter.adapt(hashFunction);
+        this.virtualNodes = virtualNodes;
+        this.nodeWeights = new HashMap<String, Integer>();
+        this.loadCounters = new PartitionLoadCounters(maxPartitions);
+        this.moves = new LinkedList<PartitionStats.Move>();
+        this.moveTables = new HashMap<Cluster, ConcurrentMap<Integer, String>>();
+        this.stateLock = new ReentrantLock();
+        this.partitioners = Collections.emptyMap();
+        this.keyAffinity = KeyAffinity.NONE;
     }
 
     @Override
@@ -60,124 +113,325 @@ public class ClusterHashingPartitioner implements ClusterPartitioner {
         return maxPartitions;
     }
 
-    @Override
-    public void addNode(Cluster cluster, Node node) {
-        stateLock.writeLock().lock();
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * Set the weights of nodes, by node name: a node with weight N will be placed at N times the configured
+     * number of virtual nodes, hence owning about N times the partitions of nodes with default weight (1).<br>
+     * Weights only apply to virtual nodes partitioning, and cause partitions to be rebuilt.
+     *
+     * @param weights Node weights, keyed by node name.
+     */
+    public void setNodeWeights(Map<String, Integer> weights) {
+        stateLock.lock();
+        try {
+            for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+                if (weight.getValue() == null || weight.getValue() < 1) {
+                    throw new IllegalArgumentException("Wrong weight for node " + weight.getKey() + ": " + weight.getValue());
+                }
+            }
+            nodeWeights.clear();
+            nodeWeights.putAll(weights);
+            for (Map.Entry<Cluster, Partitioner> partitioner : partitioners.entrySet()) {
+                partitioner.getValue().rebuildPartitions(partitioner.getKey());
+            }
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Set the {@link terrastore.partition.KeyAffinity} configuration: keys belonging to the same affinity group
+     * will be placed on the same partition.<br>
+     * It must be set before starting routing keys, and be the same on all nodes.
+     *
+     * @param keyAffinity The key affinity configuration.
+     */
+    public void setKeyAffinity(KeyAffinity keyAffinity) {
+        this.keyAffinity = keyAffinity;
+    }
+
+    public KeyAffinity getKeyAffinity() {
+        return keyAffinity;
+    }
+
+    /**
+     * Get the fraction (from 0 to 1) of partitions whose owner changed during the last rebuild of the given cluster partitions.
+     *
+     * @param cluster The cluster.
+     * @return The moved fraction, or 0 if the cluster has no partitions.
+     */
+    public double getLastRebuildMovedFraction(Cluster cluster) {
+        Partitioner partitioner = partitioners.get(cluster);
+        if (partitioner != null) {
+            return partitioner.getLastRebuildMovedFraction();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Get the node-local counters of the load of each partition.
+     */
+    public PartitionLoadCounters getLoadCounters() {
+        return loadCounters;
+    }
+
+    public int getPartitionFor(String bucket) {
+        return hashFunction.hash(bucket, maxPartitions);
+    }
+
+    public int getPartitionFor(String bucket, Key key) {
+        return hashFunction.hash(bucket, keyAffinity.getRoutingKey(bucket, key), maxPartitions);
+    }
+
+    /**
+     * Get the node currently owning the given partition of the given cluster.
+     *
+     * @return The owner node, or null if none.
+     */
+    public Node getNodeAtPartition(Cluster cluster, int partition) {
+        Partitioner partitioner = partitioners.get(cluster);
+        if (partitioner != null) {
+            return partitioner.selectNodeAtPartition(partition);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Move the given partitions of the given cluster to the given nodes, by node name: partitions are moved only if
+     * the target node is currently part of the cluster.
+     *
+     * @param cluster The cluster.
+     * @param partitionsToNodes The partitions to move, mapped to the name of the target nodes.
+     * @return The actually applied moves.
+     */
+    public List<PartitionStats.Move> movePartitions(Cluster cluster, Map<Integer, String> partitionsToNodes) {
+        List<PartitionStats.Move> applied = Collections.emptyList();
+        stateLock.lock();
         try {
             Partitioner partitioner = partitioners.get(cluster);
-            if (partitioner == null) {
-                partitioner = new Partitioner(maxPartitions, hashFunction);
-                partitioners.put(cluster, partitioner);
+            if (partitioner != null) {
+                applied = partitioner.movePartitions(cluster, partitionsToNodes);
+                recordMoves(applied);
             }
-            partitioner.addNode(node);
         } finally {
-            stateLock.writeLock().unlock();
+            stateLock.unlock();
         }
+        notifyMoves(cluster, applied);
+        return applied;
     }
 
-    @Override
-    public void removeNode(Cluster cluster, Node node) {
-        stateLock.writeLock().lock();
+    /**
+     * Apply all moves of the given cluster found in its move table and not yet applied by this node,
+     * i.e. because written by other nodes sharing the same table.
+     *
+     * @param cluster The cluster.
+     * @return The actually applied moves.
+     */
+    public List<PartitionStats.Move> syncMoves(Cluster cluster) {
+        List<PartitionStats.Move> applied = Collections.emptyList();
+        stateLock.lock();
         try {
             Partitioner partitioner = partitioners.get(cluster);
             if (partitioner != null) {
-                partitioner.removeNode(node);
+                applied = partitioner.syncMoves(cluster);
+                recordMoves(applied);
             }
         } finally {
-            stateLock.writeLock().unlock();
+            stateLock.unlock();
         }
+        notifyMoves(cluster, applied);
+        return applied;
     }
 
-    @Override
-    public Set<Node> getNodesFor(Cluster cluster) {
-        stateLock.readLock().lock();
+    /**
+     * Set the table of moved partitions of the given cluster, mapping partitions to the name of their target node,
+     * and apply its moves: by sharing the same table among all nodes of the cluster, moves survive node restarts and
+     * are applied by nodes joining later.<br>
+     * If not set, every cluster gets its own node-local table.
+     *
+     * @param cluster The cluster.
+     * @param moveTable The move table.
+     */
+    public void setMoveTable(Cluster cluster, ConcurrentMap<Integer, String> moveTable) {
+        List<PartitionStats.Move> applied = Collections.emptyList();
+        stateLock.lock();
         try {
+            moveTables.put(cluster, moveTable);
             Partitioner partitioner = partitioners.get(cluster);
             if (partitioner != null) {
-                return partitioner.getNodes();
-            } else {
-                return Collections.emptySet();
+                partitioner.setMoveTable(moveTable);
+                applied = partitioner.syncMoves(cluster);
+                recordMoves(applied);
             }
         } finally {
-            stateLock.readLock().unlock();
+            stateLock.unlock();
+        }
+        notifyMoves(cluster, applied);
+    }
+
+    /**
+     * Set the {@link PartitionMoveListener} to notify after moving partitions.
+     */
+    public void setMoveListener(PartitionMoveListener moveListener) {
+        this.moveListener = moveListener;
+    }
+
+    /**
+     * Get the most recent partition moves, from the oldest to the newest.
+     */
+    public List<PartitionStats.Move> getPartitionMoves() {
+        stateLock.lock();
+        try {
+            return new ArrayList<PartitionStats.Move>(moves);
+        } finally {
+            stateLock.unlock();
         }
     }
 
     @Override
-    public Node getNodeFor(Cluster cluster, String bucket) {
-        stateLock.readLock().lock();
+    public void addNode(Cluster cluster, Node node) {
+        stateLock.lock();
         try {
             Partitioner partitioner = partitioners.get(cluster);
-            if (partitioner != null) {
-                return partitioner.getNodeFor(bucket);
-            } else {
-                return null;
+            if (partitioner == null) {
+                ConcurrentMap<Integer, String> moveTable = moveTables.get(cluster);
+                if (moveTable == null) {
+                    moveTable = new ConcurrentHashMap<Integer, String>();
+                    moveTables.put(cluster, moveTable);
+                }
+                partitioner = new Partitioner(moveTable);
+                Map<Cluster, Partitioner> updated = new HashMap<Cluster, Partitioner>(partitioners);
+                updated.put(cluster, partitioner);
+                partitioners = updated;
             }
+            partitioner.addNode(cluster, node);
         } finally {
-            stateLock.readLock().unlock();
+            stateLock.unlock();
         }
     }
 
     @Override
-    public Node getNodeFor(Cluster cluster, String bucket, Key key) {
-        stateLock.readLock().lock();
+    public void removeNode(Cluster cluster, Node node) {
+        stateLock.lock();
         try {
             Partitioner partitioner = partitioners.get(cluster);
             if (partitioner != null) {
-                return partitioner.getNodeFor(bucket, key);
-            } else {
-                return null;
+                partitioner.removeNode(cluster, node);
             }
         } finally {
-            stateLock.readLock().unlock();
+            stateLock.unlock();
+        }
+    }
+
+    @Override
+    public Set<Node> getNodesFor(Cluster cluster) {
+        Partitioner partitioner = partitioners.get(cluster);
+        if (partitioner != null) {
+            return partitioner.getNodes();
+        } else {
+            return Collections.emptySet();
+        }
+    }
+
+    @Override
+    public Node getNodeFor(Cluster cluster, String bucket) {
+        Partitioner partitioner = partitioners.get(cluster);
+        if (partitioner != null) {
+            return partitioner.getNodeFor(bucket);
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public Node getNodeFor(Cluster cluster, String bucket, Key key) {
+        Partitioner partitioner = partitioners.get(cluster);
+        if (partitioner != null) {
+            return partitioner.getNodeFor(bucket, keyAffinity.getRoutingKey(bucket, key));
+        } else {
+            return null;
         }
     }
 
     @Override
     public void cleanupPartitions() {
-        stateLock.writeLock().lock();
+        stateLock.lock();
         try {
             for (Partitioner partitioner : partitioners.values()) {
                 partitioner.cleanupPartitions();
             }
         } finally {
-            stateLock.writeLock().unlock();
+            stateLock.unlock();
+        }
+    }
+
+    private void recordMoves(List<PartitionStats.Move> applied) {
+        for (PartitionStats.Move move : applied) {
+            moves.addLast(move);
+            if (moves.size() > MAX_RECORDED_MOVES) {
+                moves.removeFirst();
+            }
+        }
+    }
+
+    private void notifyMoves(Cluster cluster, List<PartitionStats.Move> applied) {
+        PartitionMoveListener listener = moveListener;
+        if (listener != null && applied.size() > 0) {
+            listener.partitionsMoved(cluster, applied);
         }
     }
 
-    private static class Partitioner {
+    /**
+     * Mutable partitioning state is only accessed while holding the state lock, and then published to readers
+     * through the volatile (and never modified after publication) ring and nodes view.
+     */
+    private class Partitioner {
 
-        private final int maxPartitions;
-        private final HashFunction hashFunction;
-        private final Node[] ring;
         private final SortedSet<Node> nodes;
         private final Map<Node, List<Integer>> nodesToPartitions;
+        private volatile ConcurrentMap<Integer, String> moveTable;
+        private Map<Integer, String> appliedMoves;
+        private volatile Node[] ring;
+        private volatile Set<Node> nodesView;
+        private volatile double lastRebuildMovedFraction;
 
-        public Partitioner(int maxPartitions, HashFunction hashFunction) {
-            this.maxPartitions = maxPartitions;
-            this.hashFunction = hashFunction;
-            this.ring = new Node[maxPartitions];
+        public Partitioner(ConcurrentMap<Integer, String> moveTable) {
             this.nodes = new TreeSet<Node>(new NodeComparator());
             this.nodesToPartitions = new HashMap();
+            this.moveTable = moveTable;
+            this.appliedMoves = Collections.emptyMap();
+            this.ring = new Node[maxPartitions];
+            this.nodesView = Collections.emptySet();
         }
 
-        public void addNode(Node node) {
+        public void addNode(Cluster cluster, Node node) {
             if (nodes.size() == maxPartitions) {
                 // TODO : use proper exception here!
                 throw new IllegalStateException("Reached partitions limit: " + maxPartitions);
             } else if (!nodes.contains(node)) {
                 nodes.add(node);
-                rebuildPartitions();
+                rebuildPartitions(cluster);
             } else {
                 // TODO : use proper exception here?
                 throw new IllegalStateException("Duplicated node: " + node.getName());
             }
         }
 
-        public void removeNode(Node node) {
+        public void removeNode(Cluster cluster, Node node) {
             if (nodes.contains(node)) {
                 nodes.remove(node);
-                rebuildPartitions();
+                // All nodes see the same node leaving, so they all drop the same moves even when sharing the table:
+                for (Map.Entry<Integer, String> move : new HashMap<Integer, String>(moveTable).entrySet()) {
+                    if (move.getValue().equals(node.getName())) {
+                        moveTable.remove(move.getKey(), move.getValue());
+                    }
+                }
+                rebuildPartitions(cluster);
             } else {
                 // TODO : use proper exception here?
                 throw new IllegalStateException("Not existent node: " + node.getName());
@@ -185,7 +439,7 @@ public class ClusterHashingPartitioner implements ClusterPartitioner {
         }
 
         public Set<Node> getNodes() {
-            return nodes;
+            return nodesView;
         }
 
         public Node getNodeFor(String bucket) {
@@ -195,42 +449,157 @@ public class ClusterHashingPartitioner implements ClusterPartitioner {
         }
 
         public Node getNodeFor(String bucket, Key key) {
-            String toHash = bucket + key;
-            int hash = hashFunction.hash(toHash, maxPartitions);
+            int hash = hashFunction.hash(bucket, key, maxPartitions);
             return selectNodeAtPartition(hash);
         }
 
+        public double getLastRebuildMovedFraction() {
+            return lastRebuildMovedFraction;
+        }
+
+        public void setMoveTable(ConcurrentMap<Integer, String> moveTable) {
+            this.moveTable = moveTable;
+        }
+
+        public List<PartitionStats.Move> movePartitions(Cluster cluster, Map<Integer, String> partitionsToNodes) {
+            Map<String, Node> nodesByName = getNodesByName();
+            for (Map.Entry<Integer, String> partitionToNode : partitionsToNodes.entrySet()) {
+                int partition = partitionToNode.getKey();
+                Node target = nodesByName.get(partitionToNode.getValue());
+                if (partition >= 0 && partition < maxPartitions && target != null) {
+                    moveTable.put(partition, target.getName());
+                } else {
+                    LOG.warn("Cannot move partition {} to node {}", partition, partitionToNode.getValue());
+                }
+            }
+            return syncMoves(cluster);
+        }
+
+        public List<PartitionStats.Move> syncMoves(Cluster cluster) {
+            if (!appliedMoves.equals(moveTable)) {
+                Node[] previous = ring;
+                rebuildPartitions(cluster);
+                Node[] current = ring;
+                List<PartitionStats.Move> applied = new LinkedList<PartitionStats.Move>();
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < maxPartitions; i++) {
+                    if (previous[i] != current[i] && current[i] != null) {
+                        String from = previous[i] != null ? previous[i].getName() : null;
+                        applied.add(new PartitionStats.Move(i, from, current[i].getName(), now));
+                    }
+                }
+                return applied;
+            } else {
+                return Collections.emptyList();
+            }
+        }
+
         public void cleanupPartitions() {
+            // The move table is left untouched, as it may be shared with other nodes:
             nodes.clear();
             nodesToPartitions.clear();
+            appliedMoves = Collections.emptyMap();
+            nodesView = Collections.emptySet();
         }
 
-        private void rebuildPartitions() {
+        public void rebuildPartitions(Cluster cluster) {
+            Node[] previous = ring;
+            Node[] rebuilt = new Node[maxPartitions];
+            nodesToPartitions.clear();
+            if (nodes.size() > 0) {
+                if (virtualNodes > 0) {
+                    rebuildVirtualPartitions(rebuilt);
+                } else {
+                    rebuildOrderedPartitions(rebuilt);
+                }
+                applyMovedPartitions(rebuilt);
+            }
+            int moved = 0;
+            for (int i = 0; i < maxPartitions; i++) {
+                if (previous[i] != rebuilt[i]) {
+                    moved++;
+                }
+            }
+            ring = rebuilt;
+            nodesView = Collections.unmodifiableSortedSet(new TreeSet<Node>(nodes));
+            lastRebuildMovedFraction = (double) moved / maxPartitions;
+            LOG.info("Rebuilt {} partitions for cluster {}, moved: {}", new Object[]{maxPartitions, cluster.getName(), moved});
+        }
+
+        private void rebuildOrderedPartitions(Node[] ring) {
             int totalNodes = nodes.size();
-            if (totalNodes > 0) {
-                int optimalPartitionSize = maxPartitions / totalNodes;
-                int ringPosition = 0;
-                int nodePosition = 1;
-                nodesToPartitions.clear();
-                for (Node node : nodes) {
-                    List<Integer> nodePartitions = new ArrayList<Integer>(optimalPartitionSize + (maxPartitions % totalNodes));
-                    for (int i = 0; (i < optimalPartitionSize) || (nodePosition == totalNodes && ringPosition < ring.length); i++) {
-                        nodePartitions.add(ringPosition);
-                        ring[ringPosition] = node;
-                        ringPosition++;
+            int optimalPartitionSize = maxPartitions / totalNodes;
+            int ringPosition = 0;
+            int nodePosition = 1;
+            for (Node node : nodes) {
+                List<Integer> nodePartitions = new ArrayList<Integer>(optimalPartitionSize + (maxPartitions % totalNodes));
+                for (int i = 0; (i < optimalPartitionSize) || (nodePosition == totalNodes && ringPosition < ring.length); i++) {
+                    nodePartitions.add(ringPosition);
+                    ring[ringPosition] = node;
+                    ringPosition++;
+                }
+                nodesToPartitions.put(node, nodePartitions);
+                nodePosition++;
+            }
+        }
+
+        private void rebuildVirtualPartitions(Node[] ring) {
+            // Place virtual nodes on a 32 bits circle: nodes are iterated in name order, so that (unlikely) collisions
+            // are deterministically resolved in favor of the first node.
+            TreeMap<Long, Node> circle = new TreeMap<Long, Node>();
+            for (Node node : nodes) {
+                int points = virtualNodes * getWeight(node);
+                for (int i = 0; i < points; i++) {
+                    Long point = HashUtils.hash((node.getName() + "#" + i).getBytes(CHARSET)) >>> 32;
+                    if (!circle.containsKey(point)) {
+                        circle.put(point, node);
                     }
-                    nodesToPartitions.put(node, nodePartitions);
-                    nodePosition++;
                 }
-            } else {
-                for (int i = 0; i < maxPartitions; i++) {
-                    ring[i] = null;
+                nodesToPartitions.put(node, new ArrayList<Integer>());
+            }
+            // Assign each partition, evenly spaced on the circle, to the first virtual node found clockwise:
+            for (int i = 0; i < maxPartitions; i++) {
+                long position = (i * (1L << 32)) / maxPartitions;
+                Map.Entry<Long, Node> owner = circle.ceilingEntry(position);
+                if (owner == null) {
+                    owner = circle.firstEntry();
+                }
+                ring[i] = owner.getValue();
+                nodesToPartitions.get(owner.getValue()).add(i);
+            }
+        }
+
+        private void applyMovedPartitions(Node[] ring) {
+            Map<String, Node> nodesByName = getNodesByName();
+            Map<Integer, String> moved = new HashMap<Integer, String>(moveTable);
+            for (Map.Entry<Integer, String> partitionToNode : moved.entrySet()) {
+                int partition = partitionToNode.getKey();
+                Node target = nodesByName.get(partitionToNode.getValue());
+                // Moves whose target isn't known yet are skipped, and applied later when it joins:
+                if (target != null && partition >= 0 && partition < maxPartitions) {
+                    nodesToPartitions.get(ring[partition]).remove(Integer.valueOf(partition));
+                    nodesToPartitions.get(target).add(partition);
+                    ring[partition] = target;
                 }
-                nodesToPartitions.clear();
             }
+            appliedMoves = moved;
+        }
+
+        private Map<String, Node> getNodesByName() {
+            Map<String, Node> nodesByName = new HashMap<String, Node>();
+            for (Node node : nodes) {
+                nodesByName.put(node.getName(), node);
+            }
+            return nodesByName;
+        }
+
+        private int getWeight(Node node) {
+            Integer weight = nodeWeights.get(node.getName());
+            return weight != null ? weight : 1;
         }
 
-        private Node selectNodeAtPartition(int partition) {
+        public Node selectNodeAtPartition(int partition) {
+            Node[] ring = this.ring;
             if (partition >= 0 && partition < ring.length) {
                 Node selected = ring[partition];
                 LOG.debug("Getting node {} at partition {}", selected, partition);
@@ -18,65 +18,75 @@ package terrastore.partition.impl;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import terrastore.communication.Cluster;
 import terrastore.partition.EnsemblePartitioner;
+import terrastore.partition.KeyAffinity;
 import terrastore.router.impl.HashFunction;
+import terrastore.router.impl.KeyHashFunction;
+import terrastore.router.impl.KeyHashFunctionAdapter;
 import terrastore.store.Key;
 
 /**
  * {@link terrastore.partition.EnsemblePartitioner} implementation based on consistent hashing and ordering.
+ * <br><br>
+ * Clusters setup publishes a new immutable array of clusters, so that lookups never lock.
  *
  * @author Sergio Bossa
  */
 public class EnsembleHashingPartitioner implements EnsemblePartitioner {
 
-    private final ReadWriteLock stateLock;
-    private final HashFunction hashFunction;
-    private Cluster[] clusters;
+    private final Lock stateLock;
+    private final KeyHashFunction hashFunction;
+    private volatile Cluster[] clusters;
+    private volatile KeyAffinity keyAffinity;
 
     public EnsembleHashingPartitioner(HashFunction hashFunction) {
-        this.stateLock = new ReentrantReadWriteLock();
-        this.hashFunction = hashFunction;
+        this.stateLock = new ReentrantLock();
+        this.hashFunction = KeyHashFunctionAdapter.adapt(hashFunction);
         this.clusters = new Cluster[0];
+        this.keyAffinity = KeyAffinity.NONE;
+    }
+
+    /**
+     * Set the {@link terrastore.partition.KeyAffinity} configuration: keys belonging to the same affinity group
+     * will be placed on the same cluster.
+     *
+     * @param keyAffinity The key affinity configuration.
+     */
+    public void setKeyAffinity(KeyAffinity keyAffinity) {
+        this.keyAffinity = keyAffinity;
     }
 
     @Override
     public void setupClusters(Set<Cluster> clusters) {
-        stateLock.writeLock().lock();
+        stateLock.lock();
         try {
-            this.clusters = new Cluster[clusters.size()];
+            Cluster[] sorted = new Cluster[clusters.size()];
             int i = 0;
             for (Cluster cluster : clusters) {
-                this.clusters[i++] = cluster;
+                sorted[i++] = cluster;
             }
-            Arrays.sort(this.clusters, new ClusterComparator());
+            Arrays.sort(sorted, new ClusterComparator());
+            this.clusters = sorted;
         } finally {
-            stateLock.writeLock().unlock();
+            stateLock.unlock();
         }
     }
 
     @Override
     public Cluster getClusterFor(String bucket) {
-        stateLock.readLock().lock();
-        try {
-            int index = hashFunction.hash(bucket, clusters.length);
-            return clusters[index];
-        } finally {
-            stateLock.readLock().unlock();
-        }
+        Cluster[] clusters = this.clusters;
+        int index = hashFunction.hash(bucket, clusters.length);
+        return clusters[index];
     }
 
     @Override
     public Cluster getClusterFor(String bucket, Key key) {
-        stateLock.readLock().lock();
-        try {
-            int index = hashFunction.hash(bucket + key, clusters.length);
-            return clusters[index];
-        } finally {
-            stateLock.readLock().unlock();
-        }
+        Cluster[] clusters = this.clusters;
+        int index = hashFunction.hash(bucket, keyAffinity.getRoutingKey(bucket, key), clusters.length);
+        return clusters[index];
     }
 
     private static class ClusterComparator implements Comparator<Cluster> {
@@ -0,0 +1,217 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.partition.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import terrastore.store.Key;
+
+/**
+ * Node-local counters of reads, writes and bytes accessed per partition, plus a sample of
+ * the most recently accessed keys of each partition.
+ * <br><br>
+ * Counters are windowed, so that loads reflect recent accesses rather than all accesses since startup: accesses are
+ * recorded into the current window, which is rotated once elapsed, and counters sum the current and previous windows,
+ * hence covering between one and two windows of accesses.
+ *
+ * @author Sergio Bossa
+ */
+public class PartitionLoadCounters {
+
+    /**
+     * Number of accessed bytes accounting for the same load as a single operation.
+     */
+    public static final long BYTES_PER_OPERATION = 4096;
+    /**
+     * Number of most recently accessed keys sampled per partition: must be a power of two.
+     */
+    public static final int HOT_KEYS_PER_PARTITION = 16;
+    /**
+     * Default length of counter windows, in milliseconds.
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 60000;
+    //
+    private final int partitions;
+    private final long windowMillis;
+    private volatile Window current;
+    private volatile Window previous;
+    private final AtomicReferenceArray<HotKey> hotKeys;
+    private final AtomicIntegerArray hotKeysCursors;
+
+    public PartitionLoadCounters(int partitions) {
+        this(partitions, DEFAULT_WINDOW_MILLIS);
+    }
+
+    public PartitionLoadCounters(int partitions, long windowMillis) {
+        this.partitions = partitions;
+        this.windowMillis = windowMillis;
+        this.current = new Window(partitions, System.currentTimeMillis());
+        this.previous = new Window(partitions, current.start - windowMillis);
+        this.hotKeys = new AtomicReferenceArray<HotKey>(partitions * HOT_KEYS_PER_PARTITION);
+        this.hotKeysCursors = new AtomicIntegerArray(partitions);
+    }
+
+    public void recordRead(int partition, long readBytes) {
+        Window window = currentWindow(System.currentTimeMillis());
+        window.reads.incrementAndGet(partition);
+        window.bytes.addAndGet(partition, readBytes);
+    }
+
+    public void recordWrite(int partition, long writtenBytes) {
+        Window window = currentWindow(System.currentTimeMillis());
+        window.writes.incrementAndGet(partition);
+        window.bytes.addAndGet(partition, writtenBytes);
+    }
+
+    /**
+     * Sample the given key as one of the most recently accessed in its partition: repeated accesses
+     * to the last sampled key are ignored.
+     */
+    public void recordKey(int partition, String bucket, Key key) {
+        int base = partition * HOT_KEYS_PER_PARTITION;
+        int cursor = hotKeysCursors.get(partition);
+        HotKey last = hotKeys.get(base + ((cursor - 1) & (HOT_KEYS_PER_PARTITION - 1)));
+        if (last == null || !last.is(bucket, key)) {
+            int slot = hotKeysCursors.getAndIncrement(partition) & (HOT_KEYS_PER_PARTITION - 1);
+            hotKeys.set(base + slot, new HotKey(bucket, key));
+        }
+    }
+
+    /**
+     * Get the distinct keys most recently accessed in the given partition, from the most recent.
+     */
+    public List<HotKey> getHotKeys(int partition) {
+        int base = partition * HOT_KEYS_PER_PARTITION;
+        int cursor = hotKeysCursors.get(partition);
+        List<HotKey> result = new ArrayList<HotKey>(HOT_KEYS_PER_PARTITION);
+        for (int i = 1; i <= HOT_KEYS_PER_PARTITION; i++) {
+            HotKey hotKey = hotKeys.get(base + ((cursor - i) & (HOT_KEYS_PER_PARTITION - 1)));
+            if (hotKey != null && !result.contains(hotKey)) {
+                result.add(hotKey);
+            }
+        }
+        return result;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * @return The number of reads in the current and previous windows.
+     */
+    public long getReads(int partition) {
+        currentWindow(System.currentTimeMillis());
+        return previous.reads.get(partition) + current.reads.get(partition);
+    }
+
+    /**
+     * @return The number of writes in the current and previous windows.
+     */
+    public long getWrites(int partition) {
+        currentWindow(System.currentTimeMillis());
+        return previous.writes.get(partition) + current.writes.get(partition);
+    }
+
+    /**
+     * @return The number of accessed bytes in the current and previous windows.
+     */
+    public long getBytes(int partition) {
+        currentWindow(System.currentTimeMillis());
+        return previous.bytes.get(partition) + current.bytes.get(partition);
+    }
+
+    /**
+     * Compute the load of a partition from its operations and accessed bytes.
+     */
+    public static long loadOf(long reads, long writes, long bytes) {
+        return reads + writes + bytes / BYTES_PER_OPERATION;
+    }
+
+    private Window currentWindow(long now) {
+        Window window = current;
+        if (now - window.start < windowMillis) {
+            return window;
+        } else {
+            synchronized (this) {
+                window = current;
+                if (now - window.start >= windowMillis) {
+                    // Drop both windows if no access happened during the whole previous one:
+                    previous = now - window.start < windowMillis * 2 ? window : new Window(partitions, now - windowMillis);
+                    window = new Window(partitions, now);
+                    current = window;
+                }
+                return window;
+            }
+        }
+    }
+
+    private static class Window {
+
+        private final long start;
+        private final AtomicLongArray reads;
+        private final AtomicLongArray writes;
+        private final AtomicLongArray bytes;
+
+        public Window(int partitions, long start) {
+            this.start = start;
+            this.reads = new AtomicLongArray(partitions);
+            this.writes = new AtomicLongArray(partitions);
+            this.bytes = new AtomicLongArray(partitions);
+        }
+    }
+
+    public static class HotKey {
+
+        private final String bucket;
+        private final Key key;
+
+        public HotKey(String bucket, Key key) {
+            this.bucket = bucket;
+            this.key = key;
+        }
+
+        public String getBucket() {
+            return bucket;
+        }
+
+        public Key getKey() {
+            return key;
+        }
+
+        private boolean is(String bucket, Key key) {
+            return this.bucket.equals(bucket) && this.key.equals(key);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof HotKey) {
+                HotKey other = (HotKey) obj;
+                return is(other.bucket, other.key);
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return bucket.hashCode() * 31 + key.hashCode();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.partition.impl;
+
+import java.util.List;
+import terrastore.common.PartitionStats;
+import terrastore.communication.Cluster;
+
+/**
+ * Listener notified about partitions explicitly moved by the {@link ClusterHashingPartitioner}.
+ *
+ * @author Sergio Bossa
+ */
+public interface PartitionMoveListener {
+
+    /**
+     * Called after the given partitions of the given cluster have been moved.
+     *
+     * @param cluster The cluster whose partitions have been moved.
+     * @param moves The applied moves.
+     */
+    public void partitionsMoved(Cluster cluster, List<PartitionStats.Move> moves);
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.partition.impl;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Plan partition moves between nodes on the basis of the observed partition load, rather than the number
+ * of owned partitions.<br>
+ * At each round, the hottest partition of the most loaded node which can be moved without making the least loaded
+ * node hotter than the former, is moved to the latter; rounds go on until nodes load is within the configured
+ * tolerance from the average, or the maximum number of moves is reached, in order to limit the handoff cost.
+ *
+ * @author Sergio Bossa
+ */
+public class PartitionRebalancer {
+
+    private final int maxMoves;
+    private final double tolerance;
+
+    public PartitionRebalancer(int maxMoves, double tolerance) {
+        this.maxMoves = maxMoves;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Plan partition moves.
+     *
+     * @param nodes The names of all nodes taking part to the plan.
+     * @param owners The name of the owner of each partition.
+     * @param loads The load of each partition: partitions with no load will not be moved.
+     * @return The planned moves, as partitions mapped to the name of the new owner, in planning order.
+     */
+    public Map<Integer, String> plan(Set<String> nodes, Map<Integer, String> owners, Map<Integer, Long> loads) {
+        Map<Integer, String> moves = new LinkedHashMap<Integer, String>();
+        if (nodes.size() < 2) {
+            return moves;
+        }
+        Map<Integer, String> currentOwners = new HashMap<Integer, String>(owners);
+        Map<String, Long> nodeLoads = new HashMap<String, Long>();
+        long totalLoad = 0;
+        for (String node : nodes) {
+            nodeLoads.put(node, 0L);
+        }
+        for (Map.Entry<Integer, Long> load : loads.entrySet()) {
+            String owner = currentOwners.get(load.getKey());
+            if (owner != null && nodeLoads.containsKey(owner)) {
+                nodeLoads.put(owner, nodeLoads.get(owner) + load.getValue());
+                totalLoad += load.getValue();
+            }
+        }
+        double maxAllowedLoad = (1 + tolerance) * totalLoad / nodes.size();
+        while (moves.size() < maxMoves) {
+            String hottest = null;
+            String coldest = null;
+            for (Map.Entry<String, Long> nodeLoad : nodeLoads.entrySet()) {
+                if (hottest == null || nodeLoad.getValue() > nodeLoads.get(hottest)) {
+                    hottest = nodeLoad.getKey();
+                }
+                if (coldest == null || nodeLoad.getValue() < nodeLoads.get(coldest)) {
+                    coldest = nodeLoad.getKey();
+                }
+            }
+            long gap = nodeLoads.get(hottest) - nodeLoads.get(coldest);
+            if (nodeLoads.get(hottest) <= maxAllowedLoad || gap <= 0) {
+                break;
+            }
+            // Moving a partition whose load is less than the gap strictly reduces the imbalance between the two nodes:
+            Integer candidate = null;
+            long candidateLoad = 0;
+            for (Map.Entry<Integer, Long> load : loads.entrySet()) {
+                if (hottest.equals(currentOwners.get(load.getKey())) && load.getValue() > candidateLoad && load.getValue() < gap) {
+                    candidate = load.getKey();
+                    candidateLoad = load.getValue();
+                }
+            }
+            if (candidate == null) {
+                break;
+            }
+            currentOwners.put(candidate, coldest);
+            nodeLoads.put(hottest, nodeLoads.get(hottest) - candidateLoad);
+            nodeLoads.put(coldest, nodeLoads.get(coldest) + candidateLoad);
+            moves.put(candidate, coldest);
+        }
+        return moves;
+    }
+}
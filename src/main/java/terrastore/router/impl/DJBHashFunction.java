@@ -15,27 +15,36 @@
  */
 package terrastore.router.impl;
 
+import terrastore.store.Key;
+
 /**
  * Hash function based on Bernstein algorithm at: http://www.partow.net/programming/hashfunctions/#DJBHashFunction.
  *
  * @author Arash Partow
  * @author Sergio Bossa
  */
-public class DJBHashFunction implements HashFunction {
+public class DJBHashFunction implements KeyHashFunction {
 
     public int hash(String value, int maxValue) {
         long hash = doHash(value);
         return (int) Math.abs(hash % maxValue);
     }
 
+    public int hash(String bucket, Key key, int maxValue) {
+        long hash = doHash(doHash(5381, bucket), key.toString());
+        return (int) Math.abs(hash % maxValue);
+    }
+
     @Override
     public String toString() {
         return this.getClass().getName();
     }
 
     private long doHash(String str) {
-        long hash = 5381;
+        return doHash(5381, str);
+    }
 
+    private long doHash(long hash, String str) {
         for (int i = 0; i < str.length(); i++) {
             hash = ((hash << 5) + hash) + str.charAt(i);
         }
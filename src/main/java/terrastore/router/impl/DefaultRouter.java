@@ -20,8 +20,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import terrastore.common.ErrorMessage;
@@ -36,6 +36,9 @@ import terrastore.util.collect.Sets;
 
 /**
  * Default {@link terrastore.router.Router} implementation.
+ * <br><br>
+ * Route changes are serialized, while routing is lock-free: it reads the immutable clusters snapshot
+ * published on setup, and delegates to partitioners, which publish their own immutable partition tables.
  *
  * @author Sergio Bossa
  */
@@ -43,33 +46,35 @@ public class DefaultRouter implements Router {
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultRouter.class);
     //
-    private final ReadWriteLock stateLock;
-    private final Set<Cluster> clustersCache;
+    private final Lock stateLock;
     private final ClusterPartitioner clusterPartitioner;
     private final EnsemblePartitioner ensemblePartitioner;
+    private volatile Set<Cluster> clustersCache;
     private volatile Node localNode;
 
     public DefaultRouter(ClusterPartitioner clusterPartitioner, EnsemblePartitioner ensemblePartitioner) {
-        this.stateLock = new ReentrantReadWriteLock();
-        this.clustersCache = new HashSet<Cluster>();
+        this.stateLock = new ReentrantLock();
+        this.clustersCache = Collections.emptySet();
         this.clusterPartitioner = clusterPartitioner;
         this.ensemblePartitioner = ensemblePartitioner;
     }
 
     @Override
     public void setupClusters(Set<Cluster> clusters) {
-        stateLock.writeLock().lock();
+        stateLock.lock();
         try {
-            clustersCache.addAll(clusters);
+            Set<Cluster> updated = new HashSet<Cluster>(clustersCache);
+            updated.addAll(clusters);
+            clustersCache = Collections.unmodifiableSet(updated);
             ensemblePartitioner.setupClusters(clusters);
         } finally {
-            stateLock.writeLock().unlock();
+            stateLock.unlock();
         }
     }
 
     @Override
     public Set<Cluster> getClusters() {
-        return Collections.unmodifiableSet(clustersCache);
+        return clustersCache;
     }
 
     @Override
@@ -79,7 +84,7 @@ public class DefaultRouter implements Router {
 
     @Override
     public void addRouteTo(Cluster cluster, Node node) {
-        stateLock.writeLock().lock();
+        stateLock.lock();
         try {
             if (clustersCache.contains(cluster)) {
                 LOG.debug("Adding route to cluster {} and node {}", cluster, node);
@@ -89,13 +94,13 @@ public class DefaultRouter implements Router {
                 throw new IllegalStateException("Unknown cluster: " + cluster.getName());
             }
         } finally {
-            stateLock.writeLock().unlock();
+            stateLock.unlock();
         }
     }
 
     @Override
     public void removeRouteTo(Cluster cluster, Node node) {
-        stateLock.writeLock().lock();
+        stateLock.lock();
         try {
             if (clustersCache.contains(cluster)) {
                 LOG.debug("Removing route to cluster {} and node {}", cluster, node);
@@ -105,7 +110,7 @@ public class DefaultRouter implements Router {
                 throw new IllegalStateException("Unknown cluster: " + cluster.getName());
             }
         } finally {
-            stateLock.writeLock().unlock();
+            stateLock.unlock();
         }
     }
 
@@ -117,109 +122,91 @@ public class DefaultRouter implements Router {
 
     @Override
     public Node routeToNodeFor(String bucket) throws MissingRouteException {
-        stateLock.readLock().lock();
-        try {
-            Cluster cluster = ensemblePartitioner.getClusterFor(bucket);
-            if (cluster != null) {
-                Node route = clusterPartitioner.getNodeFor(cluster, bucket);
-                if (route != null) {
-                    LOG.debug("Routing to cluster {} and node {}", cluster, route);
-                    return route;
-                } else {
-                    throw new MissingRouteException(new ErrorMessage(ErrorMessage.UNAVAILABLE_ERROR_CODE, "Data is currently unavailable. Some clusters of your ensemble may be down or unreachable."));
-                }
+        Cluster cluster = ensemblePartitioner.getClusterFor(bucket);
+        if (cluster != null) {
+            Node route = clusterPartitioner.getNodeFor(cluster, bucket);
+            if (route != null) {
+                LOG.debug("Routing to cluster {} and node {}", cluster, route);
+                return route;
             } else {
-                // TODO : use proper exception here?
-                throw new IllegalStateException("Cannot find cluster for bucket " + bucket);
+                throw new MissingRouteException(new ErrorMessage(ErrorMessage.UNAVAILABLE_ERROR_CODE, "Data is currently unavailable. Some clusters of your ensemble may be down or unreachable."));
             }
-        } finally {
-            stateLock.readLock().unlock();
+        } else {
+            // TODO : use proper exception here?
+            throw new IllegalStateException("Cannot find cluster for bucket " + bucket);
         }
     }
 
     @Override
     public Node routeToNodeFor(String bucket, Key key) throws MissingRouteException {
-        stateLock.readLock().lock();
-        try {
-            Cluster cluster = ensemblePartitioner.getClusterFor(bucket, key);
-            if (cluster != null) {
-                Node route = clusterPartitioner.getNodeFor(cluster, bucket, key);
-                if (route != null) {
-                    LOG.debug("Routing to cluster {} and node {}", cluster, route);
-                    return route;
-                } else {
-                    throw new MissingRouteException(new ErrorMessage(ErrorMessage.UNAVAILABLE_ERROR_CODE, "Data is currently unavailable. Some clusters of your ensemble may be down or unreachable."));
-                }
+        Cluster cluster = ensemblePartitioner.getClusterFor(bucket, key);
+        if (cluster != null) {
+            Node route = clusterPartitioner.getNodeFor(cluster, bucket, key);
+            if (route != null) {
+                LOG.debug("Routing to cluster {} and node {}", cluster, route);
+                return route;
             } else {
-                // TODO : use proper exception here?
-                throw new IllegalStateException("Cannot find cluster for bucket " + bucket + " and key " + key);
+                throw new MissingRouteException(new ErrorMessage(ErrorMessage.UNAVAILABLE_ERROR_CODE, "Data is currently unavailable. Some clusters of your ensemble may be down or unreachable."));
             }
-        } finally {
-            stateLock.readLock().unlock();
+        } else {
+            // TODO : use proper exception here?
+            throw new IllegalStateException("Cannot find cluster for bucket " + bucket + " and key " + key);
         }
     }
 
     @Override
     public Map<Node, Set<Key>> routeToNodesFor(String bucket, Set<Key> keys) throws MissingRouteException {
-        stateLock.readLock().lock();
-        try {
-            Map<Node, Set<Key>> nodeToKeys = new HashMap<Node, Set<Key>>();
-            for (Key key : keys) {
-                Node route = routeToNodeFor(bucket, key);
-                Set<Key> routedKeys = nodeToKeys.get(route);
+        Map<Node, Set<Key>> nodeToKeys = new HashMap<Node, Set<Key>>();
+        Node lastRoute = null;
+        Set<Key> routedKeys = null;
+        for (Key key : keys) {
+            Node route = routeToNodeFor(bucket, key);
+            // Consecutive keys often share the same route, so avoid looking up the routed keys again:
+            if (route != lastRoute) {
+                routedKeys = nodeToKeys.get(route);
                 if (routedKeys == null) {
                     routedKeys = new HashSet<Key>();
                     nodeToKeys.put(route, routedKeys);
                 }
-                routedKeys.add(key);
+                lastRoute = route;
             }
-            return nodeToKeys;
-        } finally {
-            stateLock.readLock().unlock();
+            routedKeys.add(key);
         }
+        return nodeToKeys;
     }
 
     @Override
     public Set<Node> clusterRoute(Cluster cluster) {
-        stateLock.readLock().lock();
-        try {
-            LOG.debug("Routing to all nodes for cluster {}", cluster);
-            if (cluster.isLocal()) {
-                return Sets.cons(localNode, clusterPartitioner.getNodesFor(cluster));
-            } else {
-                return clusterPartitioner.getNodesFor(cluster);
-            }
-        } finally {
-            stateLock.readLock().unlock();
+        LOG.debug("Routing to all nodes for cluster {}", cluster);
+        if (cluster.isLocal()) {
+            return Sets.cons(localNode, clusterPartitioner.getNodesFor(cluster));
+        } else {
+            return clusterPartitioner.getNodesFor(cluster);
         }
     }
 
     @Override
     public Map<Cluster, Set<Node>> broadcastRoute() {
-        stateLock.readLock().lock();
-        try {
-            LOG.debug("Routing to all nodes of all clusters.");
-            Map<Cluster, Set<Node>> nodes = new HashMap<Cluster, Set<Node>>(clustersCache.size());
-            for (Cluster cluster : clustersCache) {
-                if (cluster.isLocal()) {
-                    nodes.put(cluster, Sets.cons(localNode, clusterPartitioner.getNodesFor(cluster)));
-                } else {
-                    nodes.put(cluster, clusterPartitioner.getNodesFor(cluster));
-                }
+        LOG.debug("Routing to all nodes of all clusters.");
+        Set<Cluster> clusters = clustersCache;
+        Map<Cluster, Set<Node>> nodes = new HashMap<Cluster, Set<Node>>(clusters.size());
+        for (Cluster cluster : clusters) {
+            if (cluster.isLocal()) {
+                nodes.put(cluster, Sets.cons(localNode, clusterPartitioner.getNodesFor(cluster)));
+            } else {
+                nodes.put(cluster, clusterPartitioner.getNodesFor(cluster));
             }
-            return nodes;
-        } finally {
-            stateLock.readLock().unlock();
         }
+        return nodes;
     }
 
     @Override
     public void cleanup() {
-        stateLock.writeLock().lock();
+        stateLock.lock();
         try {
             clusterPartitioner.cleanupPartitions();
         } finally {
-            stateLock.writeLock().unlock();
+            stateLock.unlock();
         }
     }
 
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.router.impl;
+
+import terrastore.store.Key;
+
+/**
+ * {@link HashFunction} able to hash bucket and key pairs without building their concatenation.<br>
+ * Plain {@link HashFunction} implementations can be used where a key hash function is needed through
+ * {@link KeyHashFunctionAdapter}.<br>
+ * Results depend on both the bucket and the hash function, so they are not cached per {@link terrastore.store.Key}:
+ * implementations should rather reuse the hash code cached by the key string, as {@link SimpleHashFunction} does.
+ *
+ * @author Sergio Bossa
+ */
+public interface KeyHashFunction extends HashFunction {
+
+    /**
+     * Hash the given bucket and key: the result must be equal to hashing the concatenation of bucket and key
+     * through {@link #hash(java.lang.String, int)} (for well formed strings), but should be computed without building
+     * the combined string.
+     */
+    public int hash(String bucket, Key key, int maxValue);
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.router.impl;
+
+import terrastore.store.Key;
+
+/**
+ * Adapt a plain {@link HashFunction} to the {@link KeyHashFunction} interface, by hashing the concatenation
+ * of bucket and key.
+ *
+ * @author Sergio Bossa
+ */
+public class KeyHashFunctionAdapter implements KeyHashFunction {
+
+    private final HashFunction delegate;
+
+    /**
+     * Get the given hash function as a {@link KeyHashFunction}, adapting it only if needed.
+     */
+    public static KeyHashFunction adapt(HashFunction hashFunction) {
+        if (hashFunction instanceof KeyHashFunction) {
+            return (KeyHashFunction) hashFunction;
+        } else {
+            return new KeyHashFunctionAdapter(hashFunction);
+        }
+    }
+
+    public KeyHashFunctionAdapter(HashFunction delegate) {
+        this.delegate = delegate;
+    }
+
+    public int hash(String value, int maxValue) {
+        return delegate.hash(value, maxValue);
+    }
+
+    public int hash(String bucket, Key key, int maxValue) {
+        return delegate.hash(bucket + key, maxValue);
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.router.impl;
+
+import terrastore.store.Key;
+
+/**
+ * Hash function based on the Murmur Hash 3 algorithm (x86 32 bits or x64 128 bits variants), computed over
+ * the UTF-8 bytes of hashed strings without allocating them.
+ *
+ * @author Sergio Bossa
+ */
+public class Murmur3HashFunction implements KeyHashFunction {
+
+    private static final int C1_32 = 0xcc9e2d51;
+    private static final int C2_32 = 0x1b873593;
+    private static final long C1_128 = 0x87c37b91114253d5L;
+    private static final long C2_128 = 0x4cf5ad432745937fL;
+    //
+    private final int bits;
+
+    public Murmur3HashFunction() {
+        this(32);
+    }
+
+    public Murmur3HashFunction(int bits) {
+        if (bits != 32 && bits != 128) {
+            throw new IllegalArgumentException("Unsupported number of bits: " + bits);
+        }
+        this.bits = bits;
+    }
+
+    public int hash(String value, int maxValue) {
+        return doHash(value, "", maxValue);
+    }
+
+    public int hash(String bucket, Key key, int maxValue) {
+        return doHash(bucket, key.toString(), maxValue);
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + "-" + bits;
+    }
+
+    int hash32(String first, String second) {
+        int h1 = 0;
+        int length = 0;
+        int block = 0;
+        int filled = 0;
+        for (int part = 0; part < 2; part++) {
+            String value = part == 0 ? first : second;
+            int i = 0;
+            while (i < value.length()) {
+                long encoded = Utf8.encode(value, i);
+                int bytes = Utf8.bytes(encoded);
+                int count = Utf8.bytesCount(encoded);
+                for (int j = 0; j < count; j++) {
+                    block |= ((bytes >>> (j << 3)) & 0xff) << (filled << 3);
+                    if (++filled == 4) {
+                        h1 ^= mixK1(block);
+                        h1 = Integer.rotateLeft(h1, 13);
+                        h1 = h1 * 5 + 0xe6546b64;
+                        block = 0;
+                        filled = 0;
+                    }
+                }
+                length += count;
+                i += Utf8.charsCount(encoded);
+            }
+        }
+        if (filled > 0) {
+            h1 ^= mixK1(block);
+        }
+        h1 ^= length;
+        return fmix32(h1);
+    }
+
+    long hash128(String first, String second) {
+        long h1 = 0;
+        long h2 = 0;
+        int length = 0;
+        long low = 0;
+        long high = 0;
+        int filled = 0;
+        for (int part = 0; part < 2; part++) {
+            String value = part == 0 ? first : second;
+            int i = 0;
+            while (i < value.length()) {
+                long encoded = Utf8.encode(value, i);
+                int bytes = Utf8.bytes(encoded);
+                int count = Utf8.bytesCount(encoded);
+                for (int j = 0; j < count; j++) {
+                    long b = (bytes >>> (j << 3)) & 0xffL;
+                    if (filled < 8) {
+                        low |= b << (filled << 3);
+                    } else {
+                        high |= b << ((filled - 8) << 3);
+                    }
+                    if (++filled == 16) {
+                        h1 ^= mixK1(low);
+                        h1 = Long.rotateLeft(h1, 27);
+                        h1 += h2;
+                        h1 = h1 * 5 + 0x52dce729;
+                        h2 ^= mixK2(high);
+                        h2 = Long.rotateLeft(h2, 31);
+                        h2 += h1;
+                        h2 = h2 * 5 + 0x38495ab5;
+                        low = 0;
+                        high = 0;
+                        filled = 0;
+                    }
+                }
+                length += count;
+                i += Utf8.charsCount(encoded);
+            }
+        }
+        if (filled > 8) {
+            h2 ^= mixK2(high);
+        }
+        if (filled > 0) {
+            h1 ^= mixK1(low);
+        }
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        return h1;
+    }
+
+    private int doHash(String first, String second, int maxValue) {
+        if (bits == 32) {
+            return (hash32(first, second) & Integer.MAX_VALUE) % maxValue;
+        } else {
+            return (int) ((hash128(first, second) & Long.MAX_VALUE) % maxValue);
+        }
+    }
+
+    private int mixK1(int k1) {
+        k1 *= C1_32;
+        k1 = Integer.rotateLeft(k1, 15);
+        k1 *= C2_32;
+        return k1;
+    }
+
+    private long mixK1(long k1) {
+        k1 *= C1_128;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2_128;
+        return k1;
+    }
+
+    private long mixK2(long k2) {
+        k2 *= C2_128;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1_128;
+        return k2;
+    }
+
+    private int fmix32(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
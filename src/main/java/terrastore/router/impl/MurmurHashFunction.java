@@ -16,6 +16,7 @@
 package terrastore.router.impl;
 
 import java.nio.charset.Charset;
+import terrastore.store.Key;
 
 /**
  * Hash function based on Murmur Hash algorithm Java port at: http://www.getopt.org/.
@@ -23,7 +24,7 @@ import java.nio.charset.Charset;
  * @author Andrzej Bialecki
  * @author Sergio Bossa
  */
-public class MurmurHashFunction implements HashFunction {
+public class MurmurHashFunction implements KeyHashFunction {
 
     public int hash(String value, int maxValue) {
         byte[] bytes = value.getBytes(Charset.forName("UTF-8"));
@@ -31,6 +32,11 @@ public class MurmurHashFunction implements HashFunction {
         return Math.abs(hash % maxValue);
     }
 
+    public int hash(String bucket, Key key, int maxValue) {
+        int hash = doHash(bucket, key.toString());
+        return Math.abs(hash % maxValue);
+    }
+
     @Override
     public String toString() {
         return this.getClass().getName();
@@ -84,4 +90,80 @@ public class MurmurHashFunction implements HashFunction {
 
         return h;
     }
+
+    private int doHash(String first, String second) {
+        int m = 0x5bd1e995;
+
+        int seed = 0;
+        if (first.length() > 0) {
+            seed = (byte) Utf8.bytes(Utf8.encode(first, 0));
+        } else if (second.length() > 0) {
+            seed = (byte) Utf8.bytes(Utf8.encode(second, 0));
+        }
+
+        int h = seed ^ (Utf8.length(first) + Utf8.length(second));
+
+        int block = 0;
+        int filled = 0;
+        for (int part = 0; part < 2; part++) {
+            String value = part == 0 ? first : second;
+            int i = 0;
+            while (i < value.length()) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    // Fast path for single byte characters:
+                    block |= c << (filled << 3);
+                    if (++filled == 4) {
+                        h = mix(h, block);
+                        block = 0;
+                        filled = 0;
+                    }
+                    i++;
+                } else {
+                    long encoded = Utf8.encode(value, i);
+                    int bytes = Utf8.bytes(encoded);
+                    int count = Utf8.bytesCount(encoded);
+                    for (int j = 0; j < count; j++) {
+                        block |= ((bytes >>> (j << 3)) & 0xff) << (filled << 3);
+                        if (++filled == 4) {
+                            h = mix(h, block);
+                            block = 0;
+                            filled = 0;
+                        }
+                    }
+                    i += Utf8.charsCount(encoded);
+                }
+            }
+        }
+
+        // Tail bytes are sign extended, as in the original algorithm:
+        if (filled != 0) {
+            if (filled >= 3) {
+                h ^= (int) (byte) (block >>> ((filled - 3) << 3)) << 16;
+            }
+            if (filled >= 2) {
+                h ^= (int) (byte) (block >>> ((filled - 2) << 3)) << 8;
+            }
+            h ^= (int) (byte) (block >>> ((filled - 1) << 3));
+
+            h *= m;
+        }
+
+        h ^= h >>> 13;
+        h *= m;
+        h ^= h >>> 15;
+
+        return h;
+    }
+
+    private int mix(int h, int k) {
+        int m = 0x5bd1e995;
+        int r = 24;
+        k *= m;
+        k ^= k >>> r;
+        k *= m;
+        h *= m;
+        h ^= k;
+        return h;
+    }
 }
@@ -15,20 +15,44 @@
  */
 package terrastore.router.impl;
 
+import terrastore.store.Key;
+
 /**
  * Hash function based on String hash code.
  *
  * @author Sergio Bossa
  */
-public class SimpleHashFunction implements HashFunction {
+public class SimpleHashFunction implements KeyHashFunction {
 
     public int hash(String value, int maxValue) {
         long hash = value.hashCode();
         return (int) Math.abs(hash % maxValue);
     }
 
+    /**
+     * Combine bucket and key (cached) hash codes into the hash code of their concatenation.
+     */
+    public int hash(String bucket, Key key, int maxValue) {
+        String value = key.toString();
+        long hash = bucket.hashCode() * pow31(value.length()) + value.hashCode();
+        return (int) Math.abs(hash % maxValue);
+    }
+
     @Override
     public String toString() {
         return this.getClass().getName();
     }
+
+    private int pow31(int exponent) {
+        int result = 1;
+        int base = 31;
+        while (exponent > 0) {
+            if ((exponent & 1) != 0) {
+                result *= base;
+            }
+            base *= base;
+            exponent >>= 1;
+        }
+        return result;
+    }
 }
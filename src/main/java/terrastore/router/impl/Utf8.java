@@ -0,0 +1,98 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.router.impl;
+
+/**
+ * Incremental UTF-8 encoding of strings, used by hash functions to hash strings bytes without allocating them.<br>
+ * Encoding is the same as {@link java.lang.String#getBytes(java.nio.charset.Charset)}, hence unpaired surrogates
+ * are replaced by '?'.<br>
+ * Strings are encoded one at a time, so a surrogate pair split between two strings is encoded as two replacements.
+ *
+ * @author Sergio Bossa
+ */
+class Utf8 {
+
+    private static final int REPLACEMENT = '?';
+
+    /**
+     * Compute the number of bytes of the UTF-8 encoding of the given string.
+     */
+    static int length(String value) {
+        int length = 0;
+        int chars = value.length();
+        for (int i = 0; i < chars; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encode the character (or surrogate pair) at the given index.
+     *
+     * @return The encoded bytes in the lower 32 bits (first byte is the least significant one), followed by the
+     * number of encoded bytes (8 bits) and the number of consumed chars (8 bits).
+     */
+    static long encode(String value, int index) {
+        char c = value.charAt(index);
+        if (c < 0x80) {
+            return pack(c, 1, 1);
+        } else if (c < 0x800) {
+            return pack((0xC0 | (c >> 6)) | (0x80 | (c & 0x3F)) << 8, 2, 1);
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int cp = Character.toCodePoint(c, value.charAt(index + 1));
+            return pack((0xF0 | (cp >> 18))
+                    | (0x80 | ((cp >> 12) & 0x3F)) << 8
+                    | (0x80 | ((cp >> 6) & 0x3F)) << 16
+                    | (0x80 | (cp & 0x3F)) << 24, 4, 2);
+        } else if (isSurrogate(c)) {
+            return pack(REPLACEMENT, 1, 1);
+        } else {
+            return pack((0xE0 | (c >> 12)) | (0x80 | ((c >> 6) & 0x3F)) << 8 | (0x80 | (c & 0x3F)) << 16, 3, 1);
+        }
+    }
+
+    static int bytes(long encoded) {
+        return (int) encoded;
+    }
+
+    static int bytesCount(long encoded) {
+        return (int) (encoded >>> 32) & 0xFF;
+    }
+
+    static int charsCount(long encoded) {
+        return (int) (encoded >>> 40) & 0xFF;
+    }
+
+    private static boolean isSurrogate(char c) {
+        return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+    }
+
+    private static long pack(int bytes, int bytesCount, int charsCount) {
+        return (bytes & 0xFFFFFFFFL) | ((long) bytesCount << 32) | ((long) charsCount << 40);
+    }
+}
@@ -16,11 +16,15 @@
 package terrastore.server;
 
 import terrastore.common.ClusterStats;
+import terrastore.common.IndexStats;
+import terrastore.common.PartitionStats;
+import terrastore.common.RateLimits;
 import terrastore.service.BackupService;
 import terrastore.service.QueryService;
 import terrastore.service.UpdateService;
 import terrastore.store.Key;
 import terrastore.store.Value;
+import terrastore.store.features.Expectation;
 
 /**
  * The Server handles client requests relying on services to actually execute them.
@@ -57,6 +61,16 @@ public interface Server {
      */
     public Keys bulkPut(String bucket, Values values) throws ServerOperationException;
 
+    /**
+     * Execute a bulk put into the given bucket, incrementally reading values from the given stream.
+     *
+     * @param bucket The name of the bucket where to bulk put values.
+     * @param values The stream of values to put.
+     * @return The inserted keys.
+     * @throws ServerOperationException If an error occurs.
+     */
+    public Keys bulkPut(String bucket, ValuesStream values) throws ServerOperationException;
+
     /**
      * Put a value in the given bucket under the given key.<br>
      * Conditional put can be executed by providing a predicate expression:
@@ -70,6 +84,31 @@ public interface Server {
      */
     public void putValue(String bucket, Key key, Value value, String predicate) throws ServerOperationException;
 
+    /**
+     * Put a value in the given bucket under the given key, making it expire after the given time to live:
+     * expired values are never returned, and get removed in background.
+     *
+     * @param bucket The name of the bucket where to put the value.
+     * @param key The key of the value to put.
+     * @param value The value to put.
+     * @param timeToLive The time to live in milliseconds.
+     * @throws ServerOperationException If an error occurs.
+     */
+    public void putExpiringValue(String bucket, Key key, Value value, long timeToLive) throws ServerOperationException;
+
+    /**
+     * Put a value in the given bucket under the given key, only if the hash (see {@link terrastore.store.Value#getHash()})
+     * or the version (see {@link terrastore.store.Value#getVersion()}) of the existent value matches the given {@link Expectation},
+     * where only a zero version matches absent values.
+     *
+     * @param bucket The name of the bucket where to put the value.
+     * @param key The key of the value to put.
+     * @param value The value to put.
+     * @param expectation The hash or version the existent value is expected to have.
+     * @throws ServerOperationException If an error occurs, or if the hash or version doesn't match.
+     */
+    public void compareAndPutValue(String bucket, Key key, Value value, Expectation expectation) throws ServerOperationException;
+
     /**
      * Remove a value from the given bucket under the given key.
      *
@@ -79,6 +118,17 @@ public interface Server {
      */
     public void removeValue(String bucket, Key key) throws ServerOperationException;
 
+    /**
+     * Remove a value from the given bucket under the given key, only if it exists and its hash (see {@link terrastore.store.Value#getHash()})
+     * or version (see {@link terrastore.store.Value#getVersion()}) matches the given {@link Expectation}.
+     *
+     * @param bucket The name of the bucket where to remove the value from.
+     * @param key The key of the value to remove.
+     * @param expectation The hash or version the existent value is expected to have.
+     * @throws ServerOperationException If an error occurs, or if the hash or version doesn't match.
+     */
+    public void compareAndRemoveValue(String bucket, Key key, Expectation expectation) throws ServerOperationException;
+
     /**
      * Execute an update on a value from the given bucket under the given key.
      * 
@@ -103,6 +153,17 @@ public interface Server {
      */
     public Value mergeValue(String bucket, Key key, Value merge) throws ServerOperationException;
 
+    /**
+     * Increment the numeric counters of the value stored under the given bucket and key, creating them if missing.<br>
+     * Increments are asynchronously written to the value, but visible to all subsequent reads.
+     *
+     * @param bucket The name of the bucket holding the value to increment.
+     * @param key The key of the value to increment.
+     * @param counters The counter names mapped to their integral increment amounts.
+     * @throws ServerOperationException If an error occurs.
+     */
+    public void incrementCounters(String bucket, Key key, Parameters counters) throws ServerOperationException;
+
     /**
      * Get the name of all buckets.
      *
@@ -194,6 +255,17 @@ public interface Server {
      */
     public Values queryByPredicate(String bucket, String predicate) throws ServerOperationException;
 
+    /**
+     * Execute a predicate-based query returning all key/value pairs whose value satisfies the given predicate,
+     * looking them up through secondary indexes when the predicate can be answered by them.
+     *
+     * @param bucket The bucket to query.
+     * @param predicate The predicate to evaluate.
+     * @return A map containing key/value pairs
+     * @throws ServerOperationException If an error occurs.
+     */
+    public Values queryByIndex(String bucket, String predicate) throws ServerOperationException;
+
     /**
      * Execute a map-reduce query over the given bucket.
      *
@@ -231,6 +303,61 @@ public interface Server {
      */
     public ClusterStats getClusterStats();
 
+    /**
+     * Get the current {@link terrastore.common.PartitionStats} of the local cluster.
+     *
+     * @return The {@link terrastore.common.PartitionStats} instance.
+     */
+    public PartitionStats getPartitionStats();
+
+    /**
+     * Move the hottest partitions of the local cluster away from the most loaded nodes.<br>
+     * Partitions are handed off in rate-limited steps, so returned statistics only reflect the first one.
+     *
+     * @param maxMoves The max number of partitions to move.
+     * @return The {@link terrastore.common.PartitionStats} instance after the first rebalancing step.
+     * @throws ServerOperationException If an error occurs.
+     */
+    public PartitionStats rebalancePartitions(int maxMoves) throws ServerOperationException;
+
+    /**
+     * Get the current {@link terrastore.common.IndexStats}.
+     *
+     * @return The {@link terrastore.common.IndexStats} instance.
+     */
+    public IndexStats getIndexStats();
+
+    /**
+     * Get the current {@link terrastore.common.RateLimits}, including per-bucket rejection counters.
+     *
+     * @return The {@link terrastore.common.RateLimits} instance.
+     */
+    public RateLimits getRateLimits();
+
+    /**
+     * Set the rate limits applied to all buckets without specific limits.
+     *
+     * @param operationsPerSecond The max number of operations per second, or zero for unlimited operations.
+     * @param bytesPerSecond The max number of document bytes per second, or zero for unlimited bytes.
+     */
+    public void setDefaultRateLimits(long operationsPerSecond, long bytesPerSecond);
+
+    /**
+     * Set the rate limits applied to the given bucket, in place of default ones.
+     *
+     * @param bucket The bucket name.
+     * @param operationsPerSecond The max number of operations per second, or zero for unlimited operations.
+     * @param bytesPerSecond The max number of document bytes per second, or zero for unlimited bytes.
+     */
+    public void setRateLimits(String bucket, long operationsPerSecond, long bytesPerSecond);
+
+    /**
+     * Remove the rate limits specific to the given bucket, which will be subject to default limits.
+     *
+     * @param bucket The bucket name.
+     */
+    public void removeRateLimits(String bucket);
+
     /**
      * Get the {@link terrastore.service.UpdateService} which will actually execute all update operations.
      *
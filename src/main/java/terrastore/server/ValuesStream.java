@@ -0,0 +1,37 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.server;
+
+import java.util.Map;
+import terrastore.store.Key;
+import terrastore.store.ValidationException;
+import terrastore.store.Value;
+
+/**
+ * Stream of key/value entries, incrementally read one at a time rather than fully materialized as {@link Values}.
+ *
+ * @author Sergio Bossa
+ */
+public interface ValuesStream {
+
+    /**
+     * Read the next entry from the stream.
+     *
+     * @return The next key/value entry, or null if the stream has been fully read.
+     * @throws ValidationException If the stream contents are not valid.
+     */
+    public Map.Entry<Key, Value> next() throws ValidationException;
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.server.impl;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.StaticChannelPipeline;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import terrastore.common.ErrorMessage;
+import terrastore.communication.remote.SerializerDecoder;
+import terrastore.communication.remote.SerializerEncoder;
+import terrastore.server.Keys;
+import terrastore.server.Server;
+import terrastore.server.ServerOperationException;
+import terrastore.server.Values;
+import terrastore.server.impl.binary.BinaryRequest;
+import terrastore.server.impl.binary.BinaryResponse;
+import terrastore.util.io.MsgPackSerializer;
+
+/**
+ * Netty-based server speaking a compact msgpack protocol made of {@link terrastore.server.impl.binary.BinaryRequest}
+ * and {@link terrastore.server.impl.binary.BinaryResponse} messages, framed the same way as node-to-node commands.<br>
+ * Requests are executed concurrently and responses written back as soon as they're ready, so clients can pipeline
+ * several requests on the same connection and correlate responses by id.<br>
+ * Requests waiting for execution are bounded by a configurable queue: requests exceeding it are immediately answered
+ * with a {@link terrastore.common.ErrorMessage#TOO_MANY_REQUESTS_ERROR_CODE} error.
+ *
+ * @author Sergio Bossa
+ */
+public class BinaryServer {
+
+    public final static String BINARY_THREADS_CONFIGURATION_PARAMETER = "configuration.binaryThreads";
+    public final static String BINARY_COMPRESSION_CONFIGURATION_PARAMETER = "configuration.binaryCompression";
+    public final static String BINARY_QUEUE_CONFIGURATION_PARAMETER = "configuration.binaryQueue";
+    //
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryServer.class);
+    private static final int DEFAULT_THREADS = 100;
+    private static final int DEFAULT_QUEUE = 1000;
+    //
+    private final Server core;
+    private ServerBootstrap server;
+    private ChannelGroup acceptedChannels;
+    private ExecutorService executor;
+
+    public BinaryServer(Server coreServer) {
+        this.core = coreServer;
+    }
+
+    public synchronized void start(String host, int port, Map<String, String> configuration) throws Exception {
+        if (server == null) {
+            int threads = configuration.containsKey(BINARY_THREADS_CONFIGURATION_PARAMETER)
+                    ? Integer.parseInt(configuration.get(BINARY_THREADS_CONFIGURATION_PARAMETER))
+                    : DEFAULT_THREADS;
+            int queue = configuration.containsKey(BINARY_QUEUE_CONFIGURATION_PARAMETER)
+                    ? Integer.parseInt(configuration.get(BINARY_QUEUE_CONFIGURATION_PARAMETER))
+                    : DEFAULT_QUEUE;
+            boolean compressed = Boolean.parseBoolean(configuration.get(BINARY_COMPRESSION_CONFIGURATION_PARAMETER));
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(queue));
+            acceptedChannels = new DefaultChannelGroup(this.toString());
+            server = new ServerBootstrap(new NioServerSocketChannelFactory(Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+            server.setOption("reuseAddress", true);
+            server.setOption("child.tcpNoDelay", true);
+            server.setPipelineFactory(new ServerChannelPipelineFactory(new ServerHandler(), compressed));
+            acceptedChannels.add(server.bind(new InetSocketAddress(host, port)));
+            LOG.info("Listening for binary requests on {}:{}", host, port);
+        } else {
+            throw new IllegalStateException("Request to start an already started server!");
+        }
+    }
+
+    public synchronized void stop() throws Exception {
+        if (server != null) {
+            acceptedChannels.close().awaitUninterruptibly();
+            server.releaseExternalResources();
+            executor.shutdown();
+            server = null;
+        } else {
+            throw new IllegalStateException("Request to stop an inactive server!");
+        }
+    }
+
+    private BinaryResponse execute(BinaryRequest request) {
+        long id = request.getId();
+        try {
+            switch (request.getOperation()) {
+                case GET_VALUE:
+                    return BinaryResponse.ok(id, core.getValue(request.getBucket(), request.getKey(), request.getPredicate()));
+                case PUT_VALUE:
+                    core.putValue(request.getBucket(), request.getKey(), request.getValue(), request.getPredicate());
+                    return BinaryResponse.ok(id);
+                case REMOVE_VALUE:
+                    core.removeValue(request.getBucket(), request.getKey());
+                    return BinaryResponse.ok(id);
+                case COMPARE_AND_PUT_VALUE:
+                    core.compareAndPutValue(request.getBucket(), request.getKey(), request.getValue(), request.getExpectation());
+                    return BinaryResponse.ok(id);
+                case COMPARE_AND_REMOVE_VALUE:
+                    core.compareAndRemoveValue(request.getBucket(), request.getKey(), request.getExpectation());
+                    return BinaryResponse.ok(id);
+                case BULK_GET:
+                    Values fetched = core.bulkGet(request.getBucket(), new Keys(request.getKeys()));
+                    return BinaryResponse.ok(id, fetched);
+                case BULK_PUT:
+                    Keys inserted = core.bulkPut(request.getBucket(), new Values(request.getValues()));
+                    return BinaryResponse.ok(id, inserted);
+                case QUERY_BY_RANGE:
+                    Values selected = core.queryByRange(request.getBucket(), request.getStartKey(), request.getEndKey(), request.getLimit(), request.getComparator(), request.getPredicate(), request.getTimeToLive());
+                    return BinaryResponse.ok(id, selected);
+                case REMOVE_BY_RANGE:
+                    Keys removed = core.removeByRange(request.getBucket(), request.getStartKey(), request.getEndKey(), request.getLimit(), request.getComparator(), request.getPredicate(), request.getTimeToLive());
+                    return BinaryResponse.ok(id, removed);
+                default:
+                    return BinaryResponse.error(id, new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Unsupported operation: " + request.getOperation()));
+            }
+        } catch (ServerOperationException ex) {
+            return BinaryResponse.error(id, ex.getErrorMessage());
+        } catch (Exception ex) {
+            LOG.error(ex.getMessage(), ex);
+            return BinaryResponse.error(id, new ErrorMessage(ErrorMessage.INTERNAL_SERVER_ERROR_CODE, String.valueOf(ex.getMessage())));
+        }
+    }
+
+    @Sharable
+    private class ServerHandler extends SimpleChannelUpstreamHandler {
+
+        @Override
+        public void channelOpen(ChannelHandlerContext context, ChannelStateEvent event) throws Exception {
+            acceptedChannels.add(event.getChannel());
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext context, MessageEvent event) throws Exception {
+            if (event.getMessage() instanceof BinaryRequest) {
+                final Channel channel = event.getChannel();
+                final BinaryRequest request = (BinaryRequest) event.getMessage();
+                try {
+                    executor.execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            channel.write(execute(request));
+                        }
+
+                    });
+                } catch (RejectedExecutionException ex) {
+                    channel.write(BinaryResponse.error(request.getId(), new ErrorMessage(ErrorMessage.TOO_MANY_REQUESTS_ERROR_CODE, "Too many pending requests!")));
+                }
+            } else {
+                LOG.warn("Unexpected request of type: " + event.getMessage().getClass());
+                throw new IllegalStateException("Unexpected request of type: " + event.getMessage().getClass());
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext context, ExceptionEvent event) throws Exception {
+            // Clients sending malformed or unexpected requests are disconnected:
+            LOG.error(event.getCause().getMessage(), event.getCause());
+            event.getChannel().close();
+        }
+
+    }
+
+    private static class ServerChannelPipelineFactory implements ChannelPipelineFactory {
+
+        private final ServerHandler serverHandler;
+        private final boolean compressed;
+
+        public ServerChannelPipelineFactory(ServerHandler serverHandler, boolean compressed) {
+            this.serverHandler = serverHandler;
+            this.compressed = compressed;
+        }
+
+        @Override
+        public ChannelPipeline getPipeline() throws Exception {
+            ChannelPipeline pipeline = new StaticChannelPipeline(
+                    new LengthFieldPrepender(4),
+                    new SerializerEncoder(new MsgPackSerializer<BinaryResponse>(compressed)),
+                    new SerializerDecoder(new MsgPackSerializer<BinaryRequest>(compressed, BinaryRequest.class)),
+                    serverHandler);
+            return pipeline;
+        }
+
+    }
+}
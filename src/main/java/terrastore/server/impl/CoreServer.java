@@ -15,11 +15,16 @@
  */
 package terrastore.server.impl;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import terrastore.common.ClusterStats;
+import terrastore.common.IndexStats;
+import terrastore.common.PartitionStats;
 import terrastore.common.ErrorLogger;
 import terrastore.common.ErrorMessage;
+import terrastore.common.RateLimits;
 import terrastore.communication.CommunicationException;
 import terrastore.server.Buckets;
 import terrastore.server.Keys;
@@ -28,6 +33,8 @@ import terrastore.server.Parameters;
 import terrastore.server.Server;
 import terrastore.server.ServerOperationException;
 import terrastore.server.Values;
+import terrastore.server.ValuesStream;
+import terrastore.server.impl.limit.BucketRateLimiter;
 import terrastore.service.BackupOperationException;
 import terrastore.service.BackupService;
 import terrastore.service.QueryOperationException;
@@ -38,6 +45,7 @@ import terrastore.service.UpdateService;
 import terrastore.store.Key;
 import terrastore.store.ValidationException;
 import terrastore.store.Value;
+import terrastore.store.features.Expectation;
 import terrastore.store.features.Mapper;
 import terrastore.store.features.Predicate;
 import terrastore.store.features.Update;
@@ -57,15 +65,22 @@ public class CoreServer implements Server {
     private final QueryService queryService;
     private final BackupService backupService;
     private final StatsService statsService;
+    private final BucketRateLimiter rateLimiter;
 
     public CoreServer(UpdateService updateService, QueryService queryService, BackupService backupService, StatsService statsService) {
+        this(updateService, queryService, backupService, statsService, new BucketRateLimiter());
+    }
+
+    public CoreServer(UpdateService updateService, QueryService queryService, BackupService backupService, StatsService statsService, BucketRateLimiter rateLimiter) {
         this.updateService = updateService;
         this.queryService = queryService;
         this.backupService = backupService;
         this.statsService = statsService;
+        this.rateLimiter = rateLimiter;
     }
 
     public void removeBucket(String bucket) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, 0);
         try {
             LOG.info("Removing bucket {}", bucket);
             updateService.removeBucket(bucket);
@@ -82,9 +97,10 @@ public class CoreServer implements Server {
 
     @Override
     public Values bulkGet(String bucket, Keys keys) throws ServerOperationException {
+        rateLimiter.acquire(bucket, keys.size(), 0);
         try {
             LOG.info("Bulk get from bucket {}", bucket);
-            return queryService.bulkGet(bucket, keys);
+            return chargeResult(bucket, queryService.bulkGet(bucket, keys));
         } catch (CommunicationException ex) {
             ErrorMessage error = ex.getErrorMessage();
             ErrorLogger.LOG(LOG, error, ex);
@@ -98,6 +114,7 @@ public class CoreServer implements Server {
 
     @Override
     public Keys bulkPut(String bucket, Values values) throws ServerOperationException {
+        rateLimiter.acquire(bucket, values.size(), BucketRateLimiter.sizeOf(values));
         try {
             LOG.info("Bulk put to bucket {}", bucket);
             return updateService.bulkPut(bucket, values);
@@ -112,7 +129,29 @@ public class CoreServer implements Server {
         }
     }
 
+    @Override
+    public Keys bulkPut(String bucket, ValuesStream values) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, 0);
+        try {
+            LOG.info("Streaming bulk put to bucket {}", bucket);
+            return updateService.bulkPut(bucket, throttled(bucket, values));
+        } catch (CommunicationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        } catch (UpdateOperationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        } catch (ValidationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        }
+    }
+
     public void putValue(String bucket, Key key, Value value, String predicate) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, BucketRateLimiter.sizeOf(value));
         try {
             LOG.info("Putting value with key {} to bucket {}", key, bucket);
             updateService.putValue(bucket, key, value, new Predicate(predicate));
@@ -135,7 +174,52 @@ public class CoreServer implements Server {
         }
     }
 
+    public void putExpiringValue(String bucket, Key key, Value value, long timeToLive) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, BucketRateLimiter.sizeOf(value));
+        try {
+            if (timeToLive <= 0) {
+                ErrorMessage error = new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Time to live must be positive!");
+                throw new ServerOperationException(error);
+            }
+            LOG.info("Putting value with key {} to bucket {} expiring in {} milliseconds", new Object[]{key, bucket, timeToLive});
+            updateService.putExpiringValue(bucket, key, value, timeToLive);
+        } catch (CommunicationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        } catch (UpdateOperationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        } catch (ValidationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        }
+    }
+
+    public void compareAndPutValue(String bucket, Key key, Value value, Expectation expectation) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, BucketRateLimiter.sizeOf(value));
+        try {
+            LOG.info("Putting value with key {} to bucket {} if matching {}", new Object[]{key, bucket, expectation});
+            updateService.compareAndPutValue(bucket, key, value, expectation);
+        } catch (CommunicationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        } catch (UpdateOperationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        } catch (ValidationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        }
+    }
+
     public void removeValue(String bucket, Key key) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, 0);
         try {
             LOG.info("Removing value with key {} from bucket {}", key, bucket);
             updateService.removeValue(bucket, key);
@@ -150,7 +234,24 @@ public class CoreServer implements Server {
         }
     }
 
+    public void compareAndRemoveValue(String bucket, Key key, Expectation expectation) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, 0);
+        try {
+            LOG.info("Removing value with key {} from bucket {} if matching {}", new Object[]{key, bucket, expectation});
+            updateService.compareAndRemoveValue(bucket, key, expectation);
+        } catch (CommunicationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        } catch (UpdateOperationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        }
+    }
+
     public Value updateValue(String bucket, Key key, String function, Long timeout, Parameters parameters) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, 0);
         try {
             if (function == null) {
                 ErrorMessage error = new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "No update function provided!");
@@ -161,7 +262,33 @@ public class CoreServer implements Server {
             }
             LOG.info("Updating value with key {} and function {} from bucket {}", new Object[]{key, function, bucket});
             Update update = new Update(function, timeout, parameters);
-            return updateService.updateValue(bucket, key, update);
+            return chargeResult(bucket, updateService.updateValue(bucket, key, update));
+        } catch (CommunicationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        } catch (UpdateOperationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        }
+    }
+
+    public void incrementCounters(String bucket, Key key, Parameters counters) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, 0);
+        try {
+            Map<String, Long> increments = new LinkedHashMap<String, Long>();
+            for (Map.Entry<String, Object> counter : counters.entrySet()) {
+                Object increment = counter.getValue();
+                if (increment instanceof Long || increment instanceof Integer || increment instanceof Short || increment instanceof Byte) {
+                    increments.put(counter.getKey(), ((Number) increment).longValue());
+                } else {
+                    ErrorMessage error = new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Not an integral increment for counter: " + counter.getKey());
+                    throw new ServerOperationException(error);
+                }
+            }
+            LOG.debug("Incrementing counters of value with key {} from bucket {}", key, bucket);
+            updateService.incrementCounters(bucket, key, increments);
         } catch (CommunicationException ex) {
             ErrorMessage error = ex.getErrorMessage();
             ErrorLogger.LOG(LOG, error, ex);
@@ -174,6 +301,7 @@ public class CoreServer implements Server {
     }
 
     public Value mergeValue(String bucket, Key key, Value value) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, BucketRateLimiter.sizeOf(value));
         try {
             LOG.info("Merging value with key {} from bucket {}", key, bucket);
             return updateService.mergeValue(bucket, key, value);
@@ -208,9 +336,10 @@ public class CoreServer implements Server {
     }
 
     public Value getValue(String bucket, Key key, String predicate) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, 0);
         try {
             LOG.info("Getting value with key {} from bucket {}", key, bucket);
-            return queryService.getValue(bucket, key, new Predicate(predicate));
+            return chargeResult(bucket, queryService.getValue(bucket, key, new Predicate(predicate)));
         } catch (CommunicationException ex) {
             ErrorMessage error = ex.getErrorMessage();
             ErrorLogger.LOG(LOG, error, ex);
@@ -227,9 +356,10 @@ public class CoreServer implements Server {
     }
 
     public Values getAllValues(String bucket, int limit) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, 0);
         try {
             LOG.info("Getting all values from bucket {}", bucket);
-            return queryService.getAllValues(bucket, limit);
+            return chargeResult(bucket, queryService.getAllValues(bucket, limit));
         } catch (CommunicationException ex) {
             ErrorMessage error = ex.getErrorMessage();
             ErrorLogger.LOG(LOG, error, ex);
@@ -242,6 +372,7 @@ public class CoreServer implements Server {
     }
 
     public Values queryByRange(String bucket, Key startKey, Key endKey, int limit, String comparator, String predicateExpression, long timeToLive) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, 0);
         try {
             if (startKey == null) {
                 ErrorMessage error = new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "No startKey provided!");
@@ -253,9 +384,9 @@ public class CoreServer implements Server {
             LOG.info("Executing range query from {} to {} ordered by {} on bucket {}", new Object[]{startKey, endKey, comparator, bucket});
             Range range = new Range(startKey, endKey, limit, comparator, timeToLive);
             Predicate predicate = new Predicate(predicateExpression);
-            return queryService.queryByRange(bucket,
+            return chargeResult(bucket, queryService.queryByRange(bucket,
                    range,
-                   predicate);
+                   predicate));
         } catch (CommunicationException ex) {
             ErrorMessage error = ex.getErrorMessage();
             ErrorLogger.LOG(LOG, error, ex);
@@ -273,6 +404,7 @@ public class CoreServer implements Server {
 
     @Override
     public Keys removeByRange(String bucket, Key startKey, Key endKey, int limit, String comparator, String predicateExpression, long timeToLive) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, 0);
         try {
             if (startKey == null) {
                 ErrorMessage error = new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "No startKey provided!");
@@ -301,6 +433,7 @@ public class CoreServer implements Server {
     }
 
     public Values queryByPredicate(String bucket, String predicateExpression) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, 0);
         try {
             if (predicateExpression == null) {
                 ErrorMessage error = new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "No predicate provided!");
@@ -308,7 +441,33 @@ public class CoreServer implements Server {
             }
             LOG.info("Executing predicate query {} on bucket {}", predicateExpression, bucket);
             Predicate predicate = new Predicate(predicateExpression);
-            return queryService.queryByPredicate(bucket, predicate);
+            return chargeResult(bucket, queryService.queryByPredicate(bucket, predicate));
+        } catch (CommunicationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        } catch (QueryOperationException ex) {
+            ErrorMessage error = ex.getErrorMessage();
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        } catch (IllegalArgumentException ex) {
+            ErrorMessage error = new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, ex.getMessage());
+            ErrorLogger.LOG(LOG, error, ex);
+            throw new ServerOperationException(error);
+        }
+    }
+
+    @Override
+    public Values queryByIndex(String bucket, String predicateExpression) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, 0);
+        try {
+            if (predicateExpression == null) {
+                ErrorMessage error = new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "No predicate provided!");
+                throw new ServerOperationException(error);
+            }
+            LOG.info("Executing indexed query {} on bucket {}", predicateExpression, bucket);
+            Predicate predicate = new Predicate(predicateExpression);
+            return chargeResult(bucket, queryService.queryByIndex(bucket, predicate));
         } catch (CommunicationException ex) {
             ErrorMessage error = ex.getErrorMessage();
             ErrorLogger.LOG(LOG, error, ex);
@@ -326,6 +485,7 @@ public class CoreServer implements Server {
 
     @Override
     public Value queryByMapReduce(String bucket, MapReduceDescriptor descriptor) throws ServerOperationException {
+        rateLimiter.acquire(bucket, 1, 0);
         try {
             LOG.info("Executing map reduce query on bucket {}", bucket);
             Range range = null;
@@ -336,7 +496,7 @@ public class CoreServer implements Server {
             }
             Mapper mapper = new Mapper(descriptor.task.mapper, descriptor.task.combiner, descriptor.task.timeout, descriptor.task.parameters);
             Reducer reducer = new Reducer(descriptor.task.reducer, descriptor.task.timeout, descriptor.task.parameters);
-            return queryService.queryByMapReduce(bucket, range, mapper, reducer);
+            return chargeResult(bucket, queryService.queryByMapReduce(bucket, range, mapper, reducer));
         } catch (CommunicationException ex) {
             ErrorMessage error = ex.getErrorMessage();
             ErrorLogger.LOG(LOG, error, ex);
@@ -397,6 +557,78 @@ public class CoreServer implements Server {
         return statsService.getClusterStats();
     }
 
+    @Override
+    public PartitionStats getPartitionStats() {
+        LOG.info("Getting partition statistics.");
+        return statsService.getPartitionStats();
+    }
+
+    @Override
+    public PartitionStats rebalancePartitions(int maxMoves) throws ServerOperationException {
+        if (maxMoves <= 0) {
+            ErrorMessage error = new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "The number of partition moves must be positive!");
+            throw new ServerOperationException(error);
+        }
+        LOG.info("Rebalancing partitions with at most {} moves.", maxMoves);
+        return statsService.rebalancePartitions(maxMoves);
+    }
+
+    @Override
+    public IndexStats getIndexStats() {
+        LOG.info("Getting index statistics.");
+        return statsService.getIndexStats();
+    }
+
+    @Override
+    public RateLimits getRateLimits() {
+        return rateLimiter.getRateLimits();
+    }
+
+    @Override
+    public void setDefaultRateLimits(long operationsPerSecond, long bytesPerSecond) {
+        LOG.info("Setting default rate limits to {} operations and {} bytes per second", operationsPerSecond, bytesPerSecond);
+        rateLimiter.setDefaultLimits(operationsPerSecond, bytesPerSecond);
+    }
+
+    @Override
+    public void setRateLimits(String bucket, long operationsPerSecond, long bytesPerSecond) {
+        LOG.info("Setting rate limits for bucket {} to {} operations and {} bytes per second", new Object[]{bucket, operationsPerSecond, bytesPerSecond});
+        rateLimiter.setLimits(bucket, operationsPerSecond, bytesPerSecond);
+    }
+
+    @Override
+    public void removeRateLimits(String bucket) {
+        LOG.info("Removing rate limits for bucket {}", bucket);
+        rateLimiter.removeLimits(bucket);
+    }
+
+    private Value chargeResult(String bucket, Value result) {
+        rateLimiter.consume(bucket, BucketRateLimiter.sizeOf(result));
+        return result;
+    }
+
+    private Values chargeResult(String bucket, Values result) {
+        if (result != null) {
+            rateLimiter.consume(bucket, BucketRateLimiter.sizeOf(result));
+        }
+        return result;
+    }
+
+    private ValuesStream throttled(final String bucket, final ValuesStream values) {
+        return new ValuesStream() {
+
+            @Override
+            public Map.Entry<Key, Value> next() throws ValidationException {
+                Map.Entry<Key, Value> entry = values.next();
+                if (entry != null) {
+                    rateLimiter.await(bucket, 1, BucketRateLimiter.sizeOf(entry.getValue()));
+                }
+                return entry;
+            }
+
+        };
+    }
+
     public UpdateService getUpdateService() {
         return updateService;
     }
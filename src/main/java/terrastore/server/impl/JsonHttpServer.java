@@ -15,6 +15,9 @@
  */
 package terrastore.server.impl;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Arrays;
@@ -22,7 +25,9 @@ import java.util.List;
 import java.util.Map;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
@@ -41,7 +46,10 @@ import org.mortbay.thread.QueuedThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import terrastore.common.ClusterStats;
+import terrastore.common.IndexStats;
+import terrastore.common.PartitionStats;
 import terrastore.common.ErrorMessage;
+import terrastore.common.RateLimits;
 import terrastore.server.Buckets;
 import terrastore.server.Keys;
 import terrastore.server.MapReduceDescriptor;
@@ -49,19 +57,26 @@ import terrastore.server.Parameters;
 import terrastore.server.Server;
 import terrastore.server.ServerOperationException;
 import terrastore.server.Values;
+import terrastore.server.ValuesStream;
 import terrastore.server.impl.cors.CorsController;
 import terrastore.server.impl.cors.CorsInterceptor;
+import terrastore.server.impl.support.ContentEncodingInterceptor;
 import terrastore.server.impl.support.JsonBucketsProvider;
 import terrastore.server.impl.support.JsonClusterStatsProvider;
+import terrastore.server.impl.support.JsonIndexStatsProvider;
+import terrastore.server.impl.support.JsonPartitionStatsProvider;
 import terrastore.server.impl.support.JsonErrorMessageProvider;
 import terrastore.server.impl.support.JsonKeysProvider;
 import terrastore.server.impl.support.JsonMapReduceDescriptorProvider;
 import terrastore.server.impl.support.JsonParametersProvider;
+import terrastore.server.impl.support.JsonRateLimitsProvider;
 import terrastore.server.impl.support.JsonServerOperationExceptionMapper;
 import terrastore.server.impl.support.JsonValueProvider;
 import terrastore.server.impl.support.JsonValuesProvider;
 import terrastore.store.Key;
 import terrastore.store.Value;
+import terrastore.store.features.Expectation;
+import terrastore.util.json.JsonUtils;
 
 /**
  * Jetty-based JAX-RS json-over-http server.
@@ -74,6 +89,12 @@ public class JsonHttpServer {
     public final static String HTTP_THREADS_CONFIGURATION_PARAMETER = "configuration.httpThreads";
     public final static String CORS_ALLOWED_ORIGINS_CONFIGURATION_PARAMETER = "configuration.corsAllowedOrigins";
     //
+    private static final String ETAG = "ETag";
+    private static final String IF_MATCH = "If-Match";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String VERSION = "X-Terrastore-Version";
+    private static final String IF_VERSION = "X-Terrastore-If-Version";
+    //
     private static final Logger LOG = LoggerFactory.getLogger(JsonHttpServer.class);
     //
     private final Server core;
@@ -105,8 +126,8 @@ public class JsonHttpServer {
     @Path("/{bucket}/bulk/put")
     @Consumes("application/json")
     @Produces("application/json")
-    public Response bulkPut(@PathParam("bucket") String bucket, Values values) throws ServerOperationException {
-        Keys insertedKeys = core.bulkPut(bucket, values);
+    public Response bulkPut(@PathParam("bucket") String bucket, InputStream values) throws ServerOperationException {
+        Keys insertedKeys = core.bulkPut(bucket, readValuesStream(values));
         return Response.ok().entity(insertedKeys).build();
     }
 
@@ -122,15 +143,33 @@ public class JsonHttpServer {
     @PUT
     @Path("/{bucket}/{key}")
     @Consumes("application/json")
-    public Response putValue(@PathParam("bucket") String bucket, @PathParam("key") Key key, Value value, @QueryParam("predicate") String predicate) throws ServerOperationException {
-        core.putValue(bucket, key, value, predicate);
+    public Response putValue(@PathParam("bucket") String bucket, @PathParam("key") Key key, Value value, @QueryParam("predicate") String predicate, @QueryParam("ttl") Long ttl, @HeaderParam(IF_MATCH) String ifMatch, @HeaderParam(IF_VERSION) String ifVersion) throws ServerOperationException {
+        if ((predicate != null ? 1 : 0) + (ttl != null ? 1 : 0) + (ifMatch != null ? 1 : 0) + (ifVersion != null ? 1 : 0) > 1) {
+            throw new ServerOperationException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Only one among predicate, ttl, If-Match and " + IF_VERSION + " header can be used."));
+        } else if (ttl != null) {
+            core.putExpiringValue(bucket, key, value, ttl);
+        } else if (ifMatch != null) {
+            core.compareAndPutValue(bucket, key, value, Expectation.hash(parseEntityTag(ifMatch)));
+        } else if (ifVersion != null) {
+            core.compareAndPutValue(bucket, key, value, Expectation.version(parseVersion(ifVersion)));
+        } else {
+            core.putValue(bucket, key, value, predicate);
+        }
         return Response.noContent().build();
     }
 
     @DELETE
     @Path("/{bucket}/{key}")
-    public Response removeValue(@PathParam("bucket") String bucket, @PathParam("key") Key key) throws ServerOperationException {
-        core.removeValue(bucket, key);
+    public Response removeValue(@PathParam("bucket") String bucket, @PathParam("key") Key key, @HeaderParam(IF_MATCH) String ifMatch, @HeaderParam(IF_VERSION) String ifVersion) throws ServerOperationException {
+        if (ifMatch != null && ifVersion != null) {
+            throw new ServerOperationException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "If-Match and " + IF_VERSION + " header cannot be used together."));
+        } else if (ifMatch != null) {
+            core.compareAndRemoveValue(bucket, key, Expectation.hash(parseEntityTag(ifMatch)));
+        } else if (ifVersion != null) {
+            core.compareAndRemoveValue(bucket, key, Expectation.version(parseVersion(ifVersion)));
+        } else {
+            core.removeValue(bucket, key);
+        }
         return Response.noContent().build();
     }
 
@@ -160,6 +199,14 @@ public class JsonHttpServer {
         }
     }
 
+    @POST
+    @Path("/{bucket}/{key}/counters")
+    @Consumes("application/json")
+    public Response incrementCounters(@PathParam("bucket") String bucket, @PathParam("key") Key key, Parameters counters) throws ServerOperationException {
+        core.incrementCounters(bucket, key, counters);
+        return Response.noContent().build();
+    }
+
     @GET
     @Path("/")
     @Produces("application/json")
@@ -171,9 +218,15 @@ public class JsonHttpServer {
     @GET
     @Path("/{bucket}/{key}")
     @Produces("application/json")
-    public Response getValue(@PathParam("bucket") String bucket, @PathParam("key") Key key, @QueryParam("predicate") String predicate) throws ServerOperationException {
+    public Response getValue(@PathParam("bucket") String bucket, @PathParam("key") Key key, @QueryParam("predicate") String predicate, @HeaderParam(IF_NONE_MATCH) String ifNoneMatch) throws ServerOperationException {
         Value result = core.getValue(bucket, key, predicate);
-        return Response.ok(result).build();
+        String tag = "\"" + Long.toHexString(result.getHash()) + "\"";
+        // Unchanged values are answered without a body, sparing serialization and bandwidth to polling clients:
+        if (ifNoneMatch != null && matchesAnyEntityTag(ifNoneMatch, tag)) {
+            return Response.notModified().header(ETAG, tag).header(VERSION, result.getVersion()).build();
+        } else {
+            return Response.ok(result).header(ETAG, tag).header(VERSION, result.getVersion()).build();
+        }
     }
 
     @GET
@@ -208,6 +261,14 @@ public class JsonHttpServer {
         return Response.ok(result).build();
     }
 
+    @GET
+    @Path("/{bucket}/query")
+    @Produces("application/json")
+    public Response queryByIndex(@PathParam("bucket") String bucket, @QueryParam("predicate") String predicateExpression) throws ServerOperationException {
+        Values result = core.queryByIndex(bucket, predicateExpression);
+        return Response.ok(result).build();
+    }
+
     @POST
     @Path("/{bucket}/mapReduce")
     @Consumes("application/json")
@@ -239,6 +300,104 @@ public class JsonHttpServer {
         return Response.ok(result).build();
     }
 
+    @GET
+    @Path("/_stats/partitions")
+    @Produces("application/json")
+    public Response getPartitionStats() {
+        PartitionStats result = core.getPartitionStats();
+        return Response.ok(result).build();
+    }
+
+    @GET
+    @Path("/_stats/indexes")
+    @Produces("application/json")
+    public Response getIndexStats() {
+        IndexStats result = core.getIndexStats();
+        return Response.ok(result).build();
+    }
+
+    @POST
+    @Path("/_partitions/rebalance")
+    @Produces("application/json")
+    public Response rebalancePartitions(@QueryParam("moves") @DefaultValue("16") int maxMoves) throws ServerOperationException {
+        PartitionStats result = core.rebalancePartitions(maxMoves);
+        return Response.ok(result).build();
+    }
+
+    @GET
+    @Path("/_limits")
+    @Produces("application/json")
+    public Response getRateLimits() {
+        RateLimits result = core.getRateLimits();
+        return Response.ok(result).build();
+    }
+
+    @PUT
+    @Path("/_limits")
+    public Response setDefaultRateLimits(@QueryParam("operations") long operationsPerSecond, @QueryParam("bytes") long bytesPerSecond) {
+        core.setDefaultRateLimits(operationsPerSecond, bytesPerSecond);
+        return Response.noContent().build();
+    }
+
+    @PUT
+    @Path("/_limits/{bucket}")
+    public Response setRateLimits(@PathParam("bucket") String bucket, @QueryParam("operations") long operationsPerSecond, @QueryParam("bytes") long bytesPerSecond) {
+        core.setRateLimits(bucket, operationsPerSecond, bytesPerSecond);
+        return Response.noContent().build();
+    }
+
+    @DELETE
+    @Path("/_limits/{bucket}")
+    public Response removeRateLimits(@PathParam("bucket") String bucket) {
+        core.removeRateLimits(bucket);
+        return Response.noContent().build();
+    }
+
+    private ValuesStream readValuesStream(InputStream values) throws ServerOperationException {
+        try {
+            return JsonUtils.readValuesStream(values);
+        } catch (IOException ex) {
+            throw new ServerOperationException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Bad Json values: " + ex.getMessage()));
+        }
+    }
+
+    private boolean matchesAnyEntityTag(String header, String tag) {
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long parseEntityTag(String header) throws ServerOperationException {
+        String tag = header.trim();
+        if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            try {
+                return new BigInteger(tag.substring(1, tag.length() - 1), 16).longValue();
+            } catch (NumberFormatException ex) {
+                // Fall through to the bad request error below.
+            }
+        }
+        throw new ServerOperationException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Bad If-Match header, expected a single strong entity tag: " + header));
+    }
+
+    private long parseVersion(String header) throws ServerOperationException {
+        try {
+            long version = Long.parseLong(header.trim());
+            if (version >= 0) {
+                return version;
+            }
+        } catch (NumberFormatException ex) {
+            // Fall through to the bad request error below.
+        }
+        throw new ServerOperationException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Bad " + IF_VERSION + " header, expected a non negative version: " + header));
+    }
+
     private void registerProviders(ResteasyDeployment deployment, Map<String, String> configuration) {
         List providers = Arrays.asList(
                 new JsonKeysProvider(),
@@ -246,11 +405,15 @@ public class JsonHttpServer {
                 new JsonValuesProvider(),
                 new JsonValueProvider(),
                 new JsonClusterStatsProvider(),
+                new JsonPartitionStatsProvider(),
+                new JsonIndexStatsProvider(),
+                new JsonRateLimitsProvider(),
                 new JsonErrorMessageProvider(),
                 new JsonParametersProvider(),
                 new JsonMapReduceDescriptorProvider(),
                 new JsonServerOperationExceptionMapper(),
                 new StringTextStar(),
+                new ContentEncodingInterceptor(),
                 new CorsInterceptor(
                 configuration.get(CORS_ALLOWED_ORIGINS_CONFIGURATION_PARAMETER),
                 "POST, GET, PUT, DELETE, OPTIONS",
@@ -0,0 +1,263 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.server.impl.binary;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.StaticChannelPipeline;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import terrastore.common.ErrorMessage;
+import terrastore.communication.remote.SerializerDecoder;
+import terrastore.communication.remote.SerializerEncoder;
+import terrastore.server.ServerOperationException;
+import terrastore.store.Key;
+import terrastore.store.Value;
+import terrastore.store.features.Expectation;
+import terrastore.util.io.MsgPackSerializer;
+
+/**
+ * Reference client for the {@link terrastore.server.impl.BinaryServer}.<br>
+ * A single connection is shared by all callers: {@link #submit(BinaryRequest)} writes the request and immediately returns
+ * a future, so many requests can be in flight at the same time and are matched to their responses by id;
+ * the other methods are blocking shortcuts for the single operations.<br>
+ * Futures of requests not answered within the configured timeout are failed with a {@link TimeoutException}.
+ *
+ * @author Sergio Bossa
+ */
+public class BinaryClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryClient.class);
+    //
+    private final ConcurrentMap<Long, SettableFuture<BinaryResponse>> pending = new ConcurrentHashMap<Long, SettableFuture<BinaryResponse>>();
+    private final AtomicLong ids = new AtomicLong();
+    private final String host;
+    private final int port;
+    private final long timeoutInMillis;
+    private final boolean compressed;
+    private ClientBootstrap client;
+    private Timer timer;
+    private volatile Channel channel;
+
+    public BinaryClient(String host, int port, long timeoutInMillis, boolean compressed) {
+        this.host = host;
+        this.port = port;
+        this.timeoutInMillis = timeoutInMillis;
+        this.compressed = compressed;
+    }
+
+    public synchronized void connect() {
+        if (channel == null) {
+            client = new ClientBootstrap(new NioClientSocketChannelFactory(Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+            client.setOption("tcpNoDelay", true);
+            client.setPipelineFactory(new ClientChannelPipelineFactory(new ClientHandler(), compressed));
+            ChannelFuture future = client.connect(new InetSocketAddress(host, port));
+            future.awaitUninterruptibly(timeoutInMillis, TimeUnit.MILLISECONDS);
+            if (future.isSuccess()) {
+                timer = new HashedWheelTimer();
+                channel = future.getChannel();
+            } else {
+                client.releaseExternalResources();
+                throw new RuntimeException("Error connecting to: " + host + ":" + port);
+            }
+        }
+    }
+
+    public synchronized void disconnect() {
+        if (channel != null) {
+            channel.close().awaitUninterruptibly();
+            client.releaseExternalResources();
+            timer.stop();
+            channel = null;
+        }
+    }
+
+    public Future<BinaryResponse> submit(BinaryRequest request) {
+        if (channel == null) {
+            throw new IllegalStateException("Not connected!");
+        }
+        final long id = ids.incrementAndGet();
+        final SettableFuture<BinaryResponse> response = SettableFuture.create();
+        pending.put(id, response);
+        final Timeout expiration = timer.newTimeout(new TimerTask() {
+
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                response.setException(new TimeoutException("Communication timeout!"));
+            }
+
+        }, timeoutInMillis, TimeUnit.MILLISECONDS);
+        // Pending requests are forgotten as soon as they're answered, failed, timed out or cancelled:
+        response.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                pending.remove(id, response);
+                expiration.cancel();
+            }
+
+        }, MoreExecutors.sameThreadExecutor());
+        channel.write(request.withId(id));
+        return response;
+    }
+
+    public Value getValue(String bucket, Key key, String predicate) throws ServerOperationException {
+        return call(BinaryRequest.getValue(bucket, key, predicate)).getValue();
+    }
+
+    public void putValue(String bucket, Key key, Value value, String predicate) throws ServerOperationException {
+        call(BinaryRequest.putValue(bucket, key, value, predicate));
+    }
+
+    public void removeValue(String bucket, Key key) throws ServerOperationException {
+        call(BinaryRequest.removeValue(bucket, key));
+    }
+
+    public void compareAndPutValue(String bucket, Key key, Value value, Expectation expectation) throws ServerOperationException {
+        call(BinaryRequest.compareAndPutValue(bucket, key, value, expectation));
+    }
+
+    public void compareAndRemoveValue(String bucket, Key key, Expectation expectation) throws ServerOperationException {
+        call(BinaryRequest.compareAndRemoveValue(bucket, key, expectation));
+    }
+
+    public Map<Key, Value> bulkGet(String bucket, Set<Key> keys) throws ServerOperationException {
+        return call(BinaryRequest.bulkGet(bucket, keys)).getValues();
+    }
+
+    public Set<Key> bulkPut(String bucket, Map<Key, Value> values) throws ServerOperationException {
+        return call(BinaryRequest.bulkPut(bucket, values)).getKeys();
+    }
+
+    public Map<Key, Value> queryByRange(String bucket, Key startKey, Key endKey, int limit, String comparator, String predicate, long timeToLive) throws ServerOperationException {
+        return call(BinaryRequest.queryByRange(bucket, startKey, endKey, limit, comparator, predicate, timeToLive)).getValues();
+    }
+
+    public Set<Key> removeByRange(String bucket, Key startKey, Key endKey, int limit, String comparator, String predicate, long timeToLive) throws ServerOperationException {
+        return call(BinaryRequest.removeByRange(bucket, startKey, endKey, limit, comparator, predicate, timeToLive)).getKeys();
+    }
+
+    private BinaryResponse call(BinaryRequest request) throws ServerOperationException {
+        Future<BinaryResponse> future = submit(request);
+        try {
+            BinaryResponse response = future.get(timeoutInMillis, TimeUnit.MILLISECONDS);
+            if (response.isOk()) {
+                return response;
+            } else {
+                throw new ServerOperationException(response.getError());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServerOperationException(new ErrorMessage(ErrorMessage.INTERNAL_SERVER_ERROR_CODE, "Interrupted while waiting for response!"));
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof TimeoutException) {
+                throw new ServerOperationException(new ErrorMessage(ErrorMessage.INTERNAL_SERVER_ERROR_CODE, "Communication timeout!"));
+            } else {
+                throw new ServerOperationException(new ErrorMessage(ErrorMessage.UNAVAILABLE_ERROR_CODE, ex.getCause().getMessage()));
+            }
+        } catch (TimeoutException ex) {
+            throw new ServerOperationException(new ErrorMessage(ErrorMessage.INTERNAL_SERVER_ERROR_CODE, "Communication timeout!"));
+        } finally {
+            future.cancel(false);
+        }
+    }
+
+    @Sharable
+    private class ClientHandler extends SimpleChannelUpstreamHandler {
+
+        @Override
+        public void messageReceived(ChannelHandlerContext context, MessageEvent event) throws Exception {
+            if (event.getMessage() instanceof BinaryResponse) {
+                BinaryResponse response = (BinaryResponse) event.getMessage();
+                SettableFuture<BinaryResponse> future = pending.remove(response.getCorrelationId());
+                if (future != null) {
+                    future.set(response);
+                } else {
+                    LOG.warn("No pending request found, response {} is going to be ignored.", response.getCorrelationId());
+                }
+            } else {
+                LOG.warn("Unexpected response of type: " + event.getMessage().getClass());
+                throw new IllegalStateException("Unexpected response of type: " + event.getMessage().getClass());
+            }
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext context, ChannelStateEvent event) throws Exception {
+            for (Long id : pending.keySet()) {
+                SettableFuture<BinaryResponse> future = pending.remove(id);
+                if (future != null) {
+                    future.setException(new IllegalStateException("Connection closed: " + host + ":" + port));
+                }
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext context, ExceptionEvent event) throws Exception {
+            LOG.error(event.getCause().getMessage(), event.getCause());
+        }
+
+    }
+
+    private static class ClientChannelPipelineFactory implements ChannelPipelineFactory {
+
+        private final ClientHandler clientHandler;
+        private final boolean compressed;
+
+        public ClientChannelPipelineFactory(ClientHandler clientHandler, boolean compressed) {
+            this.clientHandler = clientHandler;
+            this.compressed = compressed;
+        }
+
+        @Override
+        public ChannelPipeline getPipeline() throws Exception {
+            ChannelPipeline pipeline = new StaticChannelPipeline(
+                    new LengthFieldPrepender(4),
+                    new SerializerEncoder(new MsgPackSerializer<BinaryRequest>(compressed)),
+                    new SerializerDecoder(new MsgPackSerializer<BinaryResponse>(compressed, BinaryResponse.class)),
+                    clientHandler);
+            return pipeline;
+        }
+
+    }
+}
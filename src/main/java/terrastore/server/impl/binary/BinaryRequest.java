@@ -0,0 +1,260 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.server.impl.binary;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import org.msgpack.MessagePackable;
+import org.msgpack.MessageTypeException;
+import org.msgpack.MessageUnpackable;
+import org.msgpack.Packer;
+import org.msgpack.Unpacker;
+import terrastore.store.Key;
+import terrastore.store.Value;
+import terrastore.store.features.Expectation;
+import terrastore.util.io.MsgPackUtils;
+
+/**
+ * Request message of the binary client protocol.<br>
+ * Each request carries a client-assigned id, which is echoed back by the related {@link BinaryResponse}:
+ * this way, clients can pipeline many requests on the same connection and match responses as they come back,
+ * possibly out of order.
+ *
+ * @author Sergio Bossa
+ */
+public class BinaryRequest implements MessagePackable, MessageUnpackable {
+
+    public enum Operation {
+
+        GET_VALUE,
+        PUT_VALUE,
+        REMOVE_VALUE,
+        BULK_GET,
+        BULK_PUT,
+        QUERY_BY_RANGE,
+        REMOVE_BY_RANGE,
+        COMPARE_AND_PUT_VALUE,
+        COMPARE_AND_REMOVE_VALUE
+
+    }
+    //
+    private long id;
+    private Operation operation;
+    private String bucket;
+    private Key key;
+    private Value value;
+    private Set<Key> keys;
+    private Map<Key, Value> values;
+    private Key startKey;
+    private Key endKey;
+    private int limit;
+    private String comparator;
+    private String predicate;
+    private long timeToLive;
+    private Expectation expectation;
+
+    public static BinaryRequest getValue(String bucket, Key key, String predicate) {
+        BinaryRequest request = new BinaryRequest(Operation.GET_VALUE, bucket);
+        request.key = key;
+        request.predicate = predicate;
+        return request;
+    }
+
+    public static BinaryRequest putValue(String bucket, Key key, Value value, String predicate) {
+        BinaryRequest request = new BinaryRequest(Operation.PUT_VALUE, bucket);
+        request.key = key;
+        request.value = value;
+        request.predicate = predicate;
+        return request;
+    }
+
+    public static BinaryRequest removeValue(String bucket, Key key) {
+        BinaryRequest request = new BinaryRequest(Operation.REMOVE_VALUE, bucket);
+        request.key = key;
+        return request;
+    }
+
+    public static BinaryRequest compareAndPutValue(String bucket, Key key, Value value, Expectation expectation) {
+        BinaryRequest request = new BinaryRequest(Operation.COMPARE_AND_PUT_VALUE, bucket);
+        request.key = key;
+        request.value = value;
+        request.expectation = expectation;
+        return request;
+    }
+
+    public static BinaryRequest compareAndRemoveValue(String bucket, Key key, Expectation expectation) {
+        BinaryRequest request = new BinaryRequest(Operation.COMPARE_AND_REMOVE_VALUE, bucket);
+        request.key = key;
+        request.expectation = expectation;
+        return request;
+    }
+
+    public static BinaryRequest bulkGet(String bucket, Set<Key> keys) {
+        BinaryRequest request = new BinaryRequest(Operation.BULK_GET, bucket);
+        request.keys = keys;
+        return request;
+    }
+
+    public static BinaryRequest bulkPut(String bucket, Map<Key, Value> values) {
+        BinaryRequest request = new BinaryRequest(Operation.BULK_PUT, bucket);
+        request.values = values;
+        return request;
+    }
+
+    public static BinaryRequest queryByRange(String bucket, Key startKey, Key endKey, int limit, String comparator, String predicate, long timeToLive) {
+        BinaryRequest request = new BinaryRequest(Operation.QUERY_BY_RANGE, bucket);
+        request.setRange(startKey, endKey, limit, comparator, predicate, timeToLive);
+        return request;
+    }
+
+    public static BinaryRequest removeByRange(String bucket, Key startKey, Key endKey, int limit, String comparator, String predicate, long timeToLive) {
+        BinaryRequest request = new BinaryRequest(Operation.REMOVE_BY_RANGE, bucket);
+        request.setRange(startKey, endKey, limit, comparator, predicate, timeToLive);
+        return request;
+    }
+
+    protected BinaryRequest(Operation operation, String bucket) {
+        this.operation = operation;
+        this.bucket = bucket;
+    }
+
+    public BinaryRequest() {
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Copy this request with the given id, leaving this one untouched, so that the same request can be submitted
+     * many times, even concurrently.
+     */
+    public BinaryRequest withId(long id) {
+        BinaryRequest request = new BinaryRequest(operation, bucket);
+        request.id = id;
+        request.key = key;
+        request.value = value;
+        request.keys = keys;
+        request.values = values;
+        request.expectation = expectation;
+        request.setRange(startKey, endKey, limit, comparator, predicate, timeToLive);
+        return request;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public Key getKey() {
+        return key;
+    }
+
+    public Value getValue() {
+        return value;
+    }
+
+    public Set<Key> getKeys() {
+        return keys;
+    }
+
+    public Map<Key, Value> getValues() {
+        return values;
+    }
+
+    public Key getStartKey() {
+        return startKey;
+    }
+
+    public Key getEndKey() {
+        return endKey;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public String getComparator() {
+        return comparator;
+    }
+
+    public String getPredicate() {
+        return predicate;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public Expectation getExpectation() {
+        return expectation;
+    }
+
+    @Override
+    public void messagePack(Packer packer) throws IOException {
+        MsgPackUtils.packLong(packer, id);
+        MsgPackUtils.packInt(packer, operation.ordinal());
+        MsgPackUtils.packString(packer, bucket);
+        MsgPackUtils.packKey(packer, key);
+        MsgPackUtils.packValue(packer, value);
+        MsgPackUtils.packKeys(packer, keys);
+        MsgPackUtils.packValues(packer, values);
+        MsgPackUtils.packKey(packer, startKey);
+        MsgPackUtils.packKey(packer, endKey);
+        MsgPackUtils.packInt(packer, limit);
+        MsgPackUtils.packString(packer, comparator);
+        MsgPackUtils.packString(packer, predicate);
+        MsgPackUtils.packLong(packer, timeToLive);
+        MsgPackUtils.packExpectation(packer, expectation);
+    }
+
+    @Override
+    public void messageUnpack(Unpacker unpacker) throws IOException, MessageTypeException {
+        id = MsgPackUtils.unpackLong(unpacker);
+        int ordinal = MsgPackUtils.unpackInt(unpacker);
+        if (ordinal >= 0 && ordinal < Operation.values().length) {
+            operation = Operation.values()[ordinal];
+        } else {
+            throw new MessageTypeException("Unknown operation: " + ordinal);
+        }
+        bucket = MsgPackUtils.unpackString(unpacker);
+        key = MsgPackUtils.unpackKey(unpacker);
+        value = MsgPackUtils.unpackValue(unpacker);
+        keys = MsgPackUtils.unpackKeys(unpacker);
+        values = MsgPackUtils.unpackValues(unpacker);
+        startKey = MsgPackUtils.unpackKey(unpacker);
+        endKey = MsgPackUtils.unpackKey(unpacker);
+        limit = MsgPackUtils.unpackInt(unpacker);
+        comparator = MsgPackUtils.unpackString(unpacker);
+        predicate = MsgPackUtils.unpackString(unpacker);
+        timeToLive = MsgPackUtils.unpackLong(unpacker);
+        expectation = MsgPackUtils.unpackExpectation(unpacker);
+    }
+
+    private void setRange(Key startKey, Key endKey, int limit, String comparator, String predicate, long timeToLive) {
+        this.startKey = startKey;
+        this.endKey = endKey;
+        this.limit = limit;
+        this.comparator = comparator;
+        this.predicate = predicate;
+        this.timeToLive = timeToLive;
+    }
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.server.impl.binary;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import org.msgpack.MessagePackable;
+import org.msgpack.MessageTypeException;
+import org.msgpack.MessageUnpackable;
+import org.msgpack.Packer;
+import org.msgpack.Unpacker;
+import terrastore.common.ErrorMessage;
+import terrastore.store.Key;
+import terrastore.store.Value;
+import terrastore.util.io.MsgPackUtils;
+
+/**
+ * Response message of the binary client protocol, correlated to its {@link BinaryRequest} by id.
+ *
+ * @author Sergio Bossa
+ */
+public class BinaryResponse implements MessagePackable, MessageUnpackable {
+
+    private long correlationId;
+    private ErrorMessage error;
+    private Value value;
+    private Set<Key> keys;
+    private Map<Key, Value> values;
+
+    public static BinaryResponse ok(long correlationId) {
+        return new BinaryResponse(correlationId);
+    }
+
+    public static BinaryResponse ok(long correlationId, Value value) {
+        BinaryResponse response = new BinaryResponse(correlationId);
+        response.value = value;
+        return response;
+    }
+
+    public static BinaryResponse ok(long correlationId, Set<Key> keys) {
+        BinaryResponse response = new BinaryResponse(correlationId);
+        response.keys = keys;
+        return response;
+    }
+
+    public static BinaryResponse ok(long correlationId, Map<Key, Value> values) {
+        BinaryResponse response = new BinaryResponse(correlationId);
+        response.values = values;
+        return response;
+    }
+
+    public static BinaryResponse error(long correlationId, ErrorMessage error) {
+        BinaryResponse response = new BinaryResponse(correlationId);
+        response.error = error;
+        return response;
+    }
+
+    protected BinaryResponse(long correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    public BinaryResponse() {
+    }
+
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    public boolean isOk() {
+        return error == null;
+    }
+
+    public ErrorMessage getError() {
+        return error;
+    }
+
+    public Value getValue() {
+        return value;
+    }
+
+    public Set<Key> getKeys() {
+        return keys;
+    }
+
+    public Map<Key, Value> getValues() {
+        return values;
+    }
+
+    @Override
+    public void messagePack(Packer packer) throws IOException {
+        MsgPackUtils.packLong(packer, correlationId);
+        MsgPackUtils.packErrorMessage(packer, error);
+        MsgPackUtils.packValue(packer, value);
+        MsgPackUtils.packKeys(packer, keys);
+        MsgPackUtils.packValues(packer, values);
+    }
+
+    @Override
+    public void messageUnpack(Unpacker unpacker) throws IOException, MessageTypeException {
+        correlationId = MsgPackUtils.unpackLong(unpacker);
+        error = MsgPackUtils.unpackErrorMessage(unpacker);
+        value = MsgPackUtils.unpackValue(unpacker);
+        keys = MsgPackUtils.unpackKeys(unpacker);
+        values = MsgPackUtils.unpackValues(unpacker);
+    }
+
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.server.impl.limit;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import terrastore.common.ErrorMessage;
+import terrastore.common.RateLimits;
+import terrastore.store.Value;
+
+/**
+ * Per-bucket admission control based on token buckets, limiting both the number of operations and
+ * the number of document bytes per second.<br>
+ * Default limits apply to all buckets without specific limits; zero or negative limits mean unlimited rate.
+ * Limits can be changed at runtime, and are enforced on a per-node basis.<br>
+ * Rejections are counted per bucket only for buckets with specific limits, and all together for the others;
+ * throttles of buckets without specific limits are dropped once idle, so that bucket names sent by clients
+ * do not pile up.
+ *
+ * @author Sergio Bossa
+ */
+public class BucketRateLimiter {
+
+    private static final int MIN_SWEEP_THRESHOLD = 1024;
+    //
+    private volatile Limits defaults;
+    private final ConcurrentMap<String, Limits> limits = new ConcurrentHashMap<String, Limits>();
+    private final ConcurrentMap<String, Throttle> throttles = new ConcurrentHashMap<String, Throttle>();
+    private final ConcurrentMap<String, AtomicLong> rejections = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong defaultRejections = new AtomicLong();
+    private volatile int sweepThreshold = MIN_SWEEP_THRESHOLD;
+
+    public BucketRateLimiter() {
+        this(0, 0);
+    }
+
+    public BucketRateLimiter(long operationsPerSecond, long bytesPerSecond) {
+        this.defaults = new Limits(operationsPerSecond, bytesPerSecond);
+    }
+
+    /**
+     * Admit the given amount of operations and bytes on the given bucket, or reject them if exceeding its limits.
+     *
+     * @param bucket The bucket name.
+     * @param operations The number of operations.
+     * @param bytes The number of bytes.
+     * @throws RateLimitExceededException If the bucket limits have been exceeded.
+     */
+    public void acquire(String bucket, long operations, long bytes) throws RateLimitExceededException {
+        Throttle throttle = getThrottle(bucket);
+        if (throttle != null) {
+            long wait = throttle.tryAcquire(operations, bytes);
+            if (wait > 0) {
+                AtomicLong counter = rejections.get(bucket);
+                (counter != null ? counter : defaultRejections).incrementAndGet();
+                throw new RateLimitExceededException(new ErrorMessage(ErrorMessage.TOO_MANY_REQUESTS_ERROR_CODE, "Rate limit exceeded for bucket: " + bucket), wait);
+            }
+        }
+    }
+
+    /**
+     * Admit the given amount of operations and bytes on the given bucket, waiting as long as needed to not exceed its limits.
+     *
+     * @param bucket The bucket name.
+     * @param operations The number of operations.
+     * @param bytes The number of bytes.
+     */
+    public void await(String bucket, long operations, long bytes) {
+        Throttle throttle = getThrottle(bucket);
+        if (throttle != null) {
+            try {
+                long wait = throttle.tryAcquire(operations, bytes);
+                while (wait > 0) {
+                    Thread.sleep(wait);
+                    wait = throttle.tryAcquire(operations, bytes);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Charge the given amount of bytes, which are usually known only after an operation has been executed,
+     * to the given bucket: exceeding bytes will delay subsequent operations.
+     *
+     * @param bucket The bucket name.
+     * @param bytes The number of bytes.
+     */
+    public void consume(String bucket, long bytes) {
+        Throttle throttle = getThrottle(bucket);
+        if (throttle != null) {
+            throttle.take(0, bytes);
+        }
+    }
+
+    public void setDefaultLimits(long operationsPerSecond, long bytesPerSecond) {
+        defaults = new Limits(operationsPerSecond, bytesPerSecond);
+        throttles.clear();
+    }
+
+    public void setLimits(String bucket, long operationsPerSecond, long bytesPerSecond) {
+        limits.put(bucket, new Limits(operationsPerSecond, bytesPerSecond));
+        rejections.putIfAbsent(bucket, new AtomicLong());
+        throttles.remove(bucket);
+    }
+
+    public void removeLimits(String bucket) {
+        limits.remove(bucket);
+        rejections.remove(bucket);
+        throttles.remove(bucket);
+    }
+
+    public RateLimits getRateLimits() {
+        Map<String, RateLimits.Limits> buckets = new TreeMap<String, RateLimits.Limits>();
+        for (Map.Entry<String, Limits> entry : limits.entrySet()) {
+            Limits current = entry.getValue();
+            AtomicLong counter = rejections.get(entry.getKey());
+            buckets.put(entry.getKey(), new RateLimits.Limits(current.operationsPerSecond, current.bytesPerSecond, counter != null ? counter.get() : 0));
+        }
+        Limits currentDefaults = defaults;
+        return new RateLimits(new RateLimits.Limits(currentDefaults.operationsPerSecond, currentDefaults.bytesPerSecond, defaultRejections.get()), buckets);
+    }
+
+    /**
+     * Compute the size in bytes of the given value as actually stored and transferred, that is, compressed if
+     * it was compressed, or binary if it was binary, without decompressing, rendering or copying it.
+     *
+     * @param value The value.
+     * @return The size in bytes.
+     */
+    public static long sizeOf(Value value) {
+        if (value != null) {
+            return value.getSize();
+        } else {
+            return 0;
+        }
+    }
+
+    public static long sizeOf(Map<?, Value> values) {
+        long size = 0;
+        for (Value value : values.values()) {
+            size += sizeOf(value);
+        }
+        return size;
+    }
+
+    private Limits getLimits(String bucket) {
+        Limits bucketLimits = limits.get(bucket);
+        return bucketLimits != null ? bucketLimits : defaults;
+    }
+
+    private Throttle getThrottle(String bucket) {
+        Throttle throttle = throttles.get(bucket);
+        if (throttle == null) {
+            Limits bucketLimits = getLimits(bucket);
+            if (bucketLimits.isUnlimited()) {
+                return null;
+            } else {
+                throttle = new Throttle(bucketLimits);
+                Throttle existent = throttles.putIfAbsent(bucket, throttle);
+                if (existent == null && throttles.size() > sweepThreshold) {
+                    sweepIdleThrottles();
+                }
+                return existent != null ? existent : throttle;
+            }
+        } else {
+            return throttle;
+        }
+    }
+
+    private synchronized void sweepIdleThrottles() {
+        // Idle throttles are full, so dropping them doesn't change admission of later operations:
+        for (Map.Entry<String, Throttle> entry : throttles.entrySet()) {
+            if (!limits.containsKey(entry.getKey()) && entry.getValue().isIdle()) {
+                throttles.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        sweepThreshold = Math.max(MIN_SWEEP_THRESHOLD, throttles.size() * 2);
+    }
+
+    int getThrottlesCount() {
+        return throttles.size();
+    }
+
+    private static class Limits {
+
+        private final long operationsPerSecond;
+        private final long bytesPerSecond;
+
+        public Limits(long operationsPerSecond, long bytesPerSecond) {
+            this.operationsPerSecond = operationsPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        public boolean isUnlimited() {
+            return operationsPerSecond <= 0 && bytesPerSecond <= 0;
+        }
+
+    }
+
+    private static class Throttle {
+
+        private final TokenBucket operations;
+        private final TokenBucket bytes;
+
+        public Throttle(Limits limits) {
+            this.operations = new TokenBucket(limits.operationsPerSecond);
+            this.bytes = new TokenBucket(limits.bytesPerSecond);
+        }
+
+        public synchronized long tryAcquire(long operationsAmount, long bytesAmount) {
+            long wait = Math.max(operations.waitFor(operationsAmount), bytes.waitFor(bytesAmount));
+            if (wait == 0) {
+                operations.take(operationsAmount);
+                bytes.take(bytesAmount);
+            }
+            return wait;
+        }
+
+        public synchronized void take(long operationsAmount, long bytesAmount) {
+            operations.take(operationsAmount);
+            bytes.take(bytesAmount);
+        }
+
+        public synchronized boolean isIdle() {
+            return operations.isFull() && bytes.isFull();
+        }
+
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.server.impl.limit;
+
+import terrastore.common.ErrorMessage;
+import terrastore.server.ServerOperationException;
+
+/**
+ * {@link terrastore.server.ServerOperationException} signaling a rejected operation due to exceeded bucket rate limits.
+ *
+ * @author Sergio Bossa
+ */
+public class RateLimitExceededException extends ServerOperationException {
+
+    private final long retryAfter;
+
+    public RateLimitExceededException(ErrorMessage errorMessage, long retryAfter) {
+        super(errorMessage);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return The time to wait before retrying the operation, in milliseconds.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
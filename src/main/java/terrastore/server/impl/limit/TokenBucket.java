@@ -0,0 +1,96 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.server.impl.limit;
+
+/**
+ * Token bucket refilled at a fixed rate per second, and holding at most one second worth of tokens.<br>
+ * Requests larger than the bucket capacity are admitted when the bucket is full, and leave it in debt:
+ * debts, as well as tokens consumed after the fact, are paid back by delaying subsequent requests.
+ * <br><br>
+ * This class is not thread-safe: callers must provide proper synchronization.
+ *
+ * @author Sergio Bossa
+ */
+public class TokenBucket {
+
+    private final long ratePerSecond;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param ratePerSecond The number of tokens refilled each second: zero or negative values mean unlimited rate.
+     */
+    public TokenBucket(long ratePerSecond) {
+        this.ratePerSecond = ratePerSecond;
+        this.tokens = ratePerSecond;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public boolean isUnlimited() {
+        return ratePerSecond <= 0;
+    }
+
+    /**
+     * Compute how long to wait before the given amount of tokens can be taken.
+     *
+     * @param amount The amount of tokens to take.
+     * @return The time to wait in milliseconds, or zero if tokens can be immediately taken.
+     */
+    public long waitFor(long amount) {
+        if (!isUnlimited()) {
+            refill();
+            double required = Math.min(amount, ratePerSecond);
+            if (tokens >= required) {
+                return 0;
+            } else {
+                return (long) Math.ceil((required - tokens) * 1000 / ratePerSecond);
+            }
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * @return True if the bucket holds all of its tokens, so behaving the same as a newly created bucket.
+     */
+    public boolean isFull() {
+        if (!isUnlimited()) {
+            refill();
+            return tokens >= ratePerSecond;
+        } else {
+            return true;
+        }
+    }
+
+    /**
+     * Take the given amount of tokens, regardless of the available ones.
+     *
+     * @param amount The amount of tokens to take.
+     */
+    public void take(long amount) {
+        if (!isUnlimited()) {
+            refill();
+            tokens -= amount;
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(ratePerSecond, tokens + ((now - lastRefill) * ratePerSecond / 1000000000d));
+        lastRefill = now;
+    }
+
+}
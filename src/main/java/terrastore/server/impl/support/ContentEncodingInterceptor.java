@@ -0,0 +1,143 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.server.impl.support;
+
+import com.ning.compress.lzf.LZFOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.ext.Provider;
+import org.jboss.resteasy.annotations.interception.ServerInterceptor;
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
+import org.jboss.resteasy.spi.interception.MessageBodyWriterContext;
+import org.jboss.resteasy.spi.interception.MessageBodyWriterInterceptor;
+import terrastore.store.Value;
+
+/**
+ * Compress response bodies depending on the encodings accepted by the client through the Accept-Encoding header.<br>
+ * Supported encodings are "lzf" and "gzip": the one with the highest quality value is selected, preferring "lzf"
+ * on ties, as it's the cheapest one.<br>
+ * Documents already stored in compressed form are sent as they are with the "lzf" encoding, without being decompressed
+ * and compressed again: see {@link JsonValueProvider}.<br>
+ * The encoding is selected when writing the response, from the headers of the request being currently served,
+ * and responses are marked as varying on the Accept-Encoding header, so that caches don't serve them to other clients.
+ *
+ * @author Sergio Bossa
+ */
+@Provider
+@ServerInterceptor
+public class ContentEncodingInterceptor implements MessageBodyWriterInterceptor {
+
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String VARY = "Vary";
+    public static final String LZF_ENCODING = "lzf";
+    public static final String GZIP_ENCODING = "gzip";
+
+    @Override
+    public void write(MessageBodyWriterContext context) throws IOException, WebApplicationException {
+        HttpHeaders request = ResteasyProviderFactory.getContextData(HttpHeaders.class);
+        String encoding = request != null ? selectEncoding(request.getRequestHeader(ACCEPT_ENCODING)) : null;
+        if (context.getHeaders().getFirst(VARY) == null) {
+            context.getHeaders().putSingle(VARY, ACCEPT_ENCODING);
+        }
+        if (encoding != null && context.getHeaders().getFirst(CONTENT_ENCODING) == null) {
+            context.getHeaders().putSingle(CONTENT_ENCODING, encoding);
+            if (encoding.equals(LZF_ENCODING) && context.getEntity() instanceof Value && ((Value) context.getEntity()).isCompressed()) {
+                // Stored bytes are already lzf-encoded, so the value provider will write them as they are:
+                context.proceed();
+            } else if (encoding.equals(LZF_ENCODING)) {
+                OutputStream original = context.getOutputStream();
+                LZFOutputStream encoder = new LZFOutputStream(original);
+                context.setOutputStream(encoder);
+                try {
+                    context.proceed();
+                } finally {
+                    encoder.flush();
+                    context.setOutputStream(original);
+                }
+            } else {
+                OutputStream original = context.getOutputStream();
+                GZIPOutputStream encoder = new GZIPOutputStream(original);
+                context.setOutputStream(encoder);
+                try {
+                    context.proceed();
+                } finally {
+                    encoder.finish();
+                    context.setOutputStream(original);
+                }
+            }
+        } else {
+            context.proceed();
+        }
+    }
+
+    /**
+     * Select the supported encoding with the highest quality value among the given accepted ones, preferring lzf
+     * on ties: encodings may be also accepted through the "*" wildcard, and are not applied if the "identity" encoding
+     * is explicitly given a higher quality value.
+     *
+     * @return The selected encoding, or null if the response must not be encoded.
+     */
+    static String selectEncoding(Iterable<String> acceptedEncodings) {
+        float lzf = -1;
+        float gzip = -1;
+        float identity = -1;
+        float any = -1;
+        if (acceptedEncodings != null) {
+            for (String header : acceptedEncodings) {
+                for (String token : header.split(",")) {
+                    String[] parts = token.split(";");
+                    String name = parts[0].trim().toLowerCase();
+                    float quality = qualityOf(parts);
+                    if (name.equals(LZF_ENCODING)) {
+                        lzf = Math.max(lzf, quality);
+                    } else if (name.equals(GZIP_ENCODING) || name.equals("x-gzip")) {
+                        gzip = Math.max(gzip, quality);
+                    } else if (name.equals("identity")) {
+                        identity = Math.max(identity, quality);
+                    } else if (name.equals("*")) {
+                        any = Math.max(any, quality);
+                    }
+                }
+            }
+        }
+        lzf = lzf >= 0 ? lzf : any;
+        gzip = gzip >= 0 ? gzip : any;
+        float best = Math.max(lzf, gzip);
+        if (best > 0 && best >= identity) {
+            return lzf >= gzip ? LZF_ENCODING : GZIP_ENCODING;
+        } else {
+            return null;
+        }
+    }
+
+    private static float qualityOf(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(parameter.substring(2));
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
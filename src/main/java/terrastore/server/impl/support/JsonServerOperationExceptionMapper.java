@@ -20,6 +20,7 @@ import javax.ws.rs.ext.ExceptionMapper;
 import javax.ws.rs.ext.Provider;
 import terrastore.common.ErrorMessage;
 import terrastore.server.ServerOperationException;
+import terrastore.server.impl.limit.RateLimitExceededException;
 
 /**
  * @author Sergio Bossa
@@ -27,9 +28,14 @@ import terrastore.server.ServerOperationException;
 @Provider
 public class JsonServerOperationExceptionMapper implements ExceptionMapper<ServerOperationException> {
 
+    private static final String RETRY_AFTER = "Retry-After";
+
     public Response toResponse(ServerOperationException ex) {
         ErrorMessage message = ex.getErrorMessage();
-        if (message != null) {
+        if (ex instanceof RateLimitExceededException) {
+            long retryAfterSeconds = Math.max(1, (((RateLimitExceededException) ex).getRetryAfter() + 999) / 1000);
+            return Response.status(message.getCode()).header(RETRY_AFTER, retryAfterSeconds).entity(message).build();
+        } else if (message != null) {
             return Response.status(message.getCode()).entity(message).build();
         } else {
             return Response.status(500).build();
@@ -70,7 +70,11 @@ public class JsonValueProvider implements MessageBodyReader<Value>, MessageBodyW
     }
 
     public void writeTo(Value value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
-        IOUtils.read(value.getInputStream(), entityStream);
+        if (value.isCompressed() && ContentEncodingInterceptor.LZF_ENCODING.equals(httpHeaders.getFirst(ContentEncodingInterceptor.CONTENT_ENCODING))) {
+            entityStream.write(value.getCompressedBytes());
+        } else {
+            IOUtils.read(value.getInputStream(), entityStream);
+        }
     }
 
     public long getSize(Value value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
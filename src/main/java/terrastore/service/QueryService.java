@@ -123,6 +123,23 @@ public interface QueryService {
     @HandleFailure(exception = CommunicationException.class)
     public Values queryByPredicate(String bucket, Predicate predicate) throws CommunicationException, QueryOperationException;
 
+    /**
+     * Execute a predicate-based query returning all key/value pairs whose value satisfies the given predicate,
+     * looking them up through secondary indexes when possible.
+     * <br><br>
+     * Predicates are looked up through the indexes maintained by all nodes if their condition can be answered by indexes
+     * (see {@link terrastore.store.Bucket#queryByIndex(Predicate)}), otherwise they are evaluated on all values as
+     * in {@link #queryByPredicate(String, Predicate)}.
+     *
+     * @param bucket The bucket to query.
+     * @param predicate The predicate to evaluate on values.
+     * @return A map containing key/value pairs.
+     * @throws CommunicationException If unable to perform the operation due to cluster communication errors.
+     * @throws QueryOperationException If a bucket with the given name doesn't exist, or no condition is specified or no matching is found.
+     */
+    @HandleFailure(exception = CommunicationException.class)
+    public Values queryByIndex(String bucket, Predicate predicate) throws CommunicationException, QueryOperationException;
+
     /**
      * Execute a map-reduce query over the given bucket and within a given (optional) key {@link terrastore.store.features.Range}, with mapper, combiner and
      * reducer functions described into the {@link terrastore.store.features.Mapper} and {@link terrastore.store.features.Reducer} objects.
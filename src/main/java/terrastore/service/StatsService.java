@@ -16,6 +16,8 @@
 package terrastore.service;
 
 import terrastore.common.ClusterStats;
+import terrastore.common.IndexStats;
+import terrastore.common.PartitionStats;
 
 /**
  * The StatsService manages Terrastore statistics.
@@ -30,4 +32,27 @@ public interface StatsService {
      * @return The {@link terrastore.common.ClusterStats} instance representing the current cluster statistics.
      */
     public ClusterStats getClusterStats();
+
+    /**
+     * Get the load statistics of the partitions owned by the local cluster.
+     *
+     * @return The {@link terrastore.common.PartitionStats} instance representing per-partition load, per-node load and recent partition moves.
+     */
+    public PartitionStats getPartitionStats();
+
+    /**
+     * Move the hottest partitions of the local cluster from the most loaded nodes to the least loaded ones.<br>
+     * Partitions are handed off in rate-limited steps, the first one being executed before returning.
+     *
+     * @param maxMoves The max number of partitions to move in this round.
+     * @return The {@link terrastore.common.PartitionStats} instance representing partition statistics after the first rebalancing step.
+     */
+    public PartitionStats rebalancePartitions(int maxMoves);
+
+    /**
+     * Get the size of the secondary indexes maintained by all nodes.
+     *
+     * @return The {@link terrastore.common.IndexStats} instance representing per-node index sizes.
+     */
+    public IndexStats getIndexStats();
 }
@@ -15,12 +15,15 @@
  */
 package terrastore.service;
 
+import java.util.Map;
 import terrastore.communication.CommunicationException;
 import terrastore.decorator.failure.HandleFailure;
 import terrastore.router.Router;
 import terrastore.server.Keys;
 import terrastore.server.Values;
+import terrastore.server.ValuesStream;
 import terrastore.store.Key;
+import terrastore.store.features.Expectation;
 import terrastore.store.features.Range;
 import terrastore.store.features.Update;
 import terrastore.store.Value;
@@ -58,6 +61,22 @@ public interface UpdateService {
     @HandleFailure(exception = CommunicationException.class)
     public Keys bulkPut(String bucket, Values values) throws CommunicationException, UpdateOperationException;
 
+    /**
+     * Execute a bulk put into the given bucket, reading values from the given stream while routing and sending them
+     * to their nodes in per-node batches, so that only a bounded number of values is held in memory at any time.<br>
+     * Failures are not retried, as the stream can be read only once.<br>
+     * The operation is not atomic: if the stream turns out to contain an invalid value, batches already sent are still written,
+     * and waited for, while values not yet sent are discarded, and the number of written values is reported in the error message.
+     *
+     * @param bucket The name of the bucket where to bulk put values.
+     * @param values The stream of values to put.
+     * @return The inserted keys.
+     * @throws CommunicationException If unable to perform the operation due to cluster communication errors.
+     * @throws UpdateOperationException If errors occur during the operation.
+     * @throws ValidationException If the stream contains invalid values: values sent before are written anyway.
+     */
+    public Keys bulkPut(String bucket, ValuesStream values) throws CommunicationException, UpdateOperationException, ValidationException;
+
     /**
      * Put a value into the given bucket under the given key, eventually replacing the old value.<br>
      * If a {@link terrastore.store.features.Predicate} is provided, and the predicate isn't empty see {@link terrastore.store.features.Predicate#isEmpty()},
@@ -74,6 +93,36 @@ public interface UpdateService {
     @HandleFailure(exception = CommunicationException.class)
     public void putValue(String bucket, Key key, Value value, Predicate predicate) throws CommunicationException, UpdateOperationException, ValidationException;
 
+    /**
+     * Put a value into the given bucket under the given key, making it expire after the given time to live.
+     *
+     * @param bucket The name of the bucket to put the value into.
+     * @param key The key of the value.
+     * @param value The value to put.
+     * @param timeToLive The time to live in milliseconds.
+     * @throws CommunicationException If unable to perform the operation due to cluster communication errors.
+     * @throws UpdateOperationException If errors occur during put.
+     * @throws ValidationException If the passed value isn't a valid one.
+     */
+    @HandleFailure(exception = CommunicationException.class)
+    public void putExpiringValue(String bucket, Key key, Value value, long timeToLive) throws CommunicationException, UpdateOperationException, ValidationException;
+
+    /**
+     * Put a value into the given bucket under the given key, only if the hash (see {@link terrastore.store.Value#getHash()})
+     * or the version (see {@link terrastore.store.Value#getVersion()}) of the existent value matches the given {@link Expectation},
+     * where only a zero version matches absent values.
+     *
+     * @param bucket The name of the bucket to put the value into.
+     * @param key The key of the value.
+     * @param value The value to put.
+     * @param expectation The hash or version the existent value is expected to have.
+     * @throws CommunicationException If unable to perform the operation due to cluster communication errors.
+     * @throws UpdateOperationException If the hash or version doesn't match.
+     * @throws ValidationException If the passed value isn't a valid one.
+     */
+    @HandleFailure(exception = CommunicationException.class)
+    public void compareAndPutValue(String bucket, Key key, Value value, Expectation expectation) throws CommunicationException, UpdateOperationException, ValidationException;
+
     /**
      * Remove a value from the given bucket under the given key.
      *
@@ -85,6 +134,19 @@ public interface UpdateService {
     @HandleFailure(exception = CommunicationException.class)
     public void removeValue(String bucket, Key key) throws CommunicationException, UpdateOperationException;
 
+    /**
+     * Remove a value from the given bucket under the given key, only if it exists and its hash (see {@link terrastore.store.Value#getHash()})
+     * or version (see {@link terrastore.store.Value#getVersion()}) matches the given {@link Expectation}.
+     *
+     * @param bucket The name of the bucket to remove the value from.
+     * @param key The key of the value.
+     * @param expectation The hash or version the existent value is expected to have.
+     * @throws CommunicationException If unable to perform the operation due to cluster communication errors.
+     * @throws UpdateOperationException If no value exists with the given key, or its hash or version doesn't match.
+     */
+    @HandleFailure(exception = CommunicationException.class)
+    public void compareAndRemoveValue(String bucket, Key key, Expectation expectation) throws CommunicationException, UpdateOperationException;
+
     /**
      * Execute a range query removing all key/value pairs whose key falls within the given range, and whose values satisfies the given predicate (if any).
      * <br><br>
@@ -131,6 +193,19 @@ public interface UpdateService {
     @HandleFailure(exception = CommunicationException.class)
     public Value mergeValue(String bucket, Key key, Value value) throws CommunicationException, UpdateOperationException, ValidationException;
 
+    /**
+     * Increment the numeric counters of the value stored under the given bucket and key.<br>
+     * Increments are accumulated by the node owning the key, and asynchronously written to the value.
+     *
+     * @param bucket The name of the bucket holding the value to increment.
+     * @param key The key of the value to increment.
+     * @param increments A map of counter names to increment amounts.
+     * @throws CommunicationException If unable to perform the operation due to cluster communication errors.
+     * @throws UpdateOperationException If errors occur during update.
+     */
+    @HandleFailure(exception = CommunicationException.class)
+    public void incrementCounters(String bucket, Key key, Map<String, Long> increments) throws CommunicationException, UpdateOperationException;
+
     /**
      * Get the {@link terrastore.router.Router} instance used for routing actual update operations.
      *
@@ -15,6 +15,7 @@
  */
 package terrastore.service.impl;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -33,6 +34,7 @@ import terrastore.communication.protocol.GetBucketsCommand;
 import terrastore.communication.protocol.GetValueCommand;
 import terrastore.communication.protocol.GetValuesCommand;
 import terrastore.communication.protocol.MapCommand;
+import terrastore.communication.protocol.QueryByIndexCommand;
 import terrastore.communication.protocol.ReduceCommand;
 import terrastore.router.MissingRouteException;
 import terrastore.router.Router;
@@ -270,6 +272,25 @@ public class DefaultQueryService implements QueryService {
         }
     }
 
+    @Override
+    public Values queryByIndex(String bucket, Predicate predicate) throws CommunicationException, QueryOperationException {
+        Values result = null;
+        try {
+            result = multicastQueryByIndexCommand(router.broadcastRoute(), new QueryByIndexCommand(bucket, predicate));
+        } catch (ParallelExecutionException ex) {
+            if (ex.getCause() instanceof ProcessingException) {
+                handleParallelExecutionException(ex);
+            } else {
+                LOG.warn("Cannot query indexes of bucket {}, falling back to predicate query: {}", bucket, ex.getMessage());
+            }
+        }
+        if (result != null) {
+            return result;
+        } else {
+            return queryByPredicate(bucket, predicate);
+        }
+    }
+
     @Override
     public Value queryByMapReduce(final String bucket, final Range range, final Mapper mapper, final Reducer reducer) throws CommunicationException, QueryOperationException {
         try {
@@ -336,6 +357,42 @@ public class DefaultQueryService implements QueryService {
         return keys;
     }
 
+    private Values multicastQueryByIndexCommand(final Map<Cluster, Set<Node>> perClusterNodes, final QueryByIndexCommand command) throws ParallelExecutionException {
+        // Every node only indexes documents of the partitions it owns, so all nodes must answer:
+        List<Node> nodes = new ArrayList<Node>();
+        for (Set<Node> clusterNodes : perClusterNodes.values()) {
+            nodes.addAll(clusterNodes);
+        }
+        List<Map<Key, Value>> allKeyValues = ParallelUtils.parallelMap(
+                nodes,
+                new MapTask<Node, Map<Key, Value>>() {
+
+                    @Override
+                    public Map<Key, Value> map(Node node) throws ParallelExecutionException {
+                        try {
+                            return node.<Map<Key, Value>>send(command);
+                        } catch (Exception ex) {
+                            throw new ParallelExecutionException(ex);
+                        }
+                    }
+
+                },
+                new MapCollector<Map<Key, Value>, List<Map<Key, Value>>>() {
+
+                    @Override
+                    public List<Map<Key, Value>> collect(List<Map<Key, Value>> allKeyValues) {
+                        return allKeyValues;
+                    }
+
+                }, GlobalExecutor.getQueryExecutor());
+        // Nodes which cannot answer by their indexes return no values:
+        if (allKeyValues.size() == nodes.size()) {
+            return new Values(Maps.union(allKeyValues));
+        } else {
+            return null;
+        }
+    }
+
     private Set<String> multicastGetBucketsCommand(final Map<Cluster, Set<Node>> perClusterNodes, final GetBucketsCommand command) throws ParallelExecutionException {
         // Parallel collection of all buckets:
         Set<String> result = ParallelUtils.parallelMap(
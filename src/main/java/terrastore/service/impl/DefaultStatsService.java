@@ -15,30 +15,86 @@
  */
 package terrastore.service.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import terrastore.communication.NodeConfiguration;
 
 import terrastore.common.ClusterStats;
+import terrastore.common.IndexStats;
+import terrastore.common.PartitionStats;
 import terrastore.communication.Cluster;
 import terrastore.communication.Node;
+import terrastore.communication.protocol.GetIndexSizesCommand;
+import terrastore.communication.protocol.GetPartitionLoadsCommand;
+import terrastore.communication.protocol.SyncPartitionMovesCommand;
+import terrastore.partition.ClusterPartitioner;
+import terrastore.partition.impl.ClusterHashingPartitioner;
+import terrastore.partition.impl.PartitionLoadCounters;
+import terrastore.partition.impl.PartitionRebalancer;
 import terrastore.router.Router;
 import terrastore.service.StatsService;
+import terrastore.util.concurrent.GlobalExecutor;
 
-/** 
+/**
+ * Partition moves computed by {@link #rebalancePartitions(int)} are handed off in steps of a configurable number of partitions,
+ * separated by a configurable interval, so that nodes are not flooded by many concurrent handoffs and cache warm-ups:
+ * every step is recorded in the move table of the partitioner (shared among nodes if configured so), and other nodes
+ * are then notified to apply it.
+ *
  * @author Giuseppe Santoro
  */
 public class DefaultStatsService implements StatsService {
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultStatsService.class);
     //
+    private static final int DEFAULT_MAX_MOVES_PER_ROUND = 16;
+    private static final int DEFAULT_MOVES_PER_HANDOFF = 4;
+    private static final long DEFAULT_HANDOFF_INTERVAL = 1000;
+    private static final double REBALANCE_TOLERANCE = 0.1;
+    //
     private final Router router;
+    private final int maxMovesPerRound;
+    private final int movesPerHandoff;
+    private final long handoffInterval;
+    private final Object handoffLock;
+    private Handoff currentHandoff;
 
     public DefaultStatsService(Router router) {
+        this(router, DEFAULT_MAX_MOVES_PER_ROUND);
+    }
+
+    public DefaultStatsService(Router router, int maxMovesPerRound) {
+        this(router, maxMovesPerRound, DEFAULT_MOVES_PER_HANDOFF, DEFAULT_HANDOFF_INTERVAL);
+    }
+
+    /**
+     * @param router The router.
+     * @param maxMovesPerRound The max number of partitions moved by a single rebalancing round.
+     * @param movesPerHandoff The max number of partitions handed off at every step.
+     * @param handoffInterval The interval, in milliseconds, between handoff steps.
+     */
+    public DefaultStatsService(Router router, int maxMovesPerRound, int movesPerHandoff, long handoffInterval) {
+        if (movesPerHandoff < 1 || handoffInterval < 0) {
+            throw new IllegalArgumentException("Wrong handoff configuration, moves per handoff must be positive, interval non negative.");
+        }
         this.router = router;
+        this.maxMovesPerRound = maxMovesPerRound;
+        this.movesPerHandoff = movesPerHandoff;
+        this.handoffInterval = handoffInterval;
+        this.handoffLock = new Object();
     }
 
     @Override
@@ -56,4 +112,214 @@ public class DefaultStatsService implements StatsService {
         }
         return new ClusterStats(clusterStats);
     }
+
+    @Override
+    public PartitionStats getPartitionStats() {
+        Cluster localCluster = getLocalCluster();
+        ClusterPartitioner partitioner = router.getClusterPartitioner();
+        if (localCluster != null && partitioner instanceof ClusterHashingPartitioner) {
+            return computePartitionStats(localCluster, (ClusterHashingPartitioner) partitioner);
+        } else {
+            return new PartitionStats(localCluster != null ? localCluster.getName() : null,
+                    Collections.<String, Long>emptyMap(),
+                    Collections.<PartitionStats.Partition>emptyList(),
+                    Collections.<PartitionStats.Move>emptyList());
+        }
+    }
+
+    @Override
+    public PartitionStats rebalancePartitions(int maxMoves) {
+        Cluster localCluster = getLocalCluster();
+        ClusterPartitioner partitioner = router.getClusterPartitioner();
+        if (localCluster != null && partitioner instanceof ClusterHashingPartitioner) {
+            ClusterHashingPartitioner hashingPartitioner = (ClusterHashingPartitioner) partitioner;
+            PartitionStats current = computePartitionStats(localCluster, hashingPartitioner);
+            Map<Integer, String> owners = new HashMap<Integer, String>();
+            Map<Integer, Long> loads = new HashMap<Integer, Long>();
+            for (PartitionStats.Partition partition : current.getPartitions()) {
+                owners.put(partition.getPartition(), partition.getNode());
+                loads.put(partition.getPartition(), partition.getLoad());
+            }
+            PartitionRebalancer rebalancer = new PartitionRebalancer(Math.min(maxMoves, maxMovesPerRound), REBALANCE_TOLERANCE);
+            Map<Integer, String> moves = rebalancer.plan(current.getNodes().keySet(), owners, loads);
+            if (!moves.isEmpty()) {
+                startHandoff(new Handoff(localCluster, hashingPartitioner, moves));
+            }
+            return computePartitionStats(localCluster, hashingPartitioner);
+        } else {
+            return getPartitionStats();
+        }
+    }
+
+    @Override
+    public IndexStats getIndexStats() {
+        List<IndexStats.Index> indexes = new ArrayList<IndexStats.Index>();
+        for (Cluster cluster : router.getClusters()) {
+            for (Node node : router.clusterRoute(cluster)) {
+                try {
+                    Map<String, Object> sizes = node.<Map<String, Object>>send(new GetIndexSizesCommand());
+                    for (Map.Entry<String, Object> bucketSizes : sizes.entrySet()) {
+                        Map<String, Object> fieldSizes = (Map<String, Object>) bucketSizes.getValue();
+                        boolean built = Boolean.TRUE.equals(fieldSizes.get(GetIndexSizesCommand.BUILT));
+                        for (Map.Entry<String, Object> fieldSize : fieldSizes.entrySet()) {
+                            if (!fieldSize.getKey().equals(GetIndexSizesCommand.BUILT)) {
+                                long documents = ((Number) fieldSize.getValue()).longValue();
+                                indexes.add(new IndexStats.Index(cluster.getName(), node.getName(), bucketSizes.getKey(), fieldSize.getKey(), documents, built));
+                            }
+                        }
+                    }
+                } catch (Exception ex) {
+                    LOG.warn("Cannot get index sizes from node {}: {}", node.getName(), ex.getMessage());
+                }
+            }
+        }
+        return new IndexStats(indexes);
+    }
+
+    private void startHandoff(Handoff handoff) {
+        synchronized (handoffLock) {
+            // A new rebalancing round supersedes the moves still pending from the previous one:
+            if (currentHandoff != null) {
+                currentHandoff.cancel();
+            }
+            currentHandoff = handoff;
+        }
+        handoff.run();
+    }
+
+    private void moveAndSync(Cluster cluster, ClusterHashingPartitioner partitioner, Map<Integer, String> moves) {
+        partitioner.movePartitions(cluster, moves);
+        Node localNode = router.routeToLocalNode();
+        for (Node node : router.clusterRoute(cluster)) {
+            if (!isLocal(node, localNode)) {
+                try {
+                    node.send(new SyncPartitionMovesCommand());
+                } catch (Exception ex) {
+                    // Moves will be applied by the periodic sync of the node:
+                    LOG.warn("Cannot sync partition moves on node {}: {}", node.getName(), ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private PartitionStats computePartitionStats(Cluster localCluster, ClusterHashingPartitioner partitioner) {
+        PartitionLoadCounters counters = partitioner.getLoadCounters();
+        int partitions = counters.getPartitions();
+        long[] reads = new long[partitions];
+        long[] writes = new long[partitions];
+        long[] bytes = new long[partitions];
+        for (int i = 0; i < partitions; i++) {
+            reads[i] = counters.getReads(i);
+            writes[i] = counters.getWrites(i);
+            bytes[i] = counters.getBytes(i);
+        }
+        Node localNode = router.routeToLocalNode();
+        Set<Node> nodes = router.clusterRoute(localCluster);
+        for (Node node : nodes) {
+            if (!isLocal(node, localNode)) {
+                try {
+                    Map<String, Object> loads = node.<Map<String, Object>>send(new GetPartitionLoadsCommand());
+                    accumulate(reads, (long[]) loads.get(GetPartitionLoadsCommand.READS));
+                    accumulate(writes, (long[]) loads.get(GetPartitionLoadsCommand.WRITES));
+                    accumulate(bytes, (long[]) loads.get(GetPartitionLoadsCommand.BYTES));
+                } catch (Exception ex) {
+                    LOG.warn("Cannot get partition loads from node {}: {}", node.getName(), ex.getMessage());
+                }
+            }
+        }
+        //
+        Map<String, Long> nodeLoads = new LinkedHashMap<String, Long>();
+        for (Node node : nodes) {
+            nodeLoads.put(node.getName(), 0L);
+        }
+        List<PartitionStats.Partition> partitionStats = new ArrayList<PartitionStats.Partition>();
+        for (int i = 0; i < partitions; i++) {
+            long load = PartitionLoadCounters.loadOf(reads[i], writes[i], bytes[i]);
+            if (load > 0) {
+                Node owner = partitioner.getNodeAtPartition(localCluster, i);
+                if (owner != null) {
+                    Long nodeLoad = nodeLoads.get(owner.getName());
+                    nodeLoads.put(owner.getName(), (nodeLoad != null ? nodeLoad : 0L) + load);
+                    partitionStats.add(new PartitionStats.Partition(i, owner.getName(), reads[i], writes[i], bytes[i], load));
+                }
+            }
+        }
+        Collections.sort(partitionStats, new Comparator<PartitionStats.Partition>() {
+
+            @Override
+            public int compare(PartitionStats.Partition p1, PartitionStats.Partition p2) {
+                return p1.getLoad() > p2.getLoad() ? -1 : (p1.getLoad() < p2.getLoad() ? 1 : p1.getPartition() - p2.getPartition());
+            }
+        });
+        return new PartitionStats(localCluster.getName(), nodeLoads, partitionStats, partitioner.getPartitionMoves());
+    }
+
+    private void accumulate(long[] target, long[] source) {
+        if (source != null) {
+            for (int i = 0; i < Math.min(target.length, source.length); i++) {
+                target[i] += source[i];
+            }
+        }
+    }
+
+    private boolean isLocal(Node node, Node localNode) {
+        return localNode != null && node.getName().equals(localNode.getName());
+    }
+
+    private Cluster getLocalCluster() {
+        for (Cluster cluster : router.getClusters()) {
+            if (cluster.isLocal()) {
+                return cluster;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves of a single rebalancing round, split in steps executed one at a time.
+     */
+    private class Handoff implements Runnable {
+
+        private final Cluster cluster;
+        private final ClusterHashingPartitioner partitioner;
+        private final LinkedList<Map<Integer, String>> steps;
+        private boolean cancelled;
+
+        public Handoff(Cluster cluster, ClusterHashingPartitioner partitioner, Map<Integer, String> moves) {
+            this.cluster = cluster;
+            this.partitioner = partitioner;
+            this.steps = new LinkedList<Map<Integer, String>>();
+            Iterator<Map.Entry<Integer, String>> iterator = moves.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map<Integer, String> step = new LinkedHashMap<Integer, String>();
+                while (iterator.hasNext() && step.size() < movesPerHandoff) {
+                    Map.Entry<Integer, String> move = iterator.next();
+                    step.put(move.getKey(), move.getValue());
+                }
+                steps.add(step);
+            }
+        }
+
+        @Override
+        public synchronized void run() {
+            if (!cancelled && !steps.isEmpty()) {
+                try {
+                    moveAndSync(cluster, partitioner, steps.removeFirst());
+                } catch (Exception ex) {
+                    LOG.warn(ex.getMessage(), ex);
+                }
+                if (!steps.isEmpty()) {
+                    LOG.info("Partition handoff: {} steps to go", steps.size());
+                    GlobalExecutor.schedule(this, GlobalExecutor.getUpdateExecutor(), handoffInterval, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        public synchronized void cancel() {
+            if (!steps.isEmpty()) {
+                LOG.info("Partition handoff: cancelled {} pending steps", steps.size());
+            }
+            cancelled = true;
+        }
+    }
 }
@@ -16,10 +16,15 @@
 package terrastore.service.impl;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import terrastore.common.ErrorLogger;
@@ -28,7 +33,9 @@ import terrastore.communication.Cluster;
 import terrastore.communication.CommunicationException;
 import terrastore.communication.Node;
 import terrastore.communication.ProcessingException;
+import terrastore.communication.protocol.IncrementCountersCommand;
 import terrastore.communication.protocol.MergeCommand;
+import terrastore.communication.protocol.PutExpiringValueCommand;
 import terrastore.communication.protocol.PutValueCommand;
 import terrastore.communication.protocol.PutValuesCommand;
 import terrastore.communication.protocol.RemoveBucketCommand;
@@ -39,10 +46,12 @@ import terrastore.router.MissingRouteException;
 import terrastore.router.Router;
 import terrastore.server.Keys;
 import terrastore.server.Values;
+import terrastore.server.ValuesStream;
 import terrastore.service.KeyRangeStrategy;
 import terrastore.service.UpdateOperationException;
 import terrastore.service.UpdateService;
 import terrastore.store.Key;
+import terrastore.store.features.Expectation;
 import terrastore.store.features.Range;
 import terrastore.store.features.Update;
 import terrastore.store.Value;
@@ -63,6 +72,8 @@ public class DefaultUpdateService implements UpdateService {
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultUpdateService.class);
     //
+    private static final int BULK_PUT_BATCH_SIZE = 1000;
+    //
     private final Router router;
     private final KeyRangeStrategy keyRangeService;
 
@@ -123,6 +134,55 @@ public class DefaultUpdateService implements UpdateService {
         }
     }
 
+    @Override
+    public Keys bulkPut(String bucket, ValuesStream values) throws CommunicationException, UpdateOperationException, ValidationException {
+        // Keep at most one batch in flight per node, besides the one being filled, so to bound memory and preserve per-node ordering:
+        Map<Node, Map<Key, Value>> batches = new HashMap<Node, Map<Key, Value>>();
+        Map<Node, Future<Set<Key>>> inFlight = new HashMap<Node, Future<Set<Key>>>();
+        List<Set<Key>> insertedKeys = new LinkedList<Set<Key>>();
+        try {
+            try {
+                Map.Entry<Key, Value> entry = values.next();
+                while (entry != null) {
+                    Node node = router.routeToNodeFor(bucket, entry.getKey());
+                    Map<Key, Value> batch = batches.get(node);
+                    if (batch == null) {
+                        batch = new HashMap<Key, Value>();
+                        batches.put(node, batch);
+                    }
+                    batch.put(entry.getKey(), entry.getValue());
+                    if (batch.size() == BULK_PUT_BATCH_SIZE) {
+                        batches.remove(node);
+                        sendBulkPutBatch(bucket, node, batch, inFlight, insertedKeys);
+                    }
+                    entry = values.next();
+                }
+                for (Map.Entry<Node, Map<Key, Value>> batch : batches.entrySet()) {
+                    sendBulkPutBatch(bucket, batch.getKey(), batch.getValue(), inFlight, insertedKeys);
+                }
+                collectBulkPutBatches(inFlight, insertedKeys);
+                return new Keys(Sets.union(insertedKeys));
+            } catch (ValidationException ex) {
+                // Batches already sent are written anyway, so wait for them in order to report how many values were actually written,
+                // while values not yet sent are discarded:
+                int written = collectBulkPutBatches(inFlight, insertedKeys);
+                ErrorMessage error = ex.getErrorMessage();
+                throw new ValidationException(new ErrorMessage(error.getCode(), error.getMessage() + " (" + written + " values read before were written)"));
+            } catch (MissingRouteException ex) {
+                collectBulkPutBatches(inFlight, insertedKeys);
+                handleMissingRouteException(ex);
+                return null;
+            }
+        } catch (InterruptedException ex) {
+            // Do not interrupt batches being written, just cancel the ones not yet started:
+            for (Future<Set<Key>> pending : inFlight.values()) {
+                pending.cancel(false);
+            }
+            Thread.currentThread().interrupt();
+            throw new UpdateOperationException(new ErrorMessage(ErrorMessage.INTERNAL_SERVER_ERROR_CODE, "Interrupted bulk put."));
+        }
+    }
+
     @Override
     public void putValue(String bucket, Key key, Value value, Predicate predicate) throws CommunicationException, UpdateOperationException, ValidationException {
         Value.ValidationResult validation = value.validate();
@@ -146,6 +206,42 @@ public class DefaultUpdateService implements UpdateService {
         }
     }
 
+    @Override
+    public void putExpiringValue(String bucket, Key key, Value value, long timeToLive) throws CommunicationException, UpdateOperationException, ValidationException {
+        Value.ValidationResult validation = value.validate();
+        if (validation.isValid()) {
+            try {
+                Node node = router.routeToNodeFor(bucket, key);
+                PutExpiringValueCommand command = new PutExpiringValueCommand(bucket, key, value, timeToLive);
+                node.send(command);
+            } catch (MissingRouteException ex) {
+                handleMissingRouteException(ex);
+            } catch (ProcessingException ex) {
+                handleProcessingException(ex);
+            }
+        } else {
+            throw validation.getException();
+        }
+    }
+
+    @Override
+    public void compareAndPutValue(String bucket, Key key, Value value, Expectation expectation) throws CommunicationException, UpdateOperationException, ValidationException {
+        Value.ValidationResult validation = value.validate();
+        if (validation.isValid()) {
+            try {
+                Node node = router.routeToNodeFor(bucket, key);
+                PutValueCommand command = new PutValueCommand(bucket, key, value, expectation);
+                node.send(command);
+            } catch (MissingRouteException ex) {
+                handleMissingRouteException(ex);
+            } catch (ProcessingException ex) {
+                handleProcessingException(ex);
+            }
+        } else {
+            throw validation.getException();
+        }
+    }
+
     @Override
     public void removeValue(String bucket, Key key) throws CommunicationException, UpdateOperationException {
         try {
@@ -159,6 +255,19 @@ public class DefaultUpdateService implements UpdateService {
         }
     }
 
+    @Override
+    public void compareAndRemoveValue(String bucket, Key key, Expectation expectation) throws CommunicationException, UpdateOperationException {
+        try {
+            Node node = router.routeToNodeFor(bucket, key);
+            RemoveValueCommand command = new RemoveValueCommand(bucket, key, expectation);
+            node.send(command);
+        } catch (MissingRouteException ex) {
+            handleMissingRouteException(ex);
+        } catch (ProcessingException ex) {
+            handleProcessingException(ex);
+        }
+    }
+
     @Override
     public Value updateValue(String bucket, Key key, Update update) throws CommunicationException, UpdateOperationException {
         try {
@@ -194,6 +303,19 @@ public class DefaultUpdateService implements UpdateService {
         }
     }
 
+    @Override
+    public void incrementCounters(String bucket, Key key, Map<String, Long> increments) throws CommunicationException, UpdateOperationException {
+        try {
+            Node node = router.routeToNodeFor(bucket, key);
+            IncrementCountersCommand command = new IncrementCountersCommand(bucket, key, increments);
+            node.send(command);
+        } catch (MissingRouteException ex) {
+            handleMissingRouteException(ex);
+        } catch (ProcessingException ex) {
+            handleProcessingException(ex);
+        }
+    }
+
     @Override
     public Keys removeByRange(final String bucket, Range range, final Predicate predicate) throws CommunicationException, UpdateOperationException {
         try {
@@ -272,6 +394,43 @@ public class DefaultUpdateService implements UpdateService {
         }
     }
 
+    private void sendBulkPutBatch(final String bucket, final Node node, final Map<Key, Value> batch, Map<Node, Future<Set<Key>>> inFlight, List<Set<Key>> insertedKeys) throws InterruptedException {
+        Future<Set<Key>> previous = inFlight.remove(node);
+        if (previous != null) {
+            insertedKeys.add(collectBulkPutBatch(previous));
+        }
+        inFlight.put(node, GlobalExecutor.getUpdateExecutor().submit(new Callable<Set<Key>>() {
+
+            @Override
+            public Set<Key> call() throws Exception {
+                return node.<Set<Key>>send(new PutValuesCommand(bucket, batch));
+            }
+
+        }));
+    }
+
+    private int collectBulkPutBatches(Map<Node, Future<Set<Key>>> inFlight, List<Set<Key>> insertedKeys) throws InterruptedException {
+        for (Future<Set<Key>> pending : inFlight.values()) {
+            insertedKeys.add(collectBulkPutBatch(pending));
+        }
+        inFlight.clear();
+        int inserted = 0;
+        for (Set<Key> keys : insertedKeys) {
+            inserted += keys.size();
+        }
+        return inserted;
+    }
+
+    private Set<Key> collectBulkPutBatch(Future<Set<Key>> batch) throws InterruptedException {
+        try {
+            return batch.get();
+        } catch (ExecutionException ex) {
+            // Failing nodes are ignored, as in plain bulk put: their keys will just not be reported as inserted.
+            LOG.warn(ex.getCause().getMessage(), ex.getCause());
+            return Collections.EMPTY_SET;
+        }
+    }
+
     private void handleMissingRouteException(MissingRouteException ex) throws CommunicationException {
         ErrorMessage error = ex.getErrorMessage();
         ErrorLogger.LOG(LOG, error, ex);
@@ -33,6 +33,7 @@ import terrastore.communication.NodeConfiguration;
 import terrastore.cluster.ensemble.EnsembleConfiguration;
 import terrastore.internal.tc.MasterConnectionException;
 import terrastore.internal.tc.TCMaster;
+import terrastore.server.impl.BinaryServer;
 import terrastore.server.impl.JsonHttpServer;
 import terrastore.util.json.JsonUtils;
 
@@ -46,6 +47,8 @@ public class Startup {
     private static final String DEFAULT_EVENT_BUS = "memory";
     private static final String DEFAULT_HTTP_HOST = "127.0.0.1";
     private static final int DEFAULT_HTTP_PORT = 8205;
+    private static final int DEFAULT_BINARY_PORT = -1;
+    private static final int DEFAULT_BINARY_QUEUE = 1000;
     private static final String DEFAULT_NODE_HOST = "NULL";
     private static final int DEFAULT_NODE_PORT = 8226;
     private static final String DEFAULT_ALLOWED_ORIGINS = "*";
@@ -60,6 +63,10 @@ public class Startup {
     private static final boolean DEFAULT_COMPRESS_DOCUMENTS = false;
     private static final boolean DEFAULT_COMPRESS_COMMUNICATION = false;
     private static final int DEFAULT_CONCURRENCY_LEVEL = 1024;
+    private static final long DEFAULT_BUCKET_OPERATIONS_LIMIT = 0;
+    private static final long DEFAULT_BUCKET_BYTES_LIMIT = 0;
+    private static final String DEFAULT_KEY_AFFINITY = "";
+    private static final long DEFAULT_COUNTERS_FLUSH_INTERVAL = 1000;
     private static final String WELCOME_MESSAGE = "Welcome to Terrastore.";
     private static final String POWEREDBY_MESSAGE = "Powered by Terracotta (http://www.terracotta.org).";
 
@@ -79,6 +86,8 @@ public class Startup {
     private EnsembleConfiguration ensembleConfiguration = EnsembleConfiguration.makeDefault(DEFAULT_CLUSTER_NAME);
     private String httpHost = DEFAULT_HTTP_HOST;
     private int httpPort = DEFAULT_HTTP_PORT;
+    private int binaryPort = DEFAULT_BINARY_PORT;
+    private int binaryQueue = DEFAULT_BINARY_QUEUE;
     private String nodeHost = DEFAULT_NODE_HOST;
     private int nodePort = DEFAULT_NODE_PORT;
     private long reconnectTimeout = DEFAULT_RECONNECT_TIMEOUT;
@@ -92,6 +101,10 @@ public class Startup {
     private boolean compressDocuments = DEFAULT_COMPRESS_DOCUMENTS;
     private boolean compressCommunication = DEFAULT_COMPRESS_COMMUNICATION;
     private int concurrencyLevel = DEFAULT_CONCURRENCY_LEVEL;
+    private long bucketOperationsLimit = DEFAULT_BUCKET_OPERATIONS_LIMIT;
+    private long bucketBytesLimit = DEFAULT_BUCKET_BYTES_LIMIT;
+    private String keyAffinity = DEFAULT_KEY_AFFINITY;
+    private long countersFlushInterval = DEFAULT_COUNTERS_FLUSH_INTERVAL;
 
     @Option(name = "--master", required = true)
     public void setMaster(String master) {
@@ -114,6 +127,16 @@ public class Startup {
         this.httpPort = httpPort;
     }
 
+    @Option(name = "--binaryPort", required = false)
+    public void setBinaryPort(int binaryPort) {
+        this.binaryPort = binaryPort;
+    }
+
+    @Option(name = "--binaryQueue", required = false)
+    public void setBinaryQueue(int binaryQueue) {
+        this.binaryQueue = binaryQueue;
+    }
+
     @Option(name = "--nodeHost", required = false)
     public void setNodeHost(String nodeHost) {
         this.nodeHost = nodeHost;
@@ -179,6 +202,26 @@ public class Startup {
         this.concurrencyLevel = concurrencyLevel;
     }
 
+    @Option(name = "--bucketOperationsLimit", required = false)
+    public void setBucketOperationsLimit(long bucketOperationsLimit) {
+        this.bucketOperationsLimit = bucketOperationsLimit;
+    }
+
+    @Option(name = "--bucketBytesLimit", required = false)
+    public void setBucketBytesLimit(long bucketBytesLimit) {
+        this.bucketBytesLimit = bucketBytesLimit;
+    }
+
+    @Option(name = "--keyAffinity", required = false)
+    public void setKeyAffinity(String keyAffinity) {
+        this.keyAffinity = keyAffinity;
+    }
+
+    @Option(name = "--countersFlushInterval", required = false)
+    public void setCountersFlushInterval(long countersFlushInterval) {
+        this.countersFlushInterval = countersFlushInterval;
+    }
+
     public void start() throws Exception {
         try {
             // TODO: make connection timeout configurable.
@@ -191,6 +234,7 @@ public class Startup {
                 ApplicationContext context = startContext();
                 startCoordinator(context);
                 startJsonHttpServer(context);
+                startBinaryServer(context);
             } else {
                 throw new MasterConnectionException("Unable to connect to master: " + master);
             }
@@ -216,6 +260,10 @@ public class Startup {
         LOG.info(WELCOME_MESSAGE);
         LOG.info(POWEREDBY_MESSAGE);
         LOG.info("Listening for HTTP requests on {}:{}", httpHost, httpPort);
+        if (binaryPort > 0) {
+            LOG.info("Listening for binary requests on {}:{}", httpHost, binaryPort);
+            LOG.info("Maximum number of queued binary requests: {}", binaryQueue);
+        }
         LOG.info("Listening for node requests on {}:{}", nodeHost, nodePort);
         LOG.info("Reconnection timeout (in milliseconds): {}", reconnectTimeout);
         LOG.info("Node communication timeout (in milliseconds): {}", nodeTimeout);
@@ -226,6 +274,10 @@ public class Startup {
         LOG.info("Number of http threads: {}", httpThreads);
         LOG.info("Number of worker threads: {}", workerThreads);
         LOG.info("Internal concurrency level: {}", concurrencyLevel);
+        LOG.info("Counters flush interval (in milliseconds): {}", countersFlushInterval);
+        LOG.info("Default per-bucket operations per second: {}", bucketOperationsLimit > 0 ? bucketOperationsLimit : "UNLIMITED");
+        LOG.info("Default per-bucket bytes per second: {}", bucketBytesLimit > 0 ? bucketBytesLimit : "UNLIMITED");
+        LOG.info("Key affinity separators: {}", keyAffinity.length() > 0 ? keyAffinity : "NONE");
     }
 
     private void setupSystemParams() {
@@ -241,9 +293,16 @@ public class Startup {
         System.setProperty("failover.interval", Long.toString(failoverInterval));
         // Compression configuration:
         System.setProperty("compress.documents", Boolean.toString(compressDocuments));
+        // Counters configuration:
+        System.setProperty("counters.flushInterval", Long.toString(countersFlushInterval));
         // Node configuration:
         System.setProperty("node.id", ClusterUtils.getServerId(TCMaster.getInstance().getClusterInfo().getCurrentNode()));
         System.setProperty("node.concurrency", Integer.toString(concurrencyLevel));
+        // Rate limits configuration:
+        System.setProperty("limits.operations", Long.toString(bucketOperationsLimit));
+        System.setProperty("limits.bytes", Long.toString(bucketBytesLimit));
+        // Partitioning configuration:
+        System.setProperty("partition.affinity", keyAffinity);
     }
 
     private ApplicationContext startContext() throws Exception {
@@ -271,6 +330,17 @@ public class Startup {
         server.start(httpHost, httpPort, configuration);
     }
 
+    private void startBinaryServer(ApplicationContext context) throws Exception {
+        if (binaryPort > 0) {
+            BinaryServer server = context.getBean(BinaryServer.class);
+            Map<String, String> configuration = new HashMap<String, String>();
+            configuration.put(BinaryServer.BINARY_THREADS_CONFIGURATION_PARAMETER, Integer.toString(httpThreads));
+            configuration.put(BinaryServer.BINARY_COMPRESSION_CONFIGURATION_PARAMETER, Boolean.toString(compressCommunication));
+            configuration.put(BinaryServer.BINARY_QUEUE_CONFIGURATION_PARAMETER, Integer.toString(binaryQueue));
+            server.start(httpHost, binaryPort, configuration);
+        }
+    }
+
     private String getConfigFileLocation() {
         String homeDir = System.getenv(Constants.TERRASTORE_HOME) != null ? System.getenv(Constants.TERRASTORE_HOME) : System.getProperty(Constants.TERRASTORE_HOME);
         if (homeDir != null) {
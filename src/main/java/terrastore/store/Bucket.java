@@ -21,6 +21,7 @@ import java.util.Set;
 import terrastore.event.EventBus;
 import terrastore.server.Keys;
 import terrastore.server.Values;
+import terrastore.store.features.Expectation;
 import terrastore.store.features.Mapper;
 import terrastore.store.features.Predicate;
 import terrastore.store.operators.Function;
@@ -51,6 +52,19 @@ public interface Bucket {
      */
     public void put(Key key, Value value);
 
+    /**
+     * Put the given {@link Value} into this bucket under the given key, eventually replacing the old one, and make it expire
+     * after the given time to live, overriding the bucket default one.<br>
+     * Expired values are never returned by reads, and are removed by a background process
+     * publishing a {@link terrastore.event.ValueRemovedEvent} to the {@link terrastore.event.EventBus}.
+     * This publishes a {@link terrastore.event.ValueChangedEvent} to the {@link terrastore.event.EventBus}.
+     *
+     * @param key The key of the value to put.
+     * @param value The value to put.
+     * @param timeToLive The time to live in milliseconds, or zero for never expiring.
+     */
+    public void put(Key key, Value value, long timeToLive);
+
     /**
      * Put the given {@link Value} into this bucket under the given key only if no value existed before,
      * or the existent value satisfies the given {@link terrastore.store.features.Predicate}.<br>
@@ -64,6 +78,19 @@ public interface Bucket {
      */
     public boolean conditionalPut(Key key, Value value, Predicate predicate) throws StoreOperationException;
 
+    /**
+     * Put the given {@link Value} into this bucket under the given key only if the hash (see {@link Value#getHash()})
+     * or the version (see {@link Value#getVersion()}) of the existent value matches the given {@link Expectation}:
+     * only an expected version of zero matches absent values.<br>
+     * This publishes a {@link terrastore.event.ValueChangedEvent} to the {@link terrastore.event.EventBus} if the value is actually put.
+     *
+     * @param key The key of the value to put.
+     * @param value The value to put.
+     * @param expectation The hash or version the existent value is expected to have.
+     * @return True if the value has been actually put, false otherwise.
+     */
+    public boolean compareAndPut(Key key, Value value, Expectation expectation);
+
     /**
      * Get the {@link Value} under the given key.
      *
@@ -103,6 +130,19 @@ public interface Bucket {
      */
     public Values conditionalGet(Set<Key> keys, Predicate predicate) throws StoreOperationException;
 
+    /**
+     * Get the {@link Value}s satisfying the given {@link terrastore.store.features.Predicate}, looked up through the secondary indexes
+     * maintained by this node (see {@link #setIndexedFields(Set)}).<br>
+     * Only predicates evaluated by {@link terrastore.store.conditions.QueryCondition} over indexed fields can be looked up:
+     * candidate values are then evaluated against the predicate.
+     *
+     * @param predicate The predicate object containing data about the condition to evaluate.
+     * @return The values indexed by this node and satisfying the given predicate, or null if the predicate cannot be answered by indexes,
+     * or indexes are not built yet.
+     * @throws StoreOperationException If errors occur.
+     */
+    public Values queryByIndex(Predicate predicate) throws StoreOperationException;
+
     /**
      * Remove this {@link Value} under the given key under the condition that the provided
      * predicate is satisfied.
@@ -126,6 +166,17 @@ public interface Bucket {
      */
     public void remove(Key key) throws StoreOperationException;
 
+    /**
+     * Remove the {@link Value} under the given key only if it exists and its hash (see {@link Value#getHash()})
+     * or version (see {@link Value#getVersion()}) matches the given {@link Expectation}.<br>
+     * This publishes a {@link terrastore.event.ValueRemovedEvent} to the {@link terrastore.event.EventBus} if the value is actually removed.
+     *
+     * @param key The key of the value to remove.
+     * @param expectation The hash or version the existent value is expected to have.
+     * @return True if the value has been actually removed, false otherwise.
+     */
+    public boolean compareAndRemove(Key key, Expectation expectation);
+
     /**
      * Update the {@link Value} under the given key.<br>
      * This publishes a {@link terrastore.event.ValueChangedEvent} to the
@@ -150,6 +201,19 @@ public interface Bucket {
      */
     public Value merge(Key key, Value merge) throws StoreOperationException;
 
+    /**
+     * Increment the numeric counters of the document under the given key by the given amounts, creating the document
+     * and counters if missing.<br>
+     * Increments are accumulated in memory and written to the document at once, when it is accessed or
+     * periodically flushed: so, this publishes a {@link terrastore.event.ValueChangedEvent} to the
+     * {@link terrastore.event.EventBus} on every flush, rather than on every increment.
+     *
+     * @param key The key of the document holding the counters.
+     * @param increments A map of counter names to increment amounts.
+     * @throws StoreOperationException If some of the counters already hold not numeric values.
+     */
+    public void incrementCounters(Key key, Map<String, Long> increments) throws StoreOperationException;
+
     /**
      * Execute a map operation, as described by the {@link terrastore.store.features.Mapper} object,
      * over the given key.
@@ -203,11 +267,68 @@ public interface Bucket {
      */
     public void flush(FlushStrategy flushStrategy, FlushCondition flushCondition);
 
+    /**
+     * Load the values of the given keys into the node-local cache, ahead of actual reads.<br>
+     * Missing keys are ignored, and no load is recorded.
+     *
+     * @param keys The keys to prefetch.
+     */
+    public void prefetch(Set<Key> keys);
+
+    /**
+     * Asynchronously rebuild secondary indexes from all documents of this bucket owned by this node, as set by
+     * {@link #setKeyOwnership(KeyOwnership)}: indexes are not used until built.
+     */
+    public void rebuildIndexes();
+
+    /**
+     * Asynchronously index documents of this bucket owned by the given {@link KeyOwnership}, i.e. belonging to
+     * acquired partitions, keeping already indexed documents, and track their expiration: indexes are not used until done.
+     *
+     * @param acquired The ownership of acquired keys.
+     */
+    public void acquireKeys(KeyOwnership acquired);
+
+    /**
+     * Unindex documents of this bucket owned by the given {@link KeyOwnership}, i.e. belonging to lost partitions.
+     *
+     * @param released The ownership of released keys.
+     */
+    public void releaseKeys(KeyOwnership released);
+
+    /**
+     * @return True if secondary indexes are built, false if being built or not configured.
+     */
+    public boolean isIndexBuilt();
+
+    /**
+     * @return The number of documents indexed by this node, per indexed field path.
+     */
+    public Map<String, Long> getIndexSizes();
+
     /**
      * Set to true for compressing documents, false otherwise.
      */
     public void setCompressDocuments(boolean compressed);
 
+    /**
+     * Set to true for compressing small documents against a dictionary trained from the documents of this bucket, false otherwise.
+     * Documents previously compressed against a dictionary can always be read back, regardless of this setting.
+     */
+    public void setDictionaryCompression(boolean dictionaryCompression);
+
+    /**
+     * Set to true for storing documents in binary format, false for storing them as json text.
+     * Documents previously stored in either format can always be read back, regardless of this setting.
+     */
+    public void setBinaryDocuments(boolean binaryDocuments);
+
+    /**
+     * Set the json field paths (i.e. <i>address.city</i>) to maintain secondary indexes for, and asynchronously build them.
+     * Indexes are maintained by each node for documents written through it.
+     */
+    public void setIndexedFields(Set<String> fields);
+
     /**
      * Set the default {@link terrastore.store.operators.Comparator} used to compare keys when no other comparator is found.
      *
@@ -264,4 +385,32 @@ public interface Bucket {
      */
     public void setEventBus(EventBus eventBus);
 
+    /**
+     * Set the {@link LoadRecorder} used to record the load caused by document operations.
+     *
+     * @param loadRecorder The {@link LoadRecorder} instance, or null for no recording.
+     */
+    public void setLoadRecorder(LoadRecorder loadRecorder);
+
+    /**
+     * Set the {@link KeyOwnership} of this node, used to only index documents owned by this node.
+     *
+     * @param keyOwnership The {@link KeyOwnership} instance, or null for owning all keys.
+     */
+    public void setKeyOwnership(KeyOwnership keyOwnership);
+
+    /**
+     * Set the interval between flushes of accumulated counter increments to their documents.
+     *
+     * @param countersFlushInterval The flush interval in milliseconds.
+     */
+    public void setCountersFlushInterval(long countersFlushInterval);
+
+    /**
+     * Set the time to live of values put into this bucket without an explicit one.
+     *
+     * @param defaultTimeToLive The time to live in milliseconds, or zero for never expiring values.
+     */
+    public void setDefaultTimeToLive(long defaultTimeToLive);
+
 }
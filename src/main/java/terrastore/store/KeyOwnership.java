@@ -0,0 +1,34 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store;
+
+/**
+ * Interface to implement for deciding whether keys of a given bucket are owned, i.e. by the local node,
+ * or by a given set of partitions.
+ *
+ * @author Sergio Bossa
+ */
+public interface KeyOwnership {
+
+    /**
+     * Check if the given key is owned.
+     *
+     * @param bucket The bucket containing the key.
+     * @param key The key to check.
+     * @return True if owned, false otherwise.
+     */
+    public boolean isOwned(Bucket bucket, Key key);
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store;
+
+/**
+ * Interface to implement for recording the load caused by reading and writing keys of a given bucket,
+ * as observed on the node actually executing the operations.
+ *
+ * @author Sergio Bossa
+ */
+public interface LoadRecorder {
+
+    /**
+     * Record a read access.
+     *
+     * @param bucket The bucket containing the read key.
+     * @param key The read key.
+     * @param bytes The number of read bytes.
+     */
+    public void recordRead(Bucket bucket, Key key, long bytes);
+
+    /**
+     * Record a write access (including removals).
+     *
+     * @param bucket The bucket containing the written key.
+     * @param key The written key.
+     * @param bytes The number of written bytes.
+     */
+    public void recordWrite(Bucket bucket, Key key, long bytes);
+}
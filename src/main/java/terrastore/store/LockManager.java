@@ -15,6 +15,8 @@
  */
 package terrastore.store;
 
+import terrastore.common.LockStats;
+
 /**
  * Lock manager interface for locking read/write operations.
  *
@@ -54,6 +56,33 @@ public interface LockManager {
      */
     public void unlockWrite(String bucket, Key key);
 
+    /**
+     * Start an optimistic read over the specified bucket and key, to be later validated through {@link #validate(String, Key, long)}:
+     * no lock is acquired, so the read may be concurrent with a write and must be retried under a read lock if not validated.
+     *
+     * @param bucket The bucket to read.
+     * @param key The key to read.
+     * @return A non negative stamp, or a negative value if a write is in progress and the optimistic read cannot be attempted.
+     */
+    public long tryOptimisticRead(String bucket, Key key);
+
+    /**
+     * Validate an optimistic read started through {@link #tryOptimisticRead(String, Key)}.
+     *
+     * @param bucket The bucket read.
+     * @param key The key read.
+     * @param stamp The stamp returned by {@link #tryOptimisticRead(String, Key)}.
+     * @return True if no write was started or completed since the optimistic read started, false otherwise.
+     */
+    public boolean validate(String bucket, Key key, long stamp);
+
+    /**
+     * Get lock contention statistics for this node.
+     *
+     * @return The {@link terrastore.common.LockStats} instance representing per-stripe lock contention.
+     */
+    public LockStats getLockStats();
+
     /**
      * Evict unused locks for the node identified by the given name.
      *
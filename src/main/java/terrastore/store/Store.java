@@ -96,11 +96,59 @@ public interface Store {
      */
     public void flush(FlushStrategy flushStrategy, FlushCondition flushCondition);
 
+    /**
+     * Asynchronously rebuild secondary indexes of all buckets instantiated on this node, from documents owned by this node,
+     * i.e. after a change of the cluster membership redistributing all keys.
+     */
+    public void rebuildIndexes();
+
+    /**
+     * Take over the keys of all buckets instantiated on this node which are owned by the given {@link KeyOwnership},
+     * i.e. belonging to partitions just acquired by this node, whose documents may have been written through other nodes:
+     * their documents are asynchronously indexed and their expiration tracked.
+     *
+     * @param acquired The ownership of acquired keys.
+     */
+    public void acquireKeys(KeyOwnership acquired);
+
+    /**
+     * Give up the keys of all buckets instantiated on this node which are owned by the given {@link KeyOwnership},
+     * i.e. belonging to partitions just lost by this node: their documents are unindexed.
+     *
+     * @param released The ownership of released keys.
+     */
+    public void releaseKeys(KeyOwnership released);
+
     /**
      * Set to true for compressing documents, false otherwise.
      */
     public void setCompressDocuments(boolean compressed);
 
+    /**
+     * Set the interval, in milliseconds, between flushes of accumulated counter increments to their documents.
+     */
+    public void setCountersFlushInterval(long countersFlushInterval);
+
+    /**
+     * Set the names of the buckets whose small documents are compressed against a dictionary trained from their own documents.
+     */
+    public void setDictionaryCompressedBuckets(Set<String> buckets);
+
+    /**
+     * Set the names of the buckets whose documents are stored in binary format rather than json text.
+     */
+    public void setBinaryBuckets(Set<String> buckets);
+
+    /**
+     * Set the json field paths to maintain secondary indexes for, per bucket name.
+     */
+    public void setIndexedFields(Map<String, Set<String>> indexedFields);
+
+    /**
+     * Set the default time to live, in milliseconds, of values put into the buckets whose names are used as map keys.
+     */
+    public void setTimeToLives(Map<String, Long> timeToLives);
+
     /**
      * Set the default {@link terrastore.store.operators.Comparator} used to compare keys when no other comparator is found.
      *
@@ -170,4 +218,18 @@ public interface Store {
      * @param lockManager  The {@link LockManager} instance.
      */
     public void setLockManager(LockManager lockManager);
+
+    /**
+     * Set the {@link LoadRecorder} used to record the load caused by document operations.
+     *
+     * @param loadRecorder The {@link LoadRecorder} instance, or null for no recording.
+     */
+    public void setLoadRecorder(LoadRecorder loadRecorder);
+
+    /**
+     * Set the {@link KeyOwnership} of this node, used to only index documents owned by this node.
+     *
+     * @param keyOwnership The {@link KeyOwnership} instance, or null for owning all keys.
+     */
+    public void setKeyOwnership(KeyOwnership keyOwnership);
 }
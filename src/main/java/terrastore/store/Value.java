@@ -22,23 +22,30 @@ import java.io.Serializable;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.Set;
 import org.msgpack.MessagePackable;
 import org.msgpack.MessageTypeException;
 import org.msgpack.MessageUnpackable;
 import org.msgpack.Packer;
 import org.msgpack.Unpacker;
+import terrastore.common.ErrorMessage;
 import terrastore.store.features.Mapper;
 import terrastore.store.features.Predicate;
 import terrastore.store.features.Update;
 import terrastore.store.operators.Condition;
 import terrastore.store.operators.Function;
 import terrastore.store.operators.OperatorException;
+import terrastore.util.io.HashUtils;
 import terrastore.util.io.IOUtils;
 import terrastore.util.io.MsgPackUtils;
+import terrastore.util.json.BinaryJson;
 import terrastore.util.json.JsonUtils;
 
 /**
  * Json value object contained by {@link Bucket} instances.
+ * <br><br>
+ * Values read from buckets storing documents in {@link BinaryJson} format hold binary bytes: they're rendered as json
+ * only when their bytes are actually read, while conditions, mappers and functions access them directly in binary format.
  *
  * @author Sergio Bossa
  */
@@ -49,10 +56,26 @@ public class Value implements MessagePackable, MessageUnpackable, Serializable {
     //
     private byte[] bytes;
     private boolean compressed;
+    private boolean binary;
+    private boolean hashed;
+    private long hash;
+    private long version;
 
     public Value(byte[] bytes) {
         this.bytes = bytes;
         this.compressed = IOUtils.isCompressed(bytes);
+        this.binary = !compressed && BinaryJson.isBinary(bytes);
+    }
+
+    public Value(byte[] bytes, long hash) {
+        this(bytes);
+        this.hash = hash;
+        this.hashed = true;
+    }
+
+    public Value(byte[] bytes, long hash, long version) {
+        this(bytes, hash);
+        this.version = version;
     }
 
     public Value() {
@@ -62,6 +85,8 @@ public class Value implements MessagePackable, MessageUnpackable, Serializable {
         try {
             if (compressed) {
                 return IOUtils.readCompressed(new ByteArrayInputStream(bytes));
+            } else if (binary) {
+                return BinaryJson.toJson(bytes);
             } else {
                 return bytes;
             }
@@ -70,10 +95,42 @@ public class Value implements MessagePackable, MessageUnpackable, Serializable {
         }
     }
 
+    public final boolean isCompressed() {
+        return compressed;
+    }
+
+    public final boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Get the size in bytes of this value contents as actually stored, that is, compressed if compressed, or binary if binary,
+     * without decompressing or rendering them.
+     */
+    public final int getSize() {
+        return bytes.length;
+    }
+
+    /**
+     * Get this value contents in {@link BinaryJson} format, encoding them if not already binary.
+     */
+    public final byte[] getBinaryBytes() {
+        if (binary) {
+            return bytes;
+        } else {
+            return BinaryJson.fromJson(getBytes());
+        }
+    }
+
+    /**
+     * Get this value contents as compressed json: binary values are rendered as json first, so that compressed values are always json.
+     */
     public final byte[] getCompressedBytes() {
         try {
             if (compressed) {
                 return bytes;
+            } else if (binary) {
+                return IOUtils.readAndCompress(new ByteArrayInputStream(getBytes()));
             } else {
                 return IOUtils.readAndCompress(new ByteArrayInputStream(bytes));
             }
@@ -82,10 +139,36 @@ public class Value implements MessagePackable, MessageUnpackable, Serializable {
         }
     }
 
+    /**
+     * Get the hash of this value contents, computed over the uncompressed bytes:
+     * values read from a bucket carry the hash computed once at write time, other values compute it lazily on first access.
+     *
+     * @return The hash of this value contents.
+     */
+    public final long getHash() {
+        if (!hashed) {
+            hash = HashUtils.hash(getBytes());
+            hashed = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Get the version of this value: values read from a bucket carry a monotonically increasing version, incremented at every write
+     * of the same key, and never reused even if the key is removed and written again; other values have version zero.
+     *
+     * @return The version of this value.
+     */
+    public final long getVersion() {
+        return version;
+    }
+
     public final InputStream getInputStream() {
         try {
             if (compressed) {
                 return IOUtils.getCompressedInputStream(bytes);
+            } else if (binary) {
+                return new ByteArrayInputStream(getBytes());
             } else {
                 return new ByteArrayInputStream(bytes);
             }
@@ -94,9 +177,24 @@ public class Value implements MessagePackable, MessageUnpackable, Serializable {
         }
     }
 
+    /**
+     * Validate this value contents as a json document, and also compute its hash in the same pass over the uncompressed bytes,
+     * so that stores don't have to compute it later.<br>
+     * Any hash already carried by this value is overwritten, as values to validate come from clients, which cannot be trusted
+     * to provide the actual hash.
+     *
+     * @return The validation result.
+     */
     public final ValidationResult validate() {
         try {
-            JsonUtils.validate(this);
+            if (binary) {
+                // Binary values are produced by buckets only, and never accepted from outside:
+                throw new ValidationException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Bad Json value: unexpected binary document."));
+            }
+            byte[] uncompressed = getBytes();
+            JsonUtils.validate(uncompressed);
+            hash = HashUtils.hash(uncompressed);
+            hashed = true;
             return new ValidationResult(true, null);
         } catch (ValidationException ex) {
             return new ValidationResult(false, ex);
@@ -107,28 +205,65 @@ public class Value implements MessagePackable, MessageUnpackable, Serializable {
         return JsonUtils.merge(this, JsonUtils.toModifiableMap(value));
     }
 
+    /**
+     * Increment the given top level counters of this value, adding missing ones and updating the others in place,
+     * without decoding the whole document.
+     */
+    public final Value increment(Map<String, Long> increments) throws ValidationException {
+        if (binary) {
+            return new Value(BinaryJson.increment(bytes, increments));
+        } else {
+            return JsonUtils.increment(this, increments);
+        }
+    }
+
+    /**
+     * Verify the given top level fields of this value can be incremented as counters, that is, are either missing or numbers.
+     */
+    public final void validateCounters(Set<String> counters) throws ValidationException {
+        Map<String, Object> document = toUnmodifiableMap();
+        for (String counter : counters) {
+            Object current = document.get(counter);
+            if (current != null && !(current instanceof Number)) {
+                throw new ValidationException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Not numeric counter: " + counter));
+            }
+        }
+    }
+
     public final Value dispatch(Key key, Update update, Function function) throws OperatorException {
-        return JsonUtils.fromMap(function.apply(key.toString(), JsonUtils.toModifiableMap(this), update.getParameters()));
+        // Binary values are decoded and encoded back without going through json:
+        if (binary) {
+            return new Value(BinaryJson.fromMap(function.apply(key.toString(), BinaryJson.toModifiableMap(bytes), update.getParameters())));
+        } else {
+            return JsonUtils.fromMap(function.apply(key.toString(), JsonUtils.toModifiableMap(this), update.getParameters()));
+        }
     }
 
     public final Map<String, Object> dispatch(Key key, Mapper mapper, Function function) throws OperatorException {
-        return function.apply(key.toString(), JsonUtils.toUnmodifiableMap(this), mapper.getParameters());
+        return function.apply(key.toString(), toUnmodifiableMap(), mapper.getParameters());
     }
 
     public final boolean dispatch(Key key, Predicate predicate, Condition condition) throws OperatorException {
-        return condition.isSatisfied(key.toString(), JsonUtils.toUnmodifiableMap(this), predicate.getConditionExpression());
+        return condition.isSatisfied(key.toString(), toUnmodifiableMap(), predicate.getConditionExpression());
     }
 
     @Override
     public void messagePack(Packer packer) throws IOException {
         MsgPackUtils.packBytes(packer, bytes);
         MsgPackUtils.packBoolean(packer, compressed);
+        MsgPackUtils.packBoolean(packer, hashed);
+        MsgPackUtils.packLong(packer, hash);
+        MsgPackUtils.packLong(packer, version);
     }
 
     @Override
     public void messageUnpack(Unpacker unpacker) throws IOException, MessageTypeException {
         bytes = MsgPackUtils.unpackBytes(unpacker);
         compressed = MsgPackUtils.unpackBoolean(unpacker);
+        binary = !compressed && BinaryJson.isBinary(bytes);
+        hashed = MsgPackUtils.unpackBoolean(unpacker);
+        hash = MsgPackUtils.unpackLong(unpacker);
+        version = MsgPackUtils.unpackLong(unpacker);
     }
 
     @Override
@@ -149,16 +284,22 @@ public class Value implements MessagePackable, MessageUnpackable, Serializable {
     @Override
     public String toString() {
         try {
-            if (!compressed) {
-                return new String(bytes, CHARSET);
-            } else {
+            if (compressed) {
                 return new String(IOUtils.readCompressed(new ByteArrayInputStream(bytes)), CHARSET);
+            } else if (binary) {
+                return new String(BinaryJson.toJson(bytes), CHARSET);
+            } else {
+                return new String(bytes, CHARSET);
             }
         } catch (IOException ex) {
             throw new IllegalStateException(ex.getMessage(), ex);
         }
     }
 
+    private Map<String, Object> toUnmodifiableMap() {
+        return binary ? BinaryJson.toUnmodifiableMap(bytes) : JsonUtils.toUnmodifiableMap(this);
+    }
+
     public static class ValidationResult {
 
         private final boolean valid;
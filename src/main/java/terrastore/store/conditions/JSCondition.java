@@ -16,13 +16,10 @@
 package terrastore.store.conditions;
 
 import java.util.Map;
-import javax.script.Invocable;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import terrastore.store.js.JSEngine;
 import terrastore.store.operators.Condition;
-import terrastore.util.json.JsonUtils;
 
 /**
  * {@link terrastore.store.operators.Condition} implementation evaluating a JavaScript conditional expression over the key or value object.
@@ -39,6 +36,7 @@ import terrastore.util.json.JsonUtils;
  * value.'id' == '123'
  * }
  * </pre>
+ * Expressions are compiled once by the {@link terrastore.store.js.JSEngine} confined to the evaluating thread, and then cached.
  *
  * @author Giuseppe Santoro
  * @author Sergio Bossa
@@ -46,46 +44,16 @@ import terrastore.util.json.JsonUtils;
 public class JSCondition implements Condition {
 
     private static final Logger LOG = LoggerFactory.getLogger(JSCondition.class);
-    private static final String WRAPPER = ""
-            + "   function wrapper(key, value, conditionFn) { "
-            + "      if(conditionFn(key, value)) {"
-            + "         return true;"
-            + "      }"
-            + "      return false; "
-            + "   }";
-    //
-    private static final ScriptEngine ENGINE;
-    private static IllegalStateException EXCEPTION;
-    static {
-        ENGINE = new ScriptEngineManager().getEngineByName("JavaScript");
-        try {
-            if (ENGINE == null) {
-                EXCEPTION = new IllegalStateException("No JavaScript engine found.");
-            } else if (!ENGINE.getFactory().getParameter("THREADING").equals("MULTITHREADED")) {
-                EXCEPTION = new IllegalStateException("The JavaScript engine is not thread-safe.");
-            } else {
-                ENGINE.eval(WRAPPER);
-            }
-        } catch (Exception ex) {
-            EXCEPTION = new IllegalStateException("Error in script execution.", ex);
-        }
-    }
 
     @Override
     public boolean isSatisfied(String key, Map<String, Object> value, String expression) {
-        if (EXCEPTION == null) {
-            try {
-                return (Boolean) ((Invocable) ENGINE).invokeFunction(
-                        "wrapper",
-                        key,
-                        ENGINE.eval("(" + JsonUtils.fromMap(value).toString() + ")"),
-                        ENGINE.eval("(function(key, value) { return " + expression + "; })"));
-            } catch (Exception ex) {
-                LOG.error("Error in script execution.", ex);
-                throw new IllegalStateException("Error in script execution.", ex);
-            }
-        } else {
-            throw EXCEPTION;
+        JSEngine engine = JSEngine.get();
+        try {
+            // The expression is compiled once and cached by the engine, and evaluated by truthiness:
+            return (Boolean) engine.invoke("function(key, value) { return (" + expression + ") ? true : false; }", key, value);
+        } catch (Exception ex) {
+            LOG.error("Error in script execution.", ex);
+            throw new IllegalStateException("Error in script execution.", ex);
         }
     }
 }
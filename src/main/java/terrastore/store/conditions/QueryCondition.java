@@ -0,0 +1,107 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.conditions;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import terrastore.common.ErrorMessage;
+import terrastore.store.operators.Condition;
+import terrastore.store.operators.OperatorException;
+
+/**
+ * {@link terrastore.store.operators.Condition} implementation evaluating a native predicate language
+ * over bucket values, supporting field paths, comparisons, boolean logic, and "in", "exists" and "startsWith" operators,
+ * as in: <i>address.city = 'Rome' and (age &gt;= 18 or exists guardian) and not role in ('admin', 'root')</i>.<br/>
+ * The key can be referred to as <i>$key</i>.<br/>
+ * Expressions are compiled once and cached: evaluation short-circuits, so document fields are accessed
+ * only as long as the result is not known, sparing decoding of lazy document values.<br/>
+ * Expressions can also be answered by secondary indexes, see {@link #lookup(String, IndexLookup)}.
+ *
+ * @author Sergio Bossa
+ */
+public class QueryCondition implements Condition {
+
+    private static final int MAX_CACHED_EXPRESSIONS = 1024;
+    //
+    private final ConcurrentMap<String, QueryExpression> expressions = new ConcurrentHashMap<String, QueryExpression>();
+
+    @Override
+    public boolean isSatisfied(String key, Map<String, Object> value, String expression) throws OperatorException {
+        return compile(expression).evaluate(key, value);
+    }
+
+    /**
+     * Look up the keys of documents possibly satisfying the given expression through the given indexes:
+     * candidate documents must be then evaluated against the expression.<br/>
+     * Only comparisons, "in" and "startsWith" operators over indexed fields can be looked up, combined by "and" or "or" operators.
+     *
+     * @return The candidate keys, or null if the expression cannot be answered by indexes alone.
+     * @throws OperatorException If the expression is malformed.
+     */
+    public Set<String> lookup(String expression, IndexLookup index) throws OperatorException {
+        return compile(expression).lookup(index);
+    }
+
+    private QueryExpression compile(String expression) throws OperatorException {
+        QueryExpression compiled = expressions.get(expression);
+        if (compiled == null) {
+            try {
+                compiled = QueryExpression.compile(expression);
+            } catch (IllegalArgumentException ex) {
+                throw new OperatorException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Wrong condition expression: " + expression + " (" + ex.getMessage() + ")"));
+            }
+            if (expressions.size() >= MAX_CACHED_EXPRESSIONS) {
+                expressions.clear();
+            }
+            expressions.put(expression, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Lookup of document keys by field value, as provided by secondary indexes.
+     */
+    public interface IndexLookup {
+
+        /**
+         * @param path The dotted field path.
+         * @return True if the given field path is indexed, false otherwise.
+         */
+        public boolean isIndexed(String path);
+
+        /**
+         * Look up the keys of documents whose field value falls in the given inclusive range:
+         * at least one bound is not null, and bounds are of the same type, either number, string or boolean.
+         *
+         * @param path The dotted field path.
+         * @param from The lower bound, or null if unbounded.
+         * @param to The upper bound, or null if unbounded.
+         * @return The modifiable set of keys, possibly containing keys of documents outside the range.
+         */
+        public Set<String> lookup(String path, Object from, Object to);
+
+        /**
+         * Look up the keys of documents whose string field value starts with the given prefix.
+         *
+         * @param path The dotted field path.
+         * @param prefix The prefix.
+         * @return The modifiable set of keys, possibly containing keys of documents not matching the prefix.
+         */
+        public Set<String> lookupPrefix(String path, String prefix);
+    }
+}
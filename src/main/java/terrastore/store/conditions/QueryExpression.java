@@ -0,0 +1,612 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.conditions;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiled query expression, as evaluated by {@link QueryCondition}: the expression is parsed once into a tree of nodes,
+ * which is then evaluated against documents with short-circuiting, so that fields not needed for the result are never accessed.
+ * <br><br>
+ * Grammar:
+ * <pre>
+ * expression := and ("or" and)*
+ * and        := unary ("and" unary)*
+ * unary      := "not" unary | "(" expression ")" | "exists" path | path operator literal | path "in" "(" literal ("," literal)* ")" | path "startsWith" string
+ * operator   := "=" | "==" | "!=" | "&lt;" | "&lt;=" | "&gt;" | "&gt;="
+ * path       := "$key" | name ("." name)*
+ * literal    := string | number | "true" | "false" | "null"
+ * </pre>
+ * Names are made of letters, digits and underscores, with numeric names indexing array elements;
+ * strings are single or double quoted, with backslash escapes; keywords are case insensitive.
+ *
+ * @author Sergio Bossa
+ */
+class QueryExpression {
+
+    private static final Object MISSING = new Object();
+    //
+    private final Node root;
+
+    private QueryExpression(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Compile the given expression.
+     *
+     * @throws IllegalArgumentException If the expression is malformed.
+     */
+    public static QueryExpression compile(String expression) {
+        Parser parser = new Parser(expression);
+        Node root = parser.parseOr();
+        parser.expectEnd();
+        return new QueryExpression(root);
+    }
+
+    public boolean evaluate(String key, Map<String, Object> document) {
+        return root.evaluate(key, document);
+    }
+
+    /**
+     * Look up the keys of documents possibly satisfying this expression through the given indexes.
+     *
+     * @return The candidate keys, a superset of the indexed keys actually satisfying the expression,
+     * or null if the expression cannot be answered by indexes alone.
+     */
+    public Set<String> lookup(QueryCondition.IndexLookup index) {
+        return root.lookup(index);
+    }
+
+    private static boolean isIntegral(Object number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+
+    private static int compareNumbers(Number first, Number second) {
+        if (isIntegral(first) && isIntegral(second)) {
+            long a = first.longValue();
+            long b = second.longValue();
+            return a < b ? -1 : (a > b ? 1 : 0);
+        } else if (first instanceof BigInteger || first instanceof BigDecimal || second instanceof BigInteger || second instanceof BigDecimal) {
+            return new BigDecimal(first.toString()).compareTo(new BigDecimal(second.toString()));
+        } else if (first instanceof Float || second instanceof Float) {
+            // Compare with float precision, as documents may hold float values which would not exactly match double literals:
+            return Float.compare(first.floatValue(), second.floatValue());
+        } else {
+            return Double.compare(first.doubleValue(), second.doubleValue());
+        }
+    }
+
+    private static boolean equal(Object value, Object literal) {
+        if (value == null || literal == null) {
+            return value == literal;
+        } else if (value instanceof Number && literal instanceof Number) {
+            return compareNumbers((Number) value, (Number) literal) == 0;
+        } else {
+            return value.equals(literal);
+        }
+    }
+
+    private static boolean isIndexable(Object literal) {
+        return literal instanceof String || literal instanceof Number || literal instanceof Boolean;
+    }
+
+    private interface Node {
+
+        public boolean evaluate(String key, Map<String, Object> document);
+
+        /**
+         * @return Candidate keys, or null if not answerable by indexes.
+         */
+        public Set<String> lookup(QueryCondition.IndexLookup index);
+    }
+
+    private static class Or implements Node {
+
+        private final Node left;
+        private final Node right;
+
+        public Or(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean evaluate(String key, Map<String, Object> document) {
+            return left.evaluate(key, document) || right.evaluate(key, document);
+        }
+
+        @Override
+        public Set<String> lookup(QueryCondition.IndexLookup index) {
+            // Both branches must be answered by indexes, otherwise matching documents may be missed:
+            Set<String> leftKeys = left.lookup(index);
+            Set<String> rightKeys = leftKeys != null ? right.lookup(index) : null;
+            if (leftKeys != null && rightKeys != null) {
+                leftKeys.addAll(rightKeys);
+                return leftKeys;
+            } else {
+                return null;
+            }
+        }
+
+    }
+
+    private static class And implements Node {
+
+        private final Node left;
+        private final Node right;
+
+        public And(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean evaluate(String key, Map<String, Object> document) {
+            return left.evaluate(key, document) && right.evaluate(key, document);
+        }
+
+        @Override
+        public Set<String> lookup(QueryCondition.IndexLookup index) {
+            // Just one branch answered by indexes is enough to restrict candidates, which are later evaluated anyways:
+            Set<String> leftKeys = left.lookup(index);
+            Set<String> rightKeys = right.lookup(index);
+            if (leftKeys != null && rightKeys != null) {
+                Set<String> smaller = leftKeys.size() <= rightKeys.size() ? leftKeys : rightKeys;
+                Set<String> larger = smaller == leftKeys ? rightKeys : leftKeys;
+                smaller.retainAll(larger);
+                return smaller;
+            } else {
+                return leftKeys != null ? leftKeys : rightKeys;
+            }
+        }
+
+    }
+
+    private static class Not implements Node {
+
+        private final Node node;
+
+        public Not(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public boolean evaluate(String key, Map<String, Object> document) {
+            return !node.evaluate(key, document);
+        }
+
+        @Override
+        public Set<String> lookup(QueryCondition.IndexLookup index) {
+            return null;
+        }
+
+    }
+
+    private static class Path {
+
+        private final String[] names;
+        private final boolean key;
+        private final String path;
+
+        public Path(String[] names, boolean key) {
+            this.names = names;
+            this.key = key;
+            StringBuilder path = new StringBuilder();
+            for (String name : names) {
+                path.append(path.length() > 0 ? "." : "").append(name);
+            }
+            this.path = path.toString();
+        }
+
+        public boolean isIndexedIn(QueryCondition.IndexLookup index) {
+            return !key && index.isIndexed(path);
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Resolve this path against the given document, accessing only the fields along the path.
+         *
+         * @return The resolved value, or {@link #MISSING} if the path doesn't exist.
+         */
+        public Object resolve(String documentKey, Map<String, Object> document) {
+            if (key) {
+                return documentKey;
+            }
+            Object current = document;
+            for (String name : names) {
+                if (current instanceof Map) {
+                    Map<String, Object> map = (Map<String, Object>) current;
+                    current = map.get(name);
+                    if (current == null && !map.containsKey(name)) {
+                        return MISSING;
+                    }
+                } else if (current instanceof List && isIndex(name)) {
+                    List<Object> list = (List<Object>) current;
+                    int index = Integer.parseInt(name);
+                    if (index < list.size()) {
+                        current = list.get(index);
+                    } else {
+                        return MISSING;
+                    }
+                } else {
+                    return MISSING;
+                }
+            }
+            return current;
+        }
+
+        private boolean isIndex(String name) {
+            for (int i = 0; i < name.length(); i++) {
+                if (!Character.isDigit(name.charAt(i))) {
+                    return false;
+                }
+            }
+            return name.length() > 0 && name.length() < 10;
+        }
+
+    }
+
+    private static class Exists implements Node {
+
+        private final Path path;
+
+        public Exists(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public boolean evaluate(String key, Map<String, Object> document) {
+            return path.resolve(key, document) != MISSING;
+        }
+
+        @Override
+        public Set<String> lookup(QueryCondition.IndexLookup index) {
+            // Indexes do not hold null and non scalar values:
+            return null;
+        }
+
+    }
+
+    private static class Comparison implements Node {
+
+        private final Path path;
+        private final String operator;
+        private final Object literal;
+
+        public Comparison(Path path, String operator, Object literal) {
+            this.path = path;
+            this.operator = operator;
+            this.literal = literal;
+        }
+
+        @Override
+        public boolean evaluate(String key, Map<String, Object> document) {
+            // Missing fields never satisfy comparisons, including inequalities:
+            Object value = path.resolve(key, document);
+            if (value == MISSING) {
+                return false;
+            } else if (operator.equals("=")) {
+                return equal(value, literal);
+            } else if (operator.equals("!=")) {
+                return !equal(value, literal);
+            } else {
+                int comparison;
+                if (value instanceof Number && literal instanceof Number) {
+                    comparison = compareNumbers((Number) value, (Number) literal);
+                } else if (value instanceof String && literal instanceof String) {
+                    comparison = ((String) value).compareTo((String) literal);
+                } else {
+                    return false;
+                }
+                if (operator.equals("<")) {
+                    return comparison < 0;
+                } else if (operator.equals("<=")) {
+                    return comparison <= 0;
+                } else if (operator.equals(">")) {
+                    return comparison > 0;
+                } else {
+                    return comparison >= 0;
+                }
+            }
+        }
+
+        @Override
+        public Set<String> lookup(QueryCondition.IndexLookup index) {
+            // Range bounds are always inclusive, as candidates are later evaluated anyways:
+            if (!path.isIndexedIn(index) || !isIndexable(literal) || operator.equals("!=")) {
+                return null;
+            } else if (operator.equals("=")) {
+                return index.lookup(path.getPath(), literal, literal);
+            } else if (literal instanceof Boolean) {
+                return null;
+            } else if (operator.startsWith("<")) {
+                return index.lookup(path.getPath(), null, literal);
+            } else {
+                return index.lookup(path.getPath(), literal, null);
+            }
+        }
+
+    }
+
+    private static class In implements Node {
+
+        private final Path path;
+        private final List<Object> literals;
+
+        public In(Path path, List<Object> literals) {
+            this.path = path;
+            this.literals = literals;
+        }
+
+        @Override
+        public boolean evaluate(String key, Map<String, Object> document) {
+            Object value = path.resolve(key, document);
+            if (value != MISSING) {
+                for (Object literal : literals) {
+                    if (equal(value, literal)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Set<String> lookup(QueryCondition.IndexLookup index) {
+            if (path.isIndexedIn(index)) {
+                Set<String> keys = new HashSet<String>();
+                for (Object literal : literals) {
+                    if (isIndexable(literal)) {
+                        keys.addAll(index.lookup(path.getPath(), literal, literal));
+                    } else {
+                        return null;
+                    }
+                }
+                return keys;
+            } else {
+                return null;
+            }
+        }
+
+    }
+
+    private static class StartsWith implements Node {
+
+        private final Path path;
+        private final String prefix;
+
+        public StartsWith(Path path, String prefix) {
+            this.path = path;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public boolean evaluate(String key, Map<String, Object> document) {
+            Object value = path.resolve(key, document);
+            return value instanceof String && ((String) value).startsWith(prefix);
+        }
+
+        @Override
+        public Set<String> lookup(QueryCondition.IndexLookup index) {
+            return path.isIndexedIn(index) ? index.lookupPrefix(path.getPath(), prefix) : null;
+        }
+
+    }
+
+    private static class Parser {
+
+        private final String expression;
+        private int position;
+
+        public Parser(String expression) {
+            this.expression = expression;
+        }
+
+        public Node parseOr() {
+            Node node = parseAnd();
+            while (acceptKeyword("or")) {
+                node = new Or(node, parseAnd());
+            }
+            return node;
+        }
+
+        public void expectEnd() {
+            skipWhitespaces();
+            if (position < expression.length()) {
+                throw error("unexpected input");
+            }
+        }
+
+        private Node parseAnd() {
+            Node node = parseUnary();
+            while (acceptKeyword("and")) {
+                node = new And(node, parseUnary());
+            }
+            return node;
+        }
+
+        private Node parseUnary() {
+            if (acceptKeyword("not")) {
+                return new Not(parseUnary());
+            } else if (accept("(")) {
+                Node node = parseOr();
+                expect(")");
+                return node;
+            } else if (acceptKeyword("exists")) {
+                return new Exists(parsePath());
+            } else {
+                Path path = parsePath();
+                if (acceptKeyword("in")) {
+                    expect("(");
+                    List<Object> literals = new ArrayList<Object>();
+                    do {
+                        literals.add(parseLiteral());
+                    } while (accept(","));
+                    expect(")");
+                    return new In(path, literals);
+                } else if (acceptKeyword("startsWith")) {
+                    Object prefix = parseLiteral();
+                    if (prefix instanceof String) {
+                        return new StartsWith(path, (String) prefix);
+                    } else {
+                        throw error("expected string prefix");
+                    }
+                } else {
+                    String operator = parseOperator();
+                    return new Comparison(path, operator, parseLiteral());
+                }
+            }
+        }
+
+        private Path parsePath() {
+            skipWhitespaces();
+            if (expression.startsWith("$key", position)) {
+                position += 4;
+                return new Path(new String[0], true);
+            }
+            List<String> names = new ArrayList<String>();
+            names.add(parseName());
+            while (position < expression.length() && expression.charAt(position) == '.') {
+                position++;
+                names.add(parseName());
+            }
+            return new Path(names.toArray(new String[names.size()]), false);
+        }
+
+        private String parseName() {
+            int start = position;
+            while (position < expression.length() && (Character.isLetterOrDigit(expression.charAt(position)) || expression.charAt(position) == '_')) {
+                position++;
+            }
+            if (start == position) {
+                throw error("expected field name");
+            }
+            return expression.substring(start, position);
+        }
+
+        private String parseOperator() {
+            skipWhitespaces();
+            String[] operators = {"==", "!=", "<=", ">=", "=", "<", ">"};
+            for (String operator : operators) {
+                if (expression.startsWith(operator, position)) {
+                    position += operator.length();
+                    return operator.equals("==") ? "=" : operator;
+                }
+            }
+            throw error("expected comparison operator");
+        }
+
+        private Object parseLiteral() {
+            skipWhitespaces();
+            if (position >= expression.length()) {
+                throw error("expected literal");
+            }
+            char current = expression.charAt(position);
+            if (current == '\'' || current == '"') {
+                return parseString(current);
+            } else if (current == '-' || Character.isDigit(current)) {
+                int start = position++;
+                while (position < expression.length() && "0123456789.eE+-".indexOf(expression.charAt(position)) >= 0) {
+                    position++;
+                }
+                String number = expression.substring(start, position);
+                try {
+                    if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) {
+                        return Double.parseDouble(number);
+                    } else {
+                        return Long.parseLong(number);
+                    }
+                } catch (NumberFormatException ex) {
+                    throw error("bad number " + number);
+                }
+            } else if (acceptKeyword("true")) {
+                return Boolean.TRUE;
+            } else if (acceptKeyword("false")) {
+                return Boolean.FALSE;
+            } else if (acceptKeyword("null")) {
+                return null;
+            } else {
+                throw error("expected literal");
+            }
+        }
+
+        private String parseString(char quote) {
+            StringBuilder string = new StringBuilder();
+            position++;
+            while (position < expression.length() && expression.charAt(position) != quote) {
+                char current = expression.charAt(position++);
+                if (current == '\\' && position < expression.length()) {
+                    current = expression.charAt(position++);
+                }
+                string.append(current);
+            }
+            if (position >= expression.length()) {
+                throw error("unterminated string");
+            }
+            position++;
+            return string.toString();
+        }
+
+        private boolean acceptKeyword(String keyword) {
+            skipWhitespaces();
+            int end = position + keyword.length();
+            if (expression.regionMatches(true, position, keyword, 0, keyword.length())
+                    && (end == expression.length() || !Character.isLetterOrDigit(expression.charAt(end)) && expression.charAt(end) != '_')) {
+                position = end;
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        private boolean accept(String symbol) {
+            skipWhitespaces();
+            if (expression.startsWith(symbol, position)) {
+                position += symbol.length();
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        private void expect(String symbol) {
+            if (!accept(symbol)) {
+                throw error("expected " + symbol);
+            }
+        }
+
+        private void skipWhitespaces() {
+            while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+                position++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position);
+        }
+
+    }
+}
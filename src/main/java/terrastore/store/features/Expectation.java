@@ -0,0 +1,99 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.features;
+
+import java.io.IOException;
+import java.io.Serializable;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.msgpack.MessagePackable;
+import org.msgpack.MessageTypeException;
+import org.msgpack.MessageUnpackable;
+import org.msgpack.Packer;
+import org.msgpack.Unpacker;
+import terrastore.util.io.MsgPackUtils;
+
+/**
+ * Expectation object carrying the hash (see {@link terrastore.store.Value#getHash()}) or the version
+ * (see {@link terrastore.store.Value#getVersion()}) an existent value must have for compare-and-set operations to apply.<br>
+ * A version expectation of zero stands for absent values.
+ *
+ * @author Sergio Bossa
+ */
+public class Expectation implements MessagePackable, MessageUnpackable, Serializable {
+
+    private static final long serialVersionUID = 12345678901L;
+    //
+    private boolean version;
+    private long expected;
+
+    public static Expectation hash(long expectedHash) {
+        return new Expectation(false, expectedHash);
+    }
+
+    public static Expectation version(long expectedVersion) {
+        return new Expectation(true, expectedVersion);
+    }
+
+    public Expectation(boolean version, long expected) {
+        this.version = version;
+        this.expected = expected;
+    }
+
+    public Expectation() {
+    }
+
+    public boolean isVersion() {
+        return version;
+    }
+
+    public long getExpected() {
+        return expected;
+    }
+
+    @Override
+    public void messagePack(Packer packer) throws IOException {
+        MsgPackUtils.packBoolean(packer, version);
+        MsgPackUtils.packLong(packer, expected);
+    }
+
+    @Override
+    public void messageUnpack(Unpacker unpacker) throws IOException, MessageTypeException {
+        version = MsgPackUtils.unpackBoolean(unpacker);
+        expected = MsgPackUtils.unpackLong(unpacker);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof Expectation) {
+            Expectation other = (Expectation) obj;
+            return new EqualsBuilder().append(this.version, other.version).append(this.expected, other.expected).isEquals();
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder().append(version).append(expected).toHashCode();
+    }
+
+    @Override
+    public String toString() {
+        return version ? "version: " + expected : "hash: " + Long.toHexString(expected);
+    }
+
+}
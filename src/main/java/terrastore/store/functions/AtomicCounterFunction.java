@@ -15,22 +15,44 @@
  */
 package terrastore.store.functions;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import terrastore.store.operators.Function;
+import terrastore.common.ErrorMessage;
+import terrastore.store.operators.MergeableFunction;
+import terrastore.store.operators.OperatorException;
 
 /**
  * @author Sven Johansson
  * @author Sergio Bossa
  */
-public class AtomicCounterFunction implements Function {
+public class AtomicCounterFunction implements MergeableFunction {
 
     @Override
     public Map<String, Object> apply(String key, Map<String, Object> value, Map<String, Object> parameters) {
         return applyCounters(value, parameters);
     }
 
+    @Override
+    public Map<String, Object> merge(Map<String, Object> first, Map<String, Object> second) throws OperatorException {
+        try {
+            return applyCounters(copy(first), copy(second));
+        } catch (IllegalArgumentException ex) {
+            throw new OperatorException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, ex.getMessage()));
+        }
+    }
+
+    private Map<String, Object> copy(Map<String, Object> source) {
+        Map<String, Object> copy = new LinkedHashMap<String, Object>(source);
+        for (Entry<String, Object> entry : copy.entrySet()) {
+            if (isMap(entry.getValue())) {
+                entry.setValue(copy((Map<String, Object>) entry.getValue()));
+            }
+        }
+        return copy;
+    }
+
     private Map<String, Object> applyCounters(Map<String, Object> counters, Map<String, Object> modifiers) {
         for (Entry<String, Object> modifier : modifiers.entrySet()) {
             Object counter = counters.get(modifier.getKey());
@@ -21,10 +21,15 @@ import java.util.Map;
 /**
  * @author Sergio Bossa
  */
-public class ReplaceFunction implements Function {
+public class ReplaceFunction implements MergeableFunction {
 
     @Override
     public Map<String, Object> apply(String key, Map<String, Object> value, Map<String, Object> parameters) {
         return parameters;
     }
+
+    @Override
+    public Map<String, Object> merge(Map<String, Object> first, Map<String, Object> second) {
+        return second;
+    }
 }
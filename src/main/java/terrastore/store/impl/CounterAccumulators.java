@@ -0,0 +1,210 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import terrastore.store.Key;
+
+/**
+ * Node-local accumulators of counter increments, keyed by document key and counter field.
+ * <br><br>
+ * Every counter is striped across several cells, picked by the incrementing thread, so concurrent increments on the
+ * same counter don't contend on the same memory location; accumulated increments are then drained, and the accumulator
+ * closed, in order to write them to the owning document at once: increments racing with a drain are never lost, but
+ * either drained or retried on a new accumulator.
+ * <br><br>
+ * Counter fields already validated as numeric are also tracked per document key, until the document is written again.
+ *
+ * @author Sergio Bossa
+ */
+class CounterAccumulators {
+
+    private static final int STRIPES = stripes();
+    // Pad cells to avoid false sharing between stripes:
+    private static final int PADDING = 8;
+    private static final long CLOSED = Long.MIN_VALUE;
+    //
+    private final ConcurrentMap<Key, Accumulator> accumulators = new ConcurrentHashMap<Key, Accumulator>();
+    private final ConcurrentMap<Key, Set<String>> validated = new ConcurrentHashMap<Key, Set<String>>();
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    public void increment(Key key, String counter, long delta) {
+        while (delta != 0) {
+            Accumulator accumulator = accumulators.get(key);
+            if (accumulator == null) {
+                Accumulator created = new Accumulator();
+                accumulator = accumulators.putIfAbsent(key, created);
+                if (accumulator == null) {
+                    accumulator = created;
+                }
+            }
+            delta = accumulator.add(counter, delta);
+        }
+    }
+
+    public Map<String, Long> drain(Key key) {
+        Accumulator accumulator = accumulators.remove(key);
+        if (accumulator != null) {
+            return accumulator.close();
+        } else {
+            return null;
+        }
+    }
+
+    public boolean hasPending(Key key) {
+        return accumulators.containsKey(key);
+    }
+
+    public Set<Key> keys() {
+        return accumulators.keySet();
+    }
+
+    public boolean isEmpty() {
+        return accumulators.isEmpty();
+    }
+
+    /**
+     * Get the counter fields of the given key validated since its last write: fields must be added to the returned set
+     * only after being validated against a read started after getting the set itself, so that writes happening in between
+     * drop the set by {@link #invalidate(Key)}, and fields are never added to the set of later writes.
+     */
+    public Set<String> validatedFields(Key key) {
+        Set<String> fields = validated.get(key);
+        if (fields == null) {
+            Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            fields = validated.putIfAbsent(key, created);
+            if (fields == null) {
+                fields = created;
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Drop the validated counter fields of the given key, because of it being written.
+     */
+    public void invalidate(Key key) {
+        validated.remove(key);
+    }
+
+    /**
+     * Record the given drained increments as dropped, because of having failed to write them.
+     *
+     * @return The total number of dropped increments, one per counter field.
+     */
+    public long recordDropped(Map<String, Long> increments) {
+        return dropped.addAndGet(increments.size());
+    }
+
+    /**
+     * @return The total number of dropped increments, one per counter field.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Drop all accumulated increments and validated counter fields.
+     */
+    public void clear() {
+        for (Key key : accumulators.keySet()) {
+            drain(key);
+        }
+        validated.clear();
+    }
+
+    private static int stripes() {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors()) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    private static class Accumulator {
+
+        private final ConcurrentMap<String, Cells> counters = new ConcurrentHashMap<String, Cells>();
+        private volatile boolean closed;
+
+        /**
+         * @return The delta still to add because of this accumulator having been closed, or zero.
+         */
+        public long add(String counter, long delta) {
+            Cells cells = counters.get(counter);
+            if (cells == null) {
+                Cells created = new Cells();
+                cells = counters.putIfAbsent(counter, created);
+                if (cells == null) {
+                    cells = created;
+                }
+            }
+            if (cells.add(delta)) {
+                // If closed while adding, the closing thread may have missed the cells, so drain them again
+                // and return what's left to add:
+                return closed ? cells.close() : 0;
+            } else {
+                return delta;
+            }
+        }
+
+        public Map<String, Long> close() {
+            closed = true;
+            Map<String, Long> result = new HashMap<String, Long>();
+            for (Map.Entry<String, Cells> counter : counters.entrySet()) {
+                long sum = counter.getValue().close();
+                if (sum != 0) {
+                    result.put(counter.getKey(), sum);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class Cells {
+
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+        public boolean add(long delta) {
+            int index = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+            while (true) {
+                long current = cells.get(index);
+                if (current == CLOSED) {
+                    return false;
+                } else if (cells.compareAndSet(index, current, current + delta)) {
+                    return true;
+                }
+            }
+        }
+
+        public long close() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                long current = cells.getAndSet(i * PADDING, CLOSED);
+                if (current != CLOSED) {
+                    sum += current;
+                }
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,449 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.util.ClusteredAtomicLong;
+import terrastore.internal.tc.TCMaster;
+import terrastore.util.concurrent.GlobalExecutor;
+
+/**
+ * Compressor of small documents, deflating each of them against a dictionary shared by all documents of the same bucket:
+ * field names and values repeated across documents, which small documents are too short to compress by themselves, are so compressed away.
+ * <br><br>
+ * Dictionaries are trained from documents sampled at write time, and retrained in background only when the compression ratio
+ * measured over a window of writes degrades, in order to follow changes in documents structure.
+ * Every trained dictionary is registered under a new id into a clustered map and never changed afterwards, so that documents
+ * compressed by any node against any dictionary version can be decompressed: all nodes then switch to the latest registered one,
+ * so that superseded dictionaries can be later unregistered once no stored document references them anymore
+ * (see {@link #drainSuperseded()} and {@link #unregister(Set)}).
+ *
+ * @author Sergio Bossa
+ */
+class DictionaryCompressor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DictionaryCompressor.class);
+    //
+    public static final int MAX_DOCUMENT_SIZE = 2 * 1024;
+    private static final int MAX_DICTIONARY_SIZE = 16 * 1024;
+    private static final int SAMPLES = 128;
+    private static final int MIN_SAMPLES = 64;
+    private static final long DEFAULT_RATIO_WINDOW = 10000;
+    private static final double DEGRADATION_FACTOR = 1.2;
+    private static final long REFRESH_INTERVAL = 1000;
+    private static final String CHARSET = "ISO-8859-1";
+    //
+    private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>() {
+
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+
+    };
+    private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+
+    };
+    //
+    private final ConcurrentMap<String, byte[]> dictionaries;
+    private final ClusteredAtomicLong ids;
+    private final ConcurrentMap<Integer, Dictionary> cache;
+    private final Executor trainer;
+    private final long ratioWindow;
+    private final AtomicBoolean training;
+    private final Random random;
+    private final byte[][] samples;
+    private final Set<Integer> superseded;
+    private int available;
+    private long sampledInWindow;
+    private volatile long nextRefresh;
+    private volatile Dictionary current;
+
+    public DictionaryCompressor(String bucket) {
+        this(bucket, new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                GlobalExecutor.getUpdateExecutor().execute(command);
+            }
+
+        }, DEFAULT_RATIO_WINDOW);
+    }
+
+    public DictionaryCompressor(String bucket, Executor trainer, long ratioWindow) {
+        this.dictionaries = TCMaster.getInstance().getAutolockedMap(DictionaryCompressor.class.getName() + ".dictionaries." + bucket);
+        this.ids = TCMaster.getInstance().getLong(DictionaryCompressor.class.getName() + ".ids." + bucket);
+        this.cache = new ConcurrentHashMap<Integer, Dictionary>();
+        this.trainer = trainer;
+        this.ratioWindow = ratioWindow;
+        this.training = new AtomicBoolean(false);
+        this.random = new Random();
+        this.samples = new byte[SAMPLES][];
+        this.superseded = new HashSet<Integer>();
+    }
+
+    /**
+     * Sample the given document for training dictionaries: documents are sampled by reservoir over windows of the given number
+     * of writes, and the first training is started in background as soon as enough documents have been sampled;
+     * later trainings are only started at the end of windows whose compression ratio degraded from the one of the first window
+     * compressed against the current dictionary.
+     */
+    public void sample(byte[] document) {
+        if (document.length <= MAX_DOCUMENT_SIZE) {
+            List<byte[]> trainingSamples = null;
+            synchronized (this) {
+                sampledInWindow++;
+                if (available < SAMPLES) {
+                    samples[available++] = document;
+                } else {
+                    long slot = (long) (random.nextDouble() * sampledInWindow);
+                    if (slot < SAMPLES) {
+                        samples[(int) slot] = document;
+                    }
+                }
+                boolean retrain = false;
+                if (current == null) {
+                    retrain = sampledInWindow >= MIN_SAMPLES;
+                } else if (sampledInWindow >= ratioWindow) {
+                    sampledInWindow = 0;
+                    retrain = current.isDegraded();
+                }
+                if (retrain && available >= MIN_SAMPLES && training.compareAndSet(false, true)) {
+                    sampledInWindow = 0;
+                    trainingSamples = new ArrayList<byte[]>(Arrays.asList(samples).subList(0, available));
+                }
+            }
+            if (trainingSamples != null) {
+                scheduleTraining(trainingSamples);
+            }
+        }
+    }
+
+    /**
+     * Get the dictionary to compress the given document against.
+     *
+     * @return The latest trained dictionary, or null if no dictionary has been trained yet, or the document is too large to benefit from it.
+     */
+    public Dictionary dictionaryFor(byte[] document) {
+        if (document.length <= MAX_DOCUMENT_SIZE) {
+            refresh();
+            return current;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Decompress the given document, previously compressed against the dictionary with the given id, possibly trained by another node.
+     */
+    public byte[] decompress(int dictionaryId, byte[] compressed) {
+        Dictionary dictionary = cache.get(dictionaryId);
+        if (dictionary == null) {
+            byte[] bytes = dictionaries.get(Integer.toString(dictionaryId));
+            if (bytes != null) {
+                dictionary = new Dictionary(dictionaryId, bytes);
+                cache.putIfAbsent(dictionaryId, dictionary);
+            } else {
+                throw new IllegalStateException("Unknown compression dictionary: " + dictionaryId);
+            }
+        }
+        return dictionary.decompress(compressed);
+    }
+
+    /**
+     * Get the ids of the dictionaries superseded by dictionaries trained on this node since the last call:
+     * nodes switch to newer dictionaries within a second, so they can be unregistered if still not referenced
+     * by any stored document after a while.
+     */
+    public synchronized Set<Integer> drainSuperseded() {
+        Set<Integer> drained = new HashSet<Integer>(superseded);
+        superseded.clear();
+        return drained;
+    }
+
+    /**
+     * Unregister the dictionaries with the given ids, which must not be referenced by any stored document anymore.
+     */
+    public void unregister(Set<Integer> dictionaryIds) {
+        for (Integer id : dictionaryIds) {
+            dictionaries.remove(Integer.toString(id));
+            cache.remove(id);
+            LOG.info("Unregistered compression dictionary {}", id);
+        }
+    }
+
+    /**
+     * Train a dictionary from the given samples: json strings repeated across samples are appended to the dictionary
+     * sorted by their overall saved bytes, with the most valuable ones at the end, as closer matches are cheaper to encode;
+     * one sample document is then appended at the very end, as a template for the most common sequences of fields.
+     */
+    static byte[] train(List<byte[]> samples, int maxSize) {
+        final Map<String, Integer> occurrences = new HashMap<String, Integer>();
+        for (byte[] sample : samples) {
+            for (String token : tokenize(sample)) {
+                Integer count = occurrences.get(token);
+                occurrences.put(token, count != null ? count + 1 : 1);
+            }
+        }
+        List<String> tokens = new ArrayList<String>();
+        for (Map.Entry<String, Integer> occurrence : occurrences.entrySet()) {
+            if (occurrence.getValue() > 1) {
+                tokens.add(occurrence.getKey());
+            }
+        }
+        Collections.sort(tokens, new java.util.Comparator<String>() {
+
+            @Override
+            public int compare(String first, String second) {
+                long firstScore = (long) occurrences.get(first) * first.length();
+                long secondScore = (long) occurrences.get(second) * second.length();
+                return firstScore > secondScore ? -1 : (firstScore < secondScore ? 1 : first.compareTo(second));
+            }
+
+        });
+        //
+        List<byte[]> sorted = new ArrayList<byte[]>(samples);
+        Collections.sort(sorted, new java.util.Comparator<byte[]>() {
+
+            @Override
+            public int compare(byte[] first, byte[] second) {
+                return first.length - second.length;
+            }
+
+        });
+        byte[] template = sorted.isEmpty() ? new byte[0] : sorted.get(sorted.size() / 2);
+        if (template.length > maxSize / 2) {
+            template = new byte[0];
+        }
+        //
+        int size = template.length;
+        List<byte[]> selected = new ArrayList<byte[]>();
+        for (String token : tokens) {
+            byte[] bytes = toBytes(token);
+            if (size + bytes.length <= maxSize) {
+                selected.add(bytes);
+                size += bytes.length;
+            }
+        }
+        Collections.reverse(selected);
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (byte[] bytes : selected) {
+            dictionary.write(bytes, 0, bytes.length);
+        }
+        dictionary.write(template, 0, template.length);
+        return dictionary.toByteArray();
+    }
+
+    private static List<String> tokenize(byte[] document) {
+        // Tokens are json strings, keeping the trailing colon of field names, and are (efficiently) decoded as latin characters
+        // in order to map them one to one with bytes:
+        List<String> tokens = new ArrayList<String>();
+        int i = 0;
+        while (i < document.length) {
+            if (document[i] == '"') {
+                int start = i++;
+                while (i < document.length && document[i] != '"') {
+                    i += document[i] == '\\' ? 2 : 1;
+                }
+                int end = Math.min(++i, document.length);
+                if (end < document.length && document[end] == ':') {
+                    end++;
+                    i++;
+                }
+                tokens.add(toString(document, start, end - start));
+            } else {
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    private static String toString(byte[] bytes, int offset, int length) {
+        try {
+            return new String(bytes, offset, length, CHARSET);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex.getMessage(), ex);
+        }
+    }
+
+    private static byte[] toBytes(String token) {
+        try {
+            return token.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex.getMessage(), ex);
+        }
+    }
+
+    private void scheduleTraining(final List<byte[]> trainingSamples) {
+        trainer.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    register(train(trainingSamples, MAX_DICTIONARY_SIZE));
+                } catch (Exception ex) {
+                    LOG.error(ex.getMessage(), ex);
+                } finally {
+                    training.set(false);
+                }
+            }
+
+        });
+    }
+
+    private void register(byte[] bytes) {
+        // Dictionaries may be concurrently trained by other nodes, so take ids from a clustered sequence:
+        int id = (int) ids.incrementAndGet();
+        dictionaries.put(Integer.toString(id), bytes);
+        Dictionary dictionary = new Dictionary(id, bytes);
+        cache.put(id, dictionary);
+        current = dictionary;
+        synchronized (this) {
+            for (String registered : dictionaries.keySet()) {
+                if (Integer.parseInt(registered) < id) {
+                    superseded.add(Integer.parseInt(registered));
+                }
+            }
+        }
+    }
+
+    private void refresh() {
+        // Switch to dictionaries registered by other nodes, checking the clustered sequence at most once in a while:
+        long now = System.currentTimeMillis();
+        if (now >= nextRefresh) {
+            nextRefresh = now + REFRESH_INTERVAL;
+            int latest = (int) ids.get();
+            Dictionary dictionary = current;
+            if (latest > 0 && (dictionary == null || latest > dictionary.getId())) {
+                // Dictionaries are put right after taking their id, so they may be still missing:
+                byte[] bytes = dictionaries.get(Integer.toString(latest));
+                if (bytes != null) {
+                    dictionary = new Dictionary(latest, bytes);
+                    cache.putIfAbsent(latest, dictionary);
+                    current = dictionary;
+                }
+            }
+        }
+    }
+
+    public static class Dictionary {
+
+        private final int id;
+        private final byte[] bytes;
+        private final AtomicLong uncompressedBytes = new AtomicLong();
+        private final AtomicLong compressedBytes = new AtomicLong();
+        private double baselineRatio = -1;
+
+        public Dictionary(int id, byte[] bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public byte[] compress(byte[] document) {
+            Deflater deflater = DEFLATERS.get();
+            try {
+                deflater.setDictionary(bytes);
+                deflater.setInput(document);
+                deflater.finish();
+                ByteArrayOutputStream output = new ByteArrayOutputStream(document.length);
+                byte[] buffer = new byte[document.length + 64];
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(buffer);
+                    output.write(buffer, 0, length);
+                }
+                uncompressedBytes.addAndGet(document.length);
+                compressedBytes.addAndGet(output.size());
+                return output.toByteArray();
+            } finally {
+                deflater.reset();
+            }
+        }
+
+        public byte[] decompress(byte[] compressed) {
+            Inflater inflater = INFLATERS.get();
+            try {
+                inflater.setDictionary(bytes);
+                inflater.setInput(compressed);
+                ByteArrayOutputStream output = new ByteArrayOutputStream(compressed.length * 4);
+                byte[] buffer = new byte[compressed.length * 4 + 64];
+                while (!inflater.finished()) {
+                    int length = inflater.inflate(buffer);
+                    if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IllegalStateException("Truncated compressed document!");
+                    }
+                    output.write(buffer, 0, length);
+                }
+                return output.toByteArray();
+            } catch (DataFormatException ex) {
+                throw new IllegalStateException(ex.getMessage(), ex);
+            } finally {
+                inflater.reset();
+            }
+        }
+
+        /**
+         * Check if the compression ratio of documents compressed since the last check degraded from the one measured
+         * by the first check, which is so taken over documents not sampled for training.
+         * <br><br>
+         * Must be called under the compressor lock.
+         */
+        boolean isDegraded() {
+            long uncompressed = uncompressedBytes.getAndSet(0);
+            long compressed = compressedBytes.getAndSet(0);
+            if (uncompressed > 0) {
+                double ratio = (double) compressed / uncompressed;
+                if (baselineRatio < 0) {
+                    baselineRatio = ratio;
+                    return false;
+                } else {
+                    return ratio > baselineRatio * DEGRADATION_FACTOR;
+                }
+            } else {
+                return false;
+            }
+        }
+
+    }
+}
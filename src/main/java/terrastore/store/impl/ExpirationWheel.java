@@ -0,0 +1,194 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.impl;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import terrastore.store.Key;
+
+/**
+ * Hierarchical timer wheel tracking document expirations.
+ * <br><br>
+ * Time is divided into ticks of fixed duration, and expirations are hashed into four levels of 64 slots each,
+ * every level covering 64 times the time span of the previous one: with the default tick of 100 milliseconds,
+ * levels cover about 6 seconds, 7 minutes, 7 hours and 19 days, with farther expirations waiting into the last level until
+ * in range. So, scheduling, rescheduling and cancelling an expiration cost constant time, while advancing the wheel costs
+ * a constant time per elapsed tick plus the time needed to move or expire the entries found in visited slots.
+ * <br><br>
+ * Every key is tracked by at most one entry, so rescheduling expirations doesn't accumulate entries: every tracked key costs
+ * about 100 bytes on 64 bits JVMs (the entry object plus its index map entry), in addition to the key itself.
+ * <br><br>
+ * This class is thread safe.
+ *
+ * @author Sergio Bossa
+ */
+class ExpirationWheel {
+
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    //
+    private final long tickMillis;
+    private final long startMillis;
+    private final Entry[][] wheel;
+    private final Map<Key, Entry> entries;
+    private long currentTick;
+
+    public ExpirationWheel(long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+        this.wheel = new Entry[LEVELS][SLOTS];
+        this.entries = new HashMap<Key, Entry>();
+        this.currentTick = 0;
+    }
+
+    /**
+     * Schedule the expiration of the given key at the given time, replacing any previously scheduled expiration.
+     */
+    public synchronized void schedule(Key key, long expirationMillis) {
+        long deadline = toTick(expirationMillis);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key, deadline);
+            entries.put(key, entry);
+            insert(entry, currentTick + 1);
+        } else if (deadline < entry.deadline) {
+            unlink(entry);
+            entry.deadline = deadline;
+            insert(entry, currentTick + 1);
+        } else {
+            // Postponed expirations are lazily moved when their current slot is visited:
+            entry.deadline = deadline;
+        }
+    }
+
+    public synchronized void cancel(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            unlink(entry);
+        }
+    }
+
+    /**
+     * Advance the wheel up to the given time.
+     *
+     * @return The keys expired at the given time, which are not tracked anymore.
+     */
+    public synchronized List<Key> advance(long nowMillis) {
+        List<Key> expired = new LinkedList<Key>();
+        long targetTick = (nowMillis - startMillis) / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade(1);
+            Entry entry = detach(0, (int) (currentTick & SLOT_MASK));
+            while (entry != null) {
+                Entry next = entry.next;
+                entry.previous = entry.next = null;
+                if (entry.deadline <= currentTick) {
+                    entries.remove(entry.key);
+                    expired.add(entry.key);
+                } else {
+                    insert(entry, currentTick + 1);
+                }
+                entry = next;
+            }
+        }
+        return expired;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void cascade(int level) {
+        int shift = level * SLOT_BITS;
+        if (level < LEVELS && (currentTick & ((1L << shift) - 1)) == 0) {
+            // Cascade upper levels first, so that their entries can be further moved into this level:
+            cascade(level + 1);
+            Entry entry = detach(level, (int) ((currentTick >>> shift) & SLOT_MASK));
+            while (entry != null) {
+                Entry next = entry.next;
+                entry.previous = entry.next = null;
+                insert(entry, currentTick);
+                entry = next;
+            }
+        }
+    }
+
+    private void insert(Entry entry, long earliestTick) {
+        long deadline = Math.max(entry.deadline, earliestTick);
+        long delta = deadline - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << ((level + 1) * SLOT_BITS))) {
+            level++;
+        }
+        if (level == LEVELS - 1) {
+            // Farthest expirations wait into the last slot in range of the last level:
+            deadline = Math.min(deadline, currentTick + (1L << (LEVELS * SLOT_BITS)) - 1);
+        }
+        int slot = (int) ((deadline >>> (level * SLOT_BITS)) & SLOT_MASK);
+        entry.level = level;
+        entry.slot = slot;
+        entry.previous = null;
+        entry.next = wheel[level][slot];
+        if (entry.next != null) {
+            entry.next.previous = entry;
+        }
+        wheel[level][slot] = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.previous != null) {
+            entry.previous.next = entry.next;
+        } else if (wheel[entry.level][entry.slot] == entry) {
+            wheel[entry.level][entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.previous = entry.previous;
+        }
+        entry.previous = entry.next = null;
+    }
+
+    private Entry detach(int level, int slot) {
+        Entry head = wheel[level][slot];
+        wheel[level][slot] = null;
+        return head;
+    }
+
+    private long toTick(long millis) {
+        // Round up, so that keys never expire before their expiration time:
+        long elapsed = millis - startMillis;
+        return elapsed > 0 ? (elapsed + tickMillis - 1) / tickMillis : 0;
+    }
+
+    private static class Entry {
+
+        private final Key key;
+        private long deadline;
+        private int level;
+        private int slot;
+        private Entry previous;
+        private Entry next;
+
+        public Entry(Key key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import terrastore.store.Value;
+import terrastore.store.conditions.QueryCondition;
+import terrastore.util.json.BinaryJson;
+import terrastore.util.json.JsonUtils;
+
+/**
+ * Node-local secondary indexes over json field paths of bucket documents, mapping scalar field values to document keys,
+ * and supporting equality, range and prefix lookups.
+ * <br><br>
+ * Number, string and boolean values are indexed into separate sorted maps, with all numbers indexed as doubles:
+ * null values, lists and maps are not indexed.
+ * Every index also tracks the value indexed for each key, so that overwritten and removed documents can be unindexed
+ * without reading their old version.
+ * <br><br>
+ * Indexes are only used once built: see {@link #startBuild()} and {@link #finishBuild(long)}.
+ * <br><br>
+ * This class is thread safe, provided that documents with the same key are not concurrently (un)indexed.
+ *
+ * @author Sergio Bossa
+ */
+class FieldIndexes implements QueryCondition.IndexLookup {
+
+    private volatile Map<String, FieldIndex> indexes = Collections.emptyMap();
+    private volatile boolean built;
+    private boolean complete;
+    private int acquisitions;
+    private long generation;
+
+    /**
+     * Configure the field paths to index, dropping all indexed values.
+     */
+    public synchronized void configure(Set<String> paths) {
+        Map<String, FieldIndex> configured = new HashMap<String, FieldIndex>();
+        for (String path : paths) {
+            configured.put(path, new FieldIndex(path));
+        }
+        indexes = configured;
+        complete = false;
+        built = false;
+        generation++;
+    }
+
+    public boolean isEmpty() {
+        return indexes.isEmpty();
+    }
+
+    public boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * Start building indexes, dropping all indexed values.
+     *
+     * @return The build generation, to be later passed to {@link #finishBuild(long)}.
+     */
+    public synchronized long startBuild() {
+        for (FieldIndex index : indexes.values()) {
+            index.clear();
+        }
+        complete = false;
+        built = false;
+        return ++generation;
+    }
+
+    /**
+     * Start indexing additional documents, i.e. of acquired partitions, without dropping indexed values:
+     * indexes are not considered built until all started acquisitions are finished.
+     *
+     * @return The current build generation: acquisitions are superseded by later builds or configuration changes.
+     */
+    public synchronized long startAcquisition() {
+        acquisitions++;
+        built = false;
+        return generation;
+    }
+
+    /**
+     * Mark an acquisition started by {@link #startAcquisition()} as finished, whatever its outcome.
+     */
+    public synchronized void finishAcquisition() {
+        acquisitions--;
+        built = complete && acquisitions == 0;
+    }
+
+    /**
+     * @return True if the build with the given generation has not been superseded by another build or configuration change.
+     */
+    public synchronized boolean isCurrentBuild(long buildGeneration) {
+        return generation == buildGeneration;
+    }
+
+    /**
+     * Mark indexes as built, if the build with the given generation has not been superseded.
+     */
+    public synchronized void finishBuild(long buildGeneration) {
+        if (generation == buildGeneration) {
+            complete = true;
+            built = acquisitions == 0;
+        }
+    }
+
+    public void index(String key, Value value) {
+        Map<String, FieldIndex> current = indexes;
+        if (!current.isEmpty()) {
+            Map<String, Object> document = value.isBinary() ? BinaryJson.toUnmodifiableMap(value.getBinaryBytes()) : JsonUtils.toUnmodifiableMap(value);
+            for (FieldIndex index : current.values()) {
+                index.put(key, normalize(resolve(document, index.getPath())));
+            }
+        }
+    }
+
+    public void unindex(String key) {
+        for (FieldIndex index : indexes.values()) {
+            index.put(key, null);
+        }
+    }
+
+    public void clear() {
+        for (FieldIndex index : indexes.values()) {
+            index.clear();
+        }
+    }
+
+    /**
+     * @return The keys of all indexed documents.
+     */
+    public Set<String> getIndexedKeys() {
+        Set<String> keys = new HashSet<String>();
+        for (FieldIndex index : indexes.values()) {
+            keys.addAll(index.keys.keySet());
+        }
+        return keys;
+    }
+
+    /**
+     * @return The number of indexed documents per field path.
+     */
+    public Map<String, Long> getSizes() {
+        Map<String, Long> sizes = new HashMap<String, Long>();
+        for (FieldIndex index : indexes.values()) {
+            sizes.put(index.getPath(), index.size());
+        }
+        return sizes;
+    }
+
+    @Override
+    public boolean isIndexed(String path) {
+        return indexes.containsKey(path);
+    }
+
+    @Override
+    public Set<String> lookup(String path, Object from, Object to) {
+        FieldIndex index = indexes.get(path);
+        if (index != null) {
+            return index.lookup(from, to);
+        } else {
+            throw new IllegalArgumentException("Not indexed: " + path);
+        }
+    }
+
+    @Override
+    public Set<String> lookupPrefix(String path, String prefix) {
+        FieldIndex index = indexes.get(path);
+        if (index != null) {
+            return index.lookupPrefix(prefix);
+        } else {
+            throw new IllegalArgumentException("Not indexed: " + path);
+        }
+    }
+
+    private Object resolve(Map<String, Object> document, String path) {
+        Object current = document;
+        for (String name : path.split("\\.")) {
+            if (current instanceof Map) {
+                current = ((Map) current).get(name);
+            } else if (current instanceof List && isIndex(name) && Integer.parseInt(name) < ((List) current).size()) {
+                current = ((List) current).get(Integer.parseInt(name));
+            } else {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    private boolean isIndex(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return name.length() > 0 && name.length() < 10;
+    }
+
+    private Object normalize(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof String || value instanceof Boolean) {
+            return value;
+        } else {
+            return null;
+        }
+    }
+
+    private static class FieldIndex {
+
+        private final String path;
+        private final ConcurrentMap<String, Object> keys = new ConcurrentHashMap<String, Object>();
+        private final ConcurrentNavigableMap<Double, Postings> numbers = new ConcurrentSkipListMap<Double, Postings>();
+        private final ConcurrentNavigableMap<String, Postings> strings = new ConcurrentSkipListMap<String, Postings>();
+        private final ConcurrentNavigableMap<Boolean, Postings> booleans = new ConcurrentSkipListMap<Boolean, Postings>();
+
+        public FieldIndex(String path) {
+            this.path = path;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long size() {
+            return keys.size();
+        }
+
+        public void put(String key, Object value) {
+            Object old = value != null ? keys.put(key, value) : keys.remove(key);
+            if (old != null && !old.equals(value)) {
+                removePosting(old, key);
+            }
+            if (value != null && !value.equals(old)) {
+                addPosting(value, key);
+            }
+        }
+
+        public void clear() {
+            keys.clear();
+            numbers.clear();
+            strings.clear();
+            booleans.clear();
+        }
+
+        public Set<String> lookup(Object from, Object to) {
+            Object bound = from != null ? from : to;
+            if (bound instanceof Number) {
+                // Widen bounds to cover float values, which may be compared at float precision:
+                Double lower = from != null ? Math.min(((Number) from).doubleValue(), ((Number) from).floatValue()) : null;
+                Double upper = to != null ? Math.max(((Number) to).doubleValue(), ((Number) to).floatValue()) : null;
+                if (lower != null && upper != null) {
+                    return collect(numbers.subMap(lower, true, upper, true));
+                } else if (lower != null) {
+                    return collect(numbers.tailMap(lower, true));
+                } else {
+                    return collect(numbers.headMap(upper, true));
+                }
+            } else if (bound instanceof String) {
+                if (from != null && to != null) {
+                    return collect(strings.subMap((String) from, true, (String) to, true));
+                } else if (from != null) {
+                    return collect(strings.tailMap((String) from, true));
+                } else {
+                    return collect(strings.headMap((String) to, true));
+                }
+            } else if (bound instanceof Boolean) {
+                Postings postings = booleans.get((Boolean) bound);
+                return postings != null ? new HashSet<String>(postings.keys) : new HashSet<String>();
+            } else {
+                throw new IllegalArgumentException("Wrong lookup bounds: " + from + ", " + to);
+            }
+        }
+
+        public Set<String> lookupPrefix(String prefix) {
+            Set<String> result = new HashSet<String>();
+            for (Map.Entry<String, Postings> entry : strings.tailMap(prefix, true).entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    result.addAll(entry.getValue().keys);
+                } else {
+                    break;
+                }
+            }
+            return result;
+        }
+
+        private Set<String> collect(Map<?, Postings> values) {
+            Set<String> result = new HashSet<String>();
+            for (Postings postings : values.values()) {
+                result.addAll(postings.keys);
+            }
+            return result;
+        }
+
+        private ConcurrentMap<Object, Postings> valuesFor(Object value) {
+            if (value instanceof Double) {
+                return (ConcurrentMap) numbers;
+            } else if (value instanceof String) {
+                return (ConcurrentMap) strings;
+            } else {
+                return (ConcurrentMap) booleans;
+            }
+        }
+
+        private void addPosting(Object value, String key) {
+            ConcurrentMap<Object, Postings> values = valuesFor(value);
+            while (true) {
+                Postings postings = values.get(value);
+                if (postings == null) {
+                    postings = new Postings();
+                    Postings existent = values.putIfAbsent(value, postings);
+                    postings = existent != null ? existent : postings;
+                }
+                if (postings.add(key)) {
+                    return;
+                }
+            }
+        }
+
+        private void removePosting(Object value, String key) {
+            ConcurrentMap<Object, Postings> values = valuesFor(value);
+            Postings postings = values.get(value);
+            if (postings != null && postings.remove(key)) {
+                values.remove(value, postings);
+            }
+        }
+    }
+
+    /**
+     * Keys of documents with the same indexed value: once empty, postings are retired and removed from their index,
+     * so that concurrent additions retry on fresh postings rather than adding to removed ones.
+     */
+    private static class Postings {
+
+        private final Set<String> keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private boolean retired;
+
+        /**
+         * @return False if retired.
+         */
+        public synchronized boolean add(String key) {
+            if (!retired) {
+                keys.add(key);
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        /**
+         * @return True if retired as a result of this removal.
+         */
+        public synchronized boolean remove(String key) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                retired = true;
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import terrastore.common.PartitionStats;
+import terrastore.communication.Cluster;
+import terrastore.communication.Node;
+import terrastore.communication.protocol.GetHotKeysCommand;
+import terrastore.partition.ClusterPartitioner;
+import terrastore.partition.impl.ClusterHashingPartitioner;
+import terrastore.partition.impl.PartitionMoveListener;
+import terrastore.router.Router;
+import terrastore.store.Bucket;
+import terrastore.store.Key;
+import terrastore.store.Store;
+
+/**
+ * Warm up the node-local cache with values of partitions newly owned by the local node, after membership changes
+ * or partition moves.
+ * <br><br>
+ * Keys recently accessed on the previous partition owners are prefetched first, then all other keys of the
+ * acquired partitions, found by scanning all buckets.<br>
+ * Keys are prefetched in batches executed by a pool of warm-up threads, whose number, together with the batch size
+ * and the max number of keys prefetched per second, throttles the warm-up.<br>
+ * Only keys of partitions still owned by the local node at prefetch time are warmed up.
+ *
+ * @author Sergio Bossa
+ */
+public class PartitionWarmer implements PartitionMoveListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionWarmer.class);
+    //
+    private final Router router;
+    private final Store store;
+    private final int batchSize;
+    private final long maxKeysPerSecond;
+    private final ExecutorService scanner;
+    private final ExecutorService workers;
+    private final Semaphore workerPermits;
+    private final AtomicInteger pendingPartitions;
+    private final AtomicLong warmedKeys;
+
+    /**
+     * @param router The router.
+     * @param store The store holding keys to warm up.
+     * @param threads The number of threads concurrently prefetching batches.
+     * @param batchSize The number of keys prefetched by every batch.
+     * @param maxKeysPerSecond The max number of keys prefetched per second, or zero for no limit.
+     */
+    public PartitionWarmer(Router router, Store store, int threads, int batchSize, long maxKeysPerSecond) {
+        if (threads < 1 || batchSize < 1 || maxKeysPerSecond < 0) {
+            throw new IllegalArgumentException("Wrong warm up configuration, threads and batch size must be positive, max keys per second non negative.");
+        }
+        this.router = router;
+        this.store = store;
+        this.batchSize = batchSize;
+        this.maxKeysPerSecond = maxKeysPerSecond;
+        this.scanner = Executors.newSingleThreadExecutor();
+        this.workers = Executors.newFixedThreadPool(threads);
+        this.workerPermits = new Semaphore(threads);
+        this.pendingPartitions = new AtomicInteger(0);
+        this.warmedKeys = new AtomicLong(0);
+    }
+
+    /**
+     * Asynchronously warm up the given partitions of the local cluster, acquired by the local node.
+     *
+     * @param partitionsToPreviousOwners The acquired partitions, mapped to the name of their previous owner node (or null if unknown).
+     */
+    public void warmUp(final Map<Integer, String> partitionsToPreviousOwners) {
+        if (partitionsToPreviousOwners.size() > 0) {
+            pendingPartitions.addAndGet(partitionsToPreviousOwners.size());
+            scanner.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        doWarmUp(partitionsToPreviousOwners);
+                    } catch (Exception ex) {
+                        LOG.warn("Warm up failed: {}", ex.getMessage());
+                    } finally {
+                        pendingPartitions.addAndGet(-partitionsToPreviousOwners.size());
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void partitionsMoved(Cluster cluster, List<PartitionStats.Move> moves) {
+        Node localNode = router.routeToLocalNode();
+        if (cluster.isLocal() && localNode != null) {
+            Map<Integer, String> acquired = new LinkedHashMap<Integer, String>();
+            for (PartitionStats.Move move : moves) {
+                if (localNode.getName().equals(move.getTo())) {
+                    acquired.put(move.getPartition(), move.getFrom());
+                }
+            }
+            warmUp(acquired);
+        }
+    }
+
+    /**
+     * Get the number of partitions waiting for, or being, warmed up.
+     */
+    public int getPendingPartitions() {
+        return pendingPartitions.get();
+    }
+
+    /**
+     * Get the total number of keys prefetched so far.
+     */
+    public long getWarmedKeys() {
+        return warmedKeys.get();
+    }
+
+    public void shutdown() {
+        scanner.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private void doWarmUp(Map<Integer, String> partitionsToPreviousOwners) throws InterruptedException {
+        ClusterPartitioner clusterPartitioner = router.getClusterPartitioner();
+        Cluster localCluster = getLocalCluster();
+        Node localNode = router.routeToLocalNode();
+        if (clusterPartitioner instanceof ClusterHashingPartitioner && localCluster != null && localNode != null) {
+            ClusterHashingPartitioner partitioner = (ClusterHashingPartitioner) clusterPartitioner;
+            Throttle throttle = new Throttle();
+            long start = System.currentTimeMillis();
+            long startKeys = warmedKeys.get();
+            LOG.info("Warming up {} partitions", partitionsToPreviousOwners.size());
+            Map<String, Set<Key>> hotKeys = getHotKeys(localCluster, localNode, partitionsToPreviousOwners);
+            for (Map.Entry<String, Set<Key>> bucketKeys : hotKeys.entrySet()) {
+                Bucket bucket = store.get(bucketKeys.getKey());
+                if (bucket != null) {
+                    Set<Key> batch = new HashSet<Key>();
+                    for (Key key : bucketKeys.getValue()) {
+                        if (isOwned(partitioner, localCluster, localNode, partitionsToPreviousOwners, bucket, key)) {
+                            batch.add(key);
+                            if (batch.size() == batchSize) {
+                                prefetch(bucket, batch, throttle);
+                                batch = new HashSet<Key>();
+                            }
+                        }
+                    }
+                    prefetch(bucket, batch, throttle);
+                }
+            }
+            LOG.info("Warmed up {} hot keys", warmedKeys.get() - startKeys);
+            for (String bucketName : store.buckets()) {
+                Bucket bucket = store.get(bucketName);
+                Set<Key> bucketHotKeys = hotKeys.get(bucketName);
+                if (bucket != null) {
+                    Set<Key> batch = new HashSet<Key>();
+                    for (Key key : bucket.keys()) {
+                        if ((bucketHotKeys == null || !bucketHotKeys.contains(key))
+                                && isOwned(partitioner, localCluster, localNode, partitionsToPreviousOwners, bucket, key)) {
+                            batch.add(key);
+                            if (batch.size() == batchSize) {
+                                prefetch(bucket, batch, throttle);
+                                batch = new HashSet<Key>();
+                            }
+                        }
+                    }
+                    prefetch(bucket, batch, throttle);
+                }
+            }
+            LOG.info("Warmed up {} partitions with {} keys in {} milliseconds",
+                    new Object[]{partitionsToPreviousOwners.size(), warmedKeys.get() - startKeys, System.currentTimeMillis() - start});
+        }
+    }
+
+    private Map<String, Set<Key>> getHotKeys(Cluster localCluster, Node localNode, Map<Integer, String> partitionsToPreviousOwners) {
+        // Partitions with unknown previous owner are asked to all nodes:
+        Map<String, Set<Integer>> ownersToPartitions = new HashMap<String, Set<Integer>>();
+        Set<Integer> unknownOwnerPartitions = new HashSet<Integer>();
+        for (Map.Entry<Integer, String> partitionToOwner : partitionsToPreviousOwners.entrySet()) {
+            String owner = partitionToOwner.getValue();
+            if (owner == null) {
+                unknownOwnerPartitions.add(partitionToOwner.getKey());
+            } else if (!owner.equals(localNode.getName())) {
+                Set<Integer> partitions = ownersToPartitions.get(owner);
+                if (partitions == null) {
+                    partitions = new HashSet<Integer>();
+                    ownersToPartitions.put(owner, partitions);
+                }
+                partitions.add(partitionToOwner.getKey());
+            }
+        }
+        Map<String, Set<Key>> hotKeys = new LinkedHashMap<String, Set<Key>>();
+        if (ownersToPartitions.size() > 0 || unknownOwnerPartitions.size() > 0) {
+            for (Node node : router.clusterRoute(localCluster)) {
+                Set<Integer> partitions = new HashSet<Integer>(unknownOwnerPartitions);
+                if (ownersToPartitions.containsKey(node.getName())) {
+                    partitions.addAll(ownersToPartitions.get(node.getName()));
+                }
+                if (!node.equals(localNode) && partitions.size() > 0) {
+                    try {
+                        Map<String, Object> nodeHotKeys = node.<Map<String, Object>>send(new GetHotKeysCommand(partitions));
+                        for (Object value : nodeHotKeys.values()) {
+                            String[] bucketsAndKeys = (String[]) value;
+                            for (int i = 0; i < bucketsAndKeys.length - 1; i += 2) {
+                                Set<Key> keys = hotKeys.get(bucketsAndKeys[i]);
+                                if (keys == null) {
+                                    keys = new HashSet<Key>();
+                                    hotKeys.put(bucketsAndKeys[i], keys);
+                                }
+                                keys.add(new Key(bucketsAndKeys[i + 1]));
+                            }
+                        }
+                    } catch (Exception ex) {
+                        LOG.warn("Cannot get hot keys from node {}: {}", node.getName(), ex.getMessage());
+                    }
+                }
+            }
+        }
+        return hotKeys;
+    }
+
+    private boolean isOwned(ClusterHashingPartitioner partitioner, Cluster localCluster, Node localNode, Map<Integer, String> partitions, Bucket bucket, Key key) {
+        int partition = partitioner.getPartitionFor(bucket.getName(), key);
+        return partitions.containsKey(partition) && localNode.equals(partitioner.getNodeAtPartition(localCluster, partition));
+    }
+
+    private void prefetch(final Bucket bucket, final Set<Key> keys, Throttle throttle) throws InterruptedException {
+        if (keys.size() > 0) {
+            throttle.await(keys.size());
+            workerPermits.acquire();
+            try {
+                workers.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            bucket.prefetch(keys);
+                            warmedKeys.addAndGet(keys.size());
+                        } catch (Exception ex) {
+                            LOG.warn("Cannot prefetch keys of bucket {}: {}", bucket.getName(), ex.getMessage());
+                        } finally {
+                            workerPermits.release();
+                        }
+                    }
+                });
+            } catch (RuntimeException ex) {
+                workerPermits.release();
+                throw ex;
+            }
+        }
+    }
+
+    private Cluster getLocalCluster() {
+        for (Cluster cluster : router.getClusters()) {
+            if (cluster.isLocal()) {
+                return cluster;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Limit prefetched keys to the configured max number per second.
+     */
+    private class Throttle {
+
+        private final long start = System.nanoTime();
+        private long scheduledKeys;
+
+        public void await(int keys) throws InterruptedException {
+            if (maxKeysPerSecond > 0) {
+                scheduledKeys += keys;
+                long dueNanos = start + TimeUnit.SECONDS.toNanos(scheduledKeys) / maxKeysPerSecond;
+                long waitNanos = dueNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+            }
+        }
+    }
+}
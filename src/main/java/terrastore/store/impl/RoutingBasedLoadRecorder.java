@@ -0,0 +1,72 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.impl;
+
+import terrastore.communication.Cluster;
+import terrastore.partition.ClusterPartitioner;
+import terrastore.partition.impl.ClusterHashingPartitioner;
+import terrastore.router.Router;
+import terrastore.store.Bucket;
+import terrastore.store.Key;
+import terrastore.store.LoadRecorder;
+
+/**
+ * Load recorder based on the routing path: accesses to keys belonging to the local cluster are recorded
+ * into the per-partition {@link terrastore.partition.impl.PartitionLoadCounters} of the
+ * {@link terrastore.partition.impl.ClusterHashingPartitioner}, if any, which also samples the most recently
+ * accessed keys.
+ *
+ * @author Sergio Bossa
+ */
+public class RoutingBasedLoadRecorder implements LoadRecorder {
+
+    private final Router router;
+
+    public RoutingBasedLoadRecorder(Router router) {
+        this.router = router;
+    }
+
+    @Override
+    public void recordRead(Bucket bucket, Key key, long bytes) {
+        ClusterHashingPartitioner partitioner = getPartitioner(bucket, key);
+        if (partitioner != null) {
+            int partition = partitioner.getPartitionFor(bucket.getName(), key);
+            partitioner.getLoadCounters().recordRead(partition, bytes);
+            partitioner.getLoadCounters().recordKey(partition, bucket.getName(), key);
+        }
+    }
+
+    @Override
+    public void recordWrite(Bucket bucket, Key key, long bytes) {
+        ClusterHashingPartitioner partitioner = getPartitioner(bucket, key);
+        if (partitioner != null) {
+            int partition = partitioner.getPartitionFor(bucket.getName(), key);
+            partitioner.getLoadCounters().recordWrite(partition, bytes);
+            partitioner.getLoadCounters().recordKey(partition, bucket.getName(), key);
+        }
+    }
+
+    private ClusterHashingPartitioner getPartitioner(Bucket bucket, Key key) {
+        ClusterPartitioner partitioner = router.getClusterPartitioner();
+        if (partitioner instanceof ClusterHashingPartitioner) {
+            Cluster cluster = router.getEnsemblePartitioner().getClusterFor(bucket.getName(), key);
+            if (cluster != null && cluster.isLocal()) {
+                return (ClusterHashingPartitioner) partitioner;
+            }
+        }
+        return null;
+    }
+}
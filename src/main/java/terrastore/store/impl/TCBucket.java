@@ -16,18 +16,20 @@
 package terrastore.store.impl;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terracotta.collections.ClusteredMap;
 import org.terracotta.collections.ConcurrentDistributedServerMap;
+import org.terracotta.util.ClusteredAtomicLong;
 import terrastore.internal.tc.TCMaster;
 import terrastore.common.ErrorMessage;
 import terrastore.event.EventBus;
@@ -36,10 +38,13 @@ import terrastore.event.impl.ValueRemovedEvent;
 import terrastore.server.Keys;
 import terrastore.server.Values;
 import terrastore.store.comparators.LexicographicalComparator;
+import terrastore.store.conditions.QueryCondition;
 import terrastore.store.Bucket;
 import terrastore.store.FlushCondition;
 import terrastore.store.FlushStrategy;
 import terrastore.store.Key;
+import terrastore.store.KeyOwnership;
+import terrastore.store.LoadRecorder;
 import terrastore.store.LockManager;
 import terrastore.store.SnapshotManager;
 import terrastore.store.SortedSnapshot;
@@ -48,6 +53,7 @@ import terrastore.store.ValidationException;
 import terrastore.store.features.Predicate;
 import terrastore.store.features.Update;
 import terrastore.store.Value;
+import terrastore.store.features.Expectation;
 import terrastore.store.features.Mapper;
 import terrastore.store.operators.Condition;
 import terrastore.store.operators.Function;
@@ -57,6 +63,7 @@ import terrastore.store.operators.OperatorException;
 import terrastore.util.collect.Sets;
 import terrastore.util.collect.Transformer;
 import terrastore.util.concurrent.GlobalExecutor;
+import terrastore.util.json.JsonUtils;
 
 /**
  * @author Sergio Bossa
@@ -65,25 +72,51 @@ public class TCBucket implements Bucket {
 
     private static final Logger LOG = LoggerFactory.getLogger(TCBucket.class);
     //
+    private static final long DEFAULT_COUNTERS_FLUSH_INTERVAL = 1000;
+    private static final long EXPIRATION_TICK = 100;
+    private static final long DEFAULT_DICTIONARIES_COLLECTION_INTERVAL = 10 * 60 * 1000;
+    //
     private static final String BUCKET_LOCK_KEY_PREFIX = TCBucket.class.getName() + ".BUCKET_LOCK_KEY.";
     //
+    private static final int VERSION_UPDATE_BITS = 20;
+    private static final long VERSION_UPDATE_MASK = (1L << VERSION_UPDATE_BITS) - 1;
+    //
     private final String name;
     private final ClusteredMap<String, byte[]> bucket;
     private final Key bucketLockKey;
+    private final ClusteredAtomicLong versionSequence;
     private boolean compressedDocuments;
+    private volatile boolean dictionaryCompression;
+    private volatile boolean binaryDocuments;
     private EventBus eventBus;
     private SnapshotManager snapshotManager;
     private LockManager lockManager;
+    private LoadRecorder loadRecorder;
+    private KeyOwnership keyOwnership;
     private Comparator defaultComparator = new LexicographicalComparator(true);
     private final Map<String, Comparator> comparators = new HashMap<String, Comparator>();
     private final Map<String, Condition> conditions = new HashMap<String, Condition>();
     private final Map<String, Function> updaters = new HashMap<String, Function>();
     private final Map<String, Function> mappers = new HashMap<String, Function>();
+    private final UpdateMailboxes updateMailboxes = new UpdateMailboxes(new MailboxUpdater());
+    private final CounterAccumulators counters = new CounterAccumulators();
+    private final AtomicBoolean countersFlushScheduled = new AtomicBoolean(false);
+    private volatile long countersFlushInterval = DEFAULT_COUNTERS_FLUSH_INTERVAL;
+    private final ExpirationWheel expirations = new ExpirationWheel(EXPIRATION_TICK, System.currentTimeMillis());
+    private final AtomicBoolean expirationsScheduled = new AtomicBoolean(false);
+    private volatile long defaultTimeToLive;
+    private final DictionaryCompressor dictionaries;
+    private final AtomicBoolean dictionariesCollectionScheduled = new AtomicBoolean(false);
+    private volatile long dictionariesCollectionInterval = DEFAULT_DICTIONARIES_COLLECTION_INTERVAL;
+    private Set<Integer> collectableDictionaries = new HashSet<Integer>();
+    private final FieldIndexes indexes = new FieldIndexes();
 
     public TCBucket(String name) {
         this.name = name;
         this.bucket = TCMaster.getInstance().getUnlockedMap(TCBucket.class.getName() + ".bucket." + name);
+        this.dictionaries = new DictionaryCompressor(name);
         this.bucketLockKey = new Key(BUCKET_LOCK_KEY_PREFIX + name);
+        this.versionSequence = TCMaster.getInstance().getLong(TCBucket.class.getName() + ".versions." + name);
     }
 
     public String getName() {
@@ -91,27 +124,47 @@ public class TCBucket implements Bucket {
     }
 
     public void put(Key key, Value value) {
+        put(key, value, defaultTimeToLive);
+    }
+
+    @Override
+    public void put(Key key, Value value, long timeToLive) {
+        flushCounters(key);
+        // Prepare the document outside of the lock, so that only the actual put and publish are executed under it:
+        long expiration = expirationFor(timeToLive);
+        byte[] envelope = prepare(value, expiration);
         // Use explicit locking to put and publish on the same "transactional" boundary and keep ordering under concurrency.
         lockWrite(key);
         try {
-            Value old = doGet(key);
-            doPut(key, value);
+            // Versions are always read from the envelope header, even of expired documents, while the old document
+            // is loaded only if the event bus needs it:
+            byte[] current = bucket.unlockedGet(key.toString());
             if (eventBus.isEnabled()) {
+                Value old = bytesToValue(key, current);
+                doPut(key, value, envelope, ValueEnvelope.versionOf(current));
                 eventBus.publish(new ValueChangedEvent(name, key.toString(), old, value));
+            } else {
+                doPut(key, value, envelope, ValueEnvelope.versionOf(current));
             }
+            trackExpiration(key, expiration);
         } finally {
             unlockWrite(key);
         }
     }
 
     public boolean conditionalPut(Key key, Value value, Predicate predicate) throws StoreOperationException {
+        flushCounters(key);
+        long expiration = expirationFor(defaultTimeToLive);
+        byte[] envelope = prepare(value, expiration);
         // Use explicit locking to put and publish on the same "transactional" boundary and keep ordering under concurrency.
         lockWrite(key);
         try {
             Condition condition = getCondition(predicate.getConditionType());
-            Value old = doGet(key);
+            byte[] current = bucket.unlockedGet(key.toString());
+            Value old = bytesToValue(key, current);
             if (old == null || old.dispatch(key, predicate, condition)) {
-                doPut(key, value);
+                doPut(key, value, envelope, ValueEnvelope.versionOf(current));
+                trackExpiration(key, expiration);
                 if (eventBus.isEnabled()) {
                     eventBus.publish(new ValueChangedEvent(name, key.toString(), old, value));
                 }
@@ -126,7 +179,35 @@ public class TCBucket implements Bucket {
         }
     }
 
+    public boolean compareAndPut(Key key, Value value, Expectation expectation) {
+        flushCounters(key);
+        long expiration = expirationFor(defaultTimeToLive);
+        byte[] envelope = prepare(value, expiration);
+        // Use explicit locking to compare, put and publish on the same "transactional" boundary and keep ordering under concurrency.
+        lockWrite(key);
+        try {
+            // Hashes and versions are read from the envelope header, so the full document is loaded only if the event bus needs it:
+            byte[] current = bucket.unlockedGet(key.toString());
+            if (matches(current, expectation)) {
+                if (eventBus.isEnabled()) {
+                    Value old = bytesToValue(key, current);
+                    doPut(key, value, envelope, ValueEnvelope.versionOf(current));
+                    eventBus.publish(new ValueChangedEvent(name, key.toString(), old, value));
+                } else {
+                    doPut(key, value, envelope, ValueEnvelope.versionOf(current));
+                }
+                trackExpiration(key, expiration);
+                return true;
+            } else {
+                return false;
+            }
+        } finally {
+            unlockWrite(key);
+        }
+    }
+
     public boolean conditionalRemove(Key key, Predicate predicate) throws StoreOperationException {
+        flushCounters(key);
         // Use explicit locking to make sure we see a consistent state while examining, removing and publishing.
         lockWrite(key);
         try {
@@ -149,7 +230,9 @@ public class TCBucket implements Bucket {
     }
 
     public Value get(Key key) throws StoreOperationException {
+        flushCounters(key);
         Value value = doGet(key);
+        recordRead(key, value);
         if (value != null) {
             return value;
         } else {
@@ -161,7 +244,9 @@ public class TCBucket implements Bucket {
     public Values get(Set<Key> keys) throws StoreOperationException {
         Map<Key, Value> result = new HashMap<Key, Value>(keys.size());
         for (Key key : keys) {
+            flushCounters(key);
             Value value = doGet(key);
+            recordRead(key, value);
             if (value != null) {
                 result.put(key, value);
             }
@@ -171,7 +256,9 @@ public class TCBucket implements Bucket {
 
     @Override
     public Value conditionalGet(Key key, Predicate predicate) throws StoreOperationException {
+        flushCounters(key);
         Value value = doGet(key);
+        recordRead(key, value);
         if (value != null) {
             try {
                 Condition condition = getCondition(predicate.getConditionType());
@@ -193,7 +280,9 @@ public class TCBucket implements Bucket {
         Map<Key, Value> result = new HashMap<Key, Value>(keys.size());
         for (Key key : keys) {
             try {
+                flushCounters(key);
                 Value value = doGet(key);
+                recordRead(key, value);
                 Condition condition = getCondition(predicate.getConditionType());
                 if (value.dispatch(key, predicate, condition)) {
                     result.put(key, value);
@@ -205,7 +294,38 @@ public class TCBucket implements Bucket {
         return new Values(result);
     }
 
+    @Override
+    public Values queryByIndex(Predicate predicate) throws StoreOperationException {
+        Condition condition = getCondition(predicate.getConditionType());
+        if (condition instanceof QueryCondition && indexes.isBuilt()) {
+            try {
+                Set<String> candidates = ((QueryCondition) condition).lookup(predicate.getConditionExpression(), indexes);
+                if (candidates != null) {
+                    // Indexes may be stale with respect to documents written on other nodes, so candidates are evaluated against their actual value:
+                    Map<Key, Value> result = new HashMap<Key, Value>();
+                    for (String candidate : candidates) {
+                        Key key = new Key(candidate);
+                        flushCounters(key);
+                        Value value = doGet(key);
+                        recordRead(key, value);
+                        if (value != null && value.dispatch(key, predicate, condition)) {
+                            result.put(key, value);
+                        }
+                    }
+                    return new Values(result);
+                } else {
+                    return null;
+                }
+            } catch (OperatorException ex) {
+                throw new StoreOperationException(ex.getErrorMessage());
+            }
+        } else {
+            return null;
+        }
+    }
+
     public void remove(Key key) throws StoreOperationException {
+        flushCounters(key);
         // Use explicit locking to remove and publish on the same "transactional" boundary and keep ordering under concurrency.
         lockWrite(key);
         try {
@@ -221,85 +341,90 @@ public class TCBucket implements Bucket {
         }
     }
 
-    @Override
-    public Value update(final Key key, final Update update) throws StoreOperationException {
-        long timeout = update.getTimeoutInMillis();
-        Future<Value> task = null;
-        // Use explicit locking to update and block concurrent operations on the same key,
-        // and also publish on the same "transactional" boundary and keep ordering under concurrency.
+    public boolean compareAndRemove(Key key, Expectation expectation) {
+        flushCounters(key);
         lockWrite(key);
         try {
-            final Value value = doGet(key);
-            if (value != null) {
-                final Function function = getFunction(updaters, update.getFunctionName());
-                task = GlobalExecutor.getUpdateExecutor().submit(new Callable<Value>() {
-
-                    @Override
-                    public Value call() {
-                        try {
-                            return value.dispatch(key, update, function);
-                        } catch (OperatorException ex) {
-                            throw new RuntimeException(ex);
-                        }
-                    }
-
-                });
-                Value result = task.get(timeout, TimeUnit.MILLISECONDS);
-                doPut(key, result);
+            byte[] current = bucket.unlockedGet(key.toString());
+            if (isLive(current) && matches(current, expectation)) {
                 if (eventBus.isEnabled()) {
-                    eventBus.publish(new ValueChangedEvent(name, key.toString(), value, result));
+                    Value old = bytesToValue(key, current);
+                    doRemove(key);
+                    eventBus.publish(new ValueRemovedEvent(name, key.toString(), old));
+                } else {
+                    doRemove(key);
                 }
-                return result;
+                return true;
             } else {
-                throw new StoreOperationException(new ErrorMessage(ErrorMessage.NOT_FOUND_ERROR_CODE, "Key not found: " + key));
+                return false;
             }
-        } catch (StoreOperationException ex) {
-            throw ex;
+        } finally {
+            unlockWrite(key);
+        }
+    }
+
+    @Override
+    public Value update(final Key key, final Update update) throws StoreOperationException {
+        long timeout = update.getTimeoutInMillis();
+        Function function = getFunction(updaters, update.getFunctionName());
+        flushCounters(key);
+        // Queue the update into the key mailbox, which serializes updates on the same key (coalescing them when possible)
+        // without blocking the calling thread on the key lock:
+        Future<Value> task = updateMailboxes.submit(key, update, function);
+        try {
+            return task.get(timeout, TimeUnit.MILLISECONDS);
         } catch (TimeoutException ex) {
-            task.cancel(true);
+            // The update is not interrupted, but will be discarded if not committed yet:
+            task.cancel(false);
             throw new StoreOperationException(new ErrorMessage(ErrorMessage.INTERNAL_SERVER_ERROR_CODE, "Update cancelled due to long execution time."));
         } catch (ExecutionException ex) {
-            if (ex.getCause() instanceof RuntimeException && ex.getCause().getCause() instanceof OperatorException) {
-                throw new StoreOperationException(((OperatorException) ex.getCause().getCause()).getErrorMessage());
+            if (ex.getCause() instanceof StoreOperationException) {
+                throw (StoreOperationException) ex.getCause();
+            } else if (ex.getCause() instanceof OperatorException) {
+                throw new StoreOperationException(((OperatorException) ex.getCause()).getErrorMessage());
             } else {
-                throw new StoreOperationException(new ErrorMessage(ErrorMessage.INTERNAL_SERVER_ERROR_CODE, ex.getMessage()));
+                throw new StoreOperationException(new ErrorMessage(ErrorMessage.INTERNAL_SERVER_ERROR_CODE, ex.getCause().getMessage()));
             }
         } catch (Exception ex) {
+            task.cancel(false);
             throw new StoreOperationException(new ErrorMessage(ErrorMessage.INTERNAL_SERVER_ERROR_CODE, ex.getMessage()));
-        } finally {
-            unlockWrite(key);
         }
     }
 
     @Override
-    public Value merge(Key key, Value value) throws StoreOperationException {
-        // Use explicit locking to update and block concurrent operations on the same key,
-        // and also publish on the same "transactional" boundary and keep ordering under concurrency.
-        lockWrite(key);
+    public Value merge(final Key key, final Value value) throws StoreOperationException {
+        flushCounters(key);
         try {
-            Value old = doGet(key);
-            Value result = null;
-            if (old != null) {
-                result = old.merge(value);
-                doPut(key, result);
-                if (eventBus.isEnabled()) {
-                    eventBus.publish(new ValueChangedEvent(name, key.toString(), old, result));
+            return readModifyWrite(key, new Transformation() {
+
+                @Override
+                public Value apply(Value old) throws Exception {
+                    if (old != null) {
+                        return old.merge(value);
+                    } else {
+                        throw new StoreOperationException(new ErrorMessage(ErrorMessage.NOT_FOUND_ERROR_CODE, "Key not found: " + key));
+                    }
                 }
-                return result;
-            } else {
-                throw new StoreOperationException(new ErrorMessage(ErrorMessage.NOT_FOUND_ERROR_CODE, "Key not found: " + key));
-            }
+
+                @Override
+                public boolean commit() {
+                    return true;
+                }
+
+            });
         } catch (StoreOperationException ex) {
             throw ex;
         } catch (ValidationException ex) {
             throw new StoreOperationException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, ex.getMessage()));
-        } finally {
-            unlockWrite(key);
+        } catch (Exception ex) {
+            throw new StoreOperationException(new ErrorMessage(ErrorMessage.INTERNAL_SERVER_ERROR_CODE, ex.getMessage()));
         }
     }
 
     public Map<String, Object> map(final Key key, final Mapper mapper) throws StoreOperationException {
+        flushCounters(key);
         Value value = doGet(key);
+        recordRead(key, value);
         if (value != null) {
             try {
                 Function function = getFunction(mappers, mapper.getMapperName());
@@ -312,9 +437,36 @@ public class TCBucket implements Bucket {
         }
     }
 
+    @Override
+    public void incrementCounters(Key key, Map<String, Long> increments) throws StoreOperationException {
+        // Reject increments of not numeric fields right away, rather than discarding them once acknowledged,
+        // but read and validate the document only once per field until written again:
+        Set<String> validated = counters.validatedFields(key);
+        if (!validated.containsAll(increments.keySet())) {
+            Value current = doGet(key);
+            if (current != null) {
+                try {
+                    current.validateCounters(increments.keySet());
+                } catch (ValidationException ex) {
+                    throw new StoreOperationException(ex.getErrorMessage());
+                }
+            }
+            validated.addAll(increments.keySet());
+        }
+        // Then just accumulate increments in memory: they will be written to the document when read or periodically flushed.
+        for (Map.Entry<String, Long> increment : increments.entrySet()) {
+            counters.increment(key, increment.getKey(), increment.getValue());
+        }
+        if (countersFlushScheduled.compareAndSet(false, true)) {
+            scheduleCountersFlush();
+        }
+    }
+
     @Override
     public void clear() {
+        counters.clear();
         bucket.clear();
+        indexes.clear();
     }
 
     @Override
@@ -353,16 +505,139 @@ public class TCBucket implements Bucket {
         }
     }
 
+    @Override
+    public void rebuildIndexes() {
+        if (!indexes.isEmpty()) {
+            final long generation = indexes.startBuild();
+            GlobalExecutor.getUpdateExecutor().submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        LOG.info("Building indexes of bucket {}", name);
+                        if (indexKeys(generation, keyOwnership)) {
+                            indexes.finishBuild(generation);
+                            LOG.info("Built indexes of bucket {}", name);
+                        } else {
+                            LOG.info("Superseded build of indexes of bucket {}", name);
+                        }
+                    } catch (Exception ex) {
+                        LOG.error(ex.getMessage(), ex);
+                    }
+                }
+
+            });
+        }
+    }
+
+    @Override
+    public void acquireKeys(final KeyOwnership acquired) {
+        // Acquired documents must be walked even without indexes, to track their expiration:
+        final long generation = indexes.startAcquisition();
+        GlobalExecutor.getUpdateExecutor().submit(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    // Superseded acquisitions are just aborted, as later builds walk all owned documents anyway:
+                    indexKeys(generation, acquired);
+                } catch (Exception ex) {
+                    LOG.error(ex.getMessage(), ex);
+                } finally {
+                    indexes.finishAcquisition();
+                }
+            }
+
+        });
+    }
+
+    @Override
+    public void releaseKeys(KeyOwnership released) {
+        if (!indexes.isEmpty()) {
+            for (String key : indexes.getIndexedKeys()) {
+                Key unindexed = new Key(key);
+                if (released.isOwned(this, unindexed)) {
+                    lockRead(unindexed);
+                    try {
+                        indexes.unindex(key);
+                    } finally {
+                        unlockRead(unindexed);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isIndexBuilt() {
+        return indexes.isBuilt();
+    }
+
+    @Override
+    public Map<String, Long> getIndexSizes() {
+        return indexes.getSizes();
+    }
+
+    @Override
+    public void prefetch(Set<Key> keys) {
+        for (Key key : keys) {
+            doGet(key);
+        }
+    }
+
+    @Override
+    public void setDefaultTimeToLive(long defaultTimeToLive) {
+        this.defaultTimeToLive = defaultTimeToLive;
+    }
+
+    @Override
+    public void setCountersFlushInterval(long countersFlushInterval) {
+        this.countersFlushInterval = countersFlushInterval;
+    }
+
     @Override
     public void setCompressDocuments(boolean compressed) {
         this.compressedDocuments = compressed;
     }
 
+    @Override
+    public void setDictionaryCompression(boolean dictionaryCompression) {
+        this.dictionaryCompression = dictionaryCompression;
+        if (dictionaryCompression && dictionariesCollectionScheduled.compareAndSet(false, true)) {
+            scheduleDictionariesCollection();
+        }
+    }
+
+    void setDictionariesCollectionInterval(long dictionariesCollectionInterval) {
+        this.dictionariesCollectionInterval = dictionariesCollectionInterval;
+    }
+
+    @Override
+    public void setBinaryDocuments(boolean binaryDocuments) {
+        this.binaryDocuments = binaryDocuments;
+    }
+
+    @Override
+    public void setIndexedFields(Set<String> fields) {
+        indexes.configure(fields);
+        rebuildIndexes();
+    }
+
     @Override
     public void setEventBus(EventBus eventBus) {
         this.eventBus = eventBus;
     }
 
+    @Override
+    public void setLoadRecorder(LoadRecorder loadRecorder) {
+        this.loadRecorder = loadRecorder;
+    }
+
+    @Override
+    public void setKeyOwnership(KeyOwnership keyOwnership) {
+        this.keyOwnership = keyOwnership;
+    }
+
     @Override
     public void setSnapshotManager(SnapshotManager snapshotManager) {
         this.snapshotManager = snapshotManager;
@@ -428,6 +703,109 @@ public class TCBucket implements Bucket {
         }
     }
 
+    private void scheduleCountersFlush() {
+        GlobalExecutor.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    for (Key key : counters.keys()) {
+                        flushCounters(key);
+                    }
+                } catch (Exception ex) {
+                    LOG.error(ex.getMessage(), ex);
+                } finally {
+                    countersFlushScheduled.set(false);
+                    if (!counters.isEmpty() && countersFlushScheduled.compareAndSet(false, true)) {
+                        scheduleCountersFlush();
+                    }
+                }
+            }
+
+        }, GlobalExecutor.getUpdateExecutor(), countersFlushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushCounters(Key key) {
+        if (counters.hasPending(key)) {
+            // Drain and write all accumulated increments at once:
+            final Map<String, Long> increments = counters.drain(key);
+            if (increments != null && increments.size() > 0) {
+                try {
+                    readModifyWrite(key, new Transformation() {
+
+                        @Override
+                        public Value apply(Value old) throws Exception {
+                            return old != null ? old.increment(increments) : JsonUtils.fromMap(new HashMap<String, Object>(increments));
+                        }
+
+                        @Override
+                        public boolean commit() {
+                            return true;
+                        }
+
+                    });
+                } catch (Exception ex) {
+                    // Increments were validated when accumulated, but the document may have been concurrently overwritten,
+                    // so drop them rather than failing the operation which triggered the flush:
+                    long dropped = counters.recordDropped(increments);
+                    LOG.warn("Dropped counter increments of key {} in bucket {}, {} dropped so far: {}", new Object[]{key, name, dropped, ex.getMessage()});
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the result of the given transformation of the document under the given key, computing and preparing it outside of
+     * the lock against an unlocked read of the old document: the lock is then held only to verify the old document didn't change
+     * meanwhile, put and publish.<br>
+     * If the old document changed, or the transformation failed against the unlocked read, the new document is computed again under the lock.
+     */
+    private Value readModifyWrite(Key key, Transformation transformation) throws Exception {
+        byte[] current = bucket.unlockedGet(key.toString());
+        Value old = null;
+        Value result = null;
+        byte[] envelope = null;
+        try {
+            old = bytesToValue(key, current);
+            result = transformation.apply(old);
+            envelope = prepare(result, old != null ? ValueEnvelope.expirationOf(current) : 0);
+        } catch (Exception ex) {
+            envelope = null;
+        }
+        // Use explicit locking to write and block concurrent operations on the same key,
+        // and also publish on the same "transactional" boundary and keep ordering under concurrency.
+        lockWrite(key);
+        try {
+            byte[] latest = bucket.unlockedGet(key.toString());
+            if (envelope == null || !isUnchanged(current, latest)) {
+                current = latest;
+                old = bytesToValue(key, current);
+                result = transformation.apply(old);
+                envelope = prepare(result, old != null ? ValueEnvelope.expirationOf(current) : 0);
+            }
+            if (transformation.commit()) {
+                doPut(key, result, envelope, ValueEnvelope.versionOf(current));
+                if (eventBus.isEnabled()) {
+                    eventBus.publish(new ValueChangedEvent(name, key.toString(), old, result));
+                }
+            }
+            return result;
+        } finally {
+            unlockWrite(key);
+        }
+    }
+
+    private boolean isUnchanged(byte[] read, byte[] latest) {
+        // Versions alone are not enough, as legacy (unwrapped) documents all share the same one:
+        if (read == null || latest == null) {
+            return read == latest;
+        } else {
+            return ValueEnvelope.versionOf(read) == ValueEnvelope.versionOf(latest)
+                    && ValueEnvelope.hashOf(read) == ValueEnvelope.hashOf(latest)
+                    && ValueEnvelope.expirationOf(read) == ValueEnvelope.expirationOf(latest);
+        }
+    }
+
     private void lockRead(Key key) {
         lockManager.lockRead(name, key);
     }
@@ -444,28 +822,182 @@ public class TCBucket implements Bucket {
         lockManager.unlockWrite(name, key);
     }
 
-    private byte[] valueToBytes(Value value) {
-        if (value != null) {
-            return compressedDocuments ? value.getCompressedBytes() : value.getBytes();
-        } else {
-            return null;
+    private byte[] prepare(Value value, long expiration) {
+        // Compression and hashing are expensive for large documents, so do them once, and outside of locks:
+        // the version will be later set into the prepared envelope.
+        if (binaryDocuments || dictionaryCompression) {
+            byte[] document = binaryDocuments ? value.getBinaryBytes() : value.getBytes();
+            if (dictionaryCompression) {
+                dictionaries.sample(document);
+                DictionaryCompressor.Dictionary dictionary = dictionaries.dictionaryFor(document);
+                if (dictionary != null) {
+                    byte[] payload = dictionary.compress(document);
+                    if (payload.length < document.length) {
+                        return ValueEnvelope.wrap(payload, value.getHash(), 0, expiration, dictionary.getId());
+                    }
+                }
+            }
+            if (binaryDocuments) {
+                // Binary documents are not compressed as a whole, so that their fields can be accessed in place:
+                return ValueEnvelope.wrap(document, value.getHash(), 0, expiration);
+            }
+        }
+        byte[] payload = compressedDocuments ? value.getCompressedBytes() : value.getBytes();
+        return ValueEnvelope.wrap(payload, value.getHash(), 0, expiration);
+    }
+
+    private long expirationFor(long timeToLive) {
+        return timeToLive > 0 ? System.currentTimeMillis() + timeToLive : 0;
+    }
+
+    private void trackExpiration(Key key, long expiration) {
+        // Overwritten documents which are not expiring anymore are not untracked, but just skipped when expiring:
+        if (expiration > 0) {
+            expirations.schedule(key, expiration);
+            if (expirationsScheduled.compareAndSet(false, true)) {
+                scheduleExpirations();
+            }
         }
     }
 
-    private Value bytesToValue(byte[] bytes) {
+    private void scheduleExpirations() {
+        GlobalExecutor.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    expireDocuments(System.currentTimeMillis());
+                } catch (Exception ex) {
+                    LOG.error(ex.getMessage(), ex);
+                } finally {
+                    expirationsScheduled.set(false);
+                    if (expirations.size() > 0 && expirationsScheduled.compareAndSet(false, true)) {
+                        scheduleExpirations();
+                    }
+                }
+            }
+
+        }, GlobalExecutor.getUpdateExecutor(), EXPIRATION_TICK, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleDictionariesCollection() {
+        GlobalExecutor.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    collectDictionaries();
+                } catch (Exception ex) {
+                    LOG.error(ex.getMessage(), ex);
+                } finally {
+                    dictionariesCollectionScheduled.set(false);
+                    if ((dictionaryCompression || !collectableDictionaries.isEmpty()) && dictionariesCollectionScheduled.compareAndSet(false, true)) {
+                        scheduleDictionariesCollection();
+                    }
+                }
+            }
+
+        }, GlobalExecutor.getUpdateExecutor(), dictionariesCollectionInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void collectDictionaries() {
+        // Dictionaries superseded during the previous interval are not used for compressing anymore, so just look for
+        // documents still referencing them, and unregister the others (referenced ones will be reconsidered at the next training):
+        Set<Integer> collectable = collectableDictionaries;
+        collectableDictionaries = dictionaries.drainSuperseded();
+        if (!collectable.isEmpty()) {
+            for (String key : bucket.keySet()) {
+                collectable.remove(ValueEnvelope.dictionaryOf(bucket.unlockedGet(key)));
+                if (collectable.isEmpty()) {
+                    break;
+                }
+            }
+            dictionaries.unregister(collectable);
+        }
+    }
+
+    private void expireDocuments(long now) {
+        for (Key key : expirations.advance(now)) {
+            // Keys handed off to other nodes are expired by their new owners:
+            if (keyOwnership != null && !keyOwnership.isOwned(this, key)) {
+                continue;
+            }
+            // Use explicit locking to remove and publish on the same "transactional" boundary and keep ordering under concurrency.
+            lockWrite(key);
+            try {
+                // Documents may have been overwritten or removed in the meantime, so double check their actual expiration:
+                byte[] bytes = bucket.unlockedGet(key.toString());
+                if (bytes != null && ValueEnvelope.isExpired(bytes, now)) {
+                    doRemove(key);
+                    if (eventBus.isEnabled()) {
+                        eventBus.publish(new ValueRemovedEvent(name, key.toString(), ValueEnvelope.unwrap(bytes, dictionaries)));
+                    }
+                } else if (bytes != null && ValueEnvelope.expirationOf(bytes) > 0) {
+                    expirations.schedule(key, ValueEnvelope.expirationOf(bytes));
+                }
+            } finally {
+                unlockWrite(key);
+            }
+        }
+    }
+
+    private boolean indexKeys(long generation, KeyOwnership ownership) {
+        for (String key : bucket.keySet()) {
+            if (indexes.isCurrentBuild(generation)) {
+                Key indexed = new Key(key);
+                if (ownership == null || ownership.isOwned(this, indexed)) {
+                    // Walk every document under its read lock, which is enough to exclude concurrent writes (and so stale values):
+                    lockRead(indexed);
+                    try {
+                        // Expired documents are tracked when converted, others may have been written through other nodes:
+                        byte[] bytes = bucket.unlockedGet(key);
+                        Value value = bytesToValue(indexed, bytes);
+                        if (value != null) {
+                            trackExpiration(indexed, ValueEnvelope.expirationOf(bytes));
+                            if (!indexes.isEmpty()) {
+                                indexes.index(key, value);
+                            }
+                        }
+                    } finally {
+                        unlockRead(indexed);
+                    }
+                }
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Value bytesToValue(Key key, byte[] bytes) {
         if (bytes != null) {
-            return new Value(bytes);
+            long expiration = ValueEnvelope.expirationOf(bytes);
+            if (expiration == 0 || expiration > System.currentTimeMillis()) {
+                return ValueEnvelope.unwrap(bytes, dictionaries);
+            } else {
+                // Expired documents are never returned, and are tracked again in case they were expiring on another node:
+                trackExpiration(key, expiration);
+                return null;
+            }
         } else {
             return null;
         }
     }
 
     private Value doGet(Key key) {
-        Value value = bytesToValue(bucket.unsafeGet(key.toString()));
+        Value value = bytesToValue(key, bucket.unsafeGet(key.toString()));
         if (value == null) {
+            // Optimistically read without locking, and fall back to the read lock only if a write got in the way:
+            long stamp = lockManager.tryOptimisticRead(name, key);
+            if (stamp >= 0) {
+                value = bytesToValue(key, bucket.unlockedGet(key.toString()));
+                if (lockManager.validate(name, key, stamp)) {
+                    return value;
+                }
+            }
             lockRead(key);
             try {
-                value = bytesToValue(bucket.unlockedGet(key.toString()));
+                value = bytesToValue(key, bucket.unlockedGet(key.toString()));
             } finally {
                 unlockRead(key);
             }
@@ -475,10 +1007,57 @@ public class TCBucket implements Bucket {
 
     private void doRemove(Key key) {
         bucket.unlockedRemoveNoReturn(key.toString());
+        counters.invalidate(key);
+        if (!indexes.isEmpty()) {
+            indexes.unindex(key.toString());
+        }
+        if (loadRecorder != null) {
+            loadRecorder.recordWrite(this, key, 0);
+        }
     }
 
-    private void doPut(Key key, Value value) {
-        bucket.unlockedPutNoReturn(key.toString(), valueToBytes(value));
+    private void doPut(Key key, Value value, byte[] envelope, long oldVersion) {
+        ValueEnvelope.setVersion(envelope, nextVersion(oldVersion));
+        bucket.unlockedPutNoReturn(key.toString(), envelope);
+        counters.invalidate(key);
+        if (!indexes.isEmpty()) {
+            indexes.index(key.toString(), value);
+        }
+        if (loadRecorder != null) {
+            loadRecorder.recordWrite(this, key, envelope.length);
+        }
+    }
+
+    private long nextVersion(long oldVersion) {
+        // Versions are made of a bucket-wide clustered sequence, taken on creation, in the higher bits, and of the number
+        // of updates in the lower ones: so documents created again after removal never reuse versions of removed ones,
+        // and a new sequence is taken when updates overflow.
+        long version = oldVersion + 1;
+        if (oldVersion == 0 || (version & VERSION_UPDATE_MASK) == 0) {
+            return versionSequence.incrementAndGet() << VERSION_UPDATE_BITS;
+        } else {
+            return version;
+        }
+    }
+
+    private boolean isLive(byte[] envelope) {
+        return envelope != null && !ValueEnvelope.isExpired(envelope, System.currentTimeMillis());
+    }
+
+    private boolean matches(byte[] envelope, Expectation expectation) {
+        if (!isLive(envelope)) {
+            return expectation.isVersion() && expectation.getExpected() == 0;
+        } else if (expectation.isVersion()) {
+            return ValueEnvelope.versionOf(envelope) == expectation.getExpected();
+        } else {
+            return ValueEnvelope.hashOf(envelope) == expectation.getExpected();
+        }
+    }
+
+    private void recordRead(Key key, Value value) {
+        if (loadRecorder != null) {
+            loadRecorder.recordRead(this, key, value != null ? value.getSize() : 0);
+        }
     }
 
     private static class KeyDeserializer implements Transformer<String, Key> {
@@ -489,4 +1068,41 @@ public class TCBucket implements Bucket {
         }
 
     }
+
+    private class MailboxUpdater implements UpdateMailboxes.Updater {
+
+        @Override
+        public Value update(final Key key, final Update update, final Function function, final UpdateMailboxes.Commit commit) throws Exception {
+            return readModifyWrite(key, new Transformation() {
+
+                @Override
+                public Value apply(Value old) throws Exception {
+                    if (old != null) {
+                        return old.dispatch(key, update, function);
+                    } else {
+                        throw new StoreOperationException(new ErrorMessage(ErrorMessage.NOT_FOUND_ERROR_CODE, "Key not found: " + key));
+                    }
+                }
+
+                @Override
+                public boolean commit() {
+                    return commit.tryCommit();
+                }
+
+            });
+        }
+    }
+
+    private interface Transformation {
+
+        /**
+         * Compute the new document from the old one, which is null if missing.
+         */
+        public Value apply(Value old) throws Exception;
+
+        /**
+         * Decide, under the key lock, whether the computed document has to be actually written.
+         */
+        public boolean commit();
+    }
 }
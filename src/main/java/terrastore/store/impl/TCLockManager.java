@@ -15,11 +15,17 @@
  */
 package terrastore.store.impl;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terracotta.collections.ClusteredMap;
+import terrastore.common.LockStats;
 import terrastore.internal.tc.TCMaster;
 import terrastore.store.Key;
 import terrastore.store.LockManager;
@@ -30,6 +36,11 @@ import terrastore.store.LockManager;
  * Each node allocates its own locks, whose number is determined by the internal concurrency level,
  * and uses them to lock read/write operations over bucket/key pairs, assigning them a lock based on the
  * modulo of the hash code.
+ * <br>
+ * Each stripe also carries a local seqlock-style write sequence, used to validate optimistic reads without acquiring
+ * the (clustered) read lock: as writes to a given key are routed to its owner node, optimistic reads are validated against writes
+ * executed on the same node, while writes executed elsewhere (i.e. during partition handoff) are only as visible
+ * as they would be to unlocked reads.
  *
  * @author Sergio Bossa
  */
@@ -37,12 +48,28 @@ public class TCLockManager implements LockManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(TCLockManager.class);
     //
+    private final String node;
     private final int concurrencyLevel;
     private final ReadWriteLock[] locks;
+    private final AtomicIntegerArray writers;
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray reads;
+    private final AtomicLongArray writes;
+    private final AtomicLongArray contended;
+    private final AtomicLongArray optimisticReads;
+    private final AtomicLongArray optimisticFailures;
 
     public TCLockManager(String node, int concurrencyLevel) {
+        this.node = node;
         this.concurrencyLevel = concurrencyLevel;
         this.locks = new ReadWriteLock[concurrencyLevel];
+        this.writers = new AtomicIntegerArray(concurrencyLevel);
+        this.sequences = new AtomicLongArray(concurrencyLevel);
+        this.reads = new AtomicLongArray(concurrencyLevel);
+        this.writes = new AtomicLongArray(concurrencyLevel);
+        this.contended = new AtomicLongArray(concurrencyLevel);
+        this.optimisticReads = new AtomicLongArray(concurrencyLevel);
+        this.optimisticFailures = new AtomicLongArray(concurrencyLevel);
         initLocks(node, concurrencyLevel);
     }
 
@@ -65,31 +92,81 @@ public class TCLockManager implements LockManager {
 
     @Override
     public void lockRead(String bucket, Key key) {
-        ReadWriteLock lock = lockFor(bucket, key);
-        lock.readLock().lock();
+        int stripe = stripeFor(bucket, key);
+        lock(stripe, locks[stripe].readLock());
+        reads.incrementAndGet(stripe);
     }
 
     @Override
     public void unlockRead(String bucket, Key key) {
-        ReadWriteLock lock = lockFor(bucket, key);
-        lock.readLock().unlock();
+        int stripe = stripeFor(bucket, key);
+        locks[stripe].readLock().unlock();
     }
 
     @Override
     public void lockWrite(String bucket, Key key) {
-        ReadWriteLock lock = lockFor(bucket, key);
-        lock.writeLock().lock();
+        int stripe = stripeFor(bucket, key);
+        lock(stripe, locks[stripe].writeLock());
+        writes.incrementAndGet(stripe);
+        writers.incrementAndGet(stripe);
     }
 
     @Override
     public void unlockWrite(String bucket, Key key) {
-        ReadWriteLock lock = lockFor(bucket, key);
-        lock.writeLock().unlock();
+        int stripe = stripeFor(bucket, key);
+        // Bump the sequence before decrementing writers, so that optimistic readers can never see a completed write
+        // with an unchanged sequence:
+        sequences.incrementAndGet(stripe);
+        writers.decrementAndGet(stripe);
+        locks[stripe].writeLock().unlock();
+    }
+
+    @Override
+    public long tryOptimisticRead(String bucket, Key key) {
+        int stripe = stripeFor(bucket, key);
+        long stamp = sequences.get(stripe);
+        if (writers.get(stripe) == 0) {
+            return stamp;
+        } else {
+            optimisticFailures.incrementAndGet(stripe);
+            return -1;
+        }
+    }
+
+    @Override
+    public boolean validate(String bucket, Key key, long stamp) {
+        int stripe = stripeFor(bucket, key);
+        if (stamp >= 0 && writers.get(stripe) == 0 && sequences.get(stripe) == stamp) {
+            optimisticReads.incrementAndGet(stripe);
+            return true;
+        } else {
+            optimisticFailures.incrementAndGet(stripe);
+            return false;
+        }
+    }
+
+    @Override
+    public LockStats getLockStats() {
+        List<LockStats.Stripe> stripes = new ArrayList<LockStats.Stripe>();
+        for (int i = 0; i < concurrencyLevel; i++) {
+            LockStats.Stripe stripe = new LockStats.Stripe(i, reads.get(i), writes.get(i), contended.get(i), optimisticReads.get(i), optimisticFailures.get(i));
+            if (stripe.getReads() > 0 || stripe.getWrites() > 0 || stripe.getOptimisticReads() > 0 || stripe.getOptimisticFailures() > 0) {
+                stripes.add(stripe);
+            }
+        }
+        return new LockStats(node, stripes);
+    }
+
+    private void lock(int stripe, Lock lock) {
+        if (!lock.tryLock()) {
+            contended.incrementAndGet(stripe);
+            lock.lock();
+        }
     }
 
-    private ReadWriteLock lockFor(String bucket, Key key) {
+    private int stripeFor(String bucket, Key key) {
         String name = bucket + ":" + key;
-        return locks[(name.hashCode() & Integer.MAX_VALUE) % concurrencyLevel];
+        return (name.hashCode() & Integer.MAX_VALUE) % concurrencyLevel;
     }
 
     private void initLocks(String node, int concurrencyLevel) {
@@ -15,6 +15,7 @@
  */
 package terrastore.store.impl;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -42,6 +43,8 @@ import terrastore.store.Bucket;
 import terrastore.store.FlushCondition;
 import terrastore.store.FlushStrategy;
 import terrastore.store.Key;
+import terrastore.store.KeyOwnership;
+import terrastore.store.LoadRecorder;
 import terrastore.store.LockManager;
 import terrastore.store.SnapshotManager;
 import terrastore.store.Store;
@@ -83,7 +86,14 @@ public class TCStore implements Store {
     private SnapshotManager snapshotManager;
     private LockManager lockManager;
     private EventBus eventBus;
+    private LoadRecorder loadRecorder;
+    private KeyOwnership keyOwnership;
     private boolean compressedDocuments;
+    private long countersFlushInterval = 1000;
+    private final Map<String, Long> timeToLives = new HashMap<String, Long>();
+    private final Set<String> dictionaryCompressedBuckets = new HashSet<String>();
+    private final Set<String> binaryBuckets = new HashSet<String>();
+    private final Map<String, Set<String>> indexedFields = new HashMap<String, Set<String>>();
 
     public TCStore() {
         buckets = TCMaster.getInstance().getAutolockedMap(TCStore.class.getName() + ".buckets");
@@ -210,11 +220,61 @@ public class TCStore implements Store {
         }
     }
 
+    @Override
+    public void rebuildIndexes() {
+        for (Bucket bucket : instances.values()) {
+            bucket.rebuildIndexes();
+        }
+    }
+
+    @Override
+    public void acquireKeys(KeyOwnership acquired) {
+        for (Bucket bucket : instances.values()) {
+            bucket.acquireKeys(acquired);
+        }
+    }
+
+    @Override
+    public void releaseKeys(KeyOwnership released) {
+        for (Bucket bucket : instances.values()) {
+            bucket.releaseKeys(released);
+        }
+    }
+
     @Override
     public void setCompressDocuments(boolean compressed) {
         this.compressedDocuments = compressed;
     }
 
+    @Override
+    public void setCountersFlushInterval(long countersFlushInterval) {
+        this.countersFlushInterval = countersFlushInterval;
+    }
+
+    @Override
+    public void setDictionaryCompressedBuckets(Set<String> buckets) {
+        this.dictionaryCompressedBuckets.clear();
+        this.dictionaryCompressedBuckets.addAll(buckets);
+    }
+
+    @Override
+    public void setBinaryBuckets(Set<String> buckets) {
+        this.binaryBuckets.clear();
+        this.binaryBuckets.addAll(buckets);
+    }
+
+    @Override
+    public void setIndexedFields(Map<String, Set<String>> indexedFields) {
+        this.indexedFields.clear();
+        this.indexedFields.putAll(indexedFields);
+    }
+
+    @Override
+    public void setTimeToLives(Map<String, Long> timeToLives) {
+        this.timeToLives.clear();
+        this.timeToLives.putAll(timeToLives);
+    }
+
     @Override
     public void setDefaultComparator(Comparator defaultComparator) {
         this.defaultComparator = defaultComparator;
@@ -271,9 +331,23 @@ public class TCStore implements Store {
         this.eventBus = eventBus;
     }
 
+    @Override
+    public void setLoadRecorder(LoadRecorder loadRecorder) {
+        this.loadRecorder = loadRecorder;
+    }
+
+    @Override
+    public void setKeyOwnership(KeyOwnership keyOwnership) {
+        this.keyOwnership = keyOwnership;
+    }
+
     private void hydrateBucket(Bucket bucket) {
         // We need to manually set all of this because of TC not supporting injection ...
         bucket.setCompressDocuments(compressedDocuments);
+        bucket.setDictionaryCompression(dictionaryCompressedBuckets.contains(bucket.getName()));
+        bucket.setBinaryDocuments(binaryBuckets.contains(bucket.getName()));
+        bucket.setCountersFlushInterval(countersFlushInterval);
+        bucket.setDefaultTimeToLive(timeToLives.containsKey(bucket.getName()) ? timeToLives.get(bucket.getName()) : 0);
         bucket.setDefaultComparator(defaultComparator);
         bucket.setComparators(comparators);
         bucket.setConditions(conditions);
@@ -282,6 +356,10 @@ public class TCStore implements Store {
         bucket.setSnapshotManager(snapshotManager);
         bucket.setLockManager(lockManager);
         bucket.setEventBus(eventBus);
+        bucket.setLoadRecorder(loadRecorder);
+        bucket.setKeyOwnership(keyOwnership);
+        // Set indexed fields last, as indexes are built by reading (and locking) documents:
+        bucket.setIndexedFields(indexedFields.containsKey(bucket.getName()) ? indexedFields.get(bucket.getName()) : Collections.<String>emptySet());
         // TODO: verify this is not a perf problem.
     }
 
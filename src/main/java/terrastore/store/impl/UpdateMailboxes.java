@@ -0,0 +1,328 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import terrastore.store.Key;
+import terrastore.store.Value;
+import terrastore.store.features.Update;
+import terrastore.store.operators.Function;
+import terrastore.store.operators.MergeableFunction;
+import terrastore.util.concurrent.GlobalExecutor;
+
+/**
+ * Per-key mailboxes sequentially executing updates on the same key, while updates on different keys run concurrently
+ * on the update executor.
+ * <br><br>
+ * Updates are queued into the key mailbox, which is drained by a single task at a time, so no thread ever blocks waiting
+ * for another one to execute the update function: subsequent queued updates using the same {@link terrastore.store.operators.MergeableFunction}
+ * are also coalesced into a single update, whose result is returned to all coalesced callers.<br>
+ * Updates can be cancelled until committed: cancelled updates are discarded, and updates coalesced with them are re-executed alone.
+ *
+ * @author Sergio Bossa
+ */
+class UpdateMailboxes {
+
+    private final ConcurrentMap<Key, Mailbox> mailboxes;
+    private final Updater updater;
+
+    public UpdateMailboxes(Updater updater) {
+        this.mailboxes = new ConcurrentHashMap<Key, Mailbox>();
+        this.updater = updater;
+    }
+
+    public PendingUpdate submit(Key key, Update update, Function function) {
+        while (true) {
+            Mailbox mailbox = mailboxes.get(key);
+            if (mailbox == null) {
+                Mailbox created = new Mailbox(key);
+                mailbox = mailboxes.putIfAbsent(key, created);
+                if (mailbox == null) {
+                    mailbox = created;
+                }
+            }
+            PendingUpdate pending = mailbox.offer(update, function);
+            if (pending != null) {
+                return pending;
+            }
+        }
+    }
+
+    public int getActiveMailboxes() {
+        return mailboxes.size();
+    }
+
+    /**
+     * Actually apply updates.
+     */
+    public interface Updater {
+
+        /**
+         * Apply the given update on the value under the given key: the update result must be written only if
+         * {@link Commit#tryCommit()} returns true.
+         *
+         * @return The update result.
+         */
+        public Value update(Key key, Update update, Function function, Commit commit) throws Exception;
+    }
+
+    public interface Commit {
+
+        /**
+         * Try to commit the update being executed.
+         *
+         * @return True if the update can be committed, false if it has been cancelled and must be discarded.
+         */
+        public boolean tryCommit();
+    }
+
+    public static class PendingUpdate extends FutureTask<Value> {
+
+        private static final int PENDING = 0;
+        private static final int RUNNING = 1;
+        private static final int COMMITTED = 2;
+        private static final int CANCELLED = 3;
+        //
+        private final Mailbox mailbox;
+        private final Update update;
+        private final Function function;
+        private int state;
+
+        private PendingUpdate(Mailbox mailbox, Update update, Function function) {
+            super(new Runnable() {
+
+                @Override
+                public void run() {
+                }
+            }, null);
+            this.mailbox = mailbox;
+            this.update = update;
+            this.function = function;
+            this.state = PENDING;
+        }
+
+        /**
+         * Cancel this update if not committed yet: running updates are never interrupted, as they may be in the middle of
+         * clustered operations, but just marked as cancelled, so that they will be discarded when trying to commit.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (mailbox) {
+                if (state == COMMITTED) {
+                    return false;
+                } else {
+                    state = CANCELLED;
+                }
+            }
+            return super.cancel(false);
+        }
+
+        private void complete(Value value) {
+            set(value);
+        }
+
+        private void fail(Throwable throwable) {
+            setException(throwable);
+        }
+    }
+
+    private class Mailbox implements Runnable {
+
+        private final Key key;
+        private final LinkedList<PendingUpdate> queue;
+        private boolean scheduled;
+        private boolean closed;
+
+        public Mailbox(Key key) {
+            this.key = key;
+            this.queue = new LinkedList<PendingUpdate>();
+        }
+
+        public synchronized PendingUpdate offer(Update update, Function function) {
+            if (!closed) {
+                PendingUpdate pending = new PendingUpdate(this, update, function);
+                queue.addLast(pending);
+                if (!scheduled) {
+                    scheduled = true;
+                    schedule();
+                }
+                return pending;
+            } else {
+                return null;
+            }
+        }
+
+        @Override
+        public void run() {
+            List<PendingUpdate> batch;
+            synchronized (this) {
+                batch = new ArrayList<PendingUpdate>(queue);
+                queue.clear();
+            }
+            try {
+                int i = 0;
+                while (i < batch.size()) {
+                    List<PendingUpdate> group = new ArrayList<PendingUpdate>();
+                    group.add(batch.get(i++));
+                    while (i < batch.size() && isMergeable(group.get(0), batch.get(i))) {
+                        group.add(batch.get(i++));
+                    }
+                    execute(group);
+                }
+            } finally {
+                // Either reschedule or close this mailbox:
+                synchronized (this) {
+                    if (queue.isEmpty()) {
+                        scheduled = false;
+                        closed = true;
+                        mailboxes.remove(key, this);
+                    } else {
+                        schedule();
+                    }
+                }
+            }
+        }
+
+        private void schedule() {
+            Executor executor = GlobalExecutor.getUpdateExecutor();
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException ex) {
+                scheduled = false;
+                closed = true;
+                mailboxes.remove(key, this);
+                for (PendingUpdate pending : queue) {
+                    pending.fail(ex);
+                }
+                queue.clear();
+            }
+        }
+
+        private boolean isMergeable(PendingUpdate first, PendingUpdate other) {
+            return first.function instanceof MergeableFunction
+                    && first.function == other.function
+                    && first.update.getFunctionName().equals(other.update.getFunctionName());
+        }
+
+        private void execute(final List<PendingUpdate> group) {
+            final List<PendingUpdate> running = start(group);
+            if (running.size() > 0) {
+                Update update = running.get(0).update;
+                Function function = running.get(0).function;
+                try {
+                    if (running.size() > 1) {
+                        update = merge(running);
+                    }
+                } catch (Exception ex) {
+                    executeAlone(running);
+                    return;
+                }
+                GroupCommit commit = new GroupCommit(running);
+                try {
+                    Value result = updater.update(key, update, function, commit);
+                    if (commit.committed) {
+                        for (PendingUpdate pending : running) {
+                            pending.complete(result);
+                        }
+                    } else {
+                        executeAlone(running);
+                    }
+                } catch (Exception ex) {
+                    if (running.size() > 1 && !commit.committed) {
+                        executeAlone(running);
+                    } else {
+                        for (PendingUpdate pending : running) {
+                            pending.fail(ex);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void executeAlone(List<PendingUpdate> group) {
+            if (group.size() > 1) {
+                for (PendingUpdate pending : group) {
+                    synchronized (this) {
+                        if (pending.state == PendingUpdate.RUNNING) {
+                            pending.state = PendingUpdate.PENDING;
+                        }
+                    }
+                    List<PendingUpdate> alone = new ArrayList<PendingUpdate>(1);
+                    alone.add(pending);
+                    execute(alone);
+                }
+            }
+        }
+
+        private Update merge(List<PendingUpdate> group) throws Exception {
+            MergeableFunction function = (MergeableFunction) group.get(0).function;
+            Update first = group.get(0).update;
+            Map<String, Object> parameters = first.getParameters();
+            long timeout = first.getTimeoutInMillis();
+            for (int i = 1; i < group.size(); i++) {
+                Update next = group.get(i).update;
+                parameters = function.merge(parameters, next.getParameters());
+                timeout = Math.min(timeout, next.getTimeoutInMillis());
+            }
+            return new Update(first.getFunctionName(), timeout, parameters);
+        }
+
+        private synchronized List<PendingUpdate> start(List<PendingUpdate> group) {
+            List<PendingUpdate> running = new ArrayList<PendingUpdate>(group.size());
+            for (PendingUpdate pending : group) {
+                if (pending.state == PendingUpdate.PENDING) {
+                    pending.state = PendingUpdate.RUNNING;
+                    running.add(pending);
+                }
+            }
+            return running;
+        }
+
+        private class GroupCommit implements Commit {
+
+            private final List<PendingUpdate> group;
+            private boolean committed;
+
+            public GroupCommit(List<PendingUpdate> group) {
+                this.group = group;
+            }
+
+            @Override
+            public boolean tryCommit() {
+                synchronized (Mailbox.this) {
+                    for (PendingUpdate pending : group) {
+                        if (pending.state != PendingUpdate.RUNNING) {
+                            return false;
+                        }
+                    }
+                    for (PendingUpdate pending : group) {
+                        pending.state = PendingUpdate.COMMITTED;
+                    }
+                    committed = true;
+                    return true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.impl;
+
+import terrastore.store.Value;
+
+/**
+ * Envelope of documents as stored into {@link TCBucket}s: a fixed size header, holding data computed once at write time
+ * (such as the document hash, its monotonically increasing version and its optional expiration time), is prepended to the (possibly compressed) document bytes.
+ * <br><br>
+ * Documents compressed against a bucket dictionary carry the id of the dictionary in their header, and are decompressed
+ * by the {@link DictionaryCompressor} given at unwrap time.
+ * <br><br>
+ * The header starts with a zero magic byte, which is never the first byte of either a json document or a compressed one,
+ * so that documents stored before the envelope was introduced can still be read back.
+ *
+ * @author Sergio Bossa
+ */
+class ValueEnvelope {
+
+    private static final byte MAGIC = 0x00;
+    private static final byte VERSIONED_FORMAT_VERSION = 2;
+    private static final byte EXPIRING_FORMAT_VERSION = 3;
+    private static final byte DICTIONARY_FORMAT_VERSION = 4;
+    private static final int HASH_OFFSET = 2;
+    private static final int VERSION_OFFSET = 10;
+    private static final int EXPIRATION_OFFSET = 18;
+    private static final int DICTIONARY_OFFSET = 26;
+    private static final int VERSIONED_HEADER_LENGTH = 18;
+    private static final int EXPIRING_HEADER_LENGTH = 26;
+    private static final int DICTIONARY_HEADER_LENGTH = 30;
+    // Documents stored before versioning was introduced are considered at their first version, as zero stands for absent values:
+    private static final long LEGACY_VERSION = 1;
+
+    public static byte[] wrap(byte[] payload, long hash, long version) {
+        return wrap(payload, hash, version, 0);
+    }
+
+    /**
+     * Wrap the given payload, with an expiration time in milliseconds, or zero for documents never expiring:
+     * the expiration time is written only if actually present, in order to not waste header space.
+     */
+    public static byte[] wrap(byte[] payload, long hash, long version, long expiration) {
+        return wrap(payload, hash, version, expiration, 0);
+    }
+
+    /**
+     * Wrap the given payload, compressed against the dictionary with the given id, or zero for payloads not compressed against any dictionary.
+     */
+    public static byte[] wrap(byte[] payload, long hash, long version, long expiration, int dictionaryId) {
+        int headerLength;
+        byte format;
+        if (dictionaryId > 0) {
+            headerLength = DICTIONARY_HEADER_LENGTH;
+            format = DICTIONARY_FORMAT_VERSION;
+        } else if (expiration > 0) {
+            headerLength = EXPIRING_HEADER_LENGTH;
+            format = EXPIRING_FORMAT_VERSION;
+        } else {
+            headerLength = VERSIONED_HEADER_LENGTH;
+            format = VERSIONED_FORMAT_VERSION;
+        }
+        byte[] envelope = new byte[headerLength + payload.length];
+        envelope[0] = MAGIC;
+        envelope[1] = format;
+        writeLong(envelope, HASH_OFFSET, hash);
+        writeLong(envelope, VERSION_OFFSET, version);
+        if (headerLength >= EXPIRING_HEADER_LENGTH) {
+            writeLong(envelope, EXPIRATION_OFFSET, expiration);
+        }
+        if (dictionaryId > 0) {
+            writeInt(envelope, DICTIONARY_OFFSET, dictionaryId);
+        }
+        System.arraycopy(payload, 0, envelope, headerLength, payload.length);
+        return envelope;
+    }
+
+    public static void setVersion(byte[] envelope, long version) {
+        writeLong(envelope, VERSION_OFFSET, version);
+    }
+
+    /**
+     * Read the version of the given stored document from its header, without unwrapping it.
+     *
+     * @return The document version, or zero if null.
+     */
+    public static long versionOf(byte[] envelope) {
+        if (envelope == null) {
+            return 0;
+        } else if (isWrapped(envelope)) {
+            return readLong(envelope, VERSION_OFFSET);
+        } else {
+            return LEGACY_VERSION;
+        }
+    }
+
+    /**
+     * Read the hash of the given stored document from its header, without unwrapping it.
+     *
+     * @return The document hash.
+     */
+    public static long hashOf(byte[] envelope) {
+        if (isWrapped(envelope)) {
+            return readLong(envelope, HASH_OFFSET);
+        } else {
+            return new Value(envelope).getHash();
+        }
+    }
+
+    public static Value unwrap(byte[] envelope) {
+        return unwrap(envelope, null);
+    }
+
+    public static Value unwrap(byte[] envelope, DictionaryCompressor compressor) {
+        if (isWrapped(envelope)) {
+            long hash = readLong(envelope, HASH_OFFSET);
+            long version = readLong(envelope, VERSION_OFFSET);
+            int headerLength = VERSIONED_HEADER_LENGTH;
+            if (envelope[1] == EXPIRING_FORMAT_VERSION) {
+                headerLength = EXPIRING_HEADER_LENGTH;
+            } else if (envelope[1] == DICTIONARY_FORMAT_VERSION) {
+                headerLength = DICTIONARY_HEADER_LENGTH;
+            }
+            byte[] payload = new byte[envelope.length - headerLength];
+            System.arraycopy(envelope, headerLength, payload, 0, payload.length);
+            if (envelope[1] == DICTIONARY_FORMAT_VERSION) {
+                if (compressor != null) {
+                    payload = compressor.decompress(readInt(envelope, DICTIONARY_OFFSET), payload);
+                } else {
+                    throw new IllegalStateException("No compressor to decompress document with dictionary: " + readInt(envelope, DICTIONARY_OFFSET));
+                }
+            }
+            return new Value(payload, hash, version);
+        } else {
+            return new Value(envelope, new Value(envelope).getHash(), LEGACY_VERSION);
+        }
+    }
+
+    /**
+     * Read the expiration time of the given stored document from its header, without unwrapping it.
+     *
+     * @return The document expiration time in milliseconds, or zero if the document never expires.
+     */
+    public static long expirationOf(byte[] envelope) {
+        if (envelope != null && isWrapped(envelope) && (envelope[1] == EXPIRING_FORMAT_VERSION || envelope[1] == DICTIONARY_FORMAT_VERSION)) {
+            return readLong(envelope, EXPIRATION_OFFSET);
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Read the id of the dictionary the given stored document has been compressed against from its header, without unwrapping it.
+     *
+     * @return The dictionary id, or zero if the document has not been compressed against any dictionary.
+     */
+    public static int dictionaryOf(byte[] envelope) {
+        if (envelope != null && isWrapped(envelope) && envelope[1] == DICTIONARY_FORMAT_VERSION) {
+            return readInt(envelope, DICTIONARY_OFFSET);
+        } else {
+            return 0;
+        }
+    }
+
+    public static boolean isExpired(byte[] envelope, long now) {
+        long expiration = expirationOf(envelope);
+        return expiration > 0 && expiration <= now;
+    }
+
+    public static boolean isWrapped(byte[] bytes) {
+        return bytes.length > 1 && bytes[0] == MAGIC
+                && ((bytes[1] == VERSIONED_FORMAT_VERSION && bytes.length >= VERSIONED_HEADER_LENGTH)
+                || (bytes[1] == EXPIRING_FORMAT_VERSION && bytes.length >= EXPIRING_HEADER_LENGTH)
+                || (bytes[1] == DICTIONARY_FORMAT_VERSION && bytes.length >= DICTIONARY_HEADER_LENGTH));
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            bytes[offset + i] = (byte) (value >>> (56 - (i * 8)));
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >>> (24 - (i * 8)));
+        }
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xffL);
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.js;
+
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.script.Compilable;
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+/**
+ * Thread-confined JavaScript engine, compiling and caching the evaluated functions, and bridging Java maps and lists
+ * to and from JavaScript objects and arrays without going through json text.
+ * <br><br>
+ * Every thread gets its own engine, so engines are never shared and don't need to be thread-safe, and there's no contention among threads.
+ *
+ * @author Sergio Bossa
+ */
+public class JSEngine {
+
+    private static final int MAX_CACHED_FUNCTIONS = 256;
+    private static final String BRIDGE = ""
+            + "function terrastoreToJs(obj) { "
+            + "   if (obj instanceof java.util.Map) { "
+            + "      var object = {}; "
+            + "      var entries = obj.entrySet().iterator(); "
+            + "      while (entries.hasNext()) { "
+            + "         var entry = entries.next(); "
+            + "         object[String(entry.getKey())] = terrastoreToJs(entry.getValue()); "
+            + "      } "
+            + "      return object; "
+            + "   } else if (obj instanceof java.util.List) { "
+            + "      var array = []; "
+            + "      for (var i = 0; i < obj.size(); i++) { "
+            + "         array.push(terrastoreToJs(obj.get(i))); "
+            + "      } "
+            + "      return array; "
+            + "   } else if (obj instanceof java.lang.Number) { "
+            + "      return Number(obj); "
+            + "   } else if (obj instanceof java.lang.Boolean) { "
+            + "      return obj.booleanValue(); "
+            + "   } else if (obj instanceof java.lang.String) { "
+            + "      return String(obj); "
+            + "   } else { "
+            + "      return obj; "
+            + "   } "
+            + "} "
+            + "function terrastoreToJava(obj) { "
+            + "   if (obj === null || obj === undefined) { "
+            + "      return null; "
+            + "   } else if (obj instanceof Array) { "
+            + "      var list = new java.util.ArrayList(); "
+            + "      for (var i = 0; i < obj.length; i++) { "
+            + "         list.add(terrastoreToJava(obj[i])); "
+            + "      } "
+            + "      return list; "
+            + "   } else if (Object.prototype.toString.call(obj) === '[object Object]') { "
+            + "      var map = new java.util.LinkedHashMap(); "
+            + "      for (var key in obj) { "
+            + "         if (obj.hasOwnProperty(key)) { "
+            + "            map.put(String(key), terrastoreToJava(obj[key])); "
+            + "         } "
+            + "      } "
+            + "      return map; "
+            + "   } else { "
+            + "      return obj; "
+            + "   } "
+            + "} "
+            + "function terrastoreInvoke(fn, args) { "
+            + "   var jsArgs = []; "
+            + "   for (var i = 0; i < args.length; i++) { "
+            + "      jsArgs.push(terrastoreToJs(args[i])); "
+            + "   } "
+            + "   return terrastoreToJava(fn.apply(null, jsArgs)); "
+            + "}";
+    //
+    private static final ThreadLocal<JSEngine> ENGINES = new ThreadLocal<JSEngine>() {
+
+        @Override
+        protected JSEngine initialValue() {
+            return new JSEngine();
+        }
+
+    };
+    //
+    private final ScriptEngine engine;
+    private final Map<String, Object> functions;
+    private final IllegalStateException exception;
+
+    private JSEngine() {
+        ScriptEngine created = null;
+        IllegalStateException failure = null;
+        try {
+            created = new ScriptEngineManager().getEngineByName("JavaScript");
+            if (created != null) {
+                created.eval(new InputStreamReader(Thread.currentThread().getContextClassLoader().getResourceAsStream("json.js")));
+                created.eval(BRIDGE);
+            } else {
+                failure = new IllegalStateException("No JavaScript engine found.");
+            }
+        } catch (Exception ex) {
+            failure = new IllegalStateException(ex.getMessage(), ex);
+        }
+        this.engine = created;
+        this.exception = failure;
+        this.functions = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > MAX_CACHED_FUNCTIONS;
+            }
+
+        };
+    }
+
+    /**
+     * Get the engine confined to the current thread.
+     *
+     * @throws IllegalStateException If no JavaScript engine is available.
+     */
+    public static JSEngine get() {
+        JSEngine current = ENGINES.get();
+        if (current.exception == null) {
+            return current;
+        } else {
+            throw current.exception;
+        }
+    }
+
+    /**
+     * Invoke the given function source, compiled once and then cached, with the given arguments:
+     * Java maps, lists and primitives are converted to JavaScript objects, arrays and primitives, and the result is converted back.
+     * Integral numbers in the result are returned as integers or longs, as if the result had been parsed from json.
+     */
+    public Object invoke(String function, Object... arguments) throws Exception {
+        Object compiled = functions.get(function);
+        if (compiled == null) {
+            String script = "(" + function + ")";
+            if (engine instanceof Compilable) {
+                compiled = ((Compilable) engine).compile(script).eval();
+            } else {
+                compiled = engine.eval(script);
+            }
+            functions.put(function, compiled);
+        }
+        return normalize(((Invocable) engine).invokeFunction("terrastoreInvoke", compiled, arguments));
+    }
+
+    private Object normalize(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) value;
+            for (Map.Entry<String, Object> entry : map.entrySet()) {
+                entry.setValue(normalize(entry.getValue()));
+            }
+            return map;
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            List<Object> normalized = new ArrayList<Object>(list.size());
+            for (Object element : list) {
+                normalized.add(normalize(element));
+            }
+            return normalized;
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            if (number == Math.rint(number) && !Double.isInfinite(number) && Math.abs(number) < (1L << 53)) {
+                long integral = (long) number;
+                if (integral >= Integer.MIN_VALUE && integral <= Integer.MAX_VALUE) {
+                    return (int) integral;
+                } else {
+                    return integral;
+                }
+            } else {
+                return value;
+            }
+        } else if (value instanceof CharSequence && !(value instanceof String)) {
+            return value.toString();
+        } else {
+            return value;
+        }
+    }
+}
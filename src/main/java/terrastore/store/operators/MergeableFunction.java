@@ -0,0 +1,39 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.operators;
+
+import java.util.Map;
+
+/**
+ * {@link Function} whose subsequent applications to the same value can be merged into a single one:
+ * concurrent updates to the same key using a mergeable function are coalesced into a single read-modify-write.
+ *
+ * @author Sergio Bossa
+ */
+public interface MergeableFunction extends Function {
+
+    /**
+     * Merge the parameters of two subsequent applications of this function, so that applying this function
+     * once with the merged parameters is equivalent to applying it first with the first parameters, and then
+     * with the second ones.
+     *
+     * @param first The parameters of the first application.
+     * @param second The parameters of the second application.
+     * @return The merged parameters.
+     * @throws {@link OperatorException} if parameters cannot be merged.
+     */
+    public Map<String, Object> merge(Map<String, Object> first, Map<String, Object> second) throws OperatorException;
+}
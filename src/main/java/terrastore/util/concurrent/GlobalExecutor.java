@@ -15,9 +15,13 @@
  */
 package terrastore.util.concurrent;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import jsr166y.ForkJoinPool;
 import jsr166y.ForkJoinWorkerThread;
 
@@ -34,6 +38,7 @@ public class GlobalExecutor {
     private static volatile ExecutorService QUERY_EXECUTOR = newExecutor(Runtime.getRuntime().availableProcessors() * 2);
     private static volatile ExecutorService UPDATE_EXECUTOR = newExecutor(Runtime.getRuntime().availableProcessors() * 2);
     private static volatile ForkJoinPool FJ_POOL = newFJPool(Runtime.getRuntime().availableProcessors() * 2);
+    private static volatile ScheduledExecutorService SCHEDULED_EXECUTOR = newScheduledExecutor();
 
     public static void configure(int threads) {
         int minThreadsShare = Runtime.getRuntime().availableProcessors() * 2;
@@ -42,6 +47,7 @@ public class GlobalExecutor {
         QUERY_EXECUTOR = newExecutor(actual);
         UPDATE_EXECUTOR = newExecutor(actual);
         FJ_POOL = newFJPool(minThreadsShare);
+        SCHEDULED_EXECUTOR = newScheduledExecutor();
     }
 
     public static void shutdown() {
@@ -49,6 +55,7 @@ public class GlobalExecutor {
         QUERY_EXECUTOR.shutdownNow();
         UPDATE_EXECUTOR.shutdownNow();
         FJ_POOL.shutdownNow();
+        SCHEDULED_EXECUTOR.shutdownNow();
     }
 
     public static ExecutorService getActionExecutor() {
@@ -67,6 +74,25 @@ public class GlobalExecutor {
         return FJ_POOL;
     }
 
+    public static ScheduledExecutorService getScheduledExecutor() {
+        return SCHEDULED_EXECUTOR;
+    }
+
+    /**
+     * Schedule the given task to be executed by the given executor after the given delay: the scheduled executor only
+     * triggers the task, so that its single thread is never kept busy by actual work.
+     */
+    public static ScheduledFuture<?> schedule(final Runnable task, final Executor executor, long delay, TimeUnit unit) {
+        return SCHEDULED_EXECUTOR.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                executor.execute(task);
+            }
+
+        }, delay, unit);
+    }
+
     private static ExecutorService newExecutor(int threads) {
         return Executors.newFixedThreadPool(threads, new ThreadFactory() {
 
@@ -80,6 +106,19 @@ public class GlobalExecutor {
         });
     }
 
+    private static ScheduledExecutorService newScheduledExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            }
+
+        });
+    }
+
     private static ForkJoinPool newFJPool(int parallelism) {
         return new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
 
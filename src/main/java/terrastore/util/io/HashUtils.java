@@ -0,0 +1,76 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.util.io;
+
+/**
+ * Fast, non cryptographic hashing of byte arrays, based on the 64 bits MurmurHash2 (MurmurHash64A) algorithm.
+ *
+ * @author Sergio Bossa
+ */
+public class HashUtils {
+
+    private static final long M = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+    private static final long DEFAULT_SEED = 0xe17a1465L;
+
+    public static long hash(byte[] data) {
+        return hash(data, 0, data.length, DEFAULT_SEED);
+    }
+
+    public static long hash(byte[] data, int offset, int length, long seed) {
+        long h = seed ^ (length * M);
+        int blocks = length >>> 3;
+        for (int i = 0; i < blocks; i++) {
+            int base = offset + (i << 3);
+            long k = (data[base] & 0xffL)
+                    | (data[base + 1] & 0xffL) << 8
+                    | (data[base + 2] & 0xffL) << 16
+                    | (data[base + 3] & 0xffL) << 24
+                    | (data[base + 4] & 0xffL) << 32
+                    | (data[base + 5] & 0xffL) << 40
+                    | (data[base + 6] & 0xffL) << 48
+                    | (data[base + 7] & 0xffL) << 56;
+            k *= M;
+            k ^= k >>> R;
+            k *= M;
+            h ^= k;
+            h *= M;
+        }
+        int tail = offset + (blocks << 3);
+        switch (length & 7) {
+            case 7:
+                h ^= (data[tail + 6] & 0xffL) << 48;
+            case 6:
+                h ^= (data[tail + 5] & 0xffL) << 40;
+            case 5:
+                h ^= (data[tail + 4] & 0xffL) << 32;
+            case 4:
+                h ^= (data[tail + 3] & 0xffL) << 24;
+            case 3:
+                h ^= (data[tail + 2] & 0xffL) << 16;
+            case 2:
+                h ^= (data[tail + 1] & 0xffL) << 8;
+            case 1:
+                h ^= (data[tail] & 0xffL);
+                h *= M;
+        }
+        h ^= h >>> R;
+        h *= M;
+        h ^= h >>> R;
+        return h;
+    }
+
+}
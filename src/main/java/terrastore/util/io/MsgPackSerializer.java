@@ -28,6 +28,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Serializer writing objects in msgpack format, prefixed by their class name.<br>
+ * Serializers reading from untrusted sources must be bound to the only type they accept, so that
+ * class names other than the expected one are rejected before being ever loaded.
+ *
  * @author Sergio Bossa
  */
 public class MsgPackSerializer<T> implements Serializer<T> {
@@ -35,9 +39,15 @@ public class MsgPackSerializer<T> implements Serializer<T> {
     private static final Logger LOG = LoggerFactory.getLogger(MsgPackSerializer.class);
     //
     private final boolean compressed;
+    private final Class<T> type;
 
     public MsgPackSerializer(boolean compressed) {
+        this(compressed, null);
+    }
+
+    public MsgPackSerializer(boolean compressed, Class<T> type) {
         this.compressed = compressed;
+        this.type = type;
     }
 
     @Override
@@ -94,7 +104,13 @@ public class MsgPackSerializer<T> implements Serializer<T> {
         try {
             Unpacker unpacker = new Unpacker(stream);
             String className = unpacker.unpackString();
-            return unpacker.unpack((Class<T>) Class.forName(className));
+            if (type == null) {
+                return unpacker.unpack((Class<T>) Class.forName(className));
+            } else if (type.getName().equals(className)) {
+                return unpacker.unpack(type);
+            } else {
+                throw new IllegalStateException("Unexpected type: " + className);
+            }
         } catch (Exception ex) {
             LOG.error(ex.getMessage(), ex);
             throw new RuntimeException(ex.getMessage(), ex);
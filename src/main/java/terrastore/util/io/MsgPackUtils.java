@@ -28,6 +28,7 @@ import terrastore.common.ErrorMessage;
 import terrastore.store.Key;
 import terrastore.store.Value;
 import terrastore.store.features.Mapper;
+import terrastore.store.features.Expectation;
 import terrastore.store.features.Predicate;
 import terrastore.store.features.Range;
 import terrastore.store.features.Reducer;
@@ -147,6 +148,14 @@ public class MsgPackUtils {
         }
     }
 
+    public static void packExpectation(Packer packer, Expectation expectation) throws IOException {
+        if (expectation != null) {
+            packer.pack(expectation);
+        } else {
+            packer.packNil();
+        }
+    }
+
     public static void packRange(Packer packer, Range range) throws IOException {
         if (range != null) {
             packer.pack(range);
@@ -289,6 +298,14 @@ public class MsgPackUtils {
         }
     }
 
+    public static Expectation unpackExpectation(Unpacker unpacker) throws IOException {
+        if (unpacker.tryUnpackNull()) {
+            return null;
+        } else {
+            return unpacker.unpack(Expectation.class);
+        }
+    }
+
     public static Range unpackRange(Unpacker unpacker) throws IOException {
         if (unpacker.tryUnpackNull()) {
             return null;
@@ -0,0 +1,480 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.util.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Binary format of json documents: a length-prefixed tree where objects and arrays start with a table holding the offsets
+ * of their fields and elements, so that field lookups can jump directly to values without tokenizing the whole document.
+ * <br><br>
+ * Binary documents start with a magic byte which is never the first byte of json documents, compressed documents or stored envelopes,
+ * so they can be told apart from any other document representation.
+ * All integers are big endian; encoded values are:
+ * <ul>
+ * <li>Null, false and true: a single tag byte.</li>
+ * <li>Integral and floating point numbers: tag byte, plus 8 bytes for the long or double value.</li>
+ * <li>Strings and big numbers: tag byte, 4 bytes length, UTF-8 bytes.</li>
+ * <li>Arrays: tag byte, 4 bytes total length, 4 bytes elements count, 4 bytes offset of every element relative to the array start,
+ * elements.</li>
+ * <li>Objects: same as arrays, with every field made of 4 bytes name length, UTF-8 name bytes, value.</li>
+ * </ul>
+ *
+ * @author Sergio Bossa
+ */
+public class BinaryJson {
+
+    private static final byte MAGIC = 0x01;
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 2;
+    private static final int CONTAINER_HEADER_LENGTH = 9;
+    //
+    static final byte NULL = 0;
+    static final byte FALSE = 1;
+    static final byte TRUE = 2;
+    static final byte LONG = 3;
+    static final byte DOUBLE = 4;
+    static final byte STRING = 5;
+    static final byte NUMBER = 6;
+    static final byte ARRAY = 7;
+    static final byte OBJECT = 8;
+    //
+    static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    public static boolean isBinary(byte[] bytes) {
+        return bytes.length > HEADER_LENGTH && bytes[0] == MAGIC && bytes[1] == FORMAT_VERSION;
+    }
+
+    /**
+     * Encode the given, already validated, json document in binary format, in a single streaming pass.
+     */
+    public static byte[] fromJson(byte[] json) {
+        try {
+            JsonParser parser = JSON_FACTORY.createJsonParser(json);
+            Output output = new Output(json.length);
+            output.write(MAGIC);
+            output.write(FORMAT_VERSION);
+            encode(parser, parser.nextToken(), output);
+            return output.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Value should have been already validated!");
+        }
+    }
+
+    public static byte[] fromMap(Map<String, Object> document) {
+        Output output = new Output(256);
+        output.write(MAGIC);
+        output.write(FORMAT_VERSION);
+        encode(document, output);
+        return output.toByteArray();
+    }
+
+    public static byte[] toJson(byte[] binary) {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(binary.length);
+            JsonGenerator generator = JSON_FACTORY.createJsonGenerator(output, JsonEncoding.UTF8);
+            render(binary, HEADER_LENGTH, generator);
+            generator.close();
+            return output.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex.getMessage(), ex);
+        }
+    }
+
+    public static Map<String, Object> toModifiableMap(byte[] binary) {
+        return (Map<String, Object>) decode(binary, HEADER_LENGTH);
+    }
+
+    public static Map<String, Object> toUnmodifiableMap(byte[] binary) {
+        return new BinaryJsonMap(binary, HEADER_LENGTH);
+    }
+
+    /**
+     * Increment the given top level counters by overwriting their fixed length slots in a copy of the given bytes,
+     * falling back to encode the whole document again only when some counters are missing or not stored as longs or doubles.
+     */
+    public static byte[] increment(byte[] binary, Map<String, Long> increments) {
+        Map<String, Integer> slots = new HashMap<String, Integer>(increments.size() * 2);
+        int count = count(binary, HEADER_LENGTH);
+        for (int i = 0; i < count && slots.size() < increments.size(); i++) {
+            int field = offset(binary, HEADER_LENGTH, i);
+            String name = name(binary, field);
+            int value = valueOffset(binary, field);
+            if (increments.containsKey(name) && (binary[value] == LONG || binary[value] == DOUBLE)) {
+                slots.put(name, value);
+            }
+        }
+        if (slots.size() == increments.size()) {
+            byte[] result = Arrays.copyOf(binary, binary.length);
+            for (Map.Entry<String, Long> increment : increments.entrySet()) {
+                int value = slots.get(increment.getKey());
+                long current = readLong(result, value + 1);
+                if (result[value] == LONG) {
+                    writeLong(result, value + 1, current + increment.getValue());
+                } else {
+                    writeLong(result, value + 1, Double.doubleToLongBits(Double.longBitsToDouble(current) + increment.getValue()));
+                }
+            }
+            return result;
+        } else {
+            Map<String, Object> document = toModifiableMap(binary);
+            for (Map.Entry<String, Long> increment : increments.entrySet()) {
+                document.put(increment.getKey(), JsonUtils.increment(document.get(increment.getKey()), increment.getValue()));
+            }
+            return fromMap(document);
+        }
+    }
+
+    static int count(byte[] bytes, int container) {
+        return readInt(bytes, container + 5);
+    }
+
+    static int offset(byte[] bytes, int container, int index) {
+        return container + readInt(bytes, container + CONTAINER_HEADER_LENGTH + (index * 4));
+    }
+
+    static int nameLength(byte[] bytes, int field) {
+        return readInt(bytes, field);
+    }
+
+    static String name(byte[] bytes, int field) {
+        return new String(bytes, field + 4, nameLength(bytes, field), CHARSET);
+    }
+
+    static int valueOffset(byte[] bytes, int field) {
+        return field + 4 + nameLength(bytes, field);
+    }
+
+    /**
+     * Read the value at the given offset: objects and arrays are returned as lazy views over the given bytes.
+     */
+    static Object read(byte[] bytes, int offset) {
+        switch (bytes[offset]) {
+            case OBJECT:
+                return new BinaryJsonMap(bytes, offset);
+            case ARRAY:
+                return new BinaryJsonList(bytes, offset);
+            case LONG:
+                return readLong(bytes, offset + 1);
+            default:
+                return readScalar(bytes, offset);
+        }
+    }
+
+    private static Object decode(byte[] bytes, int offset) {
+        switch (bytes[offset]) {
+            case OBJECT: {
+                int count = count(bytes, offset);
+                Map<String, Object> object = new LinkedHashMap<String, Object>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    int field = offset(bytes, offset, i);
+                    object.put(name(bytes, field), decode(bytes, valueOffset(bytes, field)));
+                }
+                return object;
+            }
+            case ARRAY: {
+                int count = count(bytes, offset);
+                List<Object> array = new ArrayList<Object>(count);
+                for (int i = 0; i < count; i++) {
+                    array.add(decode(bytes, offset(bytes, offset, i)));
+                }
+                return array;
+            }
+            case LONG: {
+                // Mimic the json mapper, which reads integral numbers as the smallest fitting type:
+                long value = readLong(bytes, offset + 1);
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return (int) value;
+                } else {
+                    return value;
+                }
+            }
+            default:
+                return readScalar(bytes, offset);
+        }
+    }
+
+    private static Object readScalar(byte[] bytes, int offset) {
+        switch (bytes[offset]) {
+            case NULL:
+                return null;
+            case FALSE:
+                return Boolean.FALSE;
+            case TRUE:
+                return Boolean.TRUE;
+            case DOUBLE:
+                return Double.longBitsToDouble(readLong(bytes, offset + 1));
+            case STRING:
+                return new String(bytes, offset + 5, readInt(bytes, offset + 1), CHARSET);
+            case NUMBER: {
+                String number = new String(bytes, offset + 5, readInt(bytes, offset + 1), CHARSET);
+                if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) {
+                    return new BigDecimal(number);
+                } else {
+                    return new BigInteger(number);
+                }
+            }
+            default:
+                throw new IllegalStateException("Bad binary json tag: " + bytes[offset]);
+        }
+    }
+
+    private static void render(byte[] bytes, int offset, JsonGenerator generator) throws IOException {
+        switch (bytes[offset]) {
+            case OBJECT: {
+                generator.writeStartObject();
+                int count = count(bytes, offset);
+                for (int i = 0; i < count; i++) {
+                    int field = offset(bytes, offset, i);
+                    generator.writeFieldName(name(bytes, field));
+                    render(bytes, valueOffset(bytes, field), generator);
+                }
+                generator.writeEndObject();
+                break;
+            }
+            case ARRAY: {
+                generator.writeStartArray();
+                int count = count(bytes, offset);
+                for (int i = 0; i < count; i++) {
+                    render(bytes, offset(bytes, offset, i), generator);
+                }
+                generator.writeEndArray();
+                break;
+            }
+            case NULL:
+                generator.writeNull();
+                break;
+            case FALSE:
+                generator.writeBoolean(false);
+                break;
+            case TRUE:
+                generator.writeBoolean(true);
+                break;
+            case LONG:
+                generator.writeNumber(readLong(bytes, offset + 1));
+                break;
+            case DOUBLE:
+                generator.writeNumber(Double.longBitsToDouble(readLong(bytes, offset + 1)));
+                break;
+            case STRING:
+                generator.writeString(new String(bytes, offset + 5, readInt(bytes, offset + 1), CHARSET));
+                break;
+            case NUMBER:
+                generator.writeNumber(new String(bytes, offset + 5, readInt(bytes, offset + 1), CHARSET));
+                break;
+            default:
+                throw new IllegalStateException("Bad binary json tag: " + bytes[offset]);
+        }
+    }
+
+    private static void encode(JsonParser parser, JsonToken token, Output output) throws IOException {
+        switch (token) {
+            case START_OBJECT: {
+                // Fields are encoded apart as their offsets must be written first:
+                Output fields = new Output(64);
+                List<Integer> offsets = new ArrayList<Integer>();
+                for (token = parser.nextToken(); token != JsonToken.END_OBJECT; token = parser.nextToken()) {
+                    offsets.add(fields.size());
+                    writeName(parser.getCurrentName(), fields);
+                    encode(parser, parser.nextToken(), fields);
+                }
+                writeContainer(OBJECT, offsets, fields, output);
+                break;
+            }
+            case START_ARRAY: {
+                Output elements = new Output(64);
+                List<Integer> offsets = new ArrayList<Integer>();
+                for (token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                    offsets.add(elements.size());
+                    encode(parser, token, elements);
+                }
+                writeContainer(ARRAY, offsets, elements, output);
+                break;
+            }
+            case VALUE_STRING:
+                writeText(STRING, parser.getText(), output);
+                break;
+            case VALUE_NUMBER_INT:
+                if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                    writeText(NUMBER, parser.getText(), output);
+                } else {
+                    output.write(LONG);
+                    output.writeLong(parser.getLongValue());
+                }
+                break;
+            case VALUE_NUMBER_FLOAT:
+                output.write(DOUBLE);
+                output.writeLong(Double.doubleToLongBits(parser.getDoubleValue()));
+                break;
+            case VALUE_TRUE:
+                output.write(TRUE);
+                break;
+            case VALUE_FALSE:
+                output.write(FALSE);
+                break;
+            case VALUE_NULL:
+                output.write(NULL);
+                break;
+            default:
+                throw new IOException("Unexpected json token: " + token);
+        }
+    }
+
+    private static void encode(Object value, Output output) {
+        if (value == null) {
+            output.write(NULL);
+        } else if (value instanceof Map) {
+            Output fields = new Output(64);
+            List<Integer> offsets = new ArrayList<Integer>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                offsets.add(fields.size());
+                writeName(String.valueOf(entry.getKey()), fields);
+                encode(entry.getValue(), fields);
+            }
+            writeContainer(OBJECT, offsets, fields, output);
+        } else if (value instanceof Collection || value instanceof Object[]) {
+            Collection<?> collection = value instanceof Collection ? (Collection<?>) value : Arrays.asList((Object[]) value);
+            Output elements = new Output(64);
+            List<Integer> offsets = new ArrayList<Integer>();
+            for (Object element : collection) {
+                offsets.add(elements.size());
+                encode(element, elements);
+            }
+            writeContainer(ARRAY, offsets, elements, output);
+        } else if (value instanceof Boolean) {
+            output.write((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double || value instanceof Float) {
+            output.write(DOUBLE);
+            output.writeLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof BigInteger || value instanceof BigDecimal) {
+            writeText(NUMBER, value.toString(), output);
+        } else if (value instanceof Number) {
+            output.write(LONG);
+            output.writeLong(((Number) value).longValue());
+        } else {
+            writeText(STRING, value.toString(), output);
+        }
+    }
+
+    private static void writeName(String name, Output output) {
+        byte[] bytes = name.getBytes(CHARSET);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static void writeText(byte tag, String text, Output output) {
+        byte[] bytes = text.getBytes(CHARSET);
+        output.write(tag);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static void writeContainer(byte tag, List<Integer> offsets, Output contents, Output output) {
+        int headerLength = CONTAINER_HEADER_LENGTH + (offsets.size() * 4);
+        output.write(tag);
+        output.writeInt(headerLength + contents.size());
+        output.writeInt(offsets.size());
+        for (int offset : offsets) {
+            output.writeInt(headerLength + offset);
+        }
+        output.write(contents.buffer, contents.size());
+    }
+
+    static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+
+    static long readLong(byte[] bytes, int offset) {
+        return ((long) readInt(bytes, offset) << 32) | (readInt(bytes, offset + 4) & 0xffffffffL);
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static class Output {
+
+        private byte[] buffer;
+        private int size;
+
+        public Output(int capacity) {
+            this.buffer = new byte[Math.max(capacity, 16)];
+        }
+
+        public void write(byte value) {
+            ensure(1);
+            buffer[size++] = value;
+        }
+
+        public void writeInt(int value) {
+            ensure(4);
+            buffer[size++] = (byte) (value >>> 24);
+            buffer[size++] = (byte) (value >>> 16);
+            buffer[size++] = (byte) (value >>> 8);
+            buffer[size++] = (byte) value;
+        }
+
+        public void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        public void write(byte[] bytes) {
+            write(bytes, bytes.length);
+        }
+
+        public void write(byte[] bytes, int length) {
+            ensure(length);
+            System.arraycopy(bytes, 0, buffer, size, length);
+            size += length;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensure(int length) {
+            if (size + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+            }
+        }
+
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.util.json;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Unmodifiable list view of a {@link BinaryJson} array: elements are accessed through the array offsets table,
+ * and decoded only when actually accessed.
+ *
+ * @author Sergio Bossa
+ */
+public class BinaryJsonList extends AbstractList<Object> implements RandomAccess {
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int count;
+
+    public BinaryJsonList(byte[] bytes, int offset) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.count = BinaryJson.count(bytes, offset);
+    }
+
+    @Override
+    public Object get(int index) {
+        if (index >= 0 && index < count) {
+            return BinaryJson.read(bytes, BinaryJson.offset(bytes, offset, index));
+        } else {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + count);
+        }
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+}
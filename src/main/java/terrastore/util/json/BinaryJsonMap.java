@@ -0,0 +1,123 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.util.json;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Unmodifiable map view of a {@link BinaryJson} object: fields are looked up through the object offsets table,
+ * and values are decoded only when actually accessed.
+ *
+ * @author Sergio Bossa
+ */
+public class BinaryJsonMap extends AbstractMap<String, Object> {
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int count;
+
+    public BinaryJsonMap(byte[] bytes, int offset) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.count = BinaryJson.count(bytes, offset);
+    }
+
+    @Override
+    public Object get(Object candidate) {
+        int field = find(candidate);
+        return field >= 0 ? BinaryJson.read(bytes, BinaryJson.valueOffset(bytes, field)) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object candidate) {
+        return find(candidate) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new BinaryJsonIterator();
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+
+        };
+    }
+
+    private int find(Object candidate) {
+        if (candidate != null) {
+            byte[] name = candidate.toString().getBytes(BinaryJson.CHARSET);
+            for (int i = 0; i < count; i++) {
+                int field = BinaryJson.offset(bytes, offset, i);
+                if (BinaryJson.nameLength(bytes, field) == name.length && matches(name, field + 4)) {
+                    return field;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(byte[] name, int start) {
+        for (int i = 0; i < name.length; i++) {
+            if (bytes[start + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private class BinaryJsonIterator implements Iterator<Map.Entry<String, Object>> {
+
+        private int current;
+
+        @Override
+        public boolean hasNext() {
+            return current < count;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (current < count) {
+                int field = BinaryJson.offset(bytes, offset, current++);
+                return new SimpleImmutableEntry<String, Object>(BinaryJson.name(bytes, field), BinaryJson.read(bytes, BinaryJson.valueOffset(bytes, field)));
+            } else {
+                throw new NoSuchElementException();
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("This map is unmodifiable!");
+        }
+
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.util.json;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+
+/**
+ * Index of the values of a json object or array, built by a single scan over the (already validated) document bytes:
+ * the index holds the boundaries of every value, which is decoded only when actually accessed, and then cached;
+ * nested objects and arrays are indexed in turn only when accessed.
+ *
+ * @author Sergio Bossa
+ */
+class JsonIndex {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final Object UNDECODED = new Object();
+    //
+    private final byte[] bytes;
+    private final String[] names;
+    private final int[] starts;
+    private final int[] ends;
+    private final Object[] values;
+    private final int size;
+    private Map<String, Integer> positions;
+
+    private JsonIndex(byte[] bytes, String[] names, int[] starts, int[] ends, int size) {
+        this.bytes = bytes;
+        this.names = names;
+        this.starts = starts;
+        this.ends = ends;
+        this.size = size;
+        this.values = new Object[size];
+        Arrays.fill(values, UNDECODED);
+    }
+
+    /**
+     * Index the json object or array starting at the given offset, skipping leading whitespaces.
+     */
+    public static JsonIndex of(byte[] bytes, int offset) {
+        int current = skipWhitespaces(bytes, offset);
+        boolean object = bytes[current] == '{';
+        byte closing = object ? (byte) '}' : (byte) ']';
+        String[] names = object ? new String[8] : null;
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        int size = 0;
+        current = skipWhitespaces(bytes, current + 1);
+        while (bytes[current] != closing) {
+            if (size == starts.length) {
+                names = object ? Arrays.copyOf(names, size * 2) : null;
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            if (object) {
+                int nameEnd = skipString(bytes, current);
+                names[size] = decodeString(bytes, current, nameEnd);
+                // Skip the colon:
+                current = skipWhitespaces(bytes, skipWhitespaces(bytes, nameEnd) + 1);
+            }
+            starts[size] = current;
+            ends[size] = skipValue(bytes, current);
+            current = skipWhitespaces(bytes, ends[size]);
+            size++;
+            if (bytes[current] == ',') {
+                current = skipWhitespaces(bytes, current + 1);
+            }
+        }
+        return new JsonIndex(bytes, names, starts, ends, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String name(int index) {
+        return names[index];
+    }
+
+    /**
+     * Get the index of the given object field name, or -1 if not found: if the same name occurs more than once,
+     * the first occurrence is returned.
+     */
+    public int indexOf(String name) {
+        if (positions == null) {
+            positions = new HashMap<String, Integer>(size * 2);
+            for (int i = size - 1; i >= 0; i--) {
+                positions.put(names[i], i);
+            }
+        }
+        Integer position = positions.get(name);
+        return position != null ? position : -1;
+    }
+
+    public Object value(int index) {
+        if (values[index] == UNDECODED) {
+            values[index] = decode(starts[index], ends[index]);
+        }
+        return values[index];
+    }
+
+    private Object decode(int start, int end) {
+        switch (bytes[start]) {
+            case '{':
+                return new JsonStreamingMap(bytes, start);
+            case '[':
+                return new JsonStreamingList(bytes, start);
+            case '"':
+                return decodeString(bytes, start, end);
+            case 't':
+                return Boolean.TRUE;
+            case 'f':
+                return Boolean.FALSE;
+            case 'n':
+                return null;
+            default:
+                String number = new String(bytes, start, end - start, ASCII);
+                if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) {
+                    return (float) Double.parseDouble(number);
+                } else {
+                    return Long.parseLong(number);
+                }
+        }
+    }
+
+    private static String decodeString(byte[] bytes, int start, int end) {
+        for (int i = start + 1; i < end - 1; i++) {
+            if (bytes[i] == '\\') {
+                // Let the json parser handle escapes, which are uncommon:
+                try {
+                    JsonParser parser = JSON_FACTORY.createJsonParser(bytes, start, end - start);
+                    parser.nextToken();
+                    return parser.getText();
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex.getMessage(), ex);
+                }
+            }
+        }
+        return new String(bytes, start + 1, end - start - 2, UTF8);
+    }
+
+    private static int skipValue(byte[] bytes, int current) {
+        switch (bytes[current]) {
+            case '"':
+                return skipString(bytes, current);
+            case '{':
+            case '[':
+                return skipStructure(bytes, current);
+            default:
+                while (current < bytes.length && !isDelimiter(bytes[current])) {
+                    current++;
+                }
+                return current;
+        }
+    }
+
+    private static int skipString(byte[] bytes, int current) {
+        current++;
+        while (bytes[current] != '"') {
+            current += bytes[current] == '\\' ? 2 : 1;
+        }
+        return current + 1;
+    }
+
+    private static int skipStructure(byte[] bytes, int current) {
+        int depth = 0;
+        do {
+            byte b = bytes[current];
+            if (b == '"') {
+                current = skipString(bytes, current);
+            } else {
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+                current++;
+            }
+        } while (depth > 0);
+        return current;
+    }
+
+    private static int skipWhitespaces(byte[] bytes, int current) {
+        while (current < bytes.length && isWhitespace(bytes[current])) {
+            current++;
+        }
+        return current;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean isDelimiter(byte b) {
+        return b == ',' || b == '}' || b == ']' || isWhitespace(b);
+    }
+}
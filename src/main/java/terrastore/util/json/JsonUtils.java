@@ -20,8 +20,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.StringWriter;
-import java.nio.charset.Charset;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -42,11 +42,15 @@ import org.slf4j.LoggerFactory;
 import terrastore.cluster.ensemble.EnsembleConfiguration;
 import terrastore.common.ClusterStats;
 import terrastore.common.ErrorMessage;
+import terrastore.common.IndexStats;
+import terrastore.common.PartitionStats;
+import terrastore.common.RateLimits;
 import terrastore.server.Buckets;
 import terrastore.server.Keys;
 import terrastore.server.MapReduceDescriptor;
 import terrastore.server.Parameters;
 import terrastore.server.Values;
+import terrastore.server.ValuesStream;
 import terrastore.store.Key;
 import terrastore.store.Value;
 
@@ -93,8 +97,12 @@ public class JsonUtils {
     }
 
     public static void validate(Value value) throws ValidationException {
+        validate(value.getBytes());
+    }
+
+    public static void validate(byte[] value) throws ValidationException {
         try {
-            JsonParser parser = new JsonFactory().createJsonParser(value.getBytes());
+            JsonParser parser = new JsonFactory().createJsonParser(value);
             JsonToken currentToken = parser.nextToken();
             if (currentToken.equals(JsonToken.START_OBJECT)) {
                 validateObject(parser);
@@ -132,10 +140,47 @@ public class JsonUtils {
         }
     }
 
+    /**
+     * Increment the given top level counters in a single streaming pass, copying all other fields as they are and
+     * appending missing counters at the end: fields holding other than numbers are left untouched.
+     */
+    public static Value increment(Value value, Map<String, Long> increments) throws ValidationException {
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            JsonFactory factory = new JsonFactory();
+            JsonGenerator generator = factory.createJsonGenerator(stream, JsonEncoding.UTF8);
+            JsonParser parser = factory.createJsonParser(value.getInputStream());
+            JsonToken currentToken = parser.nextToken();
+            generator.setCodec(JSON_MAPPER);
+            if (currentToken.equals(JsonToken.START_OBJECT)) {
+                incrementObject(parser, generator, increments);
+            } else {
+                throw new ValidationException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Bad Json value starting with: " + currentToken.toString()));
+            }
+            generator.close();
+            return new Value(stream.toByteArray());
+        } catch (IOException ex) {
+            LOG.error(ex.getMessage(), ex);
+            throw new ValidationException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Bad Json value: " + ex.getMessage()));
+        }
+    }
+
     public static void write(ClusterStats clusterStats, OutputStream stream) throws IOException {
         JSON_MAPPER.writeValue(stream, clusterStats);
     }
 
+    public static void write(RateLimits rateLimits, OutputStream stream) throws IOException {
+        JSON_MAPPER.writeValue(stream, rateLimits);
+    }
+
+    public static void write(PartitionStats partitionStats, OutputStream stream) throws IOException {
+        JSON_MAPPER.writeValue(stream, partitionStats);
+    }
+
+    public static void write(IndexStats indexStats, OutputStream stream) throws IOException {
+        JSON_MAPPER.writeValue(stream, indexStats);
+    }
+
     public static void write(ErrorMessage errorMessage, OutputStream stream) throws IOException {
         JSON_MAPPER.writeValue(stream, errorMessage);
     }
@@ -190,26 +235,19 @@ public class JsonUtils {
 
     public static Values readValues(InputStream stream) throws IOException, ValidationException {
         Map<Key, Value> values = new HashMap<Key, Value>();
-        JsonParser jsonParser = new JsonFactory().createJsonParser(stream);
-        if (jsonParser.nextToken() != null) {
-            JsonToken token = jsonParser.nextValue();
-            while (token != null && !token.equals(JsonToken.END_OBJECT)) {
-                if (token.equals(JsonToken.START_OBJECT)) {
-                    Key key = new Key(jsonParser.getCurrentName());
-                    StringWriter objectWriter = new StringWriter();
-                    JsonGenerator objectGenerator = new JsonFactory().createJsonGenerator(objectWriter);
-                    objectGenerator.copyCurrentStructure(jsonParser);
-                    objectGenerator.close();
-                    values.put(key, new Value(objectWriter.toString().getBytes(Charset.forName("UTF-8"))));
-                    token = jsonParser.nextValue();
-                } else {
-                    throw new ValidationException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Bad Json: values should be all objects."));
-                }
-            }
+        ValuesStream valuesStream = new JsonValuesStream(stream);
+        Map.Entry<Key, Value> entry = valuesStream.next();
+        while (entry != null) {
+            values.put(entry.getKey(), entry.getValue());
+            entry = valuesStream.next();
         }
         return new Values(values);
     }
 
+    public static ValuesStream readValuesStream(InputStream stream) throws IOException {
+        return new JsonValuesStream(stream);
+    }
+
     public static Parameters readParameters(InputStream stream) throws IOException {
         return JSON_MAPPER.readValue(stream, Parameters.class);
     }
@@ -287,6 +325,55 @@ public class JsonUtils {
         generator.writeEndObject();
     }
 
+    private static void incrementObject(JsonParser parser, JsonGenerator generator, Map<String, Long> increments) throws IOException {
+        Set<String> found = new HashSet<String>();
+        JsonToken currentToken = parser.nextValue();
+        generator.writeStartObject();
+        while (currentToken != null && !currentToken.equals(JsonToken.END_OBJECT)) {
+            String currentField = parser.getCurrentName();
+            generator.writeFieldName(currentField);
+            if (increments.containsKey(currentField)) {
+                found.add(currentField);
+                if (currentToken.equals(JsonToken.VALUE_NUMBER_INT) || currentToken.equals(JsonToken.VALUE_NUMBER_FLOAT)) {
+                    generator.writeObject(increment(parser.getNumberValue(), increments.get(currentField)));
+                } else if (currentToken.equals(JsonToken.VALUE_NULL)) {
+                    generator.writeNumber(increments.get(currentField));
+                } else {
+                    generator.copyCurrentStructure(parser);
+                }
+            } else {
+                generator.copyCurrentStructure(parser);
+            }
+            currentToken = parser.skipChildren().nextValue();
+        }
+        for (Map.Entry<String, Long> increment : increments.entrySet()) {
+            if (!found.contains(increment.getKey())) {
+                generator.writeNumberField(increment.getKey(), increment.getValue());
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Add the given delta to the given counter, keeping its numeric type: missing counters start from zero,
+     * while not numeric values are returned as they are.
+     */
+    static Object increment(Object counter, long delta) {
+        if (counter == null) {
+            return delta;
+        } else if (counter instanceof BigDecimal) {
+            return ((BigDecimal) counter).add(BigDecimal.valueOf(delta));
+        } else if (counter instanceof BigInteger) {
+            return ((BigInteger) counter).add(BigInteger.valueOf(delta));
+        } else if (counter instanceof Double || counter instanceof Float) {
+            return ((Number) counter).doubleValue() + delta;
+        } else if (counter instanceof Number) {
+            return ((Number) counter).longValue() + delta;
+        } else {
+            return counter;
+        }
+    }
+
     private static void mergeArray(JsonParser parser, JsonGenerator generator, List updates) throws IOException {
         if (updates.get(0).equals("+")) {
             addToArray(parser, generator, updates.subList(1, updates.size()));
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.util.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractMap;
+import java.util.Map;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import terrastore.common.ErrorMessage;
+import terrastore.server.ValuesStream;
+import terrastore.store.Key;
+import terrastore.store.ValidationException;
+import terrastore.store.Value;
+
+/**
+ * {@link terrastore.server.ValuesStream} implementation incrementally parsing a json object of key/document pairs:
+ * each document is copied straight from the parser into utf-8 encoded bytes, with no intermediate string representation,
+ * and only the document currently being read is held in memory.
+ *
+ * @author Sergio Bossa
+ */
+public class JsonValuesStream implements ValuesStream {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    //
+    private final JsonParser parser;
+    private final ByteArrayOutputStream buffer;
+    private boolean started;
+    private boolean finished;
+
+    public JsonValuesStream(InputStream stream) throws IOException {
+        this.parser = JSON_FACTORY.createJsonParser(stream);
+        this.buffer = new ByteArrayOutputStream();
+    }
+
+    @Override
+    public Map.Entry<Key, Value> next() throws ValidationException {
+        if (!finished) {
+            try {
+                if (!started) {
+                    started = true;
+                    JsonToken start = parser.nextToken();
+                    if (start == null) {
+                        finished = true;
+                        return null;
+                    } else if (!start.equals(JsonToken.START_OBJECT)) {
+                        throw new ValidationException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Bad Json: values should be enclosed into an object."));
+                    }
+                }
+                JsonToken token = parser.nextValue();
+                if (token != null && !token.equals(JsonToken.END_OBJECT)) {
+                    if (token.equals(JsonToken.START_OBJECT)) {
+                        Key key = new Key(parser.getCurrentName());
+                        buffer.reset();
+                        JsonGenerator generator = JSON_FACTORY.createJsonGenerator(buffer, JsonEncoding.UTF8);
+                        generator.copyCurrentStructure(parser);
+                        generator.close();
+                        return new AbstractMap.SimpleImmutableEntry<Key, Value>(key, new Value(buffer.toByteArray()));
+                    } else {
+                        throw new ValidationException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Bad Json: values should be all objects."));
+                    }
+                } else {
+                    finished = true;
+                    parser.close();
+                    return null;
+                }
+            } catch (IOException ex) {
+                finished = true;
+                throw new ValidationException(new ErrorMessage(ErrorMessage.BAD_REQUEST_ERROR_CODE, "Bad Json value: " + ex.getMessage()));
+            }
+        } else {
+            return null;
+        }
+    }
+
+}
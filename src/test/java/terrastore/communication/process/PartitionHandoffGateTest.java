@@ -0,0 +1,179 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.communication.process;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import terrastore.communication.protocol.GetBucketsCommand;
+import terrastore.communication.protocol.GetValueCommand;
+import terrastore.partition.impl.ClusterHashingPartitioner;
+import terrastore.router.impl.MurmurHashFunction;
+import terrastore.store.Key;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class PartitionHandoffGateTest {
+
+    @Test
+    public void testOnlyCommandsOnHeldPartitionsAreHeld() throws Exception {
+        ClusterHashingPartitioner partitioner = new ClusterHashingPartitioner(1024, new MurmurHashFunction());
+        Key heldKey = new Key("held");
+        Key freeKey = findKeyOnOtherPartition(partitioner, heldKey);
+        PartitionHandoffGate gate = new PartitionHandoffGate(partitioner);
+        AsynchronousExecutor executor = new AsynchronousExecutor();
+
+        gate.hold(Collections.singleton(partitioner.getPartitionFor("bucket", heldKey)));
+        try {
+            assertTrue(gate.isHeld(new GetValueCommand("bucket", heldKey)));
+            assertFalse(gate.isHeld(new GetValueCommand("bucket", freeKey)));
+            assertFalse(gate.isHeld(new GetBucketsCommand()));
+
+            Future<String> held = gate.submit(new GetValueCommand("bucket", heldKey), new Result("held"), executor);
+            Future<String> free = gate.submit(new GetValueCommand("bucket", freeKey), new Result("free"), executor);
+            Future<String> bucketLevel = gate.submit(new GetBucketsCommand(), new Result("buckets"), executor);
+            assertEquals("free", free.get(60, TimeUnit.SECONDS));
+            assertEquals("buckets", bucketLevel.get(60, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            assertFalse(held.isDone());
+        } finally {
+            gate.release();
+        }
+
+        assertFalse(gate.isHeld(new GetValueCommand("bucket", heldKey)));
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testHeldCommandsAreExecutedOnRelease() throws Exception {
+        ClusterHashingPartitioner partitioner = new ClusterHashingPartitioner(1024, new MurmurHashFunction());
+        Key heldKey = new Key("held");
+        PartitionHandoffGate gate = new PartitionHandoffGate(partitioner);
+        AsynchronousExecutor executor = new AsynchronousExecutor();
+
+        gate.hold(Collections.singleton(partitioner.getPartitionFor("bucket", heldKey)));
+        Future<String> held = gate.submit(new GetValueCommand("bucket", heldKey), new Result("held"), executor);
+        gate.release();
+
+        assertEquals("held", held.get(60, TimeUnit.SECONDS));
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testHoldWaitsForInFlightCommands() throws Exception {
+        ClusterHashingPartitioner partitioner = new ClusterHashingPartitioner(1024, new MurmurHashFunction());
+        final Key key = new Key("key");
+        final PartitionHandoffGate gate = new PartitionHandoffGate(partitioner);
+        AsynchronousExecutor executor = new AsynchronousExecutor();
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        Future<String> inFlight = gate.submit(new GetValueCommand("bucket", key), new Callable<String>() {
+
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                finish.await();
+                return "done";
+            }
+        }, executor);
+        assertTrue(started.await(60, TimeUnit.SECONDS));
+
+        final CountDownLatch held = new CountDownLatch(1);
+        final int partition = partitioner.getPartitionFor("bucket", key);
+        Thread holder = new Thread() {
+
+            @Override
+            public void run() {
+                gate.hold(Collections.singleton(partition));
+                held.countDown();
+                gate.release();
+            }
+        };
+        holder.start();
+
+        assertFalse(held.await(100, TimeUnit.MILLISECONDS));
+        finish.countDown();
+        assertTrue(held.await(60, TimeUnit.SECONDS));
+        assertEquals("done", inFlight.get());
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testHoldDoesNotWaitForCommandsOnOtherPartitions() throws Exception {
+        ClusterHashingPartitioner partitioner = new ClusterHashingPartitioner(1024, new MurmurHashFunction());
+        Key heldKey = new Key("held");
+        Key freeKey = findKeyOnOtherPartition(partitioner, heldKey);
+        PartitionHandoffGate gate = new PartitionHandoffGate(partitioner);
+        AsynchronousExecutor executor = new AsynchronousExecutor();
+
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch finish = new CountDownLatch(1);
+        Callable<String> blocking = new Callable<String>() {
+
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                finish.await();
+                return "done";
+            }
+        };
+        Future<String> onOtherPartition = gate.submit(new GetValueCommand("bucket", freeKey), blocking, executor);
+        Future<String> bucketLevel = gate.submit(new GetBucketsCommand(), blocking, executor);
+        assertTrue(started.await(60, TimeUnit.SECONDS));
+
+        gate.hold(Collections.singleton(partitioner.getPartitionFor("bucket", heldKey)));
+        gate.release();
+
+        finish.countDown();
+        assertEquals("done", onOtherPartition.get(60, TimeUnit.SECONDS));
+        assertEquals("done", bucketLevel.get(60, TimeUnit.SECONDS));
+
+        executor.shutdown();
+    }
+
+    private Key findKeyOnOtherPartition(ClusterHashingPartitioner partitioner, Key key) {
+        int partition = partitioner.getPartitionFor("bucket", key);
+        for (int i = 0;; i++) {
+            Key candidate = new Key("key" + i);
+            if (partitioner.getPartitionFor("bucket", candidate) != partition) {
+                return candidate;
+            }
+        }
+    }
+
+    private static class Result implements Callable<String> {
+
+        private final String result;
+
+        public Result(String result) {
+            this.result = result;
+        }
+
+        @Override
+        public String call() throws Exception {
+            return result;
+        }
+    }
+}
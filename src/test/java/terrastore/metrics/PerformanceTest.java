@@ -27,6 +27,7 @@ import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.PutMethod;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -168,6 +169,33 @@ public class PerformanceTest {
         System.err.println("Elapsed read time in millis: " + elapsed);
     }
 
+    @Test
+    public void counterIncrements() throws Exception {
+        final String bucket = UUID.randomUUID().toString();
+
+        int increments = 10000;
+
+        PutMethod putValue = makePutMethod(NODE1_PORT, bucket + "/counter");
+        putValue.setRequestEntity(new StringRequestEntity("{\"count\":0}", "application/json", null));
+        HTTP_CLIENT.executeMethod(putValue);
+        assertEquals(HttpStatus.SC_NO_CONTENT, putValue.getStatusCode());
+        putValue.releaseConnection();
+
+        System.err.println("Starting counterIncrements performance test.");
+
+        long elapsed = increment(increments, bucket + "/counter/update?function=counter&timeout=10000", HttpStatus.SC_OK);
+        System.err.println("Update function increments per second: " + (increments * 1000L / Math.max(elapsed, 1)));
+
+        elapsed = increment(increments, bucket + "/counter/counters", HttpStatus.SC_NO_CONTENT);
+        System.err.println("Native counter increments per second: " + (increments * 1000L / Math.max(elapsed, 1)));
+
+        GetMethod getValue = makeGetMethod(NODE1_PORT, bucket + "/counter");
+        HTTP_CLIENT.executeMethod(getValue);
+        assertEquals(HttpStatus.SC_OK, getValue.getStatusCode());
+        assertEquals("{\"count\":" + (increments * 2) + "}", getValue.getResponseBodyAsString());
+        getValue.releaseConnection();
+    }
+
     private String getPayload() throws Exception {
         final String payload = toJson(new TestValue("value", 1));
         System.err.println("Payload bytes length: " + payload.getBytes().length);
@@ -190,6 +218,36 @@ public class PerformanceTest {
         }
     }
 
+    private long increment(int increments, final String path, final int expectedStatus) throws Exception {
+        ExecutorService threadPool = Executors.newFixedThreadPool(CONCURRENCY);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < increments; i++) {
+            threadPool.execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        PostMethod postIncrement = makePostMethod(NODE1_PORT, path);
+                        postIncrement.setRequestEntity(new StringRequestEntity("{\"count\":1}", "application/json", null));
+                        HTTP_CLIENT.executeMethod(postIncrement);
+                        assertEquals(expectedStatus, postIncrement.getStatusCode());
+                        postIncrement.releaseConnection();
+                    } catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            });
+        }
+        threadPool.shutdown();
+        threadPool.awaitTermination(Integer.MAX_VALUE, TimeUnit.SECONDS);
+        return System.currentTimeMillis() - start;
+    }
+
+    private PostMethod makePostMethod(int nodePort, String path) {
+        PostMethod method = new PostMethod("http://" + HOST + ":" + nodePort + "/" + path);
+        method.setRequestHeader("Content-Type", "application/json");
+        return method;
+    }
+
     private PutMethod makePutMethod(int nodePort, String path) {
         PutMethod method = new PutMethod("http://" + HOST + ":" + nodePort + "/" + path);
         method.setRequestHeader("Content-Type", "application/json");
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.easymock.classextension.EasyMock;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import terrastore.server.impl.BinaryServer;
+import terrastore.server.impl.CoreServer;
+import terrastore.server.impl.JsonHttpServer;
+import terrastore.server.impl.binary.BinaryClient;
+import terrastore.server.impl.binary.BinaryRequest;
+import terrastore.server.impl.binary.BinaryResponse;
+import terrastore.service.BackupService;
+import terrastore.service.QueryService;
+import terrastore.service.StatsService;
+import terrastore.service.UpdateService;
+import terrastore.store.Key;
+import terrastore.store.Value;
+import terrastore.store.features.Predicate;
+import terrastore.util.collect.Maps;
+import static org.easymock.classextension.EasyMock.*;
+import static org.junit.Assert.*;
+
+/**
+ * Compare client protocols throughput over the same core server, backed by no-op services so that only
+ * protocol costs (dispatching, parsing, serialization) are measured.
+ *
+ * @author Sergio Bossa
+ */
+public class ProtocolThroughputTest {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int HTTP_PORT = 8080;
+    private static final int BINARY_PORT = 8081;
+    private static final int CONCURRENCY = 25;
+    private static final int WARMUP = 5000;
+    private static final int OPERATIONS = 50000;
+    private static final String PAYLOAD = "{\"stringField\":\"value\",\"numField\":1,\"constantArray\":[\"a\",\"b\",\"c\"],\"constantValue\":{\"stringField\":\"inner\",\"numField\":1}}";
+    private static JsonHttpServer jsonServer;
+    private static BinaryServer binaryServer;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+        updateService.putValue(eq("bucket"), EasyMock.<Key>anyObject(), EasyMock.<Value>anyObject(), EasyMock.<Predicate>anyObject());
+        expectLastCall().anyTimes();
+        queryService.getValue(eq("bucket"), EasyMock.<Key>anyObject(), EasyMock.<Predicate>anyObject());
+        expectLastCall().andReturn(new Value(PAYLOAD.getBytes())).anyTimes();
+        replay(updateService, queryService, backupService, statsService);
+        //
+        CoreServer core = new CoreServer(updateService, queryService, backupService, statsService);
+        jsonServer = new JsonHttpServer(core);
+        jsonServer.start(HOST, HTTP_PORT, Maps.hash(new String[]{JsonHttpServer.CORS_ALLOWED_ORIGINS_CONFIGURATION_PARAMETER, JsonHttpServer.HTTP_THREADS_CONFIGURATION_PARAMETER}, new String[]{"*", "100"}));
+        binaryServer = new BinaryServer(core);
+        binaryServer.start(HOST, BINARY_PORT, Maps.hash(new String[]{BinaryServer.BINARY_THREADS_CONFIGURATION_PARAMETER}, new String[]{"100"}));
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        jsonServer.stop();
+        binaryServer.stop();
+    }
+
+    @Test
+    public void jsonThroughput() throws Exception {
+        HttpConnectionManagerParams httpParams = new HttpConnectionManagerParams();
+        httpParams.setDefaultMaxConnectionsPerHost(CONCURRENCY);
+        httpParams.setMaxTotalConnections(CONCURRENCY);
+        HttpConnectionManager httpManager = new MultiThreadedHttpConnectionManager();
+        httpManager.setParams(httpParams);
+        final HttpClient httpClient = new HttpClient(httpManager);
+
+        Runnable put = new Runnable() {
+
+            public void run() {
+                try {
+                    PutMethod method = new PutMethod("http://" + HOST + ":" + HTTP_PORT + "/bucket/key");
+                    method.setRequestEntity(new StringRequestEntity(PAYLOAD, "application/json", null));
+                    httpClient.executeMethod(method);
+                    assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+                    method.releaseConnection();
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+
+        };
+        Runnable get = new Runnable() {
+
+            public void run() {
+                try {
+                    GetMethod method = new GetMethod("http://" + HOST + ":" + HTTP_PORT + "/bucket/key");
+                    httpClient.executeMethod(method);
+                    assertEquals(HttpStatus.SC_OK, method.getStatusCode());
+                    method.getResponseBody();
+                    method.releaseConnection();
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+
+        };
+
+        run(put, WARMUP);
+        report("JSON put", run(put, OPERATIONS));
+        report("JSON get", run(get, OPERATIONS));
+    }
+
+    @Test
+    public void binaryThroughput() throws Exception {
+        final BinaryClient binaryClient = new BinaryClient(HOST, BINARY_PORT, 10000, false);
+        binaryClient.connect();
+
+        Runnable put = new Runnable() {
+
+            public void run() {
+                try {
+                    binaryClient.putValue("bucket", new Key("key"), new Value(PAYLOAD.getBytes()), null);
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+
+        };
+        Runnable get = new Runnable() {
+
+            public void run() {
+                try {
+                    binaryClient.getValue("bucket", new Key("key"), null);
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+
+        };
+
+        run(put, WARMUP);
+        report("Binary put", run(put, OPERATIONS));
+        report("Binary get", run(get, OPERATIONS));
+
+        long start = System.currentTimeMillis();
+        List<Future<BinaryResponse>> responses = new ArrayList<Future<BinaryResponse>>(OPERATIONS);
+        for (int i = 0; i < OPERATIONS; i++) {
+            responses.add(binaryClient.submit(BinaryRequest.getValue("bucket", new Key("key"), null)));
+        }
+        for (Future<BinaryResponse> response : responses) {
+            assertTrue(response.get().isOk());
+        }
+        report("Binary pipelined get (single thread)", System.currentTimeMillis() - start);
+
+        binaryClient.disconnect();
+    }
+
+    private long run(Runnable operation, int times) throws Exception {
+        ExecutorService threadPool = Executors.newFixedThreadPool(CONCURRENCY);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < times; i++) {
+            threadPool.execute(operation);
+        }
+        threadPool.shutdown();
+        threadPool.awaitTermination(Integer.MAX_VALUE, TimeUnit.SECONDS);
+        return System.currentTimeMillis() - start;
+    }
+
+    private void report(String test, long elapsed) {
+        System.err.println(test + ": " + OPERATIONS + " operations in " + elapsed + " millis (" + (OPERATIONS * 1000L / Math.max(elapsed, 1)) + " ops/sec)");
+    }
+}
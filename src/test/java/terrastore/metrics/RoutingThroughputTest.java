@@ -0,0 +1,184 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.metrics;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import terrastore.communication.Cluster;
+import terrastore.communication.Node;
+import terrastore.partition.impl.ClusterHashingPartitioner;
+import terrastore.partition.impl.EnsembleHashingPartitioner;
+import terrastore.router.impl.DJBHashFunction;
+import terrastore.router.impl.DefaultRouter;
+import terrastore.router.impl.HashFunction;
+import terrastore.router.impl.KeyHashFunction;
+import terrastore.router.impl.KeyHashFunctionAdapter;
+import terrastore.router.impl.Murmur3HashFunction;
+import terrastore.router.impl.MurmurHashFunction;
+import terrastore.router.impl.SimpleHashFunction;
+import terrastore.store.Key;
+import terrastore.util.collect.Sets;
+import static org.easymock.classextension.EasyMock.*;
+import static org.junit.Assert.*;
+
+/**
+ * Measure routing and hashing throughput over one million keys, on an ensemble of in-memory clusters
+ * and nodes, so that only routing costs (hashing, partition lookup, keys grouping) are measured.
+ *
+ * @author Sergio Bossa
+ */
+public class RoutingThroughputTest {
+
+    private static final int CLUSTERS = 2;
+    private static final int NODES = 4;
+    private static final int PARTITIONS = 1024;
+    private static final int VIRTUAL_NODES = 64;
+    private static final int CONCURRENCY = 8;
+    private static final int KEYS = 1000000;
+    private static final int RUNS = 5;
+    private static Key[] keys;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        keys = new Key[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = new Key("key" + i);
+        }
+    }
+
+    @Test
+    public void routeToNodeThroughput() throws Exception {
+        final DefaultRouter router = createRouter(new MurmurHashFunction());
+
+        Runnable route = new Runnable() {
+
+            public void run() {
+                try {
+                    for (Key key : keys) {
+                        assertNotNull(router.routeToNodeFor("bucket", key));
+                    }
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+
+        };
+
+        route.run();
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            route.run();
+            report("Single key routing (single thread)", KEYS, System.nanoTime() - start);
+        }
+        for (int i = 0; i < RUNS; i++) {
+            report("Single key routing (" + CONCURRENCY + " threads)", KEYS * CONCURRENCY, run(route, CONCURRENCY));
+        }
+    }
+
+    @Test
+    public void routeToNodesThroughput() throws Exception {
+        DefaultRouter router = createRouter(new MurmurHashFunction());
+        Set<Key> keysSet = Sets.hash(keys);
+
+        router.routeToNodesFor("bucket", keysSet);
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            Map<Node, Set<Key>> routes = router.routeToNodesFor("bucket", keysSet);
+            report("Bulk keys routing", KEYS, System.nanoTime() - start);
+            assertEquals(NODES * CLUSTERS, routes.size());
+        }
+    }
+
+    @Test
+    public void hashThroughput() throws Exception {
+        HashFunction[] functions = new HashFunction[]{new SimpleHashFunction(), new DJBHashFunction(), new MurmurHashFunction(), new Murmur3HashFunction(), new Murmur3HashFunction(128)};
+        for (HashFunction function : functions) {
+            KeyHashFunction keyFunction = KeyHashFunctionAdapter.adapt(function);
+            KeyHashFunction adaptedFunction = new KeyHashFunctionAdapter(function);
+            hash(keyFunction);
+            hash(adaptedFunction);
+            for (int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                hash(keyFunction);
+                report(function + " bucket and key hashing", KEYS, System.nanoTime() - start);
+                start = System.nanoTime();
+                hash(adaptedFunction);
+                report(function + " concatenation hashing", KEYS, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private DefaultRouter createRouter(HashFunction hashFunction) {
+        ClusterHashingPartitioner clusterPartitioner = new ClusterHashingPartitioner(PARTITIONS, hashFunction, VIRTUAL_NODES);
+        EnsembleHashingPartitioner ensemblePartitioner = new EnsembleHashingPartitioner(hashFunction);
+        DefaultRouter router = new DefaultRouter(clusterPartitioner, ensemblePartitioner);
+        Set<Cluster> clusters = new HashSet<Cluster>();
+        Map<Cluster, Set<Node>> nodes = new HashMap<Cluster, Set<Node>>();
+        for (int i = 0; i < CLUSTERS; i++) {
+            Cluster cluster = createMock(Cluster.class);
+            makeThreadSafe(cluster, true);
+            expect(cluster.getName()).andReturn("cluster" + i).anyTimes();
+            replay(cluster);
+            clusters.add(cluster);
+            nodes.put(cluster, new HashSet<Node>());
+            for (int j = 0; j < NODES; j++) {
+                Node node = createMock(Node.class);
+                makeThreadSafe(node, true);
+                expect(node.getName()).andReturn("node" + i + "-" + j).anyTimes();
+                replay(node);
+                nodes.get(cluster).add(node);
+            }
+        }
+        router.setupClusters(clusters);
+        for (Map.Entry<Cluster, Set<Node>> clusterNodes : nodes.entrySet()) {
+            for (Node node : clusterNodes.getValue()) {
+                router.addRouteTo(clusterNodes.getKey(), node);
+            }
+        }
+        return router;
+    }
+
+    private void hash(KeyHashFunction function) {
+        long sum = 0;
+        for (Key key : keys) {
+            sum += function.hash("bucket", key, PARTITIONS);
+        }
+        assertTrue(sum >= 0);
+    }
+
+    private long run(Runnable operation, int threads) throws Exception {
+        ExecutorService threadPool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            threadPool.execute(operation);
+        }
+        threadPool.shutdown();
+        threadPool.awaitTermination(Integer.MAX_VALUE, TimeUnit.SECONDS);
+        return System.nanoTime() - start;
+    }
+
+    private void report(String test, long operations, long elapsedNanos) {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        System.err.println(test + ": " + operations + " operations in " + elapsed + " millis (" + (operations * 1000L / Math.max(elapsed, 1)) + " ops/sec)");
+    }
+}
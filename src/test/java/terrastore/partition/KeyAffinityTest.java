@@ -0,0 +1,68 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.partition;
+
+import org.junit.Test;
+import terrastore.store.Key;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class KeyAffinityTest {
+
+    @Test
+    public void testAffinityGroupWithBucketSeparator() {
+        KeyAffinity affinity = KeyAffinity.parse("users=:,orders=::");
+        assertEquals("user1", affinity.getAffinityGroup("users", "user1:profile"));
+        assertEquals("user1", affinity.getAffinityGroup("users", "user1:profile:name"));
+        assertEquals("user1", affinity.getAffinityGroup("users", "user1"));
+        assertEquals("order1", affinity.getAffinityGroup("orders", "order1::item1"));
+        assertEquals("order1:item1", affinity.getAffinityGroup("orders", "order1:item1"));
+        assertEquals("other:key", affinity.getAffinityGroup("other", "other:key"));
+    }
+
+    @Test
+    public void testAffinityGroupWithDefaultSeparator() {
+        KeyAffinity affinity = KeyAffinity.parse("*=:,orders=/");
+        assertEquals("user1", affinity.getAffinityGroup("users", "user1:profile"));
+        assertEquals("order1", affinity.getAffinityGroup("orders", "order1/item1"));
+        assertEquals("order1:item1", affinity.getAffinityGroup("orders", "order1:item1"));
+    }
+
+    @Test
+    public void testRoutingKey() {
+        KeyAffinity affinity = KeyAffinity.parse("users=:");
+        Key key = new Key("user1");
+        assertSame(key, affinity.getRoutingKey("users", key));
+        assertEquals(new Key("user1"), affinity.getRoutingKey("users", new Key("user1:profile")));
+        Key other = new Key("user1:profile");
+        assertSame(other, affinity.getRoutingKey("other", other));
+        assertSame(other, KeyAffinity.NONE.getRoutingKey("users", other));
+    }
+
+    @Test
+    public void testEmptyConfigurationDisablesAffinity() {
+        assertSame(KeyAffinity.NONE, KeyAffinity.parse(""));
+        assertSame(KeyAffinity.NONE, KeyAffinity.parse(null));
+        assertNull(KeyAffinity.NONE.getSeparatorFor("bucket"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongConfiguration() {
+        KeyAffinity.parse("users");
+    }
+}
@@ -18,7 +18,9 @@ package terrastore.partition.impl;
 import org.junit.Test;
 import terrastore.communication.Cluster;
 import terrastore.communication.Node;
+import terrastore.partition.AffinityClusterPartitionerStrategy;
 import terrastore.partition.CustomClusterPartitionerStrategy;
+import terrastore.partition.KeyAffinity;
 import terrastore.store.Key;
 import static org.junit.Assert.*;
 import static org.easymock.classextension.EasyMock.*;
@@ -128,4 +130,41 @@ public class ClusterCustomPartitionerTest {
 
         verify(cluster1, cluster2, node1, node2, strategy);
     }
+
+    @Test
+    public void testAffinityStrategyPlacesKeysByGroup() {
+        Cluster cluster = createMock(Cluster.class);
+        expect(cluster.getName()).andReturn("cluster").anyTimes();
+        Node node1 = createMock(Node.class);
+        expect(node1.getHost()).andReturn("host1").anyTimes();
+        expect(node1.getPort()).andReturn(8000).anyTimes();
+        Node node2 = createMock(Node.class);
+        expect(node2.getHost()).andReturn("host2").anyTimes();
+        expect(node2.getPort()).andReturn(8000).anyTimes();
+
+        replay(cluster, node1, node2);
+
+        ClusterCustomPartitioner partitioner = new ClusterCustomPartitioner(new AffinityClusterPartitionerStrategy(KeyAffinity.parse("bucket=:")) {
+
+            @Override
+            public CustomClusterPartitionerStrategy.Node getNodeForGroup(String cluster, String bucket, String group) {
+                return group.equals("group1") ? new CustomClusterPartitionerStrategy.Node("host1", 8000) : new CustomClusterPartitionerStrategy.Node("host2", 8000);
+            }
+
+            @Override
+            public CustomClusterPartitionerStrategy.Node getNodeFor(String cluster, String bucket) {
+                return new CustomClusterPartitionerStrategy.Node("host1", 8000);
+            }
+        });
+
+        partitioner.addNode(cluster, node1);
+        partitioner.addNode(cluster, node2);
+        assertSame(node1, partitioner.getNodeFor(cluster, "bucket", new Key("group1:a")));
+        assertSame(node1, partitioner.getNodeFor(cluster, "bucket", new Key("group1:b")));
+        assertSame(node1, partitioner.getNodeFor(cluster, "bucket", new Key("group1")));
+        assertSame(node2, partitioner.getNodeFor(cluster, "bucket", new Key("group2:a")));
+        assertSame(node2, partitioner.getNodeFor(cluster, "other", new Key("group1:a")));
+
+        verify(cluster, node1, node2);
+    }
 }
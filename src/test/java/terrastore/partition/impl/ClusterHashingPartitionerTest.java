@@ -15,10 +15,23 @@
  */
 package terrastore.partition.impl;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.easymock.classextension.EasyMock;
 import org.junit.Test;
+import terrastore.common.PartitionStats;
 import terrastore.communication.Cluster;
 import terrastore.communication.Node;
+import terrastore.partition.KeyAffinity;
 import terrastore.router.impl.HashFunction;
+import terrastore.router.impl.MurmurHashFunction;
+import terrastore.store.Key;
 import static org.junit.Assert.*;
 import static org.easymock.classextension.EasyMock.*;
 
@@ -277,4 +290,258 @@ public class ClusterHashingPartitionerTest {
 
         verify(cluster, node1, node2, node3, node4, node5, fn);
     }
+
+    @Test
+    public void testVirtualNodesMoveOnlyPartitionsOwnedByJoiningOrLeavingNode() {
+        Cluster cluster = createMock(Cluster.class);
+        expect(cluster.getName()).andReturn("cluster").anyTimes();
+        Node[] nodes = new Node[5];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = createMock(Node.class);
+            expect(nodes[i].getName()).andReturn("node" + (i + 1)).anyTimes();
+            replay(nodes[i]);
+        }
+        replay(cluster);
+
+        ClusterHashingPartitioner partitioner = new ClusterHashingPartitioner(1024, new MurmurHashFunction(), 64);
+
+        for (int i = 0; i < 4; i++) {
+            partitioner.addNode(cluster, nodes[i]);
+        }
+        Node[] before = ownersOf(partitioner, cluster);
+
+        partitioner.addNode(cluster, nodes[4]);
+        Node[] afterJoin = ownersOf(partitioner, cluster);
+        int moved = 0;
+        for (int i = 0; i < before.length; i++) {
+            if (before[i] != afterJoin[i]) {
+                assertSame(nodes[4], afterJoin[i]);
+                moved++;
+            }
+        }
+        assertTrue(moved > 0);
+        double movedFraction = partitioner.getLastRebuildMovedFraction(cluster);
+        assertTrue("Moved: " + movedFraction, movedFraction > 0.1 && movedFraction < 0.3);
+
+        partitioner.removeNode(cluster, nodes[4]);
+        Node[] afterLeave = ownersOf(partitioner, cluster);
+        for (int i = 0; i < before.length; i++) {
+            assertSame(before[i], afterLeave[i]);
+        }
+        assertEquals(movedFraction, partitioner.getLastRebuildMovedFraction(cluster), 0);
+
+        verify(cluster);
+        verify(nodes);
+    }
+
+    @Test
+    public void testVirtualNodesWithWeights() {
+        Cluster cluster = createMock(Cluster.class);
+        expect(cluster.getName()).andReturn("cluster").anyTimes();
+        Node node1 = createMock(Node.class);
+        expect(node1.getName()).andReturn("node1").anyTimes();
+        Node node2 = createMock(Node.class);
+        expect(node2.getName()).andReturn("node2").anyTimes();
+
+        replay(cluster, node1, node2);
+
+        ClusterHashingPartitioner partitioner = new ClusterHashingPartitioner(1024, new MurmurHashFunction(), 64);
+
+        partitioner.addNode(cluster, node1);
+        partitioner.addNode(cluster, node2);
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put("node2", 3);
+        partitioner.setNodeWeights(weights);
+
+        int owned1 = 0;
+        int owned2 = 0;
+        for (Node owner : ownersOf(partitioner, cluster)) {
+            if (owner == node1) {
+                owned1++;
+            } else if (owner == node2) {
+                owned2++;
+            } else {
+                fail();
+            }
+        }
+        assertTrue("Owned: " + owned1 + " - " + owned2, owned2 > 2 * owned1);
+        assertTrue(partitioner.getLastRebuildMovedFraction(cluster) > 0);
+
+        verify(cluster, node1, node2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongWeight() {
+        ClusterHashingPartitioner partitioner = new ClusterHashingPartitioner(1024, new MurmurHashFunction(), 64);
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put("node1", 0);
+        partitioner.setNodeWeights(weights);
+    }
+
+    @Test
+    public void testNodesAreImmutableSnapshots() {
+        Cluster cluster = createMock(Cluster.class);
+        expect(cluster.getName()).andReturn("cluster").anyTimes();
+        Node node1 = createMock(Node.class);
+        expect(node1.getName()).andReturn("node1").anyTimes();
+        Node node2 = createMock(Node.class);
+        expect(node2.getName()).andReturn("node2").anyTimes();
+
+        replay(cluster, node1, node2);
+
+        ClusterHashingPartitioner partitioner = new ClusterHashingPartitioner(1024, new MurmurHashFunction(), 64);
+
+        partitioner.addNode(cluster, node1);
+        Set<Node> nodes = partitioner.getNodesFor(cluster);
+        partitioner.addNode(cluster, node2);
+        assertEquals(1, nodes.size());
+        assertTrue(nodes.contains(node1));
+        assertEquals(2, partitioner.getNodesFor(cluster).size());
+        try {
+            nodes.add(node2);
+            fail();
+        } catch (UnsupportedOperationException ex) {
+        }
+
+        verify(cluster, node1, node2);
+    }
+
+    @Test
+    public void testMovedPartitionsSurviveRebuildsUntilTargetLeaves() {
+        Cluster cluster = createMock(Cluster.class);
+        expect(cluster.getName()).andReturn("cluster").anyTimes();
+        Node node1 = createMock(Node.class);
+        expect(node1.getName()).andReturn("node1").anyTimes();
+        Node node2 = createMock(Node.class);
+        expect(node2.getName()).andReturn("node2").anyTimes();
+        Node node3 = createMock(Node.class);
+        expect(node3.getName()).andReturn("node3").anyTimes();
+
+        replay(cluster, node1, node2, node3);
+
+        ClusterHashingPartitioner partitioner = new ClusterHashingPartitioner(1024, new MurmurHashFunction(), 64);
+
+        partitioner.addNode(cluster, node1);
+        partitioner.addNode(cluster, node2);
+        int partition = partitioner.getPartitionFor("bucket");
+        Node owner = partitioner.getNodeAtPartition(cluster, partition);
+        Node target = owner == node1 ? node2 : node1;
+        assertSame(owner, partitioner.getNodeFor(cluster, "bucket"));
+
+        Map<Integer, String> moves = new HashMap<Integer, String>();
+        moves.put(partition, target.getName());
+        moves.put(partition + 1, "unknown");
+        assertEquals(1, partitioner.movePartitions(cluster, moves).size());
+        assertSame(target, partitioner.getNodeAtPartition(cluster, partition));
+        assertSame(target, partitioner.getNodeFor(cluster, "bucket"));
+        assertEquals(1, partitioner.getPartitionMoves().size());
+        assertEquals(partition, partitioner.getPartitionMoves().get(0).getPartition());
+        assertEquals(owner.getName(), partitioner.getPartitionMoves().get(0).getFrom());
+        assertEquals(target.getName(), partitioner.getPartitionMoves().get(0).getTo());
+
+        partitioner.addNode(cluster, node3);
+        assertSame(target, partitioner.getNodeFor(cluster, "bucket"));
+
+        partitioner.removeNode(cluster, target);
+        assertNotSame(target, partitioner.getNodeFor(cluster, "bucket"));
+
+        verify(cluster, node1, node2, node3);
+    }
+
+    @Test
+    public void testMovesAreSharedThroughMoveTable() {
+        Cluster cluster = createMock(Cluster.class);
+        expect(cluster.getName()).andReturn("cluster").anyTimes();
+        Node node1 = createMock(Node.class);
+        expect(node1.getName()).andReturn("node1").anyTimes();
+        Node node2 = createMock(Node.class);
+        expect(node2.getName()).andReturn("node2").anyTimes();
+        PartitionMoveListener listener = createMock(PartitionMoveListener.class);
+        listener.partitionsMoved(same(cluster), EasyMock.<List<PartitionStats.Move>>anyObject());
+        expectLastCall().times(2);
+
+        replay(cluster, node1, node2, listener);
+
+        ConcurrentMap<Integer, String> moveTable = new ConcurrentHashMap<Integer, String>();
+        ClusterHashingPartitioner partitioner1 = new ClusterHashingPartitioner(1024, new MurmurHashFunction(), 64);
+        ClusterHashingPartitioner partitioner2 = new ClusterHashingPartitioner(1024, new MurmurHashFunction(), 64);
+        partitioner1.setMoveTable(cluster, moveTable);
+        partitioner2.setMoveTable(cluster, moveTable);
+        partitioner2.setMoveListener(listener);
+        partitioner1.addNode(cluster, node1);
+        partitioner1.addNode(cluster, node2);
+        partitioner2.addNode(cluster, node1);
+        partitioner2.addNode(cluster, node2);
+        int partition = partitioner1.getPartitionFor("bucket");
+        Node target = partitioner1.getNodeAtPartition(cluster, partition) == node1 ? node2 : node1;
+
+        // Moves are applied by other partitioners sharing the table when syncing:
+        partitioner1.movePartitions(cluster, Collections.singletonMap(partition, target.getName()));
+        assertSame(target, partitioner1.getNodeFor(cluster, "bucket"));
+        assertNotSame(target, partitioner2.getNodeFor(cluster, "bucket"));
+        assertEquals(1, partitioner2.syncMoves(cluster).size());
+        assertSame(target, partitioner2.getNodeFor(cluster, "bucket"));
+        assertEquals(0, partitioner2.syncMoves(cluster).size());
+
+        // Moves are applied by partitioners joining later:
+        ClusterHashingPartitioner partitioner3 = new ClusterHashingPartitioner(1024, new MurmurHashFunction(), 64);
+        partitioner3.setMoveTable(cluster, moveTable);
+        partitioner3.addNode(cluster, node1);
+        partitioner3.addNode(cluster, node2);
+        assertSame(target, partitioner3.getNodeFor(cluster, "bucket"));
+
+        // Moves are dropped from the table when their target leaves, and never applied again:
+        partitioner1.removeNode(cluster, target);
+        assertTrue(moveTable.isEmpty());
+        partitioner1.addNode(cluster, target);
+        assertNotSame(target, partitioner1.getNodeFor(cluster, "bucket"));
+        assertEquals(1, partitioner2.syncMoves(cluster).size());
+        assertNotSame(target, partitioner2.getNodeFor(cluster, "bucket"));
+
+        verify(cluster, node1, node2, listener);
+    }
+
+    @Test
+    public void testKeysOfTheSameAffinityGroupShareNode() {
+        Cluster cluster = createMock(Cluster.class);
+        expect(cluster.getName()).andReturn("cluster").anyTimes();
+        Node[] nodes = new Node[5];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = createMock(Node.class);
+            expect(nodes[i].getName()).andReturn("node" + (i + 1)).anyTimes();
+            replay(nodes[i]);
+        }
+        replay(cluster);
+
+        ClusterHashingPartitioner partitioner = new ClusterHashingPartitioner(1024, new MurmurHashFunction(), 64);
+        partitioner.setKeyAffinity(KeyAffinity.parse("bucket=:"));
+        for (Node node : nodes) {
+            partitioner.addNode(cluster, node);
+        }
+
+        for (int g = 0; g < 100; g++) {
+            Node owner = partitioner.getNodeFor(cluster, "bucket", new Key("group" + g));
+            int partition = partitioner.getPartitionFor("bucket", new Key("group" + g));
+            for (int k = 0; k < 10; k++) {
+                assertSame(owner, partitioner.getNodeFor(cluster, "bucket", new Key("group" + g + ":key" + k)));
+                assertEquals(partition, partitioner.getPartitionFor("bucket", new Key("group" + g + ":key" + k)));
+            }
+        }
+        Set<Node> owners = new HashSet<Node>();
+        for (int k = 0; k < 100; k++) {
+            owners.add(partitioner.getNodeFor(cluster, "other", new Key("group:key" + k)));
+        }
+        assertTrue(owners.size() > 1);
+
+        verify(cluster);
+        verify(nodes);
+    }
+
+    private Node[] ownersOf(ClusterHashingPartitioner partitioner, Cluster cluster) {
+        Node[] owners = new Node[10000];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = partitioner.getNodeFor(cluster, "bucket" + i);
+        }
+        return owners;
+    }
 }
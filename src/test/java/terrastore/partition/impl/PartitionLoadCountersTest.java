@@ -0,0 +1,71 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.partition.impl;
+
+import org.junit.Test;
+import terrastore.store.Key;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class PartitionLoadCountersTest {
+
+    @Test
+    public void testRecordReadsAndWrites() {
+        PartitionLoadCounters counters = new PartitionLoadCounters(2);
+        counters.recordRead(0, 10);
+        counters.recordWrite(0, 20);
+        counters.recordWrite(1, 5);
+        assertEquals(1, counters.getReads(0));
+        assertEquals(1, counters.getWrites(0));
+        assertEquals(30, counters.getBytes(0));
+        assertEquals(0, counters.getReads(1));
+        assertEquals(1, counters.getWrites(1));
+        assertEquals(5, counters.getBytes(1));
+    }
+
+    @Test
+    public void testCountersOnlyCoverRecentWindows() throws Exception {
+        PartitionLoadCounters counters = new PartitionLoadCounters(1, 200);
+        counters.recordRead(0, 10);
+        Thread.sleep(220);
+        // The previous window is still counted:
+        counters.recordWrite(0, 10);
+        assertEquals(1, counters.getReads(0));
+        assertEquals(1, counters.getWrites(0));
+        Thread.sleep(220);
+        // Only the previous window is counted:
+        assertEquals(0, counters.getReads(0));
+        assertEquals(1, counters.getWrites(0));
+        Thread.sleep(440);
+        // No accesses in the last two windows:
+        assertEquals(0, counters.getWrites(0));
+        assertEquals(0, counters.getBytes(0));
+    }
+
+    @Test
+    public void testHotKeysAreTheMostRecentDistinctOnes() {
+        PartitionLoadCounters counters = new PartitionLoadCounters(1);
+        counters.recordKey(0, "bucket", new Key("k1"));
+        counters.recordKey(0, "bucket", new Key("k2"));
+        counters.recordKey(0, "bucket", new Key("k2"));
+        counters.recordKey(0, "bucket", new Key("k1"));
+        assertEquals(2, counters.getHotKeys(0).size());
+        assertEquals(new Key("k1"), counters.getHotKeys(0).get(0).getKey());
+        assertEquals(new Key("k2"), counters.getHotKeys(0).get(1).getKey());
+    }
+}
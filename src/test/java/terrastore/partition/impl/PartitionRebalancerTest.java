@@ -0,0 +1,94 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.partition.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import terrastore.util.collect.Sets;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class PartitionRebalancerTest {
+
+    @Test
+    public void testHotPartitionsMoveToColdNode() {
+        Map<Integer, String> owners = new HashMap<Integer, String>();
+        Map<Integer, Long> loads = new HashMap<Integer, Long>();
+        owners.put(0, "node1");
+        loads.put(0, 100L);
+        owners.put(1, "node1");
+        loads.put(1, 90L);
+        owners.put(2, "node1");
+        loads.put(2, 10L);
+        owners.put(3, "node2");
+        loads.put(3, 10L);
+
+        PartitionRebalancer rebalancer = new PartitionRebalancer(10, 0.1);
+        Map<Integer, String> moves = rebalancer.plan(Sets.hash("node1", "node2"), owners, loads);
+
+        assertEquals(1, moves.size());
+        assertEquals("node2", moves.get(0));
+    }
+
+    @Test
+    public void testMovesAreBounded() {
+        Map<Integer, String> owners = new HashMap<Integer, String>();
+        Map<Integer, Long> loads = new HashMap<Integer, Long>();
+        for (int i = 0; i < 100; i++) {
+            owners.put(i, "node1");
+            loads.put(i, 10L);
+        }
+
+        PartitionRebalancer rebalancer = new PartitionRebalancer(5, 0.1);
+        Map<Integer, String> moves = rebalancer.plan(Sets.hash("node1", "node2", "node3"), owners, loads);
+
+        assertEquals(5, moves.size());
+        for (String target : moves.values()) {
+            assertFalse(target.equals("node1"));
+        }
+    }
+
+    @Test
+    public void testBalancedNodesDoNotMove() {
+        Map<Integer, String> owners = new HashMap<Integer, String>();
+        Map<Integer, Long> loads = new HashMap<Integer, Long>();
+        owners.put(0, "node1");
+        loads.put(0, 100L);
+        owners.put(1, "node2");
+        loads.put(1, 105L);
+
+        PartitionRebalancer rebalancer = new PartitionRebalancer(10, 0.1);
+        Map<Integer, String> moves = rebalancer.plan(Sets.hash("node1", "node2"), owners, loads);
+
+        assertTrue(moves.isEmpty());
+    }
+
+    @Test
+    public void testSingleHotPartitionIsNotBounced() {
+        Map<Integer, String> owners = new HashMap<Integer, String>();
+        Map<Integer, Long> loads = new HashMap<Integer, Long>();
+        owners.put(0, "node1");
+        loads.put(0, 1000L);
+
+        PartitionRebalancer rebalancer = new PartitionRebalancer(10, 0.1);
+        Map<Integer, String> moves = rebalancer.plan(Sets.hash("node1", "node2"), owners, loads);
+
+        assertTrue(moves.isEmpty());
+    }
+}
@@ -15,7 +15,11 @@
  */
 package terrastore.router.impl;
 
+import java.nio.charset.Charset;
+import java.util.Random;
 import org.junit.Test;
+import terrastore.store.Key;
+import static org.junit.Assert.*;
 
 /**
  * @author Sergio Bossa
@@ -27,36 +31,135 @@ public class HashFunctionsTest {
 
     @Test
     public void simpleHashFunctionTest() throws InterruptedException {
-        HashFunction fn = new SimpleHashFunction();
-        doTest(fn);
+        KeyHashFunction fn = new SimpleHashFunction();
+        doTest(fn, 1);
     }
 
     @Test
     public void djbHashFunctionTest() throws InterruptedException {
-        HashFunction fn = new DJBHashFunction();
-        doTest(fn);
+        KeyHashFunction fn = new DJBHashFunction();
+        doTest(fn, 1);
     }
 
     @Test
     public void murmurHashFunctionTest() throws InterruptedException {
-        HashFunction fn = new MurmurHashFunction();
-        doTest(fn);
+        KeyHashFunction fn = new MurmurHashFunction();
+        doTest(fn, 0.1);
     }
 
-    public void doTest(HashFunction fn) {
+    @Test
+    public void murmur3HashFunctionTest() throws InterruptedException {
+        KeyHashFunction fn = new Murmur3HashFunction();
+        doTest(fn, 0.1);
+    }
+
+    @Test
+    public void murmur3x128HashFunctionTest() throws InterruptedException {
+        KeyHashFunction fn = new Murmur3HashFunction(128);
+        doTest(fn, 0.1);
+    }
+
+    @Test
+    public void testBucketAndKeyHashingEqualsConcatenationHashing() {
+        KeyHashFunction[] functions = new KeyHashFunction[]{new SimpleHashFunction(), new DJBHashFunction(), new MurmurHashFunction(), new Murmur3HashFunction(), new Murmur3HashFunction(128)};
+        String[] samples = new String[]{"b", "k", "bucket", "key1", "\u00e8\u00e0", "\u20ac100", "\ud83d\ude00", "\ud83d", "x\ude00y", "0123456789abcdefghij"};
+        Random random = new Random(12345);
+        for (KeyHashFunction fn : functions) {
+            for (String bucket : samples) {
+                for (String key : samples) {
+                    assertEquals(fn.toString(), fn.hash(bucket + key, 1024), fn.hash(bucket, new Key(key), 1024));
+                }
+            }
+            for (int i = 0; i < 1000; i++) {
+                String bucket = randomString(random);
+                String key = randomString(random);
+                if (Character.isHighSurrogate(bucket.charAt(bucket.length() - 1))) {
+                    // Surrogate pairs split between bucket and key are encoded separately:
+                    continue;
+                }
+                assertEquals(fn.toString(), fn.hash(bucket + key, 1024), fn.hash(bucket, new Key(key), 1024));
+            }
+        }
+    }
+
+    @Test
+    public void testUtf8Encoding() {
+        Charset utf8 = Charset.forName("UTF-8");
+        Random random = new Random(12345);
+        for (int i = 0; i < 1000; i++) {
+            String value = randomString(random);
+            byte[] expected = value.getBytes(utf8);
+            assertEquals(expected.length, Utf8.length(value));
+            int position = 0;
+            int index = 0;
+            while (index < value.length()) {
+                long encoded = Utf8.encode(value, index);
+                for (int j = 0; j < Utf8.bytesCount(encoded); j++) {
+                    assertEquals(expected[position++], (byte) (Utf8.bytes(encoded) >>> (j * 8)));
+                }
+                index += Utf8.charsCount(encoded);
+            }
+            assertEquals(expected.length, position);
+        }
+    }
+
+    @Test
+    public void testMurmur3KnownValues() {
+        Murmur3HashFunction fn = new Murmur3HashFunction();
+        assertEquals(0, fn.hash32("", ""));
+        assertEquals(0x248bfa47, fn.hash32("hello", ""));
+        assertEquals(0x2e4ff723, fn.hash32("The quick brown fox jumps over the lazy dog", ""));
+        assertEquals(0x2e4ff723, fn.hash32("The quick brown fox", " jumps over the lazy dog"));
+        assertEquals(0L, fn.hash128("", ""));
+        assertEquals(0xe34bbc7bbc071b6cL, fn.hash128("The quick brown fox jumps over the lazy dog", ""));
+        assertEquals(0xe34bbc7bbc071b6cL, fn.hash128("The quick brown", " fox jumps over the lazy dog"));
+    }
+
+    public void doTest(KeyHashFunction fn, double maxDeviation) {
         int partitions = 1024;
         int iterations = 1000000;
         int[] occurrences = new int[partitions];
-        long start = System.nanoTime();
         for (int i = 0; i < iterations; i++) {
             // Using System.nanoTime() to simulate similar keys:
             int hash = fn.hash("" + Math.abs(System.nanoTime()), partitions);
             occurrences[hash]++;
         }
+        assertDistribution(fn, occurrences, maxDeviation);
 
-        System.err.println("Tested: " + fn);
-        System.err.println("Elapsed time in nanos: " + (System.nanoTime() - start));
-        System.err.println("Standard deviation of hash occurrences (lower is better): " + standardDeviation(occurrences));
+        occurrences = new int[partitions];
+        for (int i = 0; i < iterations; i++) {
+            int hash = fn.hash("bucket", new Key("" + i), partitions);
+            occurrences[hash]++;
+        }
+        assertDistribution(fn, occurrences, maxDeviation);
+    }
+
+    private void assertDistribution(HashFunction fn, int[] occurrences, double maxDeviation) {
+        for (int i = 0; i < occurrences.length; i++) {
+            assertTrue(fn + " never hashed to: " + i, occurrences[i] > 0);
+        }
+        double deviation = standardDeviation(occurrences) / mean(occurrences);
+        assertTrue(fn + " standard deviation of hash occurrences is " + deviation + " of the mean", deviation <= maxDeviation);
+    }
+
+    private String randomString(Random random) {
+        char[] chars = new char[1 + random.nextInt(20)];
+        for (int i = 0; i < chars.length; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    chars[i] = (char) random.nextInt(0x80);
+                    break;
+                case 1:
+                    chars[i] = (char) (0x80 + random.nextInt(0x780));
+                    break;
+                case 2:
+                    chars[i] = (char) (0xD800 + random.nextInt(0x800));
+                    break;
+                default:
+                    chars[i] = (char) random.nextInt(0x10000);
+            }
+        }
+        return new String(chars);
     }
 
     private double standardDeviation(int... values) {
@@ -0,0 +1,347 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.server.impl;
+
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.easymock.IAnswer;
+import org.easymock.classextension.EasyMock;
+import org.junit.Test;
+import terrastore.common.ErrorMessage;
+import terrastore.server.Keys;
+import terrastore.server.ServerOperationException;
+import terrastore.server.Values;
+import terrastore.server.impl.binary.BinaryClient;
+import terrastore.server.impl.binary.BinaryRequest;
+import terrastore.server.impl.binary.BinaryResponse;
+import terrastore.service.BackupService;
+import terrastore.service.QueryOperationException;
+import terrastore.service.QueryService;
+import terrastore.service.StatsService;
+import terrastore.service.UpdateService;
+import terrastore.store.Key;
+import terrastore.store.Value;
+import terrastore.store.features.Predicate;
+import terrastore.store.features.Range;
+import terrastore.util.collect.Maps;
+import terrastore.util.collect.Sets;
+import terrastore.util.io.MsgPackSerializer;
+import static org.easymock.classextension.EasyMock.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class BinaryServerTest {
+
+    private static final String JSON_VALUE = "{\"test\":\"test\"}";
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 8081;
+
+    @Test
+    public void testPutAndGetAndRemoveValue() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        updateService.putValue(eq("bucket"), eq(new Key("test1")), eq(new Value(JSON_VALUE.getBytes())), eq(new Predicate(null)));
+        expectLastCall().once();
+        queryService.getValue(eq("bucket"), eq(new Key("test1")), eq(new Predicate(null)));
+        expectLastCall().andReturn(new Value(JSON_VALUE.getBytes())).once();
+        updateService.removeValue("bucket", new Key("test1"));
+        expectLastCall().once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        BinaryServer server = startServerWith(updateService, queryService, backupService, statsService);
+        BinaryClient client = startClient();
+
+        client.putValue("bucket", new Key("test1"), new Value(JSON_VALUE.getBytes()), null);
+        assertEquals(JSON_VALUE, new String(client.getValue("bucket", new Key("test1"), null).getBytes()));
+        client.removeValue("bucket", new Key("test1"));
+
+        stop(client, server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testBulkPutAndGet() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        updateService.bulkPut(eq("bucket"), EasyMock.<Values>anyObject());
+        expectLastCall().andReturn(new Keys(Sets.linked(new Key("test1"), new Key("test2")))).once();
+        queryService.bulkGet(eq("bucket"), EasyMock.<Keys>anyObject());
+        expectLastCall().andReturn(new Values(Maps.linked(new Key[]{new Key("test1"), new Key("test2")}, new Value[]{new Value(JSON_VALUE.getBytes()), new Value(JSON_VALUE.getBytes())}))).once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        BinaryServer server = startServerWith(updateService, queryService, backupService, statsService);
+        BinaryClient client = startClient();
+
+        Set<Key> inserted = client.bulkPut("bucket", Maps.linked(new Key[]{new Key("test1"), new Key("test2")}, new Value[]{new Value(JSON_VALUE.getBytes()), new Value(JSON_VALUE.getBytes())}));
+        assertEquals(Sets.linked(new Key("test1"), new Key("test2")), inserted);
+        Map<Key, Value> fetched = client.bulkGet("bucket", Sets.linked(new Key("test1"), new Key("test2")));
+        assertEquals(2, fetched.size());
+        assertEquals(JSON_VALUE, new String(fetched.get(new Key("test2")).getBytes()));
+
+        stop(client, server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testQueryAndRemoveByRange() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        queryService.queryByRange(eq("bucket"), eq(new Range(new Key("k1"), new Key("k2"), 0, "order", 1000)), eq(new Predicate(null)));
+        expectLastCall().andReturn(new Values(Maps.linked(new Key[]{new Key("k1")}, new Value[]{new Value(JSON_VALUE.getBytes())}))).once();
+        updateService.removeByRange(eq("bucket"), eq(new Range(new Key("k1"), new Key("k2"), 0, "order", 1000)), eq(new Predicate(null)));
+        expectLastCall().andReturn(new Keys(Sets.linked(new Key("k1")))).once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        BinaryServer server = startServerWith(updateService, queryService, backupService, statsService);
+        BinaryClient client = startClient();
+
+        Map<Key, Value> selected = client.queryByRange("bucket", new Key("k1"), new Key("k2"), 0, "order", null, 1000);
+        assertEquals(1, selected.size());
+        assertEquals(JSON_VALUE, new String(selected.get(new Key("k1")).getBytes()));
+        Set<Key> removed = client.removeByRange("bucket", new Key("k1"), new Key("k2"), 0, "order", null, 1000);
+        assertEquals(Sets.linked(new Key("k1")), removed);
+
+        stop(client, server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testErrorIsReturnedToClient() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        queryService.getValue(eq("bucket"), eq(new Key("test1")), eq(new Predicate(null)));
+        expectLastCall().andThrow(new QueryOperationException(new ErrorMessage(ErrorMessage.NOT_FOUND_ERROR_CODE, "Key not found: test1"))).once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        BinaryServer server = startServerWith(updateService, queryService, backupService, statsService);
+        BinaryClient client = startClient();
+
+        try {
+            client.getValue("bucket", new Key("test1"), null);
+            fail("Should throw exception!");
+        } catch (ServerOperationException ex) {
+            assertEquals(ErrorMessage.NOT_FOUND_ERROR_CODE, ex.getErrorMessage().getCode());
+        } finally {
+            stop(client, server);
+        }
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testPipelinedRequestsAreCorrelated() throws Exception {
+        int requests = 100;
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        for (int i = 0; i < requests; i++) {
+            queryService.getValue(eq("bucket"), eq(new Key("test" + i)), eq(new Predicate(null)));
+            expectLastCall().andReturn(new Value(("{\"test\":" + i + "}").getBytes())).once();
+        }
+
+        replay(updateService, queryService, backupService, statsService);
+
+        BinaryServer server = startServerWith(updateService, queryService, backupService, statsService);
+        BinaryClient client = startClient();
+
+        List<Future<BinaryResponse>> responses = new ArrayList<Future<BinaryResponse>>(requests);
+        for (int i = 0; i < requests; i++) {
+            responses.add(client.submit(BinaryRequest.getValue("bucket", new Key("test" + i), null)));
+        }
+        for (int i = 0; i < requests; i++) {
+            BinaryResponse response = responses.get(i).get();
+            assertTrue(response.isOk());
+            assertEquals("{\"test\":" + i + "}", new String(response.getValue().getBytes()));
+        }
+
+        stop(client, server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testRequestsExceedingTheQueueAreRejected() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        for (int i = 0; i < 2; i++) {
+            queryService.getValue(eq("bucket"), eq(new Key("test" + i)), eq(new Predicate(null)));
+            expectLastCall().andAnswer(new IAnswer<Object>() {
+
+                @Override
+                public Object answer() throws Throwable {
+                    latch.await();
+                    return new Value(JSON_VALUE.getBytes());
+                }
+
+            }).once();
+        }
+
+        replay(updateService, queryService, backupService, statsService);
+
+        BinaryServer server = startServerWith(updateService, queryService, backupService, statsService, "1", "1");
+        BinaryClient client = startClient();
+
+        List<Future<BinaryResponse>> responses = new ArrayList<Future<BinaryResponse>>(3);
+        for (int i = 0; i < 3; i++) {
+            responses.add(client.submit(BinaryRequest.getValue("bucket", new Key("test" + i), null)));
+        }
+        BinaryResponse rejected = responses.get(2).get(10, TimeUnit.SECONDS);
+        assertFalse(rejected.isOk());
+        assertEquals(ErrorMessage.TOO_MANY_REQUESTS_ERROR_CODE, rejected.getError().getCode());
+        latch.countDown();
+        assertTrue(responses.get(0).get(10, TimeUnit.SECONDS).isOk());
+        assertTrue(responses.get(1).get(10, TimeUnit.SECONDS).isOk());
+
+        stop(client, server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testRequestsAreSubmittedAsCopiesAndTimeOut() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        queryService.getValue(eq("bucket"), eq(new Key("test")), eq(new Predicate(null)));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+
+            @Override
+            public Object answer() throws Throwable {
+                latch.await();
+                return new Value(JSON_VALUE.getBytes());
+            }
+
+        }).times(3);
+
+        replay(updateService, queryService, backupService, statsService);
+
+        BinaryServer server = startServerWith(updateService, queryService, backupService, statsService);
+        BinaryClient client = new BinaryClient(HOST, PORT, 100, false);
+        client.connect();
+
+        BinaryRequest request = BinaryRequest.getValue("bucket", new Key("test"), null);
+        Future<BinaryResponse> first = client.submit(request);
+        Future<BinaryResponse> second = client.submit(request);
+        assertEquals(0, request.getId());
+        try {
+            first.get(10, TimeUnit.SECONDS);
+            fail("Should time out!");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        try {
+            client.getValue("bucket", new Key("test"), null);
+            fail("Should time out!");
+        } catch (ServerOperationException ex) {
+            assertEquals(ErrorMessage.INTERNAL_SERVER_ERROR_CODE, ex.getErrorMessage().getCode());
+        }
+        assertTrue(second.isDone());
+        latch.countDown();
+
+        stop(client, server);
+    }
+
+    @Test
+    public void testRequestsOfOtherTypesAreRejected() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        replay(updateService, queryService, backupService, statsService);
+
+        BinaryServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        Socket socket = new Socket(HOST, PORT);
+        try {
+            byte[] request = new MsgPackSerializer<Key>(false).serialize(new Key("test"));
+            DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+            output.writeInt(request.length);
+            output.write(request);
+            output.flush();
+            socket.setSoTimeout(10000);
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+
+        server.stop();
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    private BinaryServer startServerWith(UpdateService updateService, QueryService queryService, BackupService backupService, StatsService statsService) throws Exception {
+        return startServerWith(updateService, queryService, backupService, statsService, "10", "1000");
+    }
+
+    private BinaryServer startServerWith(UpdateService updateService, QueryService queryService, BackupService backupService, StatsService statsService, String threads, String queue) throws Exception {
+        BinaryServer server = new BinaryServer(new CoreServer(updateService, queryService, backupService, statsService));
+        server.start(HOST, PORT, Maps.hash(
+                new String[]{BinaryServer.BINARY_THREADS_CONFIGURATION_PARAMETER, BinaryServer.BINARY_QUEUE_CONFIGURATION_PARAMETER},
+                new String[]{threads, queue}));
+        return server;
+    }
+
+    private BinaryClient startClient() {
+        BinaryClient client = new BinaryClient(HOST, PORT, 10000, false);
+        client.connect();
+        return client;
+    }
+
+    private void stop(BinaryClient client, BinaryServer server) throws Exception {
+        client.disconnect();
+        server.stop();
+    }
+}
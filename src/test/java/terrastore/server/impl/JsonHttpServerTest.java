@@ -15,7 +15,9 @@
  */
 package terrastore.server.impl;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -24,6 +26,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.DeleteMethod;
@@ -31,13 +34,18 @@ import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.PutMethod;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.easymock.IAnswer;
 import org.easymock.classextension.EasyMock;
 import org.junit.Test;
 import terrastore.common.ClusterStats;
 import terrastore.common.ErrorMessage;
+import terrastore.common.IndexStats;
+import terrastore.common.PartitionStats;
 import terrastore.server.Buckets;
 import terrastore.server.Keys;
 import terrastore.server.Values;
+import terrastore.server.ValuesStream;
+import terrastore.server.impl.limit.BucketRateLimiter;
 import terrastore.service.BackupService;
 import terrastore.service.QueryService;
 import terrastore.service.StatsService;
@@ -48,10 +56,12 @@ import terrastore.store.features.Predicate;
 import terrastore.store.features.Update;
 import terrastore.store.features.Range;
 import terrastore.store.Value;
+import terrastore.store.features.Expectation;
 import terrastore.store.features.Mapper;
 import terrastore.store.features.Reducer;
 import terrastore.util.collect.Maps;
 import terrastore.util.collect.Sets;
+import terrastore.util.io.IOUtils;
 import terrastore.util.json.JsonUtils;
 import static org.easymock.classextension.EasyMock.*;
 import static org.junit.Assert.*;
@@ -78,8 +88,18 @@ public class JsonHttpServerTest {
         BackupService backupService = createMock(BackupService.class);
         StatsService statsService = createMock(StatsService.class);
 
-        updateService.bulkPut(eq("bucket"), EasyMock.<Values>anyObject());
-        expectLastCall().andReturn(new Keys(Sets.hash(new Key("test")))).once();
+        updateService.bulkPut(eq("bucket"), EasyMock.<ValuesStream>anyObject());
+        expectLastCall().andAnswer(new IAnswer<Keys>() {
+
+            @Override
+            public Keys answer() throws Throwable {
+                ValuesStream values = (ValuesStream) EasyMock.getCurrentArguments()[1];
+                assertEquals(new Key("test"), values.next().getKey());
+                assertNull(values.next());
+                return new Keys(Sets.hash(new Key("test")));
+            }
+
+        }).once();
 
         replay(updateService, queryService, backupService, statsService);
 
@@ -91,9 +111,572 @@ public class JsonHttpServerTest {
         method.setRequestEntity(new StringRequestEntity(JSON_VALUES, "application/json", null));
         client.executeMethod(method);
 
-        assertEquals(HttpStatus.SC_OK, method.getStatusCode());
-        System.err.println(method.getResponseBodyAsString());
-        assertEquals(JSON_KEYS, method.getResponseBodyAsString());
+        assertEquals(HttpStatus.SC_OK, method.getStatusCode());
+        System.err.println(method.getResponseBodyAsString());
+        assertEquals(JSON_KEYS, method.getResponseBodyAsString());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testBulkGet() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        queryService.bulkGet(eq("bucket"), EasyMock.<Keys>anyObject());
+        expectLastCall().andReturn(new Values(Maps.hash(new Key[]{new Key("test")}, new Value[]{new Value(JSON_VALUE.getBytes())}))).once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PostMethod method = new PostMethod("http://localhost:8080/bucket/bulk/get");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestEntity(new StringRequestEntity(JSON_KEYS, "application/json", null));
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_OK, method.getStatusCode());
+        System.err.println(method.getResponseBodyAsString());
+        assertEquals(JSON_VALUES, method.getResponseBodyAsString());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testGetStats() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        ClusterStats.Cluster cluster = new ClusterStats.Cluster("cluster-1", Sets.linked(new ClusterStats.Node("node-1", "localhost", 8080)));
+        ClusterStats clusterStats = new ClusterStats(Sets.linked(cluster));
+
+        statsService.getClusterStats();
+        expectLastCall().andReturn(clusterStats).once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        GetMethod method = new GetMethod("http://localhost:8080/_stats/cluster");
+        method.setRequestHeader("Content-Type", "application/json");
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_OK, method.getStatusCode());
+        System.err.println(method.getResponseBodyAsString());
+        assertEquals(CLUSTER_STATS, method.getResponseBodyAsString());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testGetIndexStats() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        IndexStats indexStats = new IndexStats(Arrays.asList(new IndexStats.Index("cluster-1", "node-1", "bucket", "address.city", 10, true)));
+
+        statsService.getIndexStats();
+        expectLastCall().andReturn(indexStats).once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        GetMethod method = new GetMethod("http://localhost:8080/_stats/indexes");
+        method.setRequestHeader("Content-Type", "application/json");
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_OK, method.getStatusCode());
+        String body = method.getResponseBodyAsString();
+        System.err.println(body);
+        assertTrue(body.contains("\"node\":\"node-1\""));
+        assertTrue(body.contains("\"field\":\"address.city\""));
+        assertTrue(body.contains("\"documents\":10"));
+        assertTrue(body.contains("\"built\":true"));
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testGetPartitionStats() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        PartitionStats partitionStats = new PartitionStats("cluster-1",
+                Maps.hash(new String[]{"node-1"}, new Long[]{10L}),
+                Arrays.asList(new PartitionStats.Partition(7, "node-1", 6, 4, 0, 10)),
+                Arrays.asList(new PartitionStats.Move(7, "node-2", "node-1", 1000)));
+
+        statsService.getPartitionStats();
+        expectLastCall().andReturn(partitionStats).once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        GetMethod method = new GetMethod("http://localhost:8080/_stats/partitions");
+        method.setRequestHeader("Content-Type", "application/json");
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_OK, method.getStatusCode());
+        String body = method.getResponseBodyAsString();
+        System.err.println(body);
+        assertTrue(body.contains("\"cluster\":\"cluster-1\""));
+        assertTrue(body.contains("\"node-1\":10"));
+        assertTrue(body.contains("\"partition\":7"));
+        assertTrue(body.contains("\"from\":\"node-2\""));
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testImportBackup() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        backupService.importBackup("bucket", "source", "secret");
+        expectLastCall().once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PostMethod method = new PostMethod("http://localhost:8080/bucket/import?source=source&secret=secret");
+        method.setRequestEntity(new StringRequestEntity("", "application/json", null));
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testExportBackup() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        backupService.exportBackup("bucket", "destination", "secret");
+        expectLastCall().once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PostMethod method = new PostMethod("http://localhost:8080/bucket/export?destination=destination&secret=secret");
+        method.setRequestEntity(new StringRequestEntity("", "application/json", null));
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testRemoveBucket() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        updateService.removeBucket("bucket");
+        expectLastCall().once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        DeleteMethod method = new DeleteMethod("http://localhost:8080/bucket");
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testPutValue() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        updateService.putValue(eq("bucket"), eq(new Key("test1")), EasyMock.<Value>anyObject(), eq(new Predicate(null)));
+        expectLastCall().once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PutMethod method = new PutMethod("http://localhost:8080/bucket/test1");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestEntity(new StringRequestEntity(JSON_VALUE, "application/json", null));
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testPutExpiringValue() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        updateService.putExpiringValue(eq("bucket"), eq(new Key("test1")), EasyMock.<Value>anyObject(), eq(60000L));
+        expectLastCall().once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PutMethod method = new PutMethod("http://localhost:8080/bucket/test1?ttl=60000");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestEntity(new StringRequestEntity(JSON_VALUE, "application/json", null));
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testPutExpiringValueFailsWithPredicate() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PutMethod method = new PutMethod("http://localhost:8080/bucket/test1?ttl=60000&predicate=test:condition");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestEntity(new StringRequestEntity(JSON_VALUE, "application/json", null));
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_BAD_REQUEST, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testPutValueWithIfMatch() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        updateService.compareAndPutValue(eq("bucket"), eq(new Key("test1")), EasyMock.<Value>anyObject(), eq(Expectation.hash(0xfedcba9876543210L)));
+        expectLastCall().once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PutMethod method = new PutMethod("http://localhost:8080/bucket/test1");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestHeader("If-Match", "\"fedcba9876543210\"");
+        method.setRequestEntity(new StringRequestEntity(JSON_VALUE, "application/json", null));
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testPutValueWithUnmatchedIfMatchReturnsPreconditionFailed() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        updateService.compareAndPutValue(eq("bucket"), eq(new Key("test1")), EasyMock.<Value>anyObject(), eq(Expectation.hash(1L)));
+        expectLastCall().andThrow(new UpdateOperationException(new ErrorMessage(ErrorMessage.PRECONDITION_FAILED_ERROR_CODE, "Unmatched hash"))).once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PutMethod method = new PutMethod("http://localhost:8080/bucket/test1");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestHeader("If-Match", "\"1\"");
+        method.setRequestEntity(new StringRequestEntity(JSON_VALUE, "application/json", null));
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_PRECONDITION_FAILED, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testPutValueWithBadIfMatchReturnsBadRequest() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PutMethod method = new PutMethod("http://localhost:8080/bucket/test1");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestHeader("If-Match", "W/\"1\"");
+        method.setRequestEntity(new StringRequestEntity(JSON_VALUE, "application/json", null));
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_BAD_REQUEST, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testPutValueWithPredicate() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        updateService.putValue(eq("bucket"), eq(new Key("test1")), EasyMock.<Value>anyObject(), eq(new Predicate("test:condition")));
+        expectLastCall().once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PutMethod method = new PutMethod("http://localhost:8080/bucket/test1?predicate=test:condition");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestEntity(new StringRequestEntity(JSON_VALUE, "application/json", null));
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testRemoveValue() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        updateService.removeValue("bucket", new Key("test1"));
+        expectLastCall().once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        DeleteMethod method = new DeleteMethod("http://localhost:8080/bucket/test1");
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testPutValueWithIfVersion() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        updateService.compareAndPutValue(eq("bucket"), eq(new Key("test1")), EasyMock.<Value>anyObject(), eq(Expectation.version(3L)));
+        expectLastCall().once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PutMethod method = new PutMethod("http://localhost:8080/bucket/test1");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestHeader("X-Terrastore-If-Version", "3");
+        method.setRequestEntity(new StringRequestEntity(JSON_VALUE, "application/json", null));
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testPutValueWithIfVersionAndIfMatchReturnsBadRequest() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PutMethod method = new PutMethod("http://localhost:8080/bucket/test1");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestHeader("If-Match", "\"1\"");
+        method.setRequestHeader("X-Terrastore-If-Version", "1");
+        method.setRequestEntity(new StringRequestEntity(JSON_VALUE, "application/json", null));
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_BAD_REQUEST, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testRemoveValueWithIfMatch() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        updateService.compareAndRemoveValue("bucket", new Key("test1"), Expectation.hash(0xfedcba9876543210L));
+        expectLastCall().once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        DeleteMethod method = new DeleteMethod("http://localhost:8080/bucket/test1");
+        method.setRequestHeader("If-Match", "\"fedcba9876543210\"");
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testRemoveValueWithUnmatchedIfVersionReturnsPreconditionFailed() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        updateService.compareAndRemoveValue("bucket", new Key("test1"), Expectation.version(2L));
+        expectLastCall().andThrow(new UpdateOperationException(new ErrorMessage(ErrorMessage.PRECONDITION_FAILED_ERROR_CODE, "Unmatched version"))).once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        DeleteMethod method = new DeleteMethod("http://localhost:8080/bucket/test1");
+        method.setRequestHeader("X-Terrastore-If-Version", "2");
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_PRECONDITION_FAILED, method.getStatusCode());
 
         method.releaseConnection();
 
@@ -103,28 +686,26 @@ public class JsonHttpServerTest {
     }
 
     @Test
-    public void testBulkGet() throws Exception {
+    public void testRemoveByRangeWithNoComparator() throws Exception {
         UpdateService updateService = createMock(UpdateService.class);
         QueryService queryService = createMock(QueryService.class);
         BackupService backupService = createMock(BackupService.class);
         StatsService statsService = createMock(StatsService.class);
 
-        queryService.bulkGet(eq("bucket"), EasyMock.<Keys>anyObject());
-        expectLastCall().andReturn(new Values(Maps.hash(new Key[]{new Key("test")}, new Value[]{new Value(JSON_VALUE.getBytes())}))).once();
+        Range range = new Range(new Key("aaaa"), new Key("ffff"), 0, "", 0);
+
+        updateService.removeByRange("bucket", range, new Predicate(null));
+        expectLastCall().andReturn(new Keys(Collections.EMPTY_SET)).once();
 
         replay(updateService, queryService, backupService, statsService);
 
         JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
 
         HttpClient client = new HttpClient();
-        PostMethod method = new PostMethod("http://localhost:8080/bucket/bulk/get");
-        method.setRequestHeader("Content-Type", "application/json");
-        method.setRequestEntity(new StringRequestEntity(JSON_KEYS, "application/json", null));
+        DeleteMethod method = new DeleteMethod("http://localhost:8080/bucket/range?startKey=aaaa&endKey=ffff");
         client.executeMethod(method);
 
         assertEquals(HttpStatus.SC_OK, method.getStatusCode());
-        System.err.println(method.getResponseBodyAsString());
-        assertEquals(JSON_VALUES, method.getResponseBodyAsString());
 
         method.releaseConnection();
 
@@ -134,30 +715,26 @@ public class JsonHttpServerTest {
     }
 
     @Test
-    public void testGetStats() throws Exception {
+    public void testRemoveByRangeWithComparator() throws Exception {
         UpdateService updateService = createMock(UpdateService.class);
         QueryService queryService = createMock(QueryService.class);
         BackupService backupService = createMock(BackupService.class);
         StatsService statsService = createMock(StatsService.class);
 
-        ClusterStats.Cluster cluster = new ClusterStats.Cluster("cluster-1", Sets.linked(new ClusterStats.Node("node-1", "localhost", 8080)));
-        ClusterStats clusterStats = new ClusterStats(Sets.linked(cluster));
+        Range range = new Range(new Key("aaaa"), new Key("ffff"), 0, "lexical-asc", 0);
 
-        statsService.getClusterStats();
-        expectLastCall().andReturn(clusterStats).once();
+        updateService.removeByRange("bucket", range, new Predicate(null));
+        expectLastCall().andReturn(new Keys(Collections.EMPTY_SET)).once();
 
         replay(updateService, queryService, backupService, statsService);
 
         JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
 
         HttpClient client = new HttpClient();
-        GetMethod method = new GetMethod("http://localhost:8080/_stats/cluster");
-        method.setRequestHeader("Content-Type", "application/json");
+        DeleteMethod method = new DeleteMethod("http://localhost:8080/bucket/range?startKey=aaaa&endKey=ffff&comparator=lexical-asc");
         client.executeMethod(method);
 
         assertEquals(HttpStatus.SC_OK, method.getStatusCode());
-        System.err.println(method.getResponseBodyAsString());
-        assertEquals(CLUSTER_STATS, method.getResponseBodyAsString());
 
         method.releaseConnection();
 
@@ -167,25 +744,26 @@ public class JsonHttpServerTest {
     }
 
     @Test
-    public void testImportBackup() throws Exception {
+    public void testRemoveByRangeWithLimit() throws Exception {
         UpdateService updateService = createMock(UpdateService.class);
         QueryService queryService = createMock(QueryService.class);
         BackupService backupService = createMock(BackupService.class);
         StatsService statsService = createMock(StatsService.class);
 
-        backupService.importBackup("bucket", "source", "secret");
-        expectLastCall().once();
+        Range range = new Range(new Key("aaaa"), new Key("ffff"), 100, "", 0);
+
+        updateService.removeByRange("bucket", range, new Predicate(null));
+        expectLastCall().andReturn(new Keys(Collections.EMPTY_SET)).once();
 
         replay(updateService, queryService, backupService, statsService);
 
         JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
 
         HttpClient client = new HttpClient();
-        PostMethod method = new PostMethod("http://localhost:8080/bucket/import?source=source&secret=secret");
-        method.setRequestEntity(new StringRequestEntity("", "application/json", null));
+        DeleteMethod method = new DeleteMethod("http://localhost:8080/bucket/range?startKey=aaaa&endKey=ffff&limit=100");
         client.executeMethod(method);
 
-        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+        assertEquals(HttpStatus.SC_OK, method.getStatusCode());
 
         method.releaseConnection();
 
@@ -195,25 +773,26 @@ public class JsonHttpServerTest {
     }
 
     @Test
-    public void testExportBackup() throws Exception {
+    public void testRemoveByRangeWithPredicate() throws Exception {
         UpdateService updateService = createMock(UpdateService.class);
         QueryService queryService = createMock(QueryService.class);
         BackupService backupService = createMock(BackupService.class);
         StatsService statsService = createMock(StatsService.class);
 
-        backupService.exportBackup("bucket", "destination", "secret");
-        expectLastCall().once();
+        Range range = new Range(new Key("aaaa"), new Key("ffff"), 100, "", 10000L);
+
+        updateService.removeByRange("bucket", range, new Predicate("condition:some"));
+        expectLastCall().andReturn(new Keys(Collections.EMPTY_SET)).once();
 
         replay(updateService, queryService, backupService, statsService);
 
         JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
 
         HttpClient client = new HttpClient();
-        PostMethod method = new PostMethod("http://localhost:8080/bucket/export?destination=destination&secret=secret");
-        method.setRequestEntity(new StringRequestEntity("", "application/json", null));
+        DeleteMethod method = new DeleteMethod("http://localhost:8080/bucket/range?startKey=aaaa&endKey=ffff&limit=100&timeToLive=10000&predicate=condition:some");
         client.executeMethod(method);
 
-        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+        assertEquals(HttpStatus.SC_OK, method.getStatusCode());
 
         method.releaseConnection();
 
@@ -223,24 +802,27 @@ public class JsonHttpServerTest {
     }
 
     @Test
-    public void testRemoveBucket() throws Exception {
+    public void testGetValue() throws Exception {
         UpdateService updateService = createMock(UpdateService.class);
         QueryService queryService = createMock(QueryService.class);
         BackupService backupService = createMock(BackupService.class);
         StatsService statsService = createMock(StatsService.class);
 
-        updateService.removeBucket("bucket");
-        expectLastCall().once();
+        queryService.getValue(eq("bucket"), eq(new Key("test1")), eq(new Predicate(null)));
+        expectLastCall().andReturn(new Value(JSON_VALUE.getBytes())).once();
 
         replay(updateService, queryService, backupService, statsService);
 
         JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
 
         HttpClient client = new HttpClient();
-        DeleteMethod method = new DeleteMethod("http://localhost:8080/bucket");
+        GetMethod method = new GetMethod("http://localhost:8080/bucket/test1");
+        method.setRequestHeader("Content-Type", "application/json");
         client.executeMethod(method);
 
-        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+        assertEquals(HttpStatus.SC_OK, method.getStatusCode());
+        System.err.println(method.getResponseBodyAsString());
+        assertEquals(JSON_VALUE, method.getResponseBodyAsString());
 
         method.releaseConnection();
 
@@ -250,26 +832,30 @@ public class JsonHttpServerTest {
     }
 
     @Test
-    public void testPutValue() throws Exception {
+    public void testGetValueReturnsETag() throws Exception {
         UpdateService updateService = createMock(UpdateService.class);
         QueryService queryService = createMock(QueryService.class);
         BackupService backupService = createMock(BackupService.class);
         StatsService statsService = createMock(StatsService.class);
 
-        updateService.putValue(eq("bucket"), eq(new Key("test1")), EasyMock.<Value>anyObject(), eq(new Predicate(null)));
-        expectLastCall().once();
+        Value value = new Value(JSON_VALUE.getBytes(), 1L, 7L);
+
+        queryService.getValue(eq("bucket"), eq(new Key("test1")), eq(new Predicate(null)));
+        expectLastCall().andReturn(value).once();
 
         replay(updateService, queryService, backupService, statsService);
 
         JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
 
         HttpClient client = new HttpClient();
-        PutMethod method = new PutMethod("http://localhost:8080/bucket/test1");
+        GetMethod method = new GetMethod("http://localhost:8080/bucket/test1");
         method.setRequestHeader("Content-Type", "application/json");
-        method.setRequestEntity(new StringRequestEntity(JSON_VALUE, "application/json", null));
         client.executeMethod(method);
 
-        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+        assertEquals(HttpStatus.SC_OK, method.getStatusCode());
+        assertEquals("\"" + Long.toHexString(value.getHash()) + "\"", method.getResponseHeader("ETag").getValue());
+        assertEquals("7", method.getResponseHeader("X-Terrastore-Version").getValue());
+        assertEquals(JSON_VALUE, method.getResponseBodyAsString());
 
         method.releaseConnection();
 
@@ -279,26 +865,29 @@ public class JsonHttpServerTest {
     }
 
     @Test
-    public void testPutValueWithPredicate() throws Exception {
+    public void testGetValueWithMatchingIfNoneMatchReturnsNotModified() throws Exception {
         UpdateService updateService = createMock(UpdateService.class);
         QueryService queryService = createMock(QueryService.class);
         BackupService backupService = createMock(BackupService.class);
         StatsService statsService = createMock(StatsService.class);
 
-        updateService.putValue(eq("bucket"), eq(new Key("test1")), EasyMock.<Value>anyObject(), eq(new Predicate("test:condition")));
-        expectLastCall().once();
+        Value value = new Value(JSON_VALUE.getBytes());
+
+        queryService.getValue(eq("bucket"), eq(new Key("test1")), eq(new Predicate(null)));
+        expectLastCall().andReturn(value).once();
 
         replay(updateService, queryService, backupService, statsService);
 
         JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
 
         HttpClient client = new HttpClient();
-        PutMethod method = new PutMethod("http://localhost:8080/bucket/test1?predicate=test:condition");
+        GetMethod method = new GetMethod("http://localhost:8080/bucket/test1");
         method.setRequestHeader("Content-Type", "application/json");
-        method.setRequestEntity(new StringRequestEntity(JSON_VALUE, "application/json", null));
+        method.setRequestHeader("If-None-Match", "\"" + Long.toHexString(value.getHash()) + "\"");
         client.executeMethod(method);
 
-        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+        assertEquals(HttpStatus.SC_NOT_MODIFIED, method.getStatusCode());
+        assertNull(method.getResponseBody());
 
         method.releaseConnection();
 
@@ -308,24 +897,27 @@ public class JsonHttpServerTest {
     }
 
     @Test
-    public void testRemoveValue() throws Exception {
+    public void testGetValueWithUnmatchingIfNoneMatchReturnsValue() throws Exception {
         UpdateService updateService = createMock(UpdateService.class);
         QueryService queryService = createMock(QueryService.class);
         BackupService backupService = createMock(BackupService.class);
         StatsService statsService = createMock(StatsService.class);
 
-        updateService.removeValue("bucket", new Key("test1"));
-        expectLastCall().once();
+        queryService.getValue(eq("bucket"), eq(new Key("test1")), eq(new Predicate(null)));
+        expectLastCall().andReturn(new Value(JSON_VALUE.getBytes())).once();
 
         replay(updateService, queryService, backupService, statsService);
 
         JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
 
         HttpClient client = new HttpClient();
-        DeleteMethod method = new DeleteMethod("http://localhost:8080/bucket/test1");
+        GetMethod method = new GetMethod("http://localhost:8080/bucket/test1");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestHeader("If-None-Match", "\"0\"");
         client.executeMethod(method);
 
-        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+        assertEquals(HttpStatus.SC_OK, method.getStatusCode());
+        assertEquals(JSON_VALUE, method.getResponseBodyAsString());
 
         method.releaseConnection();
 
@@ -335,27 +927,33 @@ public class JsonHttpServerTest {
     }
 
     @Test
-    public void testRemoveByRangeWithNoComparator() throws Exception {
+    public void testGetValueOverRateLimitReturnsTooManyRequests() throws Exception {
         UpdateService updateService = createMock(UpdateService.class);
         QueryService queryService = createMock(QueryService.class);
         BackupService backupService = createMock(BackupService.class);
         StatsService statsService = createMock(StatsService.class);
 
-        Range range = new Range(new Key("aaaa"), new Key("ffff"), 0, "", 0);
-
-        updateService.removeByRange("bucket", range, new Predicate(null));
-        expectLastCall().andReturn(new Keys(Collections.EMPTY_SET)).once();
+        queryService.getValue(eq("bucket"), eq(new Key("test1")), eq(new Predicate(null)));
+        expectLastCall().andReturn(new Value(JSON_VALUE.getBytes())).once();
 
         replay(updateService, queryService, backupService, statsService);
 
-        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+        BucketRateLimiter rateLimiter = new BucketRateLimiter();
+        rateLimiter.setLimits("bucket", 1, 0);
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService, rateLimiter);
 
         HttpClient client = new HttpClient();
-        DeleteMethod method = new DeleteMethod("http://localhost:8080/bucket/range?startKey=aaaa&endKey=ffff");
+        GetMethod method = new GetMethod("http://localhost:8080/bucket/test1");
+        method.setRequestHeader("Content-Type", "application/json");
         client.executeMethod(method);
-
         assertEquals(HttpStatus.SC_OK, method.getStatusCode());
+        method.releaseConnection();
 
+        method = new GetMethod("http://localhost:8080/bucket/test1");
+        method.setRequestHeader("Content-Type", "application/json");
+        client.executeMethod(method);
+        assertEquals(429, method.getStatusCode());
+        assertEquals("1", method.getResponseHeader("Retry-After").getValue());
         method.releaseConnection();
 
         stopServer(server);
@@ -364,28 +962,33 @@ public class JsonHttpServerTest {
     }
 
     @Test
-    public void testRemoveByRangeWithComparator() throws Exception {
+    public void testSetAndGetRateLimits() throws Exception {
         UpdateService updateService = createMock(UpdateService.class);
         QueryService queryService = createMock(QueryService.class);
         BackupService backupService = createMock(BackupService.class);
         StatsService statsService = createMock(StatsService.class);
 
-        Range range = new Range(new Key("aaaa"), new Key("ffff"), 0, "lexical-asc", 0);
-
-        updateService.removeByRange("bucket", range, new Predicate(null));
-        expectLastCall().andReturn(new Keys(Collections.EMPTY_SET)).once();
-
         replay(updateService, queryService, backupService, statsService);
 
         JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
 
         HttpClient client = new HttpClient();
-        DeleteMethod method = new DeleteMethod("http://localhost:8080/bucket/range?startKey=aaaa&endKey=ffff&comparator=lexical-asc");
-        client.executeMethod(method);
-
-        assertEquals(HttpStatus.SC_OK, method.getStatusCode());
-
-        method.releaseConnection();
+        PutMethod put = new PutMethod("http://localhost:8080/_limits/bucket?operations=10&bytes=1000");
+        client.executeMethod(put);
+        assertEquals(HttpStatus.SC_NO_CONTENT, put.getStatusCode());
+        put.releaseConnection();
+
+        GetMethod get = new GetMethod("http://localhost:8080/_limits");
+        client.executeMethod(get);
+        assertEquals(HttpStatus.SC_OK, get.getStatusCode());
+        assertEquals("{\"defaults\":{\"operationsPerSecond\":0,\"bytesPerSecond\":0,\"rejectedOperations\":0},"
+                + "\"buckets\":{\"bucket\":{\"operationsPerSecond\":10,\"bytesPerSecond\":1000,\"rejectedOperations\":0}}}", get.getResponseBodyAsString());
+        get.releaseConnection();
+
+        DeleteMethod delete = new DeleteMethod("http://localhost:8080/_limits/bucket");
+        client.executeMethod(delete);
+        assertEquals(HttpStatus.SC_NO_CONTENT, delete.getStatusCode());
+        delete.releaseConnection();
 
         stopServer(server);
 
@@ -393,26 +996,30 @@ public class JsonHttpServerTest {
     }
 
     @Test
-    public void testRemoveByRangeWithLimit() throws Exception {
+    public void testGetValueWithLzfEncodingSendsStoredCompressedBytes() throws Exception {
         UpdateService updateService = createMock(UpdateService.class);
         QueryService queryService = createMock(QueryService.class);
         BackupService backupService = createMock(BackupService.class);
         StatsService statsService = createMock(StatsService.class);
 
-        Range range = new Range(new Key("aaaa"), new Key("ffff"), 100, "", 0);
+        byte[] compressed = IOUtils.readAndCompress(new ByteArrayInputStream(JSON_VALUE.getBytes()));
 
-        updateService.removeByRange("bucket", range, new Predicate(null));
-        expectLastCall().andReturn(new Keys(Collections.EMPTY_SET)).once();
+        queryService.getValue(eq("bucket"), eq(new Key("test1")), eq(new Predicate(null)));
+        expectLastCall().andReturn(new Value(compressed)).once();
 
         replay(updateService, queryService, backupService, statsService);
 
         JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
 
         HttpClient client = new HttpClient();
-        DeleteMethod method = new DeleteMethod("http://localhost:8080/bucket/range?startKey=aaaa&endKey=ffff&limit=100");
+        GetMethod method = new GetMethod("http://localhost:8080/bucket/test1");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestHeader("Accept-Encoding", "gzip, lzf");
         client.executeMethod(method);
 
         assertEquals(HttpStatus.SC_OK, method.getStatusCode());
+        assertEquals("lzf", method.getResponseHeader("Content-Encoding").getValue());
+        assertArrayEquals(compressed, method.getResponseBody());
 
         method.releaseConnection();
 
@@ -422,26 +1029,29 @@ public class JsonHttpServerTest {
     }
 
     @Test
-    public void testRemoveByRangeWithPredicate() throws Exception {
+    public void testGetValueWithGzipEncoding() throws Exception {
         UpdateService updateService = createMock(UpdateService.class);
         QueryService queryService = createMock(QueryService.class);
         BackupService backupService = createMock(BackupService.class);
         StatsService statsService = createMock(StatsService.class);
 
-        Range range = new Range(new Key("aaaa"), new Key("ffff"), 100, "", 10000L);
-
-        updateService.removeByRange("bucket", range, new Predicate("condition:some"));
-        expectLastCall().andReturn(new Keys(Collections.EMPTY_SET)).once();
+        queryService.getValue(eq("bucket"), eq(new Key("test1")), eq(new Predicate(null)));
+        expectLastCall().andReturn(new Value(IOUtils.readAndCompress(new ByteArrayInputStream(JSON_VALUE.getBytes())))).once();
 
         replay(updateService, queryService, backupService, statsService);
 
         JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
 
         HttpClient client = new HttpClient();
-        DeleteMethod method = new DeleteMethod("http://localhost:8080/bucket/range?startKey=aaaa&endKey=ffff&limit=100&timeToLive=10000&predicate=condition:some");
+        GetMethod method = new GetMethod("http://localhost:8080/bucket/test1");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestHeader("Accept-Encoding", "gzip, lzf;q=0");
         client.executeMethod(method);
 
         assertEquals(HttpStatus.SC_OK, method.getStatusCode());
+        assertEquals("gzip", method.getResponseHeader("Content-Encoding").getValue());
+        assertEquals("Accept-Encoding", method.getResponseHeader("Vary").getValue());
+        assertEquals(JSON_VALUE, new String(IOUtils.read(new GZIPInputStream(method.getResponseBodyAsStream()))));
 
         method.releaseConnection();
 
@@ -451,27 +1061,71 @@ public class JsonHttpServerTest {
     }
 
     @Test
-    public void testGetValue() throws Exception {
+    public void testEncodingIsNotCarriedOverToNextRequests() throws Exception {
         UpdateService updateService = createMock(UpdateService.class);
         QueryService queryService = createMock(QueryService.class);
         BackupService backupService = createMock(BackupService.class);
         StatsService statsService = createMock(StatsService.class);
 
+        updateService.putValue(eq("bucket"), eq(new Key("test1")), EasyMock.<Value>anyObject(), eq(new Predicate(null)));
+        expectLastCall().times(10);
         queryService.getValue(eq("bucket"), eq(new Key("test1")), eq(new Predicate(null)));
-        expectLastCall().andReturn(new Value(JSON_VALUE.getBytes())).once();
+        expectLastCall().andReturn(new Value(JSON_VALUE.getBytes())).times(10);
 
         replay(updateService, queryService, backupService, statsService);
 
         JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
 
         HttpClient client = new HttpClient();
-        GetMethod method = new GetMethod("http://localhost:8080/bucket/test1");
+        for (int i = 0; i < 10; i++) {
+            // Responses with no body are never encoded:
+            PutMethod put = new PutMethod("http://localhost:8080/bucket/test1");
+            put.setRequestHeader("Content-Type", "application/json");
+            put.setRequestHeader("Accept-Encoding", "lzf");
+            put.setRequestEntity(new StringRequestEntity(JSON_VALUE, "application/json", null));
+            client.executeMethod(put);
+            assertEquals(HttpStatus.SC_NO_CONTENT, put.getStatusCode());
+            put.releaseConnection();
+
+            GetMethod get = new GetMethod("http://localhost:8080/bucket/test1");
+            get.setRequestHeader("Content-Type", "application/json");
+            client.executeMethod(get);
+            assertEquals(HttpStatus.SC_OK, get.getStatusCode());
+            assertNull(get.getResponseHeader("Content-Encoding"));
+            assertEquals("Accept-Encoding", get.getResponseHeader("Vary").getValue());
+            assertEquals(JSON_VALUE, get.getResponseBodyAsString());
+            get.releaseConnection();
+        }
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testBulkGetWithLzfEncoding() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        queryService.bulkGet(eq("bucket"), EasyMock.<Keys>anyObject());
+        expectLastCall().andReturn(new Values(Maps.hash(new Key[]{new Key("test")}, new Value[]{new Value(JSON_VALUE.getBytes())}))).once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PostMethod method = new PostMethod("http://localhost:8080/bucket/bulk/get");
         method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestHeader("Accept-Encoding", "lzf");
+        method.setRequestEntity(new StringRequestEntity(JSON_KEYS, "application/json", null));
         client.executeMethod(method);
 
         assertEquals(HttpStatus.SC_OK, method.getStatusCode());
-        System.err.println(method.getResponseBodyAsString());
-        assertEquals(JSON_VALUE, method.getResponseBodyAsString());
+        assertEquals("lzf", method.getResponseHeader("Content-Encoding").getValue());
+        assertEquals(JSON_VALUES, new String(IOUtils.readCompressed(method.getResponseBodyAsStream())));
 
         method.releaseConnection();
 
@@ -747,6 +1401,40 @@ public class JsonHttpServerTest {
         verify(updateService, queryService, backupService, statsService);
     }
 
+    @Test
+    public void testQueryByIndex() throws Exception {
+        Map<Key, Value> values = new LinkedHashMap<Key, Value>();
+        values.put(new Key("test1"), new Value(JSON_VALUE.getBytes()));
+        values.put(new Key("test2"), new Value(JSON_VALUE.getBytes()));
+
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        queryService.queryByIndex(eq("bucket"), eq(new Predicate("test:condition")));
+        expectLastCall().andReturn(new Values(values)).once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        GetMethod method = new GetMethod("http://localhost:8080/bucket/query?predicate=test:condition");
+        method.setRequestHeader("Content-Type", "application/json");
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_OK, method.getStatusCode());
+        System.err.println(method.getResponseBodyAsString());
+        assertEquals(JSON_VALUES_x2, method.getResponseBodyAsString());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
     @Test
     public void testQueryByMapReduceWithRange() throws Exception {
         String bucket = "bucket";
@@ -883,6 +1571,65 @@ public class JsonHttpServerTest {
         verify(updateService, queryService, backupService, statsService);
     }
 
+    @Test
+    public void testIncrementCounters() throws Exception {
+        Map<String, Long> increments = new HashMap<String, Long>();
+        increments.put("c1", 1L);
+        increments.put("c2", -2L);
+
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        updateService.incrementCounters(eq("bucket"), eq(new Key("key")), eq(increments));
+        expectLastCall().once();
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PostMethod method = new PostMethod("http://localhost:8080/bucket/key/counters");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestEntity(new StringRequestEntity("{\"c1\":1,\"c2\":-2}", "application/json", null));
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_NO_CONTENT, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
+    @Test
+    public void testIncrementCountersFailsWithNotIntegralIncrements() throws Exception {
+        UpdateService updateService = createMock(UpdateService.class);
+        QueryService queryService = createMock(QueryService.class);
+        BackupService backupService = createMock(BackupService.class);
+        StatsService statsService = createMock(StatsService.class);
+
+        replay(updateService, queryService, backupService, statsService);
+
+        JsonHttpServer server = startServerWith(updateService, queryService, backupService, statsService);
+
+        HttpClient client = new HttpClient();
+        PostMethod method = new PostMethod("http://localhost:8080/bucket/key/counters");
+        method.setRequestHeader("Content-Type", "application/json");
+        method.setRequestEntity(new StringRequestEntity("{\"c1\":\"one\"}", "application/json", null));
+        client.executeMethod(method);
+
+        assertEquals(HttpStatus.SC_BAD_REQUEST, method.getStatusCode());
+
+        method.releaseConnection();
+
+        stopServer(server);
+
+        verify(updateService, queryService, backupService, statsService);
+    }
+
     @Test
     public void testJsonErrorMessageOnInternalFail() throws Exception {
         UpdateService updateService = createMock(UpdateService.class);
@@ -913,7 +1660,11 @@ public class JsonHttpServerTest {
     }
 
     private JsonHttpServer startServerWith(UpdateService updateService, QueryService queryService, BackupService backupService, StatsService statsService) throws Exception {
-        JsonHttpServer server = new JsonHttpServer(new CoreServer(updateService, queryService, backupService, statsService));
+        return startServerWith(updateService, queryService, backupService, statsService, new BucketRateLimiter());
+    }
+
+    private JsonHttpServer startServerWith(UpdateService updateService, QueryService queryService, BackupService backupService, StatsService statsService, BucketRateLimiter rateLimiter) throws Exception {
+        JsonHttpServer server = new JsonHttpServer(new CoreServer(updateService, queryService, backupService, statsService, rateLimiter));
         server.start("127.0.0.1", 8080, Maps.hash(new String[]{JsonHttpServer.CORS_ALLOWED_ORIGINS_CONFIGURATION_PARAMETER, JsonHttpServer.HTTP_THREADS_CONFIGURATION_PARAMETER}, new String[]{"*", "10"}));
 
         Thread.sleep(1000);
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.server.impl.limit;
+
+import org.junit.Test;
+import terrastore.common.RateLimits;
+import terrastore.store.Value;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class BucketRateLimiterTest {
+
+    @Test
+    public void testUnlimitedByDefault() throws Exception {
+        BucketRateLimiter limiter = new BucketRateLimiter();
+        for (int i = 0; i < 10000; i++) {
+            limiter.acquire("bucket", 1, 1000);
+        }
+        assertTrue(limiter.getRateLimits().getBuckets().isEmpty());
+    }
+
+    @Test
+    public void testOperationsLimitRejectsAndCountsRejections() throws Exception {
+        BucketRateLimiter limiter = new BucketRateLimiter(2, 0);
+        limiter.acquire("bucket", 1, 0);
+        limiter.acquire("bucket", 1, 0);
+        try {
+            limiter.acquire("bucket", 1, 0);
+            fail("Should have been rejected!");
+        } catch (RateLimitExceededException ex) {
+            assertEquals(429, ex.getErrorMessage().getCode());
+            assertTrue(ex.getRetryAfter() > 0);
+            assertTrue(ex.getRetryAfter() <= 500);
+        }
+        // Rejections of buckets without specific limits are counted all together:
+        assertEquals(1, limiter.getRateLimits().getDefaults().getRejectedOperations());
+        assertTrue(limiter.getRateLimits().getBuckets().isEmpty());
+        // Other buckets are not affected:
+        limiter.acquire("other", 1, 0);
+    }
+
+    @Test
+    public void testRejectionsOfBucketsWithSpecificLimitsAreCountedPerBucket() throws Exception {
+        BucketRateLimiter limiter = new BucketRateLimiter(1, 0);
+        limiter.setLimits("bucket", 1, 0);
+        limiter.acquire("bucket", 1, 0);
+        try {
+            limiter.acquire("bucket", 1, 0);
+            fail("Should have been rejected!");
+        } catch (RateLimitExceededException ex) {
+        }
+        assertEquals(1, limiter.getRateLimits().getBuckets().get("bucket").getRejectedOperations());
+        assertEquals(0, limiter.getRateLimits().getDefaults().getRejectedOperations());
+    }
+
+    @Test
+    public void testIdleThrottlesOfBucketsWithoutSpecificLimitsAreDropped() throws Exception {
+        BucketRateLimiter limiter = new BucketRateLimiter(1000, 0);
+        for (int i = 0; i < 1000; i++) {
+            limiter.acquire("bucket" + i, 1, 0);
+        }
+        Thread.sleep(100);
+        for (int i = 1000; i < 2000; i++) {
+            limiter.acquire("bucket" + i, 1, 0);
+        }
+        assertTrue(limiter.getThrottlesCount() < 2000);
+    }
+
+    @Test
+    public void testBytesLimitRejects() throws Exception {
+        BucketRateLimiter limiter = new BucketRateLimiter(0, 100);
+        limiter.acquire("bucket", 1, 60);
+        try {
+            limiter.acquire("bucket", 1, 60);
+            fail("Should have been rejected!");
+        } catch (RateLimitExceededException ex) {
+        }
+    }
+
+    @Test
+    public void testRequestsLargerThanLimitAreAdmittedWhenIdleAndLeaveDebt() throws Exception {
+        BucketRateLimiter limiter = new BucketRateLimiter(0, 100);
+        limiter.acquire("bucket", 1, 1000);
+        try {
+            limiter.acquire("bucket", 1, 1);
+            fail("Should have been rejected!");
+        } catch (RateLimitExceededException ex) {
+            assertTrue(ex.getRetryAfter() > 9000);
+        }
+    }
+
+    @Test
+    public void testConsumedBytesDelaySubsequentOperations() throws Exception {
+        BucketRateLimiter limiter = new BucketRateLimiter(0, 100);
+        limiter.acquire("bucket", 1, 0);
+        limiter.consume("bucket", 200);
+        try {
+            limiter.acquire("bucket", 1, 0);
+            fail("Should have been rejected!");
+        } catch (RateLimitExceededException ex) {
+        }
+    }
+
+    @Test
+    public void testBucketLimitsOverrideDefaultsAndCanBeRemoved() throws Exception {
+        BucketRateLimiter limiter = new BucketRateLimiter(1, 0);
+        limiter.setLimits("bucket", 0, 0);
+        limiter.acquire("bucket", 1, 0);
+        limiter.acquire("bucket", 1, 0);
+        limiter.removeLimits("bucket");
+        limiter.acquire("bucket", 1, 0);
+        try {
+            limiter.acquire("bucket", 1, 0);
+            fail("Should have been rejected!");
+        } catch (RateLimitExceededException ex) {
+        }
+    }
+
+    @Test
+    public void testSetDefaultLimitsAtRuntime() throws Exception {
+        BucketRateLimiter limiter = new BucketRateLimiter();
+        limiter.acquire("bucket", 1, 0);
+        limiter.setDefaultLimits(1, 0);
+        limiter.acquire("bucket", 1, 0);
+        try {
+            limiter.acquire("bucket", 1, 0);
+            fail("Should have been rejected!");
+        } catch (RateLimitExceededException ex) {
+        }
+        limiter.setDefaultLimits(0, 0);
+        limiter.acquire("bucket", 1, 0);
+    }
+
+    @Test
+    public void testAwaitPacesOperations() throws Exception {
+        BucketRateLimiter limiter = new BucketRateLimiter(10, 0);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 15; i++) {
+            limiter.await("bucket", 1, 0);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed >= 400);
+        assertEquals(0, limiter.getRateLimits().getBuckets().size());
+    }
+
+    @Test
+    public void testGetRateLimits() throws Exception {
+        BucketRateLimiter limiter = new BucketRateLimiter(10, 1000);
+        limiter.setLimits("bucket", 20, 2000);
+        RateLimits limits = limiter.getRateLimits();
+        assertEquals(10, limits.getDefaults().getOperationsPerSecond());
+        assertEquals(1000, limits.getDefaults().getBytesPerSecond());
+        assertEquals(20, limits.getBuckets().get("bucket").getOperationsPerSecond());
+        assertEquals(2000, limits.getBuckets().get("bucket").getBytesPerSecond());
+        assertEquals(0, limits.getBuckets().get("bucket").getRejectedOperations());
+    }
+
+    @Test
+    public void testSizeOf() throws Exception {
+        assertEquals(15, BucketRateLimiter.sizeOf(new Value("{\"test\":\"test\"}".getBytes("UTF-8"))));
+        assertEquals(0, BucketRateLimiter.sizeOf((Value) null));
+    }
+
+}
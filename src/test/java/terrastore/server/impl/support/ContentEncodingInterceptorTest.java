@@ -0,0 +1,57 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.server.impl.support;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class ContentEncodingInterceptorTest {
+
+    @Test
+    public void testLzfIsPreferredOnTies() {
+        assertEquals("lzf", ContentEncodingInterceptor.selectEncoding(Arrays.asList("gzip, lzf")));
+        assertEquals("lzf", ContentEncodingInterceptor.selectEncoding(Arrays.asList("gzip;q=0.5", "lzf;q=0.5")));
+    }
+
+    @Test
+    public void testHighestQualityEncodingIsSelected() {
+        assertEquals("gzip", ContentEncodingInterceptor.selectEncoding(Arrays.asList("lzf;q=0.1, gzip;q=0.9")));
+        assertEquals("gzip", ContentEncodingInterceptor.selectEncoding(Arrays.asList("x-gzip, lzf;q=0.5")));
+        assertEquals("lzf", ContentEncodingInterceptor.selectEncoding(Arrays.asList("gzip;q=0.2, lzf;q=0.3")));
+    }
+
+    @Test
+    public void testRefusedEncodingsAreNotSelected() {
+        assertEquals("gzip", ContentEncodingInterceptor.selectEncoding(Arrays.asList("gzip, lzf;q=0")));
+        assertNull(ContentEncodingInterceptor.selectEncoding(Arrays.asList("gzip;q=0, lzf;q=0")));
+        assertNull(ContentEncodingInterceptor.selectEncoding(Arrays.asList("deflate")));
+        assertNull(ContentEncodingInterceptor.selectEncoding(Collections.<String>emptyList()));
+        assertNull(ContentEncodingInterceptor.selectEncoding(null));
+    }
+
+    @Test
+    public void testWildcardAndIdentity() {
+        assertEquals("lzf", ContentEncodingInterceptor.selectEncoding(Arrays.asList("*")));
+        assertEquals("gzip", ContentEncodingInterceptor.selectEncoding(Arrays.asList("*;q=0.5, gzip")));
+        assertNull(ContentEncodingInterceptor.selectEncoding(Arrays.asList("identity, gzip;q=0.5")));
+        assertNull(ContentEncodingInterceptor.selectEncoding(Arrays.asList("*;q=0")));
+    }
+}
@@ -35,6 +35,7 @@ import terrastore.communication.protocol.GetBucketsCommand;
 import terrastore.communication.protocol.GetValueCommand;
 import terrastore.communication.protocol.GetValuesCommand;
 import terrastore.communication.protocol.MapCommand;
+import terrastore.communication.protocol.QueryByIndexCommand;
 import terrastore.communication.protocol.ReduceCommand;
 import terrastore.router.Router;
 import terrastore.server.Keys;
@@ -780,6 +781,87 @@ public class DefaultQueryServiceTest {
         verify(cluster1, cluster2, node1, node2, router);
     }
 
+    @Test
+    public void testQueryByIndex() throws Exception {
+        Cluster cluster1 = createMock(Cluster.class);
+        Cluster cluster2 = createMock(Cluster.class);
+        Node node1 = createMock(Node.class);
+        makeThreadSafe(node1, true);
+        Node node2 = createMock(Node.class);
+        makeThreadSafe(node2, true);
+        Router router = createMock(Router.class);
+        Map<Key, Value> values1 = new HashMap<Key, Value>();
+        values1.put(new Key("test1"), new Value(JSON_VALUE.getBytes()));
+        Map<Key, Value> values2 = new HashMap<Key, Value>();
+        values2.put(new Key("test2"), new Value(JSON_VALUE.getBytes()));
+
+        router.broadcastRoute();
+        expectLastCall().andReturn(Maps.hash(new Cluster[]{cluster1, cluster2}, new Set[]{Sets.hash(node1), Sets.hash(node2)})).once();
+
+        node1.send(isA(QueryByIndexCommand.class));
+        expectLastCall().andReturn(values1).once();
+        node2.send(isA(QueryByIndexCommand.class));
+        expectLastCall().andReturn(values2).once();
+
+        replay(cluster1, cluster2, node1, node2, router);
+
+        DefaultQueryService service = new DefaultQueryService(router, new DefaultKeyRangeStrategy());
+
+        Map<Key, Value> result = service.queryByIndex("bucket", new Predicate("query:test = 'test'"));
+        assertEquals(2, result.size());
+        assertTrue(result.containsKey(new Key("test1")));
+        assertTrue(result.containsKey(new Key("test2")));
+
+        verify(cluster1, cluster2, node1, node2, router);
+    }
+
+    @Test
+    public void testQueryByIndexFallsBackToPredicateQueryWhenSomeNodeCannotAnswerByIndexes() throws Exception {
+        Cluster cluster1 = createMock(Cluster.class);
+        Node node1 = createMock(Node.class);
+        makeThreadSafe(node1, true);
+        Node node2 = createMock(Node.class);
+        makeThreadSafe(node2, true);
+        Router router = createMock(Router.class);
+        Map<Node, Set<Key>> nodeToKeys = new HashMap<Node, Set<Key>>();
+        nodeToKeys.put(node1, new HashSet<Key>(Arrays.asList(new Key("test1"))));
+        nodeToKeys.put(node2, new HashSet<Key>(Arrays.asList(new Key("test2"))));
+        Map<Key, Value> values1 = new HashMap<Key, Value>();
+        values1.put(new Key("test1"), new Value(JSON_VALUE.getBytes()));
+        Map<Key, Value> values2 = new HashMap<Key, Value>();
+        values2.put(new Key("test2"), new Value(JSON_VALUE.getBytes()));
+
+        router.broadcastRoute();
+        expectLastCall().andReturn(Maps.hash(new Cluster[]{cluster1}, new Set[]{Sets.linked(node1, node2)})).times(2);
+
+        node1.send(isA(QueryByIndexCommand.class));
+        expectLastCall().andReturn(values1).once();
+        node2.send(isA(QueryByIndexCommand.class));
+        expectLastCall().andReturn(null).once();
+
+        node1.send(isA(GetKeysCommand.class));
+        expectLastCall().andReturn(Sets.hash(new Key("test1"), new Key("test2"))).once();
+
+        router.routeToNodesFor("bucket", Sets.hash(new Key("test1"), new Key("test2")));
+        expectLastCall().andReturn(nodeToKeys).once();
+
+        node1.send(isA(GetValuesCommand.class));
+        expectLastCall().andReturn(values1).once();
+        node2.send(isA(GetValuesCommand.class));
+        expectLastCall().andReturn(values2).once();
+
+        replay(cluster1, node1, node2, router);
+
+        DefaultQueryService service = new DefaultQueryService(router, new DefaultKeyRangeStrategy());
+
+        Map<Key, Value> result = service.queryByIndex("bucket", new Predicate("query:test = 'test'"));
+        assertEquals(2, result.size());
+        assertTrue(result.containsKey(new Key("test1")));
+        assertTrue(result.containsKey(new Key("test2")));
+
+        verify(cluster1, node1, node2, router);
+    }
+
     @Test
     public void testQueryByMapReduceWithRange() throws Exception {
         Cluster cluster1 = createMock(Cluster.class);
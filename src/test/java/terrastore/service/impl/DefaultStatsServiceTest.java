@@ -15,12 +15,17 @@
  */
 package terrastore.service.impl;
 
+import java.util.Collections;
 import org.junit.Test;
 import terrastore.communication.NodeConfiguration;
 import terrastore.common.ClusterStats;
 import terrastore.communication.Cluster;
 import terrastore.communication.Node;
+import terrastore.communication.protocol.GetPartitionLoadsCommand;
+import terrastore.communication.protocol.SyncPartitionMovesCommand;
+import terrastore.partition.impl.ClusterHashingPartitioner;
 import terrastore.router.Router;
+import terrastore.router.impl.MurmurHashFunction;
 import terrastore.util.collect.Sets;
 import static org.junit.Assert.*;
 import static org.easymock.classextension.EasyMock.*;
@@ -62,4 +67,55 @@ public class DefaultStatsServiceTest {
 
         verify(cluster, configuration, node, router);
     }
+
+    @Test
+    public void testRebalancePartitionsHandsOffMovesInSteps() throws Exception {
+        Cluster cluster = createMock(Cluster.class);
+        expect(cluster.getName()).andReturn("cluster").anyTimes();
+        expect(cluster.isLocal()).andReturn(true).anyTimes();
+        Node localNode = createMock(Node.class);
+        expect(localNode.getName()).andReturn("node1").anyTimes();
+        Node remoteNode = createMock(Node.class);
+        expect(remoteNode.getName()).andReturn("node2").anyTimes();
+        remoteNode.send(isA(GetPartitionLoadsCommand.class));
+        expectLastCall().andReturn(Collections.<String, Object>emptyMap()).times(2);
+        remoteNode.send(isA(SyncPartitionMovesCommand.class));
+        expectLastCall().andReturn(null).times(4);
+        ClusterHashingPartitioner partitioner = new ClusterHashingPartitioner(1024, new MurmurHashFunction(), 64);
+        Router router = createMock(Router.class);
+        router.getClusters();
+        expectLastCall().andReturn(Sets.linked(cluster)).anyTimes();
+        router.getClusterPartitioner();
+        expectLastCall().andReturn(partitioner).anyTimes();
+        router.routeToLocalNode();
+        expectLastCall().andReturn(localNode).anyTimes();
+        router.clusterRoute(cluster);
+        expectLastCall().andReturn(Sets.linked(localNode, remoteNode)).anyTimes();
+
+        replay(cluster, localNode, remoteNode, router);
+
+        partitioner.addNode(cluster, localNode);
+        partitioner.addNode(cluster, remoteNode);
+        // Load eight partitions of the local node, so that four of them must be moved to the remote one:
+        for (int i = 0, loaded = 0; loaded < 8; i++) {
+            if (partitioner.getNodeAtPartition(cluster, i) == localNode) {
+                partitioner.getLoadCounters().recordRead(i, 0);
+                loaded++;
+            }
+        }
+
+        DefaultStatsService service = new DefaultStatsService(router, 16, 1, 500);
+        service.rebalancePartitions(16);
+        assertEquals(1, partitioner.getPartitionMoves().size());
+        long start = System.currentTimeMillis();
+        while (partitioner.getPartitionMoves().size() < 4 && System.currentTimeMillis() - start < 60000) {
+            Thread.sleep(50);
+        }
+        assertEquals(4, partitioner.getPartitionMoves().size());
+        Thread.sleep(1000);
+        assertEquals(4, partitioner.getPartitionMoves().size());
+
+        verify(cluster, localNode, remoteNode, router);
+    }
+
 }
\ No newline at end of file
@@ -15,6 +15,7 @@
  */
 package terrastore.service.impl;
 
+import java.io.ByteArrayInputStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -46,8 +47,10 @@ import terrastore.store.features.Predicate;
 import terrastore.store.features.Range;
 import terrastore.store.features.Update;
 import terrastore.store.Value;
+import terrastore.store.features.Expectation;
 import terrastore.util.collect.Maps;
 import terrastore.util.collect.Sets;
+import terrastore.util.json.JsonUtils;
 import static org.easymock.classextension.EasyMock.*;
 import static org.junit.Assert.*;
 
@@ -168,6 +171,104 @@ public class DefaultUpdateServiceTest {
         verify(node, router);
     }
 
+    @Test
+    public void testStreamingBulkPut() throws Exception {
+        Node node1 = createMock(Node.class);
+        Node node2 = createMock(Node.class);
+        Router router = createMock(Router.class);
+
+        router.routeToNodeFor("bucket", new Key("test1"));
+        expectLastCall().andReturn(node1).once();
+        router.routeToNodeFor("bucket", new Key("test2"));
+        expectLastCall().andReturn(node2).once();
+        node1.send(EasyMock.<PutValuesCommand>anyObject());
+        expectLastCall().andReturn(Sets.hash(new Key("test1"))).once();
+        node2.send(EasyMock.<PutValuesCommand>anyObject());
+        expectLastCall().andReturn(Sets.hash(new Key("test2"))).once();
+
+        replay(node1, node2, router);
+
+        DefaultUpdateService service = new DefaultUpdateService(router, new DefaultKeyRangeStrategy());
+        Keys result = service.bulkPut("bucket", JsonUtils.readValuesStream(new ByteArrayInputStream(("{\"test1\":" + JSON_VALUE + ",\"test2\":" + JSON_VALUE + "}").getBytes("UTF-8"))));
+        assertEquals(2, result.size());
+        assertTrue(result.contains(new Key("test1")));
+        assertTrue(result.contains(new Key("test2")));
+
+        verify(node1, node2, router);
+    }
+
+    @Test
+    public void testStreamingBulkPutSendsFullBatchesWhileReading() throws Exception {
+        Node node = createMock(Node.class);
+        Router router = createMock(Router.class);
+
+        StringBuilder values = new StringBuilder("{");
+        for (int i = 0; i < 2500; i++) {
+            router.routeToNodeFor("bucket", new Key("test" + i));
+            expectLastCall().andReturn(node).once();
+            values.append(i > 0 ? "," : "").append("\"test").append(i).append("\":").append(JSON_VALUE);
+        }
+        values.append("}");
+        node.send(EasyMock.<PutValuesCommand>anyObject());
+        expectLastCall().andReturn(Sets.hash(new Key("batch1"))).once();
+        node.send(EasyMock.<PutValuesCommand>anyObject());
+        expectLastCall().andReturn(Sets.hash(new Key("batch2"))).once();
+        node.send(EasyMock.<PutValuesCommand>anyObject());
+        expectLastCall().andReturn(Sets.hash(new Key("batch3"))).once();
+
+        replay(node, router);
+
+        DefaultUpdateService service = new DefaultUpdateService(router, new DefaultKeyRangeStrategy());
+        Keys result = service.bulkPut("bucket", JsonUtils.readValuesStream(new ByteArrayInputStream(values.toString().getBytes("UTF-8"))));
+        assertEquals(3, result.size());
+
+        verify(node, router);
+    }
+
+    @Test
+    public void testStreamingBulkPutWithBadValuesWaitsForSentBatches() throws Exception {
+        Node node = createMock(Node.class);
+        Router router = createMock(Router.class);
+
+        StringBuilder values = new StringBuilder("{");
+        Set<Key> sent = new HashSet<Key>();
+        for (int i = 0; i < 1000; i++) {
+            router.routeToNodeFor("bucket", new Key("test" + i));
+            expectLastCall().andReturn(node).once();
+            values.append("\"test").append(i).append("\":").append(JSON_VALUE).append(",");
+            sent.add(new Key("test" + i));
+        }
+        values.append("\"bad\":\"bad\"}");
+        node.send(EasyMock.<PutValuesCommand>anyObject());
+        expectLastCall().andReturn(sent).once();
+
+        replay(node, router);
+
+        DefaultUpdateService service = new DefaultUpdateService(router, new DefaultKeyRangeStrategy());
+        try {
+            service.bulkPut("bucket", JsonUtils.readValuesStream(new ByteArrayInputStream(values.toString().getBytes("UTF-8"))));
+            fail("Should have failed!");
+        } catch (ValidationException ex) {
+            assertTrue(ex.getMessage().contains("1000 values read before were written"));
+        }
+
+        verify(node, router);
+    }
+
+    @Test(expected = ValidationException.class)
+    public void testStreamingBulkPutWithBadValues() throws Exception {
+        Router router = createMock(Router.class);
+
+        replay(router);
+
+        try {
+            DefaultUpdateService service = new DefaultUpdateService(router, new DefaultKeyRangeStrategy());
+            service.bulkPut("bucket", JsonUtils.readValuesStream(new ByteArrayInputStream("{\"test1\":\"bad\"}".getBytes("UTF-8"))));
+        } finally {
+            verify(router);
+        }
+    }
+
     @Test
     public void testBulkPutIgnoresFailingNodes() throws Exception {
         Node goodNode = createMock(Node.class);
@@ -210,6 +311,24 @@ public class DefaultUpdateServiceTest {
         verify(node, router);
     }
 
+    @Test
+    public void testCompareAndPutValue() throws Exception {
+        Node node = createMock(Node.class);
+        Router router = createMock(Router.class);
+
+        router.routeToNodeFor("bucket", new Key("test1"));
+        expectLastCall().andReturn(node).once();
+        node.send(EasyMock.<PutValueCommand>anyObject());
+        expectLastCall().andReturn(null).once();
+
+        replay(node, router);
+
+        DefaultUpdateService service = new DefaultUpdateService(router, new DefaultKeyRangeStrategy());
+        service.compareAndPutValue("bucket", new Key("test1"), new Value(JSON_VALUE.getBytes()), Expectation.hash(1L));
+
+        verify(node, router);
+    }
+
     @Test(expected = ValidationException.class)
     public void testPutBadValue() throws Exception {
         Router router = createMock(Router.class);
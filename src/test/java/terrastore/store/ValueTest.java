@@ -16,8 +16,16 @@
 package terrastore.store;
 
 import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
 import org.junit.Test;
+import terrastore.store.features.Predicate;
+import terrastore.store.features.Update;
+import terrastore.store.operators.Condition;
+import terrastore.store.operators.Function;
+import terrastore.util.io.HashUtils;
 import terrastore.util.io.IOUtils;
+import terrastore.util.json.BinaryJson;
 import static org.junit.Assert.*;
 
 /**
@@ -64,4 +72,80 @@ public class ValueTest {
         Value value = new Value(IOUtils.readAndCompress(new ByteArrayInputStream(JSON_VALUE.getBytes("UTF-8"))));
         assertArrayEquals(JSON_VALUE.getBytes("UTF-8"), IOUtils.read(value.getInputStream()));
     }
+
+    @Test
+    public void testValidationOverwritesGivenHash() throws Exception {
+        Value value = new Value(JSON_VALUE.getBytes("UTF-8"), 1L);
+        assertTrue(value.validate().isValid());
+        assertEquals(HashUtils.hash(JSON_VALUE.getBytes("UTF-8")), value.getHash());
+    }
+
+    @Test
+    public void testValidationComputesHashOfUncompressedBytes() throws Exception {
+        Value value = new Value(IOUtils.readAndCompress(new ByteArrayInputStream(JSON_VALUE.getBytes("UTF-8"))));
+        assertTrue(value.validate().isValid());
+        assertEquals(HashUtils.hash(JSON_VALUE.getBytes("UTF-8")), value.getHash());
+    }
+
+    @Test
+    public void testValidationFailsOnBadJson() throws Exception {
+        Value value = new Value("{\"key\" : ".getBytes("UTF-8"));
+        assertFalse(value.validate().isValid());
+    }
+
+    @Test
+    public void testGetBytesAndCompressedBytesFromBinaryValue() throws Exception {
+        String json = "{\"key\":\"value\",\"array\":[\"primitive\",{\"nested\":[\"array\"]}]}";
+        Value value = new Value(BinaryJson.fromJson(json.getBytes("UTF-8")));
+        assertTrue(value.isBinary());
+        assertFalse(value.isCompressed());
+        assertArrayEquals(json.getBytes("UTF-8"), value.getBytes());
+        assertArrayEquals(json.getBytes("UTF-8"), IOUtils.read(value.getInputStream()));
+        assertArrayEquals(json.getBytes("UTF-8"), IOUtils.readCompressed(new ByteArrayInputStream(value.getCompressedBytes())));
+    }
+
+    @Test
+    public void testSizeIsTheStoredSize() throws Exception {
+        String json = "{\"key\":\"value\",\"array\":[\"primitive\",{\"nested\":[\"array\"]}]}";
+        byte[] binary = BinaryJson.fromJson(json.getBytes("UTF-8"));
+        byte[] compressed = IOUtils.readAndCompress(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        assertEquals(json.getBytes("UTF-8").length, new Value(json.getBytes("UTF-8")).getSize());
+        assertEquals(binary.length, new Value(binary).getSize());
+        assertEquals(compressed.length, new Value(compressed).getSize());
+        assertTrue(new Value(compressed).isCompressed());
+    }
+
+    @Test
+    public void testDispatchPredicateAndUpdateOnBinaryValue() throws Exception {
+        Value value = new Value(BinaryJson.fromJson("{\"key\":\"value\",\"count\":1}".getBytes("UTF-8")));
+
+        Condition condition = new Condition() {
+
+            @Override
+            public boolean isSatisfied(String key, Map<String, Object> value, String expression) {
+                return value.get(expression).equals("value");
+            }
+
+        };
+        assertTrue(value.dispatch(new Key("key"), new Predicate("test:key"), condition));
+
+        Function function = new Function() {
+
+            @Override
+            public Map<String, Object> apply(String key, Map<String, Object> value, Map<String, Object> parameters) {
+                value.put("count", ((Number) value.get("count")).intValue() + 1);
+                return value;
+            }
+
+        };
+        Value updated = value.dispatch(new Key("key"), new Update("function", 1000, new HashMap<String, Object>()), function);
+        assertTrue(updated.isBinary());
+        assertArrayEquals("{\"key\":\"value\",\"count\":2}".getBytes("UTF-8"), updated.getBytes());
+    }
+
+    @Test
+    public void testValidationFailsOnBinaryValue() throws Exception {
+        Value value = new Value(BinaryJson.fromJson(JSON_VALUE.getBytes("UTF-8")));
+        assertFalse(value.validate().isValid());
+    }
 }
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.conditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import terrastore.store.Value;
+import terrastore.store.operators.OperatorException;
+import terrastore.util.collect.Maps;
+import terrastore.util.json.BinaryJson;
+import terrastore.util.json.JsonStreamingMap;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class QueryConditionTest {
+
+    private static final String JSON = "{\"name\" : \"Sergio\", \"age\" : 33, \"height\" : 1.75, \"married\" : false, \"nickname\" : null, "
+            + "\"address\" : {\"city\" : \"Rome\", \"zip\" : \"00100\"}, \"languages\" : [\"java\", \"scala\"]}";
+
+    @Test
+    public void testComparisons() throws Exception {
+        QueryCondition condition = new QueryCondition();
+        Map<String, Object> value = Maps.hash(new String[]{"name", "age", "height"}, new Object[]{"Sergio", 33, 1.75f});
+        assertTrue(condition.isSatisfied("key", value, "name = 'Sergio'"));
+        assertTrue(condition.isSatisfied("key", value, "name == \"Sergio\""));
+        assertFalse(condition.isSatisfied("key", value, "name != 'Sergio'"));
+        assertTrue(condition.isSatisfied("key", value, "age > 30"));
+        assertTrue(condition.isSatisfied("key", value, "age >= 33"));
+        assertFalse(condition.isSatisfied("key", value, "age < 33"));
+        assertTrue(condition.isSatisfied("key", value, "age <= 33.0"));
+        assertTrue(condition.isSatisfied("key", value, "height = 1.75"));
+        assertTrue(condition.isSatisfied("key", value, "name < 'T'"));
+        assertFalse(condition.isSatisfied("key", value, "name > 10"));
+        assertTrue(condition.isSatisfied("key", value, "$key = 'key'"));
+    }
+
+    @Test
+    public void testMissingFieldsNeverSatisfyComparisons() throws Exception {
+        QueryCondition condition = new QueryCondition();
+        Map<String, Object> value = new HashMap<String, Object>();
+        assertFalse(condition.isSatisfied("key", value, "name = 'Sergio'"));
+        assertFalse(condition.isSatisfied("key", value, "name != 'Sergio'"));
+        assertFalse(condition.isSatisfied("key", value, "name in ('Sergio')"));
+        assertTrue(condition.isSatisfied("key", value, "not exists name"));
+    }
+
+    @Test
+    public void testBooleanLogic() throws Exception {
+        QueryCondition condition = new QueryCondition();
+        Map<String, Object> value = Maps.hash(new String[]{"name", "age"}, new Object[]{"Sergio", 33});
+        assertTrue(condition.isSatisfied("key", value, "name = 'Sergio' and age = 33"));
+        assertFalse(condition.isSatisfied("key", value, "name = 'Sergio' AND age = 34"));
+        assertTrue(condition.isSatisfied("key", value, "name = 'Sergio' and (age = 34 or age = 33)"));
+        assertFalse(condition.isSatisfied("key", value, "name = 'Sergio' and age = 34 or age = 32"));
+        assertTrue(condition.isSatisfied("key", value, "not (name = 'Other') and not age > 40"));
+    }
+
+    @Test
+    public void testInExistsAndStartsWith() throws Exception {
+        QueryCondition condition = new QueryCondition();
+        Map<String, Object> value = Maps.hash(new String[]{"name", "age", "nickname"}, new Object[]{"Sergio", 33, null});
+        assertTrue(condition.isSatisfied("key", value, "name in ('Mario', 'Sergio')"));
+        assertTrue(condition.isSatisfied("key", value, "age in (1, 33)"));
+        assertFalse(condition.isSatisfied("key", value, "age in (1, 2)"));
+        assertTrue(condition.isSatisfied("key", value, "exists nickname"));
+        assertTrue(condition.isSatisfied("key", value, "nickname = null"));
+        assertFalse(condition.isSatisfied("key", value, "exists surname"));
+        assertTrue(condition.isSatisfied("key", value, "name startsWith 'Ser'"));
+        assertFalse(condition.isSatisfied("key", value, "name startsWith 'ser'"));
+        assertFalse(condition.isSatisfied("key", value, "age startsWith '3'"));
+    }
+
+    @Test
+    public void testNestedPaths() throws Exception {
+        QueryCondition condition = new QueryCondition();
+        Map<String, Object> value = Maps.hash(
+                new String[]{"address", "languages"},
+                new Object[]{Maps.hash(new String[]{"city"}, new Object[]{"Rome"}), Arrays.asList("java", "scala")});
+        assertTrue(condition.isSatisfied("key", value, "address.city = 'Rome'"));
+        assertFalse(condition.isSatisfied("key", value, "address.zip = '00100'"));
+        assertTrue(condition.isSatisfied("key", value, "languages.1 = 'scala'"));
+        assertFalse(condition.isSatisfied("key", value, "exists languages.2"));
+        assertFalse(condition.isSatisfied("key", value, "exists address.city.name"));
+    }
+
+    @Test
+    public void testStreamingDocument() throws Exception {
+        QueryCondition condition = new QueryCondition();
+        Map<String, Object> value = new JsonStreamingMap(new Value(JSON.getBytes("UTF-8")));
+        assertTrue(condition.isSatisfied("key", value, "name = 'Sergio' and age = 33 and height < 2 and married = false"));
+        assertTrue(condition.isSatisfied("key", value, "address.city = 'Rome' and languages.0 = 'java' and nickname = null"));
+        assertFalse(condition.isSatisfied("key", value, "address.zip startsWith '01'"));
+    }
+
+    @Test
+    public void testBinaryDocument() throws Exception {
+        QueryCondition condition = new QueryCondition();
+        Map<String, Object> value = BinaryJson.toUnmodifiableMap(BinaryJson.fromJson(JSON.getBytes("UTF-8")));
+        assertTrue(condition.isSatisfied("key", value, "name = 'Sergio' and age = 33 and height = 1.75 and married = false"));
+        assertTrue(condition.isSatisfied("key", value, "address.city = 'Rome' and languages.1 = 'scala' and exists nickname"));
+    }
+
+    @Test
+    public void testShortCircuiting() throws Exception {
+        QueryCondition condition = new QueryCondition();
+        final Map<String, Object> accessed = new HashMap<String, Object>();
+        Map<String, Object> value = new HashMap<String, Object>(Maps.hash(new String[]{"name", "age"}, new Object[]{"Sergio", 33})) {
+
+            @Override
+            public Object get(Object key) {
+                accessed.put((String) key, key);
+                return super.get(key);
+            }
+        };
+        assertFalse(condition.isSatisfied("key", value, "name = 'Other' and age = 33"));
+        assertTrue(condition.isSatisfied("key", value, "name = 'Sergio' or age = 33"));
+        assertFalse(accessed.containsKey("age"));
+    }
+
+    @Test
+    public void testLookupThroughIndexes() throws Exception {
+        QueryCondition condition = new QueryCondition();
+        final List<String> lookups = new ArrayList<String>();
+        QueryCondition.IndexLookup index = new QueryCondition.IndexLookup() {
+
+            @Override
+            public boolean isIndexed(String path) {
+                return path.equals("age") || path.equals("name");
+            }
+
+            @Override
+            public Set<String> lookup(String path, Object from, Object to) {
+                lookups.add(path + ":" + from + ":" + to);
+                return path.equals("age") ? new HashSet<String>(Arrays.asList("k1", "k2")) : new HashSet<String>(Arrays.asList("k2", "k3"));
+            }
+
+            @Override
+            public Set<String> lookupPrefix(String path, String prefix) {
+                lookups.add(path + ":" + prefix + "*");
+                return new HashSet<String>(Arrays.asList("k3"));
+            }
+        };
+        assertEquals(new HashSet<String>(Arrays.asList("k1", "k2")), condition.lookup("age > 30", index));
+        assertEquals(new HashSet<String>(Arrays.asList("k2")), condition.lookup("age > 30 and name = 'Sergio'", index));
+        assertEquals(new HashSet<String>(Arrays.asList("k1", "k2", "k3")), condition.lookup("age <= 30 or name in ('Sergio', 'Mario')", index));
+        assertEquals(new HashSet<String>(Arrays.asList("k1", "k2")), condition.lookup("age = 30 and city = 'Rome'", index));
+        assertEquals(new HashSet<String>(Arrays.asList("k3")), condition.lookup("name startsWith 'Ser'", index));
+        assertEquals(Arrays.asList("age:30:null", "age:30:null", "name:Sergio:Sergio", "age:null:30", "name:Sergio:Sergio", "name:Mario:Mario", "age:30:30", "name:Ser*"), lookups);
+        assertNull(condition.lookup("age > 30 or city = 'Rome'", index));
+        assertNull(condition.lookup("not age > 30", index));
+        assertNull(condition.lookup("age != 30", index));
+        assertNull(condition.lookup("age = null", index));
+        assertNull(condition.lookup("exists age", index));
+        assertNull(condition.lookup("$key = 'k1'", index));
+    }
+
+    @Test(expected = OperatorException.class)
+    public void testWrongExpression() throws Exception {
+        QueryCondition condition = new QueryCondition();
+        condition.isSatisfied("key", new HashMap<String, Object>(), "name = 'Sergio' and");
+    }
+}
@@ -18,8 +18,11 @@ package terrastore.store.functions;
 import terrastore.store.functions.support.FunctionTestFixture;
 import static terrastore.store.functions.support.MapUtil.*;
 
+import java.util.Map;
+
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertEquals;
 
 /**
  * @author Sven Johansson
@@ -207,4 +210,24 @@ public class AtomicCounterFunctionTest extends FunctionTestFixture {
         );
     }
 
+    @Test
+    public void mergedParametersAreEquivalentToSubsequentApplications() throws Exception {
+        AtomicCounterFunction counter = new AtomicCounterFunction();
+        Map<String, Object> first = map(entry("count", "1"), entry("embedded", map(entry("count", 2L))));
+        Map<String, Object> second = map(entry("count", "2"), entry("other", "1"));
+
+        givenOriginalValue(map(entry("count", "1"), entry("embedded", map(entry("count", 1L)))));
+
+        whenFunctionIsAppliedWithParameters(counter.merge(first, second));
+
+        thenResultEquals(
+            map(
+                entry("count", "4"),
+                entry("embedded", map(entry("count", 3L))),
+                entry("other", "1")
+            )
+        );
+        assertEquals(map(entry("count", "1"), entry("embedded", map(entry("count", 2L)))), first);
+    }
+
 }
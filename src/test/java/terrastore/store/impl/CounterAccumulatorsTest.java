@@ -0,0 +1,106 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.impl;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import terrastore.store.Key;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class CounterAccumulatorsTest {
+
+    @Test
+    public void testIncrementAndDrain() {
+        CounterAccumulators accumulators = new CounterAccumulators();
+        accumulators.increment(new Key("key"), "c1", 1);
+        accumulators.increment(new Key("key"), "c1", 2);
+        accumulators.increment(new Key("key"), "c2", -1);
+        accumulators.increment(new Key("other"), "c1", 10);
+
+        Map<String, Long> drained = accumulators.drain(new Key("key"));
+        assertEquals(2, drained.size());
+        assertEquals(3L, drained.get("c1").longValue());
+        assertEquals(-1L, drained.get("c2").longValue());
+        assertNull(accumulators.drain(new Key("key")));
+        assertEquals(10L, accumulators.drain(new Key("other")).get("c1").longValue());
+        assertTrue(accumulators.isEmpty());
+    }
+
+    @Test
+    public void testNoIncrementIsLostWhenDrainingConcurrently() throws Exception {
+        final CounterAccumulators accumulators = new CounterAccumulators();
+        final Key key = new Key("key");
+        final int threads = 8;
+        final int increments = 100000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong drained = new AtomicLong(0);
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < increments; j++) {
+                        accumulators.increment(key, "counter", 1);
+                    }
+                    done.countDown();
+                }
+
+            }.start();
+        }
+        while (done.getCount() > 0) {
+            drain(accumulators, key, drained);
+        }
+        drain(accumulators, key, drained);
+
+        assertEquals(threads * increments, drained.get());
+    }
+
+    private void drain(CounterAccumulators accumulators, Key key, AtomicLong drained) {
+        Map<String, Long> counters = accumulators.drain(key);
+        if (counters != null && counters.containsKey("counter")) {
+            drained.addAndGet(counters.get("counter"));
+        }
+    }
+
+    @Test
+    public void testValidatedFieldsAreDroppedOnInvalidation() {
+        CounterAccumulators accumulators = new CounterAccumulators();
+        Key key = new Key("key");
+        Set<String> validated = accumulators.validatedFields(key);
+        validated.add("c1");
+        assertTrue(accumulators.validatedFields(key).contains("c1"));
+        accumulators.invalidate(key);
+        assertFalse(accumulators.validatedFields(key).contains("c1"));
+        // Fields added to dropped sets are not seen anymore:
+        validated.add("c2");
+        assertFalse(accumulators.validatedFields(key).contains("c2"));
+    }
+
+    @Test
+    public void testDroppedIncrementsAreCounted() {
+        CounterAccumulators accumulators = new CounterAccumulators();
+        accumulators.increment(new Key("key"), "c1", 1);
+        accumulators.increment(new Key("key"), "c2", 1);
+        assertEquals(2, accumulators.recordDropped(accumulators.drain(new Key("key"))));
+        assertEquals(2, accumulators.getDropped());
+    }
+}
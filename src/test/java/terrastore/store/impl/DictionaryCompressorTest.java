@@ -0,0 +1,173 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import org.junit.Before;
+import org.junit.Test;
+import terrastore.internal.tc.TCMaster;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class DictionaryCompressorTest {
+
+    private static final Executor SYNC_EXECUTOR = new Executor() {
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+    };
+
+    @Before
+    public void setUp() {
+        TCMaster.getInstance().setupLocally();
+    }
+
+    @Test
+    public void testNoDictionaryBeforeEnoughSamples() throws Exception {
+        DictionaryCompressor compressor = new DictionaryCompressor("bucket", SYNC_EXECUTOR, 1000);
+        for (int i = 0; i < 10; i++) {
+            compressor.sample(document(i));
+        }
+        assertNull(compressor.dictionaryFor(document(0)));
+    }
+
+    @Test
+    public void testCompressAndDecompressWithTrainedDictionary() throws Exception {
+        DictionaryCompressor compressor = new DictionaryCompressor("bucket", SYNC_EXECUTOR, 1000);
+        for (int i = 0; i < 100; i++) {
+            compressor.sample(document(i));
+        }
+
+        byte[] document = document(1000);
+        DictionaryCompressor.Dictionary dictionary = compressor.dictionaryFor(document);
+        assertNotNull(dictionary);
+        byte[] compressed = dictionary.compress(document);
+        assertTrue(compressed.length < document.length / 2);
+        assertArrayEquals(document, compressor.decompress(dictionary.getId(), compressed));
+    }
+
+    @Test
+    public void testLargeDocumentsAreNotCompressedAgainstDictionary() throws Exception {
+        DictionaryCompressor compressor = new DictionaryCompressor("bucket", SYNC_EXECUTOR, 1000);
+        for (int i = 0; i < 100; i++) {
+            compressor.sample(document(i));
+        }
+
+        assertNull(compressor.dictionaryFor(new byte[DictionaryCompressor.MAX_DOCUMENT_SIZE + 1]));
+    }
+
+    @Test
+    public void testDictionariesAreOnlyRetrainedWhenCompressionRatioDegrades() throws Exception {
+        DictionaryCompressor compressor = new DictionaryCompressor("bucket", SYNC_EXECUTOR, 100);
+        for (int i = 0; i < 64; i++) {
+            compressor.sample(document(i));
+        }
+        byte[] document = document(1000);
+        DictionaryCompressor.Dictionary first = compressor.dictionaryFor(document);
+        byte[] compressed = first.compress(document);
+
+        for (int i = 0; i < 300; i++) {
+            compress(compressor, document(i));
+        }
+        assertEquals(first.getId(), compressor.dictionaryFor(document).getId());
+
+        for (int i = 0; i < 300; i++) {
+            compress(compressor, otherDocument(i));
+        }
+        DictionaryCompressor.Dictionary second = compressor.dictionaryFor(document);
+        assertTrue(second.getId() > first.getId());
+        assertArrayEquals(document, compressor.decompress(first.getId(), compressed));
+    }
+
+    @Test
+    public void testDictionariesAreSharedAmongCompressorsOfTheSameBucket() throws Exception {
+        DictionaryCompressor compressor1 = new DictionaryCompressor("bucket", SYNC_EXECUTOR, 1000);
+        DictionaryCompressor compressor2 = new DictionaryCompressor("bucket", SYNC_EXECUTOR, 1000);
+        for (int i = 0; i < 100; i++) {
+            compressor1.sample(document(i));
+        }
+
+        byte[] document = document(1000);
+        DictionaryCompressor.Dictionary dictionary1 = compressor1.dictionaryFor(document);
+        DictionaryCompressor.Dictionary dictionary2 = compressor2.dictionaryFor(document);
+        assertEquals(dictionary1.getId(), dictionary2.getId());
+        assertArrayEquals(document, compressor2.decompress(dictionary1.getId(), dictionary1.compress(document)));
+    }
+
+    @Test
+    public void testSupersededDictionariesCanBeUnregistered() throws Exception {
+        DictionaryCompressor compressor = new DictionaryCompressor("bucket", SYNC_EXECUTOR, 100);
+        for (int i = 0; i < 64; i++) {
+            compressor.sample(document(i));
+        }
+        byte[] document = document(1000);
+        DictionaryCompressor.Dictionary first = compressor.dictionaryFor(document);
+        byte[] compressed = first.compress(document);
+        assertTrue(compressor.drainSuperseded().isEmpty());
+
+        for (int i = 0; i < 100; i++) {
+            compress(compressor, document(i));
+        }
+        for (int i = 0; i < 300; i++) {
+            compress(compressor, otherDocument(i));
+        }
+        Set<Integer> superseded = compressor.drainSuperseded();
+        assertTrue(superseded.contains(first.getId()));
+        assertTrue(compressor.drainSuperseded().isEmpty());
+
+        compressor.unregister(superseded);
+        try {
+            new DictionaryCompressor("bucket", SYNC_EXECUTOR, 100).decompress(first.getId(), compressed);
+            fail("Should throw IllegalStateException!");
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    @Test
+    public void testTrainFromRepeatedStrings() throws Exception {
+        List<byte[]> samples = new ArrayList<byte[]>();
+        samples.add("{\"name\":\"a\"}".getBytes("UTF-8"));
+        samples.add("{\"name\":\"b\"}".getBytes("UTF-8"));
+        samples.add("{\"unique\":\"c\"}".getBytes("UTF-8"));
+
+        String dictionary = new String(DictionaryCompressor.train(samples, 1024), "UTF-8");
+        assertTrue(dictionary.startsWith("\"name\":"));
+        assertFalse(dictionary.contains("unique"));
+    }
+
+    private void compress(DictionaryCompressor compressor, byte[] document) {
+        compressor.sample(document);
+        compressor.dictionaryFor(document).compress(document);
+    }
+
+    private byte[] otherDocument(int i) throws Exception {
+        return ("{\"sku\":\"SKU" + (i * 31) + "\",\"warehouse\":{\"code\":\"W" + (i % 3) + "\",\"region\":\"north-east\"},"
+                + "\"quantity\":" + (i * 3) + ",\"available\":" + (i % 2 == 0) + ",\"tags\":[\"fragile\",\"bulky\"]}").getBytes("UTF-8");
+    }
+
+    private byte[] document(int i) throws Exception {
+        return ("{\"id\":" + i + ",\"type\":\"order\",\"status\":\"" + (i % 2 == 0 ? "shipped" : "pending")
+                + "\",\"customer\":{\"name\":\"customer-" + (i % 10) + "\",\"country\":\"Italy\"},\"total\":" + (i * 7) + "}").getBytes("UTF-8");
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.impl;
+
+import java.util.List;
+import org.junit.Test;
+import terrastore.store.Key;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class ExpirationWheelTest {
+
+    private static final long TICK = 100;
+
+    @Test
+    public void testKeysExpireOnlyAfterTheirDeadline() {
+        ExpirationWheel wheel = new ExpirationWheel(TICK, 0);
+        wheel.schedule(new Key("k1"), 150);
+        wheel.schedule(new Key("k2"), 1000);
+
+        assertTrue(wheel.advance(100).isEmpty());
+        List<Key> expired = wheel.advance(200);
+        assertEquals(1, expired.size());
+        assertEquals(new Key("k1"), expired.get(0));
+        assertTrue(wheel.advance(999).isEmpty());
+        expired = wheel.advance(1000);
+        assertEquals(1, expired.size());
+        assertEquals(new Key("k2"), expired.get(0));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testFarExpirationsCascadeThroughAllLevels() {
+        ExpirationWheel wheel = new ExpirationWheel(1, 0);
+        long[] deadlines = new long[]{63, 64, 4095, 4096, 262143, 262144, 16777215, 16777216, 40000000};
+        for (long deadline : deadlines) {
+            wheel.schedule(new Key(Long.toString(deadline)), deadline);
+        }
+        for (long deadline : deadlines) {
+            assertTrue(wheel.advance(deadline - 1).isEmpty());
+            List<Key> expired = wheel.advance(deadline);
+            assertEquals(1, expired.size());
+            assertEquals(new Key(Long.toString(deadline)), expired.get(0));
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testReschedulingMovesExpiration() {
+        ExpirationWheel wheel = new ExpirationWheel(TICK, 0);
+        wheel.schedule(new Key("postponed"), 500);
+        wheel.schedule(new Key("anticipated"), 50000);
+        wheel.schedule(new Key("postponed"), 20000);
+        wheel.schedule(new Key("anticipated"), 300);
+
+        List<Key> expired = wheel.advance(500);
+        assertEquals(1, expired.size());
+        assertEquals(new Key("anticipated"), expired.get(0));
+        assertTrue(wheel.advance(19999).isEmpty());
+        expired = wheel.advance(20000);
+        assertEquals(1, expired.size());
+        assertEquals(new Key("postponed"), expired.get(0));
+    }
+
+    @Test
+    public void testPastExpirationsExpireAtNextTick() {
+        ExpirationWheel wheel = new ExpirationWheel(TICK, 0);
+        wheel.advance(1000);
+        wheel.schedule(new Key("key"), 500);
+        assertEquals(1, wheel.advance(1100).size());
+    }
+
+    @Test
+    public void testEveryKeyIsTrackedByOneEntryOnly() {
+        ExpirationWheel wheel = new ExpirationWheel(TICK, 0);
+        for (int i = 0; i < 1000; i++) {
+            for (int j = 0; j < 10; j++) {
+                wheel.schedule(new Key("key" + i), 1000 + (i * j * 100));
+            }
+        }
+        assertEquals(1000, wheel.size());
+        assertEquals(1000, wheel.advance(1000 + 1000 * 10 * 100).size());
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.Test;
+import terrastore.store.Value;
+import terrastore.util.collect.Sets;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class FieldIndexesTest {
+
+    @Test
+    public void testLookupNumbers() throws Exception {
+        FieldIndexes indexes = new FieldIndexes();
+        indexes.configure(Sets.hash("age", "height"));
+        indexes.index("k1", value("{\"age\" : 33, \"height\" : 1.1}"));
+        indexes.index("k2", value("{\"age\" : 20, \"height\" : 1.8}"));
+        indexes.index("k3", value("{\"age\" : \"unknown\"}"));
+        assertEquals(keys("k1"), indexes.lookup("age", 33L, 33L));
+        assertEquals(keys("k1"), indexes.lookup("age", 33.0, 33.0));
+        assertEquals(keys("k1", "k2"), indexes.lookup("age", 20L, null));
+        assertEquals(keys("k2"), indexes.lookup("age", null, 32.5));
+        assertEquals(keys(), indexes.lookup("age", 21L, 32L));
+        // Float values are found by double bounds:
+        assertEquals(keys("k1"), indexes.lookup("height", 1.1, 1.1));
+        assertEquals(keys("k1"), indexes.lookup("height", null, 1.1));
+        assertEquals(2L, indexes.getSizes().get("height").longValue());
+    }
+
+    @Test
+    public void testLookupStringsAndBooleans() throws Exception {
+        FieldIndexes indexes = new FieldIndexes();
+        indexes.configure(Sets.hash("name", "address.city", "active", "tags.0"));
+        indexes.index("k1", value("{\"name\" : \"Sergio\", \"address\" : {\"city\" : \"Rome\"}, \"active\" : true, \"tags\" : [\"java\"]}"));
+        indexes.index("k2", value("{\"name\" : \"Serena\", \"address\" : {\"city\" : \"Milan\"}, \"active\" : false, \"tags\" : []}"));
+        indexes.index("k3", value("{\"name\" : \"Mario\", \"address\" : null}"));
+        assertEquals(keys("k1", "k2"), indexes.lookupPrefix("name", "Ser"));
+        assertEquals(keys("k1"), indexes.lookupPrefix("name", "Sergio"));
+        assertEquals(keys("k1", "k2", "k3"), indexes.lookup("name", "Mario", "Sergio"));
+        assertEquals(keys("k1"), indexes.lookup("address.city", "Rome", "Rome"));
+        assertEquals(keys("k2"), indexes.lookup("active", false, false));
+        assertEquals(keys("k1"), indexes.lookup("tags.0", "java", "java"));
+        assertEquals(1L, indexes.getSizes().get("tags.0").longValue());
+    }
+
+    @Test
+    public void testOverwrittenAndRemovedDocumentsAreUnindexed() throws Exception {
+        FieldIndexes indexes = new FieldIndexes();
+        indexes.configure(Sets.hash("name"));
+        indexes.index("k1", value("{\"name\" : \"Sergio\"}"));
+        indexes.index("k2", value("{\"name\" : \"Sergio\"}"));
+        indexes.index("k1", value("{\"name\" : \"Mario\"}"));
+        assertEquals(keys("k2"), indexes.lookup("name", "Sergio", "Sergio"));
+        assertEquals(keys("k1"), indexes.lookup("name", "Mario", "Mario"));
+        indexes.index("k2", value("{\"surname\" : \"Bossa\"}"));
+        indexes.unindex("k1");
+        assertEquals(keys(), indexes.lookup("name", "A", "Z"));
+        assertEquals(0L, indexes.getSizes().get("name").longValue());
+    }
+
+    @Test
+    public void testBinaryDocumentsAreIndexed() throws Exception {
+        FieldIndexes indexes = new FieldIndexes();
+        indexes.configure(Sets.hash("age"));
+        Value value = value("{\"age\" : 33}");
+        indexes.index("k1", new Value(value.getBinaryBytes()));
+        assertEquals(keys("k1"), indexes.lookup("age", 33L, 33L));
+    }
+
+    @Test
+    public void testBuildsAreSupersededByNewerBuildsAndConfigurations() throws Exception {
+        FieldIndexes indexes = new FieldIndexes();
+        assertTrue(indexes.isEmpty());
+        indexes.configure(Sets.hash("age"));
+        assertFalse(indexes.isEmpty());
+        assertFalse(indexes.isBuilt());
+
+        long first = indexes.startBuild();
+        long second = indexes.startBuild();
+        assertFalse(indexes.isCurrentBuild(first));
+        indexes.finishBuild(first);
+        assertFalse(indexes.isBuilt());
+        indexes.finishBuild(second);
+        assertTrue(indexes.isBuilt());
+
+        long third = indexes.startBuild();
+        indexes.configure(Collections.<String>emptySet());
+        indexes.finishBuild(third);
+        assertFalse(indexes.isBuilt());
+        assertTrue(indexes.isEmpty());
+    }
+
+    @Test
+    public void testAcquisitionsKeepIndexedValuesAndDelayBuiltState() throws Exception {
+        FieldIndexes indexes = new FieldIndexes();
+        indexes.configure(Sets.hash("age"));
+        indexes.finishBuild(indexes.startBuild());
+        indexes.index("k1", value("{\"age\" : 33}"));
+        assertTrue(indexes.isBuilt());
+
+        long generation = indexes.startAcquisition();
+        assertTrue(indexes.isCurrentBuild(generation));
+        assertFalse(indexes.isBuilt());
+        indexes.index("k2", value("{\"age\" : 20}"));
+        indexes.finishAcquisition();
+        assertTrue(indexes.isBuilt());
+        assertEquals(keys("k1", "k2"), indexes.lookup("age", null, 100L));
+        assertEquals(keys("k1", "k2"), indexes.getIndexedKeys());
+
+        // Builds started during acquisitions are not built until acquisitions finish:
+        generation = indexes.startAcquisition();
+        long build = indexes.startBuild();
+        assertFalse(indexes.isCurrentBuild(generation));
+        indexes.finishBuild(build);
+        assertFalse(indexes.isBuilt());
+        indexes.finishAcquisition();
+        assertTrue(indexes.isBuilt());
+    }
+
+    private Value value(String json) throws Exception {
+        return new Value(json.getBytes("UTF-8"));
+    }
+
+    private HashSet<String> keys(String... keys) {
+        return new HashSet<String>(Arrays.asList(keys));
+    }
+}
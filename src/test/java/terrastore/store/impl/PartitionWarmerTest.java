@@ -0,0 +1,212 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.easymock.IAnswer;
+import org.junit.Test;
+import terrastore.common.PartitionStats;
+import terrastore.communication.Cluster;
+import terrastore.communication.Node;
+import terrastore.communication.protocol.GetHotKeysCommand;
+import terrastore.partition.impl.ClusterHashingPartitioner;
+import terrastore.router.Router;
+import terrastore.router.impl.MurmurHashFunction;
+import terrastore.server.Buckets;
+import terrastore.server.Keys;
+import terrastore.store.Bucket;
+import terrastore.store.Key;
+import terrastore.store.Store;
+import terrastore.util.collect.Sets;
+import static org.junit.Assert.*;
+import static org.easymock.classextension.EasyMock.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class PartitionWarmerTest {
+
+    @Test
+    public void testWarmUpAcquiredPartitionsOnly() throws Exception {
+        Cluster cluster = createMock(Cluster.class);
+        expect(cluster.getName()).andReturn("cluster").anyTimes();
+        expect(cluster.isLocal()).andReturn(true).anyTimes();
+        Node localNode = createMock(Node.class);
+        expect(localNode.getName()).andReturn("node1").anyTimes();
+        replay(cluster, localNode);
+
+        ClusterHashingPartitioner partitioner = new ClusterHashingPartitioner(1024, new MurmurHashFunction());
+        partitioner.addNode(cluster, localNode);
+
+        Set<Key> keys = new HashSet<Key>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(new Key("key" + i));
+        }
+        Map<Integer, String> acquired = new HashMap<Integer, String>();
+        Set<Key> expected = new HashSet<Key>();
+        for (Key key : keys) {
+            int partition = partitioner.getPartitionFor("bucket", key);
+            if (partition % 2 == 0) {
+                acquired.put(partition, null);
+                expected.add(key);
+            }
+        }
+
+        Router router = makeRouter(partitioner, cluster, localNode);
+        List<Set<Key>> prefetched = Collections.synchronizedList(new ArrayList<Set<Key>>());
+        Bucket bucket = makeBucket(keys, prefetched);
+        Store store = makeStore(bucket);
+
+        replay(router, bucket, store);
+
+        PartitionWarmer warmer = new PartitionWarmer(router, store, 2, 7, 0);
+        warmer.warmUp(acquired);
+        waitFor(warmer, expected.size());
+
+        Set<Key> actual = new HashSet<Key>();
+        for (Set<Key> batch : prefetched) {
+            assertTrue(batch.size() <= 7);
+            actual.addAll(batch);
+        }
+        assertEquals(expected, actual);
+        assertEquals(0, warmer.getPendingPartitions());
+
+        warmer.shutdown();
+    }
+
+    @Test
+    public void testHotKeysFromPreviousOwnerAreWarmedUpFirst() throws Exception {
+        Cluster cluster = createMock(Cluster.class);
+        expect(cluster.getName()).andReturn("cluster").anyTimes();
+        expect(cluster.isLocal()).andReturn(true).anyTimes();
+        Node localNode = createMock(Node.class);
+        expect(localNode.getName()).andReturn("node1").anyTimes();
+        Node previousOwner = createMock(Node.class);
+        expect(previousOwner.getName()).andReturn("node2").anyTimes();
+        replay(cluster, localNode);
+
+        ClusterHashingPartitioner partitioner = new ClusterHashingPartitioner(1024, new MurmurHashFunction());
+        partitioner.addNode(cluster, localNode);
+
+        Key hot = new Key("hot");
+        Key cold = findKeyOnPartition(partitioner, partitioner.getPartitionFor("bucket", hot), hot);
+        int partition = partitioner.getPartitionFor("bucket", hot);
+        Map<String, Object> hotKeys = new HashMap<String, Object>();
+        hotKeys.put(Integer.toString(partition), new String[]{"bucket", "hot"});
+        previousOwner.send(isA(GetHotKeysCommand.class));
+        expectLastCall().andReturn(hotKeys).once();
+
+        Router router = createMock(Router.class);
+        expect(router.getClusterPartitioner()).andReturn(partitioner).anyTimes();
+        expect(router.getClusters()).andReturn(Sets.linked(cluster)).anyTimes();
+        expect(router.routeToLocalNode()).andReturn(localNode).anyTimes();
+        expect(router.clusterRoute(cluster)).andReturn(Sets.linked(localNode, previousOwner)).anyTimes();
+        List<Set<Key>> prefetched = Collections.synchronizedList(new ArrayList<Set<Key>>());
+        Bucket bucket = makeBucket(Sets.linked(cold, hot), prefetched);
+        Store store = makeStore(bucket);
+
+        replay(previousOwner, router, bucket, store);
+
+        PartitionWarmer warmer = new PartitionWarmer(router, store, 1, 100, 0);
+        warmer.partitionsMoved(cluster, Collections.singletonList(new PartitionStats.Move(partition, "node2", "node1", 0)));
+        waitFor(warmer, 2);
+
+        assertEquals(2, prefetched.size());
+        assertEquals(Collections.singleton(hot), prefetched.get(0));
+        assertEquals(Collections.singleton(cold), prefetched.get(1));
+
+        warmer.shutdown();
+
+        verify(previousOwner);
+    }
+
+    @Test
+    public void testPartitionsMovedToOtherNodesAreNotWarmedUp() throws Exception {
+        Cluster cluster = createMock(Cluster.class);
+        expect(cluster.getName()).andReturn("cluster").anyTimes();
+        expect(cluster.isLocal()).andReturn(true).anyTimes();
+        Node localNode = createMock(Node.class);
+        expect(localNode.getName()).andReturn("node1").anyTimes();
+        Router router = createMock(Router.class);
+        expect(router.routeToLocalNode()).andReturn(localNode).anyTimes();
+        Store store = createMock(Store.class);
+
+        replay(cluster, localNode, router, store);
+
+        PartitionWarmer warmer = new PartitionWarmer(router, store, 1, 100, 0);
+        warmer.partitionsMoved(cluster, Collections.singletonList(new PartitionStats.Move(1, "node1", "node2", 0)));
+        assertEquals(0, warmer.getPendingPartitions());
+
+        warmer.shutdown();
+
+        verify(router, store);
+    }
+
+    private Router makeRouter(ClusterHashingPartitioner partitioner, Cluster cluster, Node localNode) {
+        Router router = createMock(Router.class);
+        expect(router.getClusterPartitioner()).andReturn(partitioner).anyTimes();
+        expect(router.getClusters()).andReturn(Sets.linked(cluster)).anyTimes();
+        expect(router.routeToLocalNode()).andReturn(localNode).anyTimes();
+        expect(router.clusterRoute(cluster)).andReturn(Sets.linked(localNode)).anyTimes();
+        return router;
+    }
+
+    private Bucket makeBucket(Set<Key> keys, final List<Set<Key>> prefetched) {
+        Bucket bucket = createMock(Bucket.class);
+        expect(bucket.getName()).andReturn("bucket").anyTimes();
+        expect(bucket.keys()).andReturn(new Keys(keys)).anyTimes();
+        bucket.prefetch((Set<Key>) anyObject());
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+
+            @Override
+            public Object answer() throws Throwable {
+                prefetched.add(new HashSet<Key>((Set<Key>) getCurrentArguments()[0]));
+                return null;
+            }
+        }).anyTimes();
+        return bucket;
+    }
+
+    private Store makeStore(Bucket bucket) {
+        Store store = createMock(Store.class);
+        expect(store.buckets()).andReturn(new Buckets(Sets.hash("bucket"))).anyTimes();
+        expect(store.get("bucket")).andReturn(bucket).anyTimes();
+        return store;
+    }
+
+    private Key findKeyOnPartition(ClusterHashingPartitioner partitioner, int partition, Key excluded) {
+        for (int i = 0;; i++) {
+            Key candidate = new Key("key" + i);
+            if (partitioner.getPartitionFor("bucket", candidate) == partition && !candidate.equals(excluded)) {
+                return candidate;
+            }
+        }
+    }
+
+    private void waitFor(PartitionWarmer warmer, long keys) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 60000;
+        while ((warmer.getWarmedKeys() < keys || warmer.getPendingPartitions() > 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(keys, warmer.getWarmedKeys());
+    }
+}
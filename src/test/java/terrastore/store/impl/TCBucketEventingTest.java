@@ -250,4 +250,35 @@ public class TCBucketEventingTest {
         verify(eventBus);
     }
 
+
+    @Test
+    public void testExpirationFiresEventBus() throws Exception {
+        Key key = new Key("key");
+        Value value = new Value(JSON_VALUE.getBytes());
+
+        Capture<Event> capturedEvent = new Capture<Event>();
+        EventBus eventBus = createMock(EventBus.class);
+        eventBus.isEnabled();
+        expectLastCall().andReturn(true).anyTimes();
+        eventBus.publish(isA(ValueChangedEvent.class));
+        expectLastCall().once();
+        eventBus.publish(and(isA(ValueRemovedEvent.class), capture(capturedEvent)));
+        expectLastCall().once();
+
+        replay(eventBus);
+
+        bucket.setEventBus(eventBus);
+        bucket.put(key, value, 50);
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((bucket.size() > 0 || !capturedEvent.hasCaptured()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, bucket.size());
+
+        assertEquals("bucket", capturedEvent.getValue().getBucket());
+        assertEquals("key", capturedEvent.getValue().getKey());
+        assertArrayEquals(JSON_VALUE.getBytes(), capturedEvent.getValue().getOldValueAsBytes());
+
+        verify(eventBus);
+    }
 }
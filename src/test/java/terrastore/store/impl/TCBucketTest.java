@@ -23,24 +23,34 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import org.junit.Before;
 import org.junit.Test;
+import org.terracotta.collections.ClusteredMap;
 import terrastore.event.ActionExecutor;
 import terrastore.internal.tc.TCMaster;
 import terrastore.event.Event;
 import terrastore.event.EventBus;
 import terrastore.event.EventListener;
+import terrastore.store.Bucket;
 import terrastore.store.Key;
+import terrastore.store.KeyOwnership;
+import terrastore.store.LoadRecorder;
 import terrastore.store.StoreOperationException;
 import terrastore.store.features.Predicate;
+import terrastore.store.features.Expectation;
 import terrastore.store.operators.Function;
 import terrastore.store.features.Update;
 import terrastore.store.features.Range;
 import terrastore.store.operators.Condition;
 import terrastore.store.Value;
+import terrastore.store.conditions.QueryCondition;
 import terrastore.store.features.Mapper;
+import terrastore.store.functions.AtomicCounterFunction;
 import terrastore.store.operators.Comparator;
 import terrastore.util.collect.Maps;
+import terrastore.util.json.JsonUtils;
 import terrastore.util.collect.Sets;
 import static org.junit.Assert.*;
 import static org.easymock.classextension.EasyMock.*;
@@ -75,6 +85,69 @@ public class TCBucketTest {
         assertEquals(0, bucket.size());
     }
 
+    @Test
+    public void testLoadIsRecordedOnReadsAndWrites() throws StoreOperationException {
+        Key key = new Key("key");
+        Value value = new Value(JSON_VALUE.getBytes());
+
+        LoadRecorder recorder = createMock(LoadRecorder.class);
+        recorder.recordWrite(same(bucket), eq(key), gt(0L));
+        expectLastCall().once();
+        recorder.recordRead(bucket, key, JSON_VALUE.getBytes().length);
+        expectLastCall().once();
+        recorder.recordWrite(bucket, key, 0L);
+        expectLastCall().once();
+
+        replay(recorder);
+
+        bucket.setLoadRecorder(recorder);
+        bucket.put(key, value);
+        bucket.get(key);
+        bucket.remove(key);
+
+        verify(recorder);
+    }
+
+    @Test
+    public void testVersionIsIncrementedOnEveryWrite() throws StoreOperationException {
+        Key key = new Key("key");
+        bucket.put(key, new Value(JSON_VALUE.getBytes()));
+        long version = bucket.get(key).getVersion();
+        assertTrue(version > 0);
+        bucket.put(key, new Value(JSON_VALUE.getBytes()));
+        assertEquals(version + 1, bucket.get(key).getVersion());
+        bucket.merge(key, new Value(JSON_VALUE_2.getBytes()));
+        assertEquals(version + 2, bucket.get(key).getVersion());
+        // Versions never restart, so documents created again don't match versions of removed ones:
+        bucket.remove(key);
+        bucket.put(key, new Value(JSON_VALUE.getBytes()));
+        assertTrue(bucket.get(key).getVersion() > version + 2);
+        assertFalse(bucket.compareAndPut(key, new Value(JSON_VALUE_2.getBytes()), Expectation.version(version + 2)));
+    }
+
+    @Test
+    public void testVersionIsIncrementedOverExpiredDocumentsWithAndWithoutEvents() throws Exception {
+        Key key = new Key("key");
+        bucket.put(key, new Value(JSON_VALUE.getBytes()), 50);
+        long version = bucket.get(key).getVersion();
+        Thread.sleep(60);
+        bucket.put(key, new Value(JSON_VALUE.getBytes()), 50);
+        long next = bucket.get(key).getVersion();
+        assertTrue(next > version);
+
+        EventBus eventBus = createMock(EventBus.class);
+        makeThreadSafe(eventBus, true);
+        eventBus.isEnabled();
+        expectLastCall().andReturn(true).anyTimes();
+        eventBus.publish((Event) anyObject());
+        expectLastCall().anyTimes();
+        replay(eventBus);
+        bucket.setEventBus(eventBus);
+        Thread.sleep(60);
+        bucket.put(key, new Value(JSON_VALUE.getBytes()));
+        assertTrue(bucket.get(key).getVersion() > next);
+    }
+
     @Test
     public void testPutAndGetValue() throws StoreOperationException {
         Key key = new Key("key");
@@ -97,6 +170,244 @@ public class TCBucketTest {
         assertTrue(result.containsKey(key2));
     }
 
+    @Test
+    public void testPutAndGetValuesWithDictionaryCompression() throws Exception {
+        byte[] document = "{\"name\":\"terrastore\",\"type\":\"document store\",\"tags\":[\"json\",\"distributed\",\"scalable\"]}".getBytes("UTF-8");
+        bucket.setDictionaryCompression(true);
+        Map<String, byte[]> stored = TCMaster.getInstance().getUnlockedMap(TCBucket.class.getName() + ".bucket.bucket");
+
+        // Dictionaries are trained in background, so keep writing till documents get compressed against them:
+        bucket.put(new Key("key0"), new Value(document));
+        int uncompressedLength = stored.get("key0").length;
+        int written = 1;
+        while (written < 1000 && stored.get("key" + (written - 1)).length == uncompressedLength) {
+            bucket.put(new Key("key" + written), new Value(document));
+            written++;
+            if (written > 64) {
+                Thread.sleep(10);
+            }
+        }
+        assertTrue(written < 1000);
+        assertTrue(stored.get("key" + (written - 1)).length < uncompressedLength);
+        for (int i = 0; i < written; i++) {
+            assertArrayEquals(document, bucket.get(new Key("key" + i)).getBytes());
+        }
+
+        // Documents can be read back even when dictionary compression gets disabled:
+        bucket.setDictionaryCompression(false);
+        assertArrayEquals(document, bucket.get(new Key("key" + (written - 1))).getBytes());
+    }
+
+    @Test
+    public void testPutAndGetValueWithBinaryDocuments() throws Exception {
+        bucket.setBinaryDocuments(true);
+
+        Key key = new Key("key");
+        Value value = new Value(JSON_VALUE.getBytes());
+        bucket.put(key, value);
+        Value result = bucket.get(key);
+        assertTrue(result.isBinary());
+        assertArrayEquals(JSON_VALUE.getBytes(), result.getBytes());
+        assertEquals(value.getHash(), result.getHash());
+
+        // Text documents are still readable when switching format back and forth:
+        bucket.setBinaryDocuments(false);
+        assertArrayEquals(JSON_VALUE.getBytes(), bucket.get(key).getBytes());
+        bucket.put(new Key("text"), value);
+        bucket.setBinaryDocuments(true);
+        assertFalse(bucket.get(new Key("text")).isBinary());
+        assertArrayEquals(JSON_VALUE.getBytes(), bucket.get(new Key("text")).getBytes());
+    }
+
+    @Test
+    public void testPutAndConditionallyGetAndUpdateValueWithBinaryDocuments() throws Exception {
+        bucket.setBinaryDocuments(true);
+        bucket.setConditions(Maps.hash(new String[]{"test"}, new Condition[]{new Condition() {
+
+                @Override
+                public boolean isSatisfied(String key, Map<String, Object> value, String expression) {
+                    return value.containsKey(expression);
+                }
+
+            }}));
+        bucket.setUpdaters(Maps.hash(new String[]{"counter"}, new Function[]{new AtomicCounterFunction()}));
+
+        Key key = new Key("key");
+        bucket.put(key, new Value("{\"counter\":1}".getBytes()));
+        assertNotNull(bucket.conditionalGet(key, new Predicate("test:counter")));
+        assertNull(bucket.conditionalGet(key, new Predicate("test:missing")));
+
+        Update update = new Update("counter", 1000, Maps.hash(new String[]{"counter"}, new Object[]{2}));
+        bucket.update(key, update);
+        Value result = bucket.get(key);
+        assertTrue(result.isBinary());
+        assertEquals("{\"counter\":3}", new String(result.getBytes()));
+    }
+
+    @Test
+    public void testQueryByIndex() throws Exception {
+        bucket.clear();
+        bucket.setConditions(Maps.hash(new String[]{"query"}, new Condition[]{new QueryCondition()}));
+        bucket.put(new Key("key1"), new Value("{\"name\":\"Sergio\",\"age\":33}".getBytes()));
+
+        // Indexes are built in background, including documents written before:
+        bucket.setIndexedFields(Sets.hash("age"));
+        for (int i = 0; i < 100 && !bucket.isIndexBuilt(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(bucket.isIndexBuilt());
+        bucket.put(new Key("key2"), new Value("{\"name\":\"Mario\",\"age\":20.5}".getBytes()));
+        assertEquals(2L, bucket.getIndexSizes().get("age").longValue());
+
+        Map<Key, Value> result = bucket.queryByIndex(new Predicate("query:age > 25"));
+        assertEquals(1, result.size());
+        assertTrue(result.containsKey(new Key("key1")));
+        result = bucket.queryByIndex(new Predicate("query:age in (20.5, 33) and name = 'Mario'"));
+        assertEquals(1, result.size());
+        assertTrue(result.containsKey(new Key("key2")));
+        assertNull(bucket.queryByIndex(new Predicate("query:name = 'Mario'")));
+        assertNull(bucket.queryByIndex(new Predicate("query:age > 25 or name = 'Mario'")));
+
+        // Overwritten and removed documents are unindexed:
+        bucket.put(new Key("key1"), new Value("{\"name\":\"Sergio\",\"age\":18}".getBytes()));
+        assertEquals(0, bucket.queryByIndex(new Predicate("query:age > 25")).size());
+        bucket.remove(new Key("key2"));
+        assertEquals(1, bucket.queryByIndex(new Predicate("query:age < 25")).size());
+        assertEquals(1L, bucket.getIndexSizes().get("age").longValue());
+    }
+
+    @Test
+    public void testOnlyOwnedDocumentsAreIndexed() throws Exception {
+        bucket.clear();
+        bucket.put(new Key("owned"), new Value("{\"age\":33}".getBytes()));
+        bucket.put(new Key("other"), new Value("{\"age\":20}".getBytes()));
+
+        bucket.setKeyOwnership(new FixedKeyOwnership("owned"));
+        bucket.setIndexedFields(Sets.hash("age"));
+        waitForIndexes();
+        assertEquals(1L, bucket.getIndexSizes().get("age").longValue());
+
+        // Acquired documents are indexed without dropping already indexed ones, and released ones are unindexed:
+        bucket.acquireKeys(new FixedKeyOwnership("other"));
+        waitForIndexes();
+        assertEquals(2L, bucket.getIndexSizes().get("age").longValue());
+        bucket.releaseKeys(new FixedKeyOwnership("owned"));
+        assertEquals(1L, bucket.getIndexSizes().get("age").longValue());
+    }
+
+    @Test
+    public void testAcquiredDocumentsAreExpired() throws Exception {
+        Key key = new Key("key");
+        // Write the expiring document bypassing the bucket, as a put through its previous owner would do:
+        ClusteredMap<String, byte[]> documents = TCMaster.getInstance().getUnlockedMap(TCBucket.class.getName() + ".bucket.bucket");
+        documents.put(key.toString(), ValueEnvelope.wrap(JSON_VALUE.getBytes(), 0, 1, System.currentTimeMillis() + 50));
+        assertEquals(1, bucket.size());
+
+        bucket.acquireKeys(new FixedKeyOwnership("key"));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bucket.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, bucket.size());
+    }
+
+    @Test
+    public void testPutAndGetValueWithStoredHash() throws StoreOperationException {
+        Key key = new Key("key");
+        Value value = new Value(JSON_VALUE.getBytes());
+        bucket.put(key, value);
+        Value result = bucket.get(key);
+        assertEquals(value, result);
+        assertEquals(value.getHash(), result.getHash());
+    }
+
+    @Test
+    public void testStoredHashIsIndependentFromCompression() throws StoreOperationException {
+        Key key1 = new Key("key1");
+        Key key2 = new Key("key2");
+        bucket.put(key1, new Value(JSON_VALUE.getBytes()));
+        bucket.setCompressDocuments(true);
+        bucket.put(key2, new Value(JSON_VALUE.getBytes()));
+        assertEquals(bucket.get(key1).getHash(), bucket.get(key2).getHash());
+        assertEquals(JSON_VALUE, bucket.get(key2).toString());
+    }
+
+    @Test
+    public void testCompareAndPutSucceedsWithMatchingHash() throws StoreOperationException {
+        Key key = new Key("key");
+        Value value = new Value(JSON_VALUE.getBytes());
+        Value newValue = new Value(JSON_VALUE_2.getBytes());
+        bucket.put(key, value);
+        assertTrue(bucket.compareAndPut(key, newValue, Expectation.hash(bucket.get(key).getHash())));
+        assertEquals(newValue, bucket.get(key));
+        assertEquals(newValue.getHash(), bucket.get(key).getHash());
+    }
+
+    @Test
+    public void testCompareAndPutFailsWithUnmatchingHash() throws StoreOperationException {
+        Key key = new Key("key");
+        Value value = new Value(JSON_VALUE.getBytes());
+        Value newValue = new Value(JSON_VALUE_2.getBytes());
+        bucket.put(key, value);
+        assertFalse(bucket.compareAndPut(key, newValue, Expectation.hash(newValue.getHash())));
+        assertEquals(value, bucket.get(key));
+    }
+
+    @Test
+    public void testCompareAndPutFailsWithNoOldValue() throws StoreOperationException {
+        Key key = new Key("key");
+        Value value = new Value(JSON_VALUE.getBytes());
+        assertFalse(bucket.compareAndPut(key, value, Expectation.hash(value.getHash())));
+        assertNull(bucket.get(Sets.hash(key)).get(key));
+    }
+
+    @Test
+    public void testCompareVersionAndPutSucceedsWithMatchingVersion() throws StoreOperationException {
+        Key key = new Key("key");
+        Value newValue = new Value(JSON_VALUE_2.getBytes());
+        assertTrue(bucket.compareAndPut(key, new Value(JSON_VALUE.getBytes()), Expectation.version(0)));
+        long version = bucket.get(key).getVersion();
+        assertTrue(bucket.compareAndPut(key, newValue, Expectation.version(version)));
+        assertEquals(newValue, bucket.get(key));
+        assertEquals(version + 1, bucket.get(key).getVersion());
+    }
+
+    @Test
+    public void testCompareVersionAndPutFailsWithUnmatchingVersion() throws StoreOperationException {
+        Key key = new Key("key");
+        Value value = new Value(JSON_VALUE.getBytes());
+        bucket.put(key, value);
+        long version = bucket.get(key).getVersion();
+        assertFalse(bucket.compareAndPut(key, new Value(JSON_VALUE_2.getBytes()), Expectation.version(0)));
+        assertFalse(bucket.compareAndPut(key, new Value(JSON_VALUE_2.getBytes()), Expectation.version(version + 1)));
+        assertEquals(value, bucket.get(key));
+    }
+
+    @Test
+    public void testCompareAndRemove() throws StoreOperationException {
+        Key key = new Key("key");
+        Value value = new Value(JSON_VALUE.getBytes());
+        bucket.put(key, value);
+        assertFalse(bucket.compareAndRemove(key, Expectation.hash(new Value(JSON_VALUE_2.getBytes()).getHash())));
+        assertEquals(1, bucket.size());
+        assertTrue(bucket.compareAndRemove(key, Expectation.hash(value.getHash())));
+        assertEquals(0, bucket.size());
+        assertFalse(bucket.compareAndRemove(key, Expectation.hash(value.getHash())));
+    }
+
+    @Test
+    public void testCompareVersionAndRemove() throws StoreOperationException {
+        Key key = new Key("key");
+        bucket.put(key, new Value(JSON_VALUE.getBytes()));
+        long version = bucket.get(key).getVersion();
+        bucket.put(key, new Value(JSON_VALUE.getBytes()));
+        assertFalse(bucket.compareAndRemove(key, Expectation.version(version)));
+        assertEquals(1, bucket.size());
+        assertTrue(bucket.compareAndRemove(key, Expectation.version(version + 1)));
+        assertEquals(0, bucket.size());
+        assertFalse(bucket.compareAndRemove(key, Expectation.version(0)));
+    }
+
     @Test
     public void testConditionalPutAlwaysWorkWithNoOldValue() throws StoreOperationException {
         final Key key = new Key("key");
@@ -584,6 +895,219 @@ public class TCBucketTest {
         bucket.update(key, update);
     }
 
+    @Test
+    public void testConcurrentCounterUpdatesAreAllApplied() throws Exception {
+        bucket.setUpdaters(Maps.hash(new String[]{"counter"}, new Function[]{new AtomicCounterFunction()}));
+        final Key key = new Key("key");
+        bucket.put(key, new Value("{\"count\":0}".getBytes("UTF-8")));
+
+        final int threads = 8;
+        final int updates = 100;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final List<Exception> failures = new CopyOnWriteArrayList<Exception>();
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < updates; j++) {
+                            Map<String, Object> params = new HashMap<String, Object>();
+                            params.put("count", 1L);
+                            bucket.update(key, new Update("counter", 10000, params));
+                        }
+                    } catch (Exception ex) {
+                        failures.add(ex);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+
+            }.start();
+        }
+        done.await();
+
+        assertTrue(failures.isEmpty());
+        assertEquals("{\"count\":" + (threads * updates) + "}", new String(bucket.get(key).getBytes(), "UTF-8"));
+    }
+
+    @Test
+    public void testConcurrentMergesAreAllApplied() throws Exception {
+        final Key key = new Key("key");
+        bucket.put(key, new Value("{}".getBytes("UTF-8")));
+        long version = bucket.get(key).getVersion();
+
+        final int threads = 8;
+        final int merges = 50;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final List<Exception> failures = new CopyOnWriteArrayList<Exception>();
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < merges; j++) {
+                            bucket.merge(key, new Value(("{\"+\":{\"" + thread + "-" + j + "\":true}}").getBytes("UTF-8")));
+                        }
+                    } catch (Exception ex) {
+                        failures.add(ex);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+
+            }.start();
+        }
+        done.await();
+
+        assertTrue(failures.isEmpty());
+        assertEquals(threads * merges, JsonUtils.toModifiableMap(bucket.get(key)).size());
+        assertEquals(version + threads * merges, bucket.get(key).getVersion());
+    }
+
+    @Test(expected = StoreOperationException.class)
+    public void testUpdateFailsOnNotExistentKey() throws StoreOperationException {
+        bucket.setUpdaters(Maps.hash(new String[]{"counter"}, new Function[]{new AtomicCounterFunction()}));
+        bucket.update(new Key("key"), new Update("counter", 1000, new HashMap<String, Object>()));
+    }
+
+    @Test
+    public void testIncrementedCountersAreFlushedOnRead() throws Exception {
+        Key key = new Key("key");
+        bucket.put(key, new Value("{\"count\":1,\"test\":\"test\"}".getBytes("UTF-8")));
+        bucket.incrementCounters(key, Maps.hash(new String[]{"count", "other"}, new Long[]{2L, 5L}));
+        bucket.incrementCounters(key, Maps.hash(new String[]{"count"}, new Long[]{3L}));
+        assertEquals("{\"count\":6,\"test\":\"test\",\"other\":5}", new String(bucket.get(key).getBytes(), "UTF-8"));
+    }
+
+    @Test
+    public void testIncrementedCountersAreFlushedOnReadWithBinaryDocuments() throws Exception {
+        Key key = new Key("key");
+        bucket.setBinaryDocuments(true);
+        bucket.put(key, new Value("{\"count\":1,\"ratio\":0.5,\"test\":\"test\"}".getBytes("UTF-8")));
+        bucket.incrementCounters(key, Maps.hash(new String[]{"count", "ratio"}, new Long[]{2L, 1L}));
+        Value result = bucket.get(key);
+        assertTrue(result.isBinary());
+        assertEquals("{\"count\":3,\"ratio\":1.5,\"test\":\"test\"}", new String(result.getBytes(), "UTF-8"));
+    }
+
+    @Test
+    public void testIncrementingNotNumericCountersFails() throws Exception {
+        Key key = new Key("key");
+        bucket.put(key, new Value("{\"count\":1,\"test\":\"test\"}".getBytes("UTF-8")));
+        try {
+            bucket.incrementCounters(key, Maps.hash(new String[]{"count", "test"}, new Long[]{1L, 1L}));
+            fail("Should have failed!");
+        } catch (StoreOperationException ex) {
+            assertEquals(ErrorMessage.BAD_REQUEST_ERROR_CODE, ex.getErrorMessage().getCode());
+        }
+        assertEquals("{\"count\":1,\"test\":\"test\"}", new String(bucket.get(key).getBytes(), "UTF-8"));
+    }
+
+    @Test
+    public void testIncrementedCountersAreValidatedAgainAfterWrites() throws Exception {
+        Key key = new Key("key");
+        bucket.put(key, new Value("{\"count\":1}".getBytes("UTF-8")));
+        bucket.incrementCounters(key, Maps.hash(new String[]{"count"}, new Long[]{1L}));
+        bucket.put(key, new Value("{\"count\":\"test\"}".getBytes("UTF-8")));
+        try {
+            bucket.incrementCounters(key, Maps.hash(new String[]{"count"}, new Long[]{1L}));
+            fail("Should have failed!");
+        } catch (StoreOperationException ex) {
+            assertEquals(ErrorMessage.BAD_REQUEST_ERROR_CODE, ex.getErrorMessage().getCode());
+        }
+    }
+
+    @Test
+    public void testFailingCounterFlushesDoNotFailReads() throws Exception {
+        Key key = new Key("key");
+        bucket.put(key, new Value("{\"count\":1}".getBytes("UTF-8")));
+        bucket.incrementCounters(key, Maps.hash(new String[]{"count"}, new Long[]{1L}));
+        // Overwrite the document bypassing the bucket, as a concurrent put racing with the increment validation would do:
+        ClusteredMap<String, byte[]> documents = TCMaster.getInstance().getUnlockedMap(TCBucket.class.getName() + ".bucket.bucket");
+        documents.put(key.toString(), "{\"count\":\"test\"}".getBytes("UTF-8"));
+        assertEquals("{\"count\":\"test\"}", new String(bucket.get(key).getBytes(), "UTF-8"));
+    }
+
+    @Test
+    public void testIncrementedCountersCreateMissingDocument() throws Exception {
+        Key key = new Key("key");
+        bucket.incrementCounters(key, Maps.hash(new String[]{"count"}, new Long[]{1L}));
+        assertEquals("{\"count\":1}", new String(bucket.get(key).getBytes(), "UTF-8"));
+    }
+
+    @Test
+    public void testIncrementedCountersArePeriodicallyFlushed() throws Exception {
+        Key key = new Key("key");
+        bucket.setCountersFlushInterval(10);
+        bucket.incrementCounters(key, Maps.hash(new String[]{"count"}, new Long[]{1L}));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bucket.size() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, bucket.size());
+    }
+
+    @Test
+    public void testExpiredValueIsNeverReturned() throws Exception {
+        Key key = new Key("key");
+        bucket.put(key, new Value(JSON_VALUE.getBytes("UTF-8")), 50);
+        assertArrayEquals(JSON_VALUE.getBytes("UTF-8"), bucket.get(key).getBytes());
+        Thread.sleep(100);
+        assertEquals(0, bucket.get(Sets.hash(key)).size());
+        try {
+            bucket.get(key);
+            fail("Should have thrown StoreOperationException!");
+        } catch (StoreOperationException ex) {
+            assertEquals(ErrorMessage.NOT_FOUND_ERROR_CODE, ex.getErrorMessage().getCode());
+        }
+    }
+
+    @Test
+    public void testExpiredValueIsRemovedInBackground() throws Exception {
+        Key key = new Key("key");
+        bucket.put(key, new Value(JSON_VALUE.getBytes("UTF-8")), 50);
+        bucket.put(new Key("other"), new Value(JSON_VALUE.getBytes("UTF-8")));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bucket.size() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, bucket.size());
+        assertEquals(Sets.hash(new Key("other")), bucket.keys());
+    }
+
+    @Test
+    public void testOverwrittenValueDoesNotExpire() throws Exception {
+        Key key = new Key("key");
+        bucket.put(key, new Value(JSON_VALUE.getBytes("UTF-8")), 50);
+        bucket.put(key, new Value(JSON_VALUE_2.getBytes("UTF-8")));
+        Thread.sleep(300);
+        assertArrayEquals(JSON_VALUE_2.getBytes("UTF-8"), bucket.get(key).getBytes());
+    }
+
+    @Test
+    public void testDefaultTimeToLive() throws Exception {
+        Key key = new Key("key");
+        bucket.setDefaultTimeToLive(50);
+        bucket.put(key, new Value(JSON_VALUE.getBytes("UTF-8")));
+        Thread.sleep(100);
+        assertEquals(0, bucket.get(Sets.hash(key)).size());
+    }
+
+    @Test
+    public void testUpdateKeepsExpiration() throws Exception {
+        Key key = new Key("key");
+        bucket.setUpdaters(Maps.hash(new String[]{"counter"}, new Function[]{new AtomicCounterFunction()}));
+        bucket.put(key, new Value("{\"count\":0}".getBytes("UTF-8")), 200);
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("count", 1L);
+        bucket.update(key, new Update("counter", 1000, params));
+        Thread.sleep(300);
+        assertEquals(0, bucket.get(Sets.hash(key)).size());
+    }
+
     @Test
     public void testMerge() throws StoreOperationException, UnsupportedEncodingException {
         Key key = new Key("key");
@@ -674,4 +1198,25 @@ public class TCBucketTest {
         }
 
     }
+
+    private void waitForIndexes() throws InterruptedException {
+        for (int i = 0; i < 100 && !bucket.isIndexBuilt(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(bucket.isIndexBuilt());
+    }
+
+    private static class FixedKeyOwnership implements KeyOwnership {
+
+        private final Set<String> keys;
+
+        public FixedKeyOwnership(String... keys) {
+            this.keys = Sets.hash(keys);
+        }
+
+        @Override
+        public boolean isOwned(Bucket bucket, Key key) {
+            return keys.contains(key.toString());
+        }
+    }
 }
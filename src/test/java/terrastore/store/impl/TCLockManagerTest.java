@@ -24,6 +24,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Before;
 import org.junit.Test;
+import terrastore.common.LockStats;
 import terrastore.store.Key;
 import terrastore.store.LockManager;
 import static org.junit.Assert.*;
@@ -102,4 +103,78 @@ public class TCLockManagerTest {
         assertFalse(overflow.get());
     }
 
+    @Test
+    public void testOptimisticReadIsInvalidatedByWrites() {
+        LockManager lockManager = new TCLockManager("node", 1);
+        Key key = new Key("key");
+
+        long stamp = lockManager.tryOptimisticRead("bucket", key);
+        assertTrue(stamp >= 0);
+        assertTrue(lockManager.validate("bucket", key, stamp));
+
+        lockManager.lockWrite("bucket", key);
+        try {
+            assertTrue(lockManager.tryOptimisticRead("bucket", key) < 0);
+            assertFalse(lockManager.validate("bucket", key, stamp));
+        } finally {
+            lockManager.unlockWrite("bucket", key);
+        }
+        assertFalse(lockManager.validate("bucket", key, stamp));
+
+        stamp = lockManager.tryOptimisticRead("bucket", key);
+        assertTrue(stamp >= 0);
+        assertTrue(lockManager.validate("bucket", key, stamp));
+
+        LockStats.Stripe stats = lockManager.getLockStats().getStripes().get(0);
+        assertEquals(1, stats.getWrites());
+        assertEquals(2, stats.getOptimisticReads());
+        assertEquals(3, stats.getOptimisticFailures());
+    }
+
+    @Test
+    public void testContendedLocksAreRecorded() throws InterruptedException {
+        final LockManager lockManager = new TCLockManager("node", 1);
+        final Key key = new Key("key");
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread writer = new Thread() {
+
+            @Override
+            public void run() {
+                lockManager.lockWrite("bucket", key);
+                try {
+                    locked.countDown();
+                    release.await(60, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                } finally {
+                    lockManager.unlockWrite("bucket", key);
+                }
+            }
+
+        };
+        writer.start();
+        assertTrue(locked.await(60, TimeUnit.SECONDS));
+        Thread reader = new Thread() {
+
+            @Override
+            public void run() {
+                lockManager.lockRead("bucket", key);
+                lockManager.unlockRead("bucket", key);
+            }
+
+        };
+        reader.start();
+        while (lockManager.getLockStats().getStripes().get(0).getContended() == 0) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        reader.join(60000);
+        writer.join(60000);
+
+        LockStats.Stripe stats = lockManager.getLockStats().getStripes().get(0);
+        assertEquals(1, stats.getReads());
+        assertEquals(1, stats.getWrites());
+        assertEquals(1, stats.getContended());
+    }
+
 }
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import terrastore.store.Key;
+import terrastore.store.Value;
+import terrastore.store.features.Update;
+import terrastore.store.functions.AtomicCounterFunction;
+import terrastore.store.operators.Function;
+import terrastore.util.json.JsonUtils;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class UpdateMailboxesTest {
+
+    private static final long TIMEOUT = 10000;
+
+    @Test
+    public void testUpdatesOnSameKeyAreSerialized() throws Exception {
+        final AtomicLong counter = new AtomicLong(0);
+        final AtomicLong running = new AtomicLong(0);
+        final List<Long> observed = new CopyOnWriteArrayList<Long>();
+        UpdateMailboxes mailboxes = new UpdateMailboxes(new UpdateMailboxes.Updater() {
+
+            @Override
+            public Value update(Key key, Update update, Function function, UpdateMailboxes.Commit commit) throws Exception {
+                observed.add(running.incrementAndGet());
+                long next = counter.get() + 1;
+                Thread.sleep(1);
+                counter.set(next);
+                running.decrementAndGet();
+                assertTrue(commit.tryCommit());
+                return null;
+            }
+
+        });
+        Function function = new NonMergeableFunction();
+        List<UpdateMailboxes.PendingUpdate> updates = new CopyOnWriteArrayList<UpdateMailboxes.PendingUpdate>();
+        for (int i = 0; i < 50; i++) {
+            updates.add(mailboxes.submit(new Key("key"), new Update("function", TIMEOUT, new HashMap<String, Object>()), function));
+        }
+        for (UpdateMailboxes.PendingUpdate update : updates) {
+            update.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(50, counter.get());
+        for (Long concurrent : observed) {
+            assertEquals(1, concurrent.longValue());
+        }
+    }
+
+    @Test
+    public void testQueuedMergeableUpdatesAreCoalesced() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Map<String, Object>> applied = new CopyOnWriteArrayList<Map<String, Object>>();
+        UpdateMailboxes mailboxes = new UpdateMailboxes(new UpdateMailboxes.Updater() {
+
+            @Override
+            public Value update(Key key, Update update, Function function, UpdateMailboxes.Commit commit) throws Exception {
+                started.countDown();
+                release.await();
+                applied.add(update.getParameters());
+                assertTrue(commit.tryCommit());
+                return JsonUtils.fromMap(update.getParameters());
+            }
+
+        });
+        Function function = new AtomicCounterFunction();
+        UpdateMailboxes.PendingUpdate first = mailboxes.submit(new Key("key"), counterUpdate(1), function);
+        started.await();
+        UpdateMailboxes.PendingUpdate second = mailboxes.submit(new Key("key"), counterUpdate(2), function);
+        UpdateMailboxes.PendingUpdate third = mailboxes.submit(new Key("key"), counterUpdate(3), function);
+        release.countDown();
+
+        first.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        Value coalesced = second.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertSame(coalesced, third.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(2, applied.size());
+        assertEquals(1L, ((Number) applied.get(0).get("count")).longValue());
+        assertEquals(5L, ((Number) applied.get(1).get("count")).longValue());
+    }
+
+    @Test
+    public void testCancelledUpdateIsDiscardedAndCoalescedUpdatesAreExecutedAlone() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch coalescedStarted = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final List<Long> committed = new CopyOnWriteArrayList<Long>();
+        UpdateMailboxes mailboxes = new UpdateMailboxes(new UpdateMailboxes.Updater() {
+
+            @Override
+            public Value update(Key key, Update update, Function function, UpdateMailboxes.Commit commit) throws Exception {
+                long count = ((Number) update.getParameters().get("count")).longValue();
+                if (count == 1) {
+                    started.countDown();
+                    release.await();
+                } else if (count == 5) {
+                    coalescedStarted.countDown();
+                    cancelled.await();
+                }
+                if (commit.tryCommit()) {
+                    committed.add(count);
+                }
+                return null;
+            }
+
+        });
+        Function function = new AtomicCounterFunction();
+        UpdateMailboxes.PendingUpdate first = mailboxes.submit(new Key("key"), counterUpdate(1), function);
+        started.await();
+        UpdateMailboxes.PendingUpdate second = mailboxes.submit(new Key("key"), counterUpdate(2), function);
+        UpdateMailboxes.PendingUpdate third = mailboxes.submit(new Key("key"), counterUpdate(3), function);
+        release.countDown();
+        coalescedStarted.await();
+        assertTrue(second.cancel(false));
+        cancelled.countDown();
+
+        first.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        third.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertTrue(second.isCancelled());
+        assertEquals(2, committed.size());
+        assertEquals(1L, committed.get(0).longValue());
+        assertEquals(3L, committed.get(1).longValue());
+    }
+
+    @Test
+    public void testMailboxesAreReleasedWhenDrained() throws Exception {
+        UpdateMailboxes mailboxes = new UpdateMailboxes(new UpdateMailboxes.Updater() {
+
+            @Override
+            public Value update(Key key, Update update, Function function, UpdateMailboxes.Commit commit) throws Exception {
+                commit.tryCommit();
+                return null;
+            }
+
+        });
+        mailboxes.submit(new Key("key1"), counterUpdate(1), new AtomicCounterFunction()).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        mailboxes.submit(new Key("key2"), counterUpdate(1), new AtomicCounterFunction()).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (mailboxes.getActiveMailboxes() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, mailboxes.getActiveMailboxes());
+    }
+
+    private Update counterUpdate(long count) {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("count", count);
+        return new Update("counter", TIMEOUT, parameters);
+    }
+
+    private static class NonMergeableFunction implements Function {
+
+        @Override
+        public Map<String, Object> apply(String key, Map<String, Object> value, Map<String, Object> parameters) {
+            return value;
+        }
+    }
+}
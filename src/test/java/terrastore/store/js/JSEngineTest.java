@@ -0,0 +1,72 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.store.js;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import terrastore.util.collect.Maps;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class JSEngineTest {
+
+    @Test
+    public void testInvokeBridgesMapsAndLists() throws Exception {
+        String fn = "function(key, value) {"
+                + "   return {'key' : key, 'count' : value.count + 1, 'ratio' : value.count / 2, 'tags' : value.tags.concat(['c']), 'nested' : {'flag' : !value.flag}};"
+                + "}";
+        Map<String, Object> value = Maps.hash(new String[]{"count", "tags", "flag"}, new Object[]{1L, Arrays.asList("a", "b"), true});
+
+        Map<String, Object> result = (Map<String, Object>) JSEngine.get().invoke(fn, "k", value);
+        assertEquals("k", result.get("key"));
+        assertEquals(2, result.get("count"));
+        assertEquals(0.5, result.get("ratio"));
+        assertEquals(Arrays.asList("a", "b", "c"), result.get("tags"));
+        assertEquals(false, ((Map<String, Object>) result.get("nested")).get("flag"));
+    }
+
+    @Test
+    public void testInvokeSameFunctionManyTimes() throws Exception {
+        String fn = "function(values) { var sum = 0; for (var i = 0; i < values.length; i++) { sum += values[i]; } return sum; }";
+        List<Object> values = Arrays.<Object>asList(1, 2, 3);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(6, JSEngine.get().invoke(fn, values));
+        }
+    }
+
+    @Test
+    public void testEnginesAreConfinedToThreads() throws Exception {
+        final AtomicReference<JSEngine> other = new AtomicReference<JSEngine>();
+        Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                other.set(JSEngine.get());
+            }
+
+        };
+        thread.start();
+        thread.join();
+        assertSame(JSEngine.get(), JSEngine.get());
+        assertNotNull(other.get());
+        assertNotSame(JSEngine.get(), other.get());
+    }
+}
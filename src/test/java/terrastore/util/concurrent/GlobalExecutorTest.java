@@ -17,6 +17,7 @@ package terrastore.util.concurrent;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -58,4 +59,33 @@ public class GlobalExecutorTest {
         }
     }
 
+    @Test
+    public void testScheduledTasksAreExecutedByTheGivenExecutor() throws Exception {
+        final CountDownLatch executed = new CountDownLatch(1);
+        final ThreadLocal<Boolean> worker = new ThreadLocal<Boolean>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    worker.set(true);
+                }
+
+            }).get();
+            GlobalExecutor.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (Boolean.TRUE.equals(worker.get())) {
+                        executed.countDown();
+                    }
+                }
+
+            }, executor, 10, TimeUnit.MILLISECONDS);
+            assertTrue(executed.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
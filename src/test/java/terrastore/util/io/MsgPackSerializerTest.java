@@ -39,6 +39,30 @@ public class MsgPackSerializerTest {
         doTestSerializeDeserialize(true);
     }
 
+    @Test
+    public void testSerializeDeserializeWithExpectedType() throws IOException, ClassNotFoundException {
+        TestObject obj = new TestObject("test");
+        //
+        MsgPackSerializer<TestObject> serializer = new MsgPackSerializer<TestObject>(false, TestObject.class);
+        //
+        assertEquals(obj, serializer.deserialize(serializer.serialize(obj)));
+    }
+
+    @Test
+    public void testDeserializeRejectsUnexpectedType() throws IOException, ClassNotFoundException {
+        byte[] serialized = new MsgPackSerializer<UnexpectedObject>(false).serialize(new UnexpectedObject());
+        UnexpectedObject.loaded = false;
+        //
+        MsgPackSerializer<TestObject> serializer = new MsgPackSerializer<TestObject>(false, TestObject.class);
+        //
+        try {
+            serializer.deserialize(serialized);
+            fail("Should have rejected unexpected type!");
+        } catch (RuntimeException ex) {
+            assertFalse(UnexpectedObject.loaded);
+        }
+    }
+
     private void doTestSerializeDeserialize(boolean compressed) throws IOException, ClassNotFoundException {
         TestObject obj = new TestObject("test");
         //
@@ -50,6 +74,25 @@ public class MsgPackSerializerTest {
         assertEquals(obj, deserialized);
     }
 
+    public static class UnexpectedObject implements MessagePackable, MessageUnpackable {
+
+        public static volatile boolean loaded;
+
+        public UnexpectedObject() {
+            loaded = true;
+        }
+
+        @Override
+        public void messagePack(Packer packer) throws IOException {
+            MsgPackUtils.packString(packer, "unexpected");
+        }
+
+        @Override
+        public void messageUnpack(Unpacker unpckr) throws IOException, MessageTypeException {
+            MsgPackUtils.unpackString(unpckr);
+        }
+    }
+
     public static class TestObject implements MessagePackable, MessageUnpackable {
 
         private String data;
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2009 - 2011 Sergio Bossa (sergio.bossa@gmail.com)
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package terrastore.util.json;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Sergio Bossa
+ */
+public class BinaryJsonTest {
+
+    private static final String JSON = "{\"string\":\"v\u00e8\",\"long\":1,\"double\":1.5,\"big\":123456789012345678901234567890,"
+            + "\"true\":true,\"false\":false,\"null\":null,"
+            + "\"array\":[\"primitive\",{\"nested\":[\"array\"]}],\"object\":{\"key\":\"value\",\"empty\":{}}}";
+
+    @Test
+    public void testJsonRoundTrip() throws Exception {
+        byte[] binary = BinaryJson.fromJson(JSON.getBytes("UTF-8"));
+        assertTrue(BinaryJson.isBinary(binary));
+        assertFalse(BinaryJson.isBinary(JSON.getBytes("UTF-8")));
+        assertEquals(JSON, new String(BinaryJson.toJson(binary), "UTF-8"));
+    }
+
+    @Test
+    public void testUnmodifiableMapReadsFieldsInPlace() throws Exception {
+        Map<String, Object> map = BinaryJson.toUnmodifiableMap(BinaryJson.fromJson(JSON.getBytes("UTF-8")));
+        assertEquals(9, map.size());
+        assertEquals("v\u00e8", map.get("string"));
+        assertEquals(1L, map.get("long"));
+        assertEquals(1.5, map.get("double"));
+        assertEquals(new BigInteger("123456789012345678901234567890"), map.get("big"));
+        assertEquals(Boolean.TRUE, map.get("true"));
+        assertEquals(Boolean.FALSE, map.get("false"));
+        assertTrue(map.containsKey("null"));
+        assertNull(map.get("null"));
+        assertFalse(map.containsKey("missing"));
+        assertNull(map.get("missing"));
+        //
+        List<Object> array = (List<Object>) map.get("array");
+        assertEquals(2, array.size());
+        assertEquals("primitive", array.get(0));
+        assertEquals("array", ((List<Object>) ((Map<String, Object>) array.get(1)).get("nested")).get(0));
+        //
+        Map<String, Object> object = (Map<String, Object>) map.get("object");
+        assertEquals("value", object.get("key"));
+        assertTrue(((Map<String, Object>) object.get("empty")).isEmpty());
+    }
+
+    @Test
+    public void testUnmodifiableMapIteratesFieldsInOrder() throws Exception {
+        Map<String, Object> map = BinaryJson.toUnmodifiableMap(BinaryJson.fromJson("{\"k1\":\"v1\",\"k2\":\"v2\"}".getBytes("UTF-8")));
+        Iterator<Map.Entry<String, Object>> entries = map.entrySet().iterator();
+        Map.Entry<String, Object> entry = entries.next();
+        assertEquals("k1", entry.getKey());
+        assertEquals("v1", entry.getValue());
+        entry = entries.next();
+        assertEquals("k2", entry.getKey());
+        assertEquals("v2", entry.getValue());
+        assertFalse(entries.hasNext());
+    }
+
+    @Test
+    public void testIncrementOverwritesCountersInPlace() throws Exception {
+        byte[] binary = BinaryJson.fromJson("{\"long\":1,\"double\":1.5,\"text\":\"text\"}".getBytes("UTF-8"));
+        Map<String, Long> increments = new LinkedHashMap<String, Long>();
+        increments.put("long", 2L);
+        increments.put("double", 1L);
+        byte[] incremented = BinaryJson.increment(binary, increments);
+        assertEquals(binary.length, incremented.length);
+        assertEquals("{\"long\":1,\"double\":1.5,\"text\":\"text\"}", new String(BinaryJson.toJson(binary), "UTF-8"));
+        assertEquals("{\"long\":3,\"double\":2.5,\"text\":\"text\"}", new String(BinaryJson.toJson(incremented), "UTF-8"));
+    }
+
+    @Test
+    public void testIncrementAddsMissingCounters() throws Exception {
+        byte[] binary = BinaryJson.fromJson("{\"long\":1,\"text\":\"text\"}".getBytes("UTF-8"));
+        Map<String, Long> increments = new LinkedHashMap<String, Long>();
+        increments.put("long", 2L);
+        increments.put("missing", 3L);
+        assertEquals("{\"long\":3,\"text\":\"text\",\"missing\":3}", new String(BinaryJson.toJson(BinaryJson.increment(binary, increments)), "UTF-8"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testUnmodifiableMapCannotBeModified() throws Exception {
+        Map<String, Object> map = BinaryJson.toUnmodifiableMap(BinaryJson.fromJson("{\"k1\":\"v1\"}".getBytes("UTF-8")));
+        map.put("k2", "v2");
+    }
+
+    @Test
+    public void testMapRoundTrip() throws Exception {
+        Map<String, Object> nested = new LinkedHashMap<String, Object>();
+        nested.put("key", "value");
+        List<Object> array = new ArrayList<Object>();
+        array.add(1);
+        array.add(nested);
+        Map<String, Object> document = new LinkedHashMap<String, Object>();
+        document.put("int", 1);
+        document.put("long", Long.MAX_VALUE);
+        document.put("double", 1.5);
+        document.put("array", array);
+        document.put("null", null);
+
+        byte[] binary = BinaryJson.fromMap(document);
+        assertEquals(document, BinaryJson.toModifiableMap(binary));
+        assertEquals("{\"int\":1,\"long\":9223372036854775807,\"double\":1.5,\"array\":[1,{\"key\":\"value\"}],\"null\":null}", new String(BinaryJson.toJson(binary), "UTF-8"));
+    }
+}
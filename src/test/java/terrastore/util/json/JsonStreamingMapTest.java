@@ -15,10 +15,12 @@
  */
 package terrastore.util.json;
 
+import java.io.ByteArrayInputStream;
 import java.util.Map.Entry;
 import java.util.Set;
 import org.junit.Test;
 import terrastore.store.Value;
+import terrastore.util.io.IOUtils;
 import static org.junit.Assert.*;
 
 /**
@@ -154,4 +156,30 @@ public class JsonStreamingMapTest {
         assertEquals(1, inner.size());
         assertEquals("array", inner.get(0));
     }
+
+    @Test
+    public void testWithWhitespacesAndEscapes() {
+        String json = " { \"k\\\"1\" : \"v\\\"1\" ,\n\t\"k2\" : [ 1 , { \"k3\" : \"}]\" } ] , \"k4\" : -1.5e1 } ";
+        JsonStreamingMap map = new JsonStreamingMap(new Value(json.getBytes()));
+        assertEquals(3, map.size());
+        assertEquals("v\"1", map.get("k\"1"));
+        JsonStreamingList list = (JsonStreamingList) map.get("k2");
+        assertEquals(2, list.size());
+        assertEquals(1L, list.get(0));
+        assertEquals("}]", ((JsonStreamingMap) list.get(1)).get("k3"));
+        assertEquals(-15f, map.get("k4"));
+    }
+
+    @Test
+    public void testWithCompressedValueAndRepeatedLookups() throws Exception {
+        Value value = new Value(IOUtils.readAndCompress(new ByteArrayInputStream(COMPOSITE.getBytes())));
+        JsonStreamingMap map = new JsonStreamingMap(value);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("string", map.get("key1"));
+            assertEquals(1L, map.get("key2"));
+            assertTrue(map.containsKey("key6"));
+            assertFalse(map.containsKey("missing"));
+        }
+        assertSame(map.get("key7"), map.get("key7"));
+    }
 }
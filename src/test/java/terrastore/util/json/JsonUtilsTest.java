@@ -32,9 +32,11 @@ import terrastore.server.Keys;
 import terrastore.server.MapReduceDescriptor;
 import terrastore.server.Parameters;
 import terrastore.server.Values;
+import terrastore.server.ValuesStream;
 import terrastore.store.Key;
 import terrastore.store.Value;
 import terrastore.util.collect.Sets;
+import terrastore.util.collect.Maps;
 import static org.junit.Assert.*;
 
 /**
@@ -99,6 +101,13 @@ public class JsonUtilsTest {
         JsonUtils.validate(json);
     }
 
+    @Test
+    public void testIncrementUpdatesCountersInPlaceAndAddsMissingOnes() throws Exception {
+        Value json = new Value("{\"long\":1,\"double\":1.5,\"text\":\"text\",\"object\":{\"long\":1}}".getBytes("UTF-8"));
+        Map<String, Long> increments = Maps.hash(new String[]{"long", "double", "missing"}, new Long[]{2L, 1L, 3L});
+        assertEquals("{\"long\":3,\"double\":2.5,\"text\":\"text\",\"object\":{\"long\":1},\"missing\":3}", new String(JsonUtils.increment(json, increments).getBytes(), "UTF-8"));
+    }
+
     @Test
     public void testMergeWithReplacedValue() throws Exception {
         Value json = new Value(JSON_VALUE.getBytes("UTF-8"));
@@ -245,6 +254,32 @@ public class JsonUtilsTest {
         assertEquals(new Value("{\"key2\":\"value2\"}".getBytes(Charset.forName("UTF-8"))), values.get(new Key("value2")));
     }
 
+    @Test
+    public void testReadValuesStream() throws Exception {
+        ByteArrayInputStream stream = new ByteArrayInputStream(VALUES_2.getBytes("UTF-8"));
+        ValuesStream values = JsonUtils.readValuesStream(stream);
+        Map.Entry<Key, Value> first = values.next();
+        assertEquals(new Key("value1"), first.getKey());
+        assertEquals(new Value("{\"key1\":\"value1\"}".getBytes(Charset.forName("UTF-8"))), first.getValue());
+        Map.Entry<Key, Value> second = values.next();
+        assertEquals(new Key("value2"), second.getKey());
+        assertEquals(new Value("{\"key2\":\"value2\"}".getBytes(Charset.forName("UTF-8"))), second.getValue());
+        assertNull(values.next());
+        assertNull(values.next());
+    }
+
+    @Test
+    public void testReadEmptyValuesStream() throws Exception {
+        ByteArrayInputStream stream = new ByteArrayInputStream(new byte[0]);
+        assertNull(JsonUtils.readValuesStream(stream).next());
+    }
+
+    @Test(expected = ValidationException.class)
+    public void testReadBadValuesStream() throws Exception {
+        ByteArrayInputStream stream = new ByteArrayInputStream(BAD_VALUES.getBytes("UTF-8"));
+        JsonUtils.readValuesStream(stream).next();
+    }
+
     @Test(expected = ValidationException.class)
     public void testReadBadValues() throws Exception {
         ByteArrayInputStream stream = new ByteArrayInputStream(BAD_VALUES.getBytes("UTF-8"));